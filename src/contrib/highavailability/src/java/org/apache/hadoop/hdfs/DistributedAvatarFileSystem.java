@@ -13,6 +13,7 @@ import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.FSConstants.DatanodeReportType;
@@ -530,6 +531,16 @@ public class DistributedAvatarFileSystem extends DistributedFileSystem {
       }).callFS();
     }
 
+    @Override
+    public DirectoryListing getPartialListing(final String src,
+        final byte[] startAfter, final int maxEntries) throws IOException {
+      return (new ImmutableFSCaller<DirectoryListing>() {
+        DirectoryListing call() throws IOException {
+          return namenode.getPartialListing(src, startAfter, maxEntries);
+        }
+      }).callFS();
+    }
+
     @Override
     public long getPreferredBlockSize(final String filename) throws IOException {
       return (new ImmutableFSCaller<Long>() {
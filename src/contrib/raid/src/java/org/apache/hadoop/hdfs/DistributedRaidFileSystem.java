@@ -41,6 +41,8 @@ import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.raid.ErasureCode;
+import org.apache.hadoop.raid.ErasureCodeType;
 import org.apache.hadoop.raid.RaidNode;
 import org.apache.hadoop.fs.BlockMissingException;
 
@@ -55,8 +57,11 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
 
   // these are alternate locations that can be used for read-only access
   Path[]     alternates;
+  // the erasure code of the parity files in each alternate location
+  ErasureCodeType[] alternateCodes;
   Configuration conf;
   int stripeLength;
+  int rsParityLength;
 
   DistributedRaidFileSystem() throws IOException {
   }
@@ -64,6 +69,7 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
   DistributedRaidFileSystem(FileSystem fs) throws IOException {
     super(fs);
     alternates = null;
+    alternateCodes = null;
     stripeLength = 0;
   }
 
@@ -106,11 +112,24 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
       return;
     }
 
+    // Reed-Solomon parity files live in locations of their own
+    String rsAlt = conf.get("hdfs.raidrs.locations");
+    if (rsAlt == null || rsAlt.length() == 0) {
+      rsAlt = RaidNode.DEFAULT_RAIDRS_LOCATION;
+    }
+    String[] rsStrs = rsAlt.split(",");
+    rsParityLength = conf.getInt("hdfs.raidrs.paritylength",
+                                 RaidNode.DEFAULT_RS_PARITY_LENGTH);
+
     // create a reference to all underlying alternate path prefix
-    alternates = new Path[strs.length];
-    for (int i = 0; i < strs.length; i++) {
-      alternates[i] = new Path(strs[i].trim());
+    alternates = new Path[strs.length + rsStrs.length];
+    alternateCodes = new ErasureCodeType[alternates.length];
+    for (int i = 0; i < alternates.length; i++) {
+      boolean rs = i >= strs.length;
+      String str = rs ? rsStrs[i - strs.length] : strs[i];
+      alternates[i] = new Path(str.trim());
       alternates[i] = alternates[i].makeQualified(fs);
+      alternateCodes[i] = rs ? ErasureCodeType.RS : ErasureCodeType.XOR;
     }
   }
 
@@ -124,7 +143,7 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
   @Override
   public FSDataInputStream open(Path f, int bufferSize) throws IOException {
     ExtFSDataInputStream fd = new ExtFSDataInputStream(conf, this, alternates, f,
-                                                       stripeLength, bufferSize);
+                                                       bufferSize);
     return fd;
   }
 
@@ -158,10 +177,9 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
       private final Path[] alternates;
       private final int buffersize;
       private final Configuration conf;
-      private final int stripeLength;
 
       ExtFsInputStream(Configuration conf, DistributedRaidFileSystem lfs, Path[] alternates,
-                       Path path, int stripeLength, int buffersize)
+                       Path path, int buffersize)
           throws IOException {
         this.underLyingStream = lfs.fs.open(path, buffersize);
         this.path = path;
@@ -170,7 +188,6 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
         this.buffersize = buffersize;
         this.conf = conf;
         this.lfs = lfs;
-        this.stripeLength = stripeLength;
       }
       
       @Override
@@ -343,7 +360,9 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
               corruptOffset = ((ChecksumException)curexp).getPos();
             }
             
-            Path npath = RaidNode.unRaid(conf, path, alternates[idx], stripeLength, 
+            ErasureCode code = lfs.alternateCodes[idx].newCode(
+                lfs.stripeLength, lfs.rsParityLength);
+            Path npath = RaidNode.unRaid(conf, path, alternates[idx], code, 
                                          corruptOffset);
 
             try{
@@ -360,7 +379,8 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
                 ps.println("Recovery attempt log");
                 ps.println("Source path : " + path );
                 ps.println("Alternate path : " + alternates[idx]);
-                ps.println("Stripe lentgh : " + stripeLength);
+                ps.println("Stripe lentgh : " + code.stripeSize());
+                ps.println("Parity length : " + code.paritySize());
                 ps.println("Corrupt offset : " + corruptOffset);
                 String output = (npath==null) ? "UNSUCCESSFUL" : npath.toString();
                 ps.println("Output from unRaid : " + output);
@@ -416,8 +436,8 @@ public class DistributedRaidFileSystem extends FilterFileSystem {
      * @throws IOException
      */
     public ExtFSDataInputStream(Configuration conf, DistributedRaidFileSystem lfs,
-      Path[] alternates, Path  p, int stripeLength, int buffersize) throws IOException {
-        super(new ExtFsInputStream(conf, lfs, alternates, p, stripeLength, buffersize));
+      Path[] alternates, Path  p, int buffersize) throws IOException {
+        super(new ExtFsInputStream(conf, lfs, alternates, p, buffersize));
     }
   }
 }
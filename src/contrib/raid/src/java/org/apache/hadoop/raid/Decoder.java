@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockMissingException;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Reconstructs blocks of a stripe from the other blocks of the stripe
+ * with an {@link ErasureCode}. Blocks that turn out to be unreadable
+ * while decoding are treated as erased too, as long as the code can
+ * still recover the stripe.
+ */
+class Decoder {
+  public static final Log LOG = LogFactory.getLog(
+                                  "org.apache.hadoop.raid.Decoder");
+  private final ErasureCode code;
+  private final int bufSize;
+
+  Decoder(Configuration conf, ErasureCode code) {
+    this.code = code;
+    this.bufSize = conf.getInt("raid.decoder.bufsize", 1024 * 1024);
+  }
+
+  /**
+   * Reconstructs erased blocks of a stripe.
+   * @param blocks stripeSize() + paritySize() streams, data blocks first,
+   *        positioned at the start of each block. The streams of the
+   *        erased locations are ignored. A null stream reads as zeros.
+   * @param lengths the number of bytes each stream has for this stripe.
+   *        Bytes past it read as zeros.
+   * @param erasedLocations the blocks to reconstruct
+   * @param limits the number of bytes to write of each erased block
+   * @param outs where each erased block is written
+   * @return the sorted locations that were decoded, which includes the
+   *         blocks found to be unreadable while decoding
+   */
+  int[] recoverBlocks(InputStream[] blocks, long[] lengths,
+                      int[] erasedLocations, long[] limits,
+                      OutputStream[] outs) throws IOException {
+    final int n = code.stripeSize() + code.paritySize();
+    byte[][] stripe = new byte[n][bufSize];
+    int[] erased = erasedLocations.clone();
+    Arrays.sort(erased);
+    long limit = 0;
+    for (long l : limits) {
+      limit = Math.max(limit, l);
+    }
+
+    for (long pos = 0; pos < limit; ) {
+      int toRead = (int)Math.min(limit - pos, bufSize);
+      for (int i = 0; i < n; i++) {
+        if (Arrays.binarySearch(erased, i) >= 0) {
+          continue;
+        }
+        int avail = (int)Math.max(0, Math.min(toRead, lengths[i] - pos));
+        int read = 0;
+        if (blocks[i] != null && avail > 0) {
+          try {
+            read = Encoder.readInputUntilEnd(blocks[i], stripe[i], avail);
+          } catch (BlockMissingException e) {
+            erased = addErasure(erased, i, e);
+            IOUtils.closeStream(blocks[i]);
+            blocks[i] = null;
+            continue;
+          } catch (ChecksumException e) {
+            erased = addErasure(erased, i, e);
+            IOUtils.closeStream(blocks[i]);
+            blocks[i] = null;
+            continue;
+          }
+        }
+        Arrays.fill(stripe[i], read, toRead, (byte)0);
+      }
+      code.decode(stripe, erased, toRead);
+      for (int e = 0; e < erasedLocations.length; e++) {
+        int len = (int)Math.max(0, Math.min(toRead, limits[e] - pos));
+        if (len > 0) {
+          outs[e].write(stripe[erasedLocations[e]], 0, len);
+        }
+      }
+      pos += toRead;
+    }
+    return erased;
+  }
+
+  private int[] addErasure(int[] erased, int location, IOException cause)
+      throws IOException {
+    if (erased.length >= code.paritySize()) {
+      throw cause;
+    }
+    LOG.info("Block " + location + " of the stripe is also unreadable, " +
+             "decoding around it. " + cause);
+    int[] more = Arrays.copyOf(erased, erased.length + 1);
+    more[erased.length] = location;
+    Arrays.sort(more);
+    return more;
+  }
+}
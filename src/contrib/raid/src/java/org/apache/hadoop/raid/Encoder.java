@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Computes the parity blocks of the stripes of a file with an
+ * {@link ErasureCode}. The parity blocks of a stripe are written one
+ * after the other, so block j of stripe s is at block s * paritySize + j
+ * of the parity file.
+ */
+class Encoder {
+  private final ErasureCode code;
+  private final int bufSize;
+  private byte[][] data;
+  private byte[][] parity;
+
+  Encoder(Configuration conf, ErasureCode code) {
+    this.code = code;
+    this.bufSize = conf.getInt("raid.encoder.bufsize", 1024 * 1024);
+  }
+
+  /**
+   * Encodes one stripe.
+   * @param blocks stripeSize() streams positioned at the start of each
+   *        data block. A null stream, or one that ends early, reads as
+   *        zeros, which is how the short last stripe of a file is coded.
+   * @param blockSize the size of every parity block
+   * @param out the parity file
+   */
+  void encodeStripe(InputStream[] blocks, long blockSize, OutputStream out,
+                    Reporter reporter) throws IOException {
+    final int k = code.stripeSize();
+    final int m = code.paritySize();
+    if (data == null) {
+      data = new byte[k][bufSize];
+      parity = new byte[m][bufSize];
+    }
+
+    // Only the first parity block can go straight to the parity file.
+    // The others are staged in local files until it is complete.
+    File[] tmpFiles = new File[m];
+    OutputStream[] outs = new OutputStream[m];
+    outs[0] = out;
+    try {
+      for (int j = 1; j < m; j++) {
+        tmpFiles[j] = File.createTempFile("raid", ".parity");
+        outs[j] = new BufferedOutputStream(new FileOutputStream(tmpFiles[j]));
+      }
+
+      for (long remaining = blockSize; remaining > 0; ) {
+        int toRead = (int)Math.min(remaining, bufSize);
+        for (int i = 0; i < k; i++) {
+          if (reporter != null) {
+            reporter.progress();
+          }
+          int read = blocks[i] == null ? 0 :
+                     readInputUntilEnd(blocks[i], data[i], toRead);
+          Arrays.fill(data[i], read, toRead, (byte)0);
+        }
+        code.encode(data, parity, toRead);
+        for (int j = 0; j < m; j++) {
+          outs[j].write(parity[j], 0, toRead);
+        }
+        remaining -= toRead;
+      }
+
+      byte[] buf = data[0];
+      for (int j = 1; j < m; j++) {
+        outs[j].close();
+        outs[j] = null;
+        InputStream in = new FileInputStream(tmpFiles[j]);
+        try {
+          int n;
+          while ((n = in.read(buf)) > 0) {
+            out.write(buf, 0, n);
+          }
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      for (int j = 1; j < m; j++) {
+        IOUtils.closeStream(outs[j]);
+        if (tmpFiles[j] != null) {
+          tmpFiles[j].delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads up to toRead bytes, stopping early only at the end of the stream.
+   * @return the number of bytes read
+   */
+  static int readInputUntilEnd(InputStream in, byte[] buf, int toRead)
+      throws IOException {
+    int tread = 0;
+    while (tread < toRead) {
+      int read = in.read(buf, tread, toRead - tread);
+      if (read == -1) {
+        return tread;
+      }
+      tread += read;
+    }
+    return tread;
+  }
+}
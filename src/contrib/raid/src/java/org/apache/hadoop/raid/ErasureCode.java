@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+import java.io.IOException;
+
+/**
+ * A systematic erasure code over the blocks of a stripe. A stripe has
+ * {@link #stripeSize()} data blocks, from which {@link #paritySize()}
+ * parity blocks are computed. Blocks are numbered with the data blocks
+ * first, so location i < stripeSize() is data block i and location
+ * stripeSize() + j is parity block j.
+ *
+ * The codes work on equally long buffers, one per block, and are used
+ * over a stripe a buffer at a time. Implementations need not be thread
+ * safe.
+ */
+public interface ErasureCode {
+
+  /** The number of data blocks in a stripe. */
+  int stripeSize();
+
+  /** The number of parity blocks of a stripe. */
+  int paritySize();
+
+  /**
+   * Computes the parity of the first len bytes of the data buffers.
+   * @param data stripeSize() data buffers
+   * @param parity paritySize() buffers that the parity is written to
+   */
+  void encode(byte[][] data, byte[][] parity, int len);
+
+  /**
+   * Reconstructs the first len bytes of the erased blocks of a stripe.
+   * @param stripe stripeSize() + paritySize() buffers holding the data
+   *        blocks followed by the parity blocks. The buffers of the
+   *        erased locations are overwritten with the reconstructed data.
+   * @param erasedLocations the locations that could not be read
+   * @throws IOException if more blocks are erased than the code can
+   *         recover
+   */
+  void decode(byte[][] stripe, int[] erasedLocations, int len)
+      throws IOException;
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+/**
+ * The erasure codes a raid policy can use for its parity files.
+ */
+public enum ErasureCodeType {
+  /** One xor parity block per stripe. */
+  XOR,
+  /** Several Reed-Solomon parity blocks per stripe. */
+  RS;
+
+  /**
+   * Parses the erasureCode property of a policy, which is "xor" or "rs".
+   * A missing value means XOR.
+   */
+  public static ErasureCodeType fromString(String s) {
+    if (s == null || s.trim().length() == 0) {
+      return XOR;
+    }
+    String t = s.trim();
+    if (t.equalsIgnoreCase("xor")) {
+      return XOR;
+    } else if (t.equalsIgnoreCase("rs")) {
+      return RS;
+    }
+    throw new IllegalArgumentException("Unknown erasure code " + s);
+  }
+
+  /** Creates a code of this type for a stripe. */
+  public ErasureCode newCode(int stripeLength, int parityLength) {
+    if (this == RS) {
+      return new ReedSolomonCode(stripeLength, parityLength);
+    }
+    return new XORCode(stripeLength);
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+/**
+ * Arithmetic in GF(2^8) with the primitive polynomial
+ * x^8 + x^4 + x^3 + x^2 + 1. Addition is xor. Multiplication uses
+ * log/antilog tables, and a full 256x256 product table for the bulk
+ * operations on buffers that the erasure codes spend their time in.
+ */
+public class GaloisField {
+  public static final int FIELD_SIZE = 256;
+  private static final int PRIMITIVE_POLYNOMIAL = 0x11D;
+
+  private static final int[] LOG = new int[FIELD_SIZE];
+  private static final int[] EXP = new int[2 * FIELD_SIZE];
+  private static final byte[][] MUL = new byte[FIELD_SIZE][FIELD_SIZE];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < FIELD_SIZE - 1; i++) {
+      EXP[i] = x;
+      LOG[x] = i;
+      x <<= 1;
+      if (x >= FIELD_SIZE) {
+        x ^= PRIMITIVE_POLYNOMIAL;
+      }
+    }
+    // doubled so that EXP[LOG[a] + LOG[b]] needs no modulo
+    for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+      EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+    }
+    for (int a = 0; a < FIELD_SIZE; a++) {
+      for (int b = 0; b < FIELD_SIZE; b++) {
+        MUL[a][b] = (byte)multiply(a, b);
+      }
+    }
+  }
+
+  private GaloisField() {}
+
+  /** Returns a + b, which is also a - b. */
+  public static int add(int a, int b) {
+    return a ^ b;
+  }
+
+  /** Returns a * b. */
+  public static int multiply(int a, int b) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+    return EXP[LOG[a] + LOG[b]];
+  }
+
+  /** Returns a / b. */
+  public static int divide(int a, int b) {
+    if (b == 0) {
+      throw new ArithmeticException("Division by zero in GF(256)");
+    }
+    if (a == 0) {
+      return 0;
+    }
+    return EXP[LOG[a] + (FIELD_SIZE - 1) - LOG[b]];
+  }
+
+  /** Returns the multiplicative inverse of a. */
+  public static int inverse(int a) {
+    return divide(1, a);
+  }
+
+  /**
+   * Computes dst[dstOff + i] += coef * src[srcOff + i] for i in [0, len).
+   */
+  public static void multiplyAdd(int coef, byte[] src, int srcOff,
+                                 byte[] dst, int dstOff, int len) {
+    if (coef == 0) {
+      return;
+    }
+    if (coef == 1) {
+      for (int i = 0; i < len; i++) {
+        dst[dstOff + i] ^= src[srcOff + i];
+      }
+      return;
+    }
+    final byte[] row = MUL[coef];
+    for (int i = 0; i < len; i++) {
+      dst[dstOff + i] ^= row[src[srcOff + i] & 0xff];
+    }
+  }
+
+  /**
+   * Inverts the square matrix m in place.
+   * @throws IllegalArgumentException if m is singular
+   */
+  public static void invertMatrix(int[][] m) {
+    final int n = m.length;
+    int[][] inv = new int[n][n];
+    for (int i = 0; i < n; i++) {
+      inv[i][i] = 1;
+    }
+    for (int col = 0; col < n; col++) {
+      // find a pivot and move it to the diagonal
+      int pivot = col;
+      while (pivot < n && m[pivot][col] == 0) {
+        pivot++;
+      }
+      if (pivot == n) {
+        throw new IllegalArgumentException("Matrix is singular");
+      }
+      if (pivot != col) {
+        int[] t = m[pivot]; m[pivot] = m[col]; m[col] = t;
+        t = inv[pivot]; inv[pivot] = inv[col]; inv[col] = t;
+      }
+      // scale the pivot row to get a 1 on the diagonal
+      int scale = inverse(m[col][col]);
+      for (int j = 0; j < n; j++) {
+        m[col][j] = multiply(m[col][j], scale);
+        inv[col][j] = multiply(inv[col][j], scale);
+      }
+      // eliminate the column from all other rows
+      for (int i = 0; i < n; i++) {
+        int f = m[i][col];
+        if (i == col || f == 0) {
+          continue;
+        }
+        for (int j = 0; j < n; j++) {
+          m[i][j] ^= multiply(f, m[col][j]);
+          inv[i][j] ^= multiply(f, inv[col][j]);
+        }
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      m[i] = inv[i];
+    }
+  }
+}
@@ -51,6 +51,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.hdfs.DistributedRaidFileSystem;
 import org.apache.hadoop.mapred.Reporter;
 
 import org.apache.hadoop.raid.protocol.PolicyInfo;
@@ -73,6 +74,8 @@ public class RaidNode implements RaidProtocol {
   public static final int DEFAULT_PORT = 60000;
   public static final int DEFAULT_STRIPE_LENGTH = 5; // default value of stripe length
   public static final String DEFAULT_RAID_LOCATION = "/raid";
+  public static final String DEFAULT_RAIDRS_LOCATION = "/raidrs";
+  public static final int DEFAULT_RS_PARITY_LENGTH = 4;
   public static final String HAR_SUFFIX = "_raid.har";
   
   /** RPC server */
@@ -291,8 +294,8 @@ public class RaidNode implements RaidProtocol {
     PolicyInfo info = findMatchingPolicy(srcPath);
     if (info != null) {
 
-      // find stripe length from config
-      int stripeLength = getStripeLength(conf, info);
+      // find the code of the parity files from config
+      ErasureCode code = getErasureCode(conf, info);
 
       // create destination path prefix
       String destPrefix = getDestinationPath(conf, info);
@@ -300,7 +303,7 @@ public class RaidNode implements RaidProtocol {
       FileSystem fs = FileSystem.get(destPath.toUri(), conf);
       destPath = destPath.makeQualified(fs);
 
-      Path unraided = unRaid(conf, srcPath, destPath, stripeLength, corruptOffset);
+      Path unraided = unRaid(conf, srcPath, destPath, code, corruptOffset);
       if (unraided != null) {
         return unraided.toString();
       }
@@ -673,7 +676,7 @@ public class RaidNode implements RaidProtocol {
       throws IOException {
     int targetRepl = Integer.parseInt(info.getProperty("targetReplication"));
     int metaRepl = Integer.parseInt(info.getProperty("metaReplication"));
-    int stripeLength = getStripeLength(conf, info);
+    ErasureCode code = getErasureCode(conf, info);
     String destPrefix = getDestinationPath(conf, info);
     String simulate = info.getProperty("simulate");
     boolean doSimulate = simulate == null ? false : Boolean
@@ -688,7 +691,7 @@ public class RaidNode implements RaidProtocol {
 
     for (FileStatus s : paths) {
       doRaid(conf, s, p, statistics, null, doSimulate, targetRepl, metaRepl,
-          stripeLength);
+          code);
       if (count % 1000 == 0) {
         LOG.info("RAID statistics " + statistics.toString());
       }
@@ -706,7 +709,7 @@ public class RaidNode implements RaidProtocol {
       FileStatus src, Statistics statistics, Reporter reporter) throws IOException {
     int targetRepl = Integer.parseInt(info.getProperty("targetReplication"));
     int metaRepl = Integer.parseInt(info.getProperty("metaReplication"));
-    int stripeLength = getStripeLength(conf, info);
+    ErasureCode code = getErasureCode(conf, info);
     String destPrefix = getDestinationPath(conf, info);
     String simulate = info.getProperty("simulate");
     boolean doSimulate = simulate == null ? false : Boolean
@@ -719,7 +722,7 @@ public class RaidNode implements RaidProtocol {
     p = p.makeQualified(fs);
 
     doRaid(conf, src, p, statistics, reporter, doSimulate, targetRepl, metaRepl,
-        stripeLength);
+        code);
   }
   
   
@@ -728,7 +731,7 @@ public class RaidNode implements RaidProtocol {
    */
   static private void doRaid(Configuration conf, FileStatus stat, Path destPath,
                       Statistics statistics, Reporter reporter, boolean doSimulate,
-                      int targetRepl, int metaRepl, int stripeLength) 
+                      int targetRepl, int metaRepl, ErasureCode code) 
     throws IOException {
     Path p = stat.getPath();
     FileSystem srcFs = p.getFileSystem(conf);
@@ -750,7 +753,7 @@ public class RaidNode implements RaidProtocol {
     statistics.processedSize += diskSpace;
 
     // generate parity file
-    generateParityFile(conf, stat, reporter, srcFs, destPath, locations, metaRepl, stripeLength);
+    generateParityFile(conf, stat, reporter, srcFs, destPath, locations, metaRepl, code);
 
     // reduce the replication factor of the source file
     if (!doSimulate) {
@@ -768,10 +771,12 @@ public class RaidNode implements RaidProtocol {
     statistics.remainingSize += diskSpace;
 
     // the metafile will have this many number of blocks
+    int stripeLength = code.stripeSize();
     int numMeta = locations.length / stripeLength;
     if (locations.length % stripeLength != 0) {
       numMeta++;
     }
+    numMeta *= code.paritySize();
 
     // we create numMeta for every file. This metablock has metaRepl # replicas.
     // the last block of the metafile might not be completely filled up, but we
@@ -787,13 +792,12 @@ public class RaidNode implements RaidProtocol {
                                   Reporter reporter,
                                   FileSystem inFs,
                                   Path destPathPrefix, BlockLocation[] locations,
-                                  int metaRepl, int stripeLength) throws IOException {
+                                  int metaRepl, ErasureCode code) throws IOException {
 
-    // two buffers for generating parity
     Random rand = new Random();
     int bufSize = 5 * 1024 * 1024; // 5 MB
-    byte[] bufs = new byte[bufSize];
-    byte[] xor = new byte[bufSize];
+    int stripeLength = code.stripeSize();
+    Encoder encoder = new Encoder(conf, code);
 
     Path inpath = stat.getPath();
     long blockSize = stat.getBlockSize();
@@ -841,17 +845,20 @@ public class RaidNode implements RaidProtocol {
 
         // open a new file descriptor for each block in this stripe.
         // make each fd point to the beginning of each block in this stripe.
-        FSDataInputStream[] ins = new FSDataInputStream[stripe];
+        // The blocks missing from a short last stripe are coded as zeros.
+        FSDataInputStream[] ins = new FSDataInputStream[stripeLength];
         for (int i = 0; i < stripe; i++) {
           ins[i] = inFs.open(inpath, bufSize);
           ins[i].seek(blockSize * (startBlock + i));
         }
 
-        generateParity(ins,out,blockSize,bufs,xor, reporter);
-        
-        // close input file handles
-        for (int i = 0; i < ins.length; i++) {
-          ins[i].close();
+        try {
+          encoder.encodeStripe(ins, blockSize, out, reporter);
+        } finally {
+          // close input file handles
+          for (int i = 0; i < stripe; i++) {
+            ins[i].close();
+          }
         }
 
         // increment startBlock to point to the first block to be processed
@@ -891,90 +898,24 @@ public class RaidNode implements RaidProtocol {
              " parity mtime " + outstat.getModificationTime());
   }
 
-  private static int readInputUntilEnd(FSDataInputStream ins, byte[] bufs, int toRead) 
-      throws IOException {
-
-    int tread = 0;
-    
-    while (tread < toRead) {
-      int read = ins.read(bufs, tread, toRead - tread);
-      if (read == -1) {
-        return tread;
-      } else {
-        tread += read;
-      }
-    }
-    
-    return tread;
+  /**
+   * Extract a good block from the xor parity block. This assumes that the
+   * corruption is in the main file and the parity file is always good.
+   */
+  public static Path unRaid(Configuration conf, Path srcPath, Path destPathPrefix, 
+                            int stripeLength, long corruptOffset) throws IOException {
+    return unRaid(conf, srcPath, destPathPrefix, new XORCode(stripeLength),
+                  corruptOffset);
   }
-  
-  private static void generateParity(FSDataInputStream[] ins, FSDataOutputStream fout, 
-      long parityBlockSize, byte[] bufs, byte[] xor, Reporter reporter) throws IOException {
-    
-    int bufSize;
-    if ((bufs == null) || (bufs.length == 0)){
-      bufSize = 5 * 1024 * 1024; // 5 MB
-      bufs = new byte[bufSize];
-    } else {
-      bufSize = bufs.length;
-    }
-    if ((xor == null) || (xor.length != bufs.length)){
-      xor = new byte[bufSize];
-    }
-
-    int xorlen = 0;
-      
-    // this loop processes all good blocks in selected stripe
-    long remaining = parityBlockSize;
-    
-    while (remaining > 0) {
-      int toRead = (int)Math.min(remaining, bufSize);
 
-      if (ins.length > 0) {
-        xorlen = readInputUntilEnd(ins[0], xor, toRead);
-      }
-
-      // read all remaining blocks and xor them into the buffer
-      for (int i = 1; i < ins.length; i++) {
-
-        // report progress to Map-reduce framework
-        if (reporter != null) {
-          reporter.progress();
-        }
-        
-        int actualRead = readInputUntilEnd(ins[i], bufs, toRead);
-        
-        int j;
-        int xorlimit = (int) Math.min(xorlen,actualRead);
-        for (j = 0; j < xorlimit; j++) {
-          xor[j] ^= bufs[j];
-        }
-        if ( actualRead > xorlen ){
-          for (; j < actualRead; j++) {
-            xor[j] = bufs[j];
-          }
-          xorlen = actualRead;
-        }
-        
-      }
-
-      if (xorlen < toRead) {
-        Arrays.fill(bufs, xorlen, toRead, (byte) 0);
-      }
-      
-      // write this to the tmp file
-      fout.write(xor, 0, toRead);
-      remaining -= toRead;
-    }
-  
-  }
-  
   /**
-   * Extract a good block from the parity block. This assumes that the corruption
-   * is in the main file and the parity file is always good.
+   * Extract a good block from the parity blocks of its stripe. Other blocks
+   * of the stripe that have no locations left are recovered along with it,
+   * up to the number of parity blocks of the code. This assumes that the
+   * parity file is good.
    */
   public static Path unRaid(Configuration conf, Path srcPath, Path destPathPrefix, 
-                            int stripeLength, long corruptOffset) throws IOException {
+                            ErasureCode code, long corruptOffset) throws IOException {
 
     // Test if parity file exists
     ParityFilePair ppair = getParityFile(destPathPrefix, srcPath, conf); 
@@ -984,11 +925,18 @@ public class RaidNode implements RaidProtocol {
     // open parity file fast to prevent getting a new, wrong, version
     Path parityFile = ppair.getPath();
     FileSystem parityFs = ppair.getFileSystem();
+    int stripeLength = code.stripeSize();
+    int parityLength = code.paritySize();
     FSDataInputStream parityInputStream = parityFs.open(parityFile);
 
     // extract block locations, size etc from source file
     Random rand = new Random();
     FileSystem srcFs = srcPath.getFileSystem(conf);
+    if (srcFs instanceof DistributedRaidFileSystem) {
+      // read the stripe from the underlying file system, so that blocks
+      // that cannot be read become erasures instead of nested recoveries
+      srcFs = ((DistributedRaidFileSystem)srcFs).getFileSystem();
+    }
     FileStatus srcStat = srcFs.getFileStatus(srcPath);
     long blockSize = srcStat.getBlockSize();
     long fileSize = srcStat.getLen();
@@ -996,83 +944,67 @@ public class RaidNode implements RaidProtocol {
     // find the stripe number where the corrupted offset lies
     long snum = corruptOffset / (stripeLength * blockSize);
     long startOffset = snum * stripeLength * blockSize;
-    long corruptBlockInStripe = (corruptOffset - startOffset)/blockSize;
-    long corruptBlockSize = Math.min(blockSize, fileSize - startOffset);
+    int corruptBlockInStripe = (int)((corruptOffset - startOffset)/blockSize);
 
     LOG.info("Start offset of relevent stripe = " + startOffset +
              " corruptBlockInStripe " + corruptBlockInStripe);
-
-    // seek to the appropriate offset in parity file.
     LOG.info("Parity file for " + srcPath + " is " + parityFile);
-    parityInputStream.seek(snum * blockSize);
-    LOG.info("Parity file " + parityFile +
-             " seeking to relevent block at offset " + 
-             parityInputStream.getPos());
-    
 
-    // open file descriptors to read all good blocks of the file
-    FSDataInputStream[] instmp = new FSDataInputStream[stripeLength];
-    int  numLength = 0;
-    for (int i = 0; i < stripeLength; i++) {
-      if (i == corruptBlockInStripe) {
-        continue;  // do not open corrupt block
-      }
-      if (startOffset + i * blockSize >= fileSize) {
-        LOG.info("Stop offset of relevent stripe = " + 
-                  startOffset + i * blockSize);
-        break;
+    // the blocks to recover: the corrupt one, and the ones of the stripe
+    // that the namenode has no locations for
+    List<Integer> erased = new LinkedList<Integer>();
+    erased.add(corruptBlockInStripe);
+    BlockLocation[] stripeBlocks = srcFs.getFileBlockLocations(srcStat,
+        startOffset, stripeLength * blockSize);
+    for (BlockLocation b : stripeBlocks) {
+      int i = (int)((b.getOffset() - startOffset) / blockSize);
+      if (b.getOffset() >= startOffset && i != corruptBlockInStripe &&
+          b.getHosts().length == 0 && erased.size() < parityLength) {
+        erased.add(i);
       }
-      instmp[numLength] = srcFs.open(srcPath);
-      instmp[numLength].seek(startOffset + i * blockSize);
-      numLength++;
     }
 
-    // create array of inputstream, allocate one extra slot for 
-    // parity file. numLength could be smaller than stripeLength
-    // if we are processing the last partial stripe on a file.
-    numLength += 1;
-    FSDataInputStream[] ins = new FSDataInputStream[numLength];
-    for (int i = 0; i < numLength-1; i++) {
-      ins[i] = instmp[i];
-    }
-    ins[numLength-1] = parityInputStream;
-    LOG.info("Decompose a total of " + numLength + " blocks.");
-
-    // create a temporary filename in the source filesystem
-    // do not overwrite an existing tmp file. Make it fail for now.
-    // We need to generate a unique name for this tmp file later on.
-    Path tmpFile = null;
-    FSDataOutputStream fout = null;
+    // Decode the stripe. If more of its data blocks turn out to be
+    // unreadable while decoding, decode again with those added, so that
+    // the recovered file gets every block it cannot copy from the source.
     FileSystem destFs = destPathPrefix.getFileSystem(conf);
-    int retry = 5;
-    try {
-      tmpFile = new Path("/tmp/raid/" + rand.nextInt());
-      fout = destFs.create(tmpFile, false);
-    } catch (IOException e) {
-      if (retry-- <= 0) {
-        LOG.info("Unable to create temporary file " + tmpFile +
-                 " Aborting....");
-        throw e; 
+    int[] erasedLocations;
+    Path[] tmpFiles;
+    while (true) {
+      erasedLocations = new int[erased.size()];
+      long[] erasedSizes = new long[erased.size()];
+      for (int e = 0; e < erasedLocations.length; e++) {
+        erasedLocations[e] = erased.get(e);
+        erasedSizes[e] = Math.min(blockSize,
+            fileSize - startOffset - erasedLocations[e] * blockSize);
+      }
+      tmpFiles = new Path[erasedLocations.length];
+      int[] unreadable = decodeStripe(conf, code, srcFs, srcPath, fileSize,
+          blockSize, startOffset, parityFs, parityFile, parityInputStream,
+          snum, destFs, rand, erasedLocations, erasedSizes, tmpFiles);
+      parityInputStream = null;
+
+      boolean more = false;
+      for (int loc : unreadable) {
+        if (loc < stripeLength && !erased.contains(loc) &&
+            startOffset + loc * blockSize < fileSize) {
+          erased.add(loc);
+          more = true;
+        }
+      }
+      if (!more) {
+        break;
+      }
+      LOG.info("Decoding stripe again for unreadable blocks " + erased);
+      for (Path tmpFile : tmpFiles) {
+        destFs.delete(tmpFile, false);
       }
-      LOG.info("Unable to create temporary file " + tmpFile +
-               "Retrying....");
     }
-    LOG.info("Created recovered block file " + tmpFile);
 
-    // buffers for generating parity bits
     int bufSize = 5 * 1024 * 1024; // 5 MB
     byte[] bufs = new byte[bufSize];
-    byte[] xor = new byte[bufSize];
-   
-    generateParity(ins,fout,corruptBlockSize,bufs,xor,null);
-    
-    // close all files
-    fout.close();
-    for (int i = 0; i < ins.length; i++) {
-      ins[i].close();
-    }
 
-    // Now, reopen the source file and the recovered block file
+    // Now, reopen the source file and the recovered block files
     // and copy all relevant data to new file
     final Path recoveryDestination = 
       new Path(conf.get("fs.raid.tmpdir", "/tmp/raid"));
@@ -1087,56 +1019,56 @@ public class RaidNode implements RaidProtocol {
                                              conf.getInt("io.file.buffer.size", 64 * 1024),
                                              srcStat.getReplication(), 
                                              srcStat.getBlockSize());
-
-    FSDataInputStream bin = destFs.open(tmpFile);
     long recoveredSize = 0;
-
-    // copy all the good blocks (upto the corruption)
-    // from source file to output file
-    long remaining = corruptOffset / blockSize * blockSize;
-    while (remaining > 0) {
-      int toRead = (int)Math.min(remaining, bufSize);
-      sin.readFully(bufs, 0, toRead);
-      out.write(bufs, 0, toRead);
-      remaining -= toRead;
-      recoveredSize += toRead;
-    }
-    LOG.info("Copied upto " + recoveredSize + " from src file. ");
-
-    // copy recovered block to output file
-    remaining = corruptBlockSize;
-    while (recoveredSize < fileSize &&
-           remaining > 0) {
-      int toRead = (int)Math.min(remaining, bufSize);
-      bin.readFully(bufs, 0, toRead);
-      out.write(bufs, 0, toRead);
-      remaining -= toRead;
-      recoveredSize += toRead;
-    }
-    LOG.info("Copied upto " + recoveredSize + " from recovered-block file. ");
-
-    // skip bad block in src file
-    if (recoveredSize < fileSize) {
-      sin.seek(sin.getPos() + corruptBlockSize); 
-    }
-
-    // copy remaining good data from src file to output file
-    while (recoveredSize < fileSize) {
-      int toRead = (int)Math.min(fileSize - recoveredSize, bufSize);
-      sin.readFully(bufs, 0, toRead);
-      out.write(bufs, 0, toRead);
-      recoveredSize += toRead;
+    try {
+      // copy block by block, taking the recovered blocks from their files
+      // and all good blocks from the source file
+      while (recoveredSize < fileSize) {
+        long remaining = Math.min(blockSize, fileSize - recoveredSize);
+        int e = -1;
+        if (recoveredSize >= startOffset) {
+          e = indexOf(erasedLocations,
+                      (int)((recoveredSize - startOffset) / blockSize));
+        }
+        if (recoveredSize >= startOffset + stripeLength * blockSize) {
+          e = -1;
+        }
+        FSDataInputStream in = sin;
+        if (e >= 0) {
+          in = destFs.open(tmpFiles[e]);
+        } else if (sin.getPos() != recoveredSize) {
+          sin.seek(recoveredSize);
+        }
+        try {
+          while (remaining > 0) {
+            int toRead = (int)Math.min(remaining, bufSize);
+            in.readFully(bufs, 0, toRead);
+            out.write(bufs, 0, toRead);
+            remaining -= toRead;
+            recoveredSize += toRead;
+          }
+        } finally {
+          if (in != sin) {
+            in.close();
+          }
+        }
+        if (e >= 0) {
+          LOG.info("Copied upto " + recoveredSize +
+                   " from recovered-block file. ");
+        }
+      }
+    } finally {
+      out.close();
+      sin.close();
     }
-    out.close();
     LOG.info("Completed writing " + recoveredSize + " bytes into " +
              recoveredPath);
-              
-    sin.close();
-    bin.close();
 
-    // delete the temporary block file that was created.
-    destFs.delete(tmpFile, false);
-    LOG.info("Deleted temporary file " + tmpFile);
+    // delete the temporary block files that were created.
+    for (Path tmpFile : tmpFiles) {
+      destFs.delete(tmpFile, false);
+      LOG.info("Deleted temporary file " + tmpFile);
+    }
 
     // copy the meta information from source path to the newly created
     // recovered path
@@ -1150,6 +1082,96 @@ public class RaidNode implements RaidProtocol {
     return recoveredPath;
   }
 
+  /**
+   * Decodes the erased blocks of a stripe into new temporary files.
+   * @param parityIn an open stream of the parity file, or null
+   * @param tmpFiles filled with the files of the recovered blocks
+   * @return all locations that were unreadable, including the ones found
+   *         while decoding
+   */
+  private static int[] decodeStripe(Configuration conf, ErasureCode code,
+      FileSystem srcFs, Path srcPath, long fileSize, long blockSize,
+      long startOffset, FileSystem parityFs, Path parityFile,
+      FSDataInputStream parityIn, long snum, FileSystem destFs, Random rand,
+      int[] erasedLocations, long[] erasedSizes, Path[] tmpFiles)
+    throws IOException {
+    int stripeLength = code.stripeSize();
+    int parityLength = code.paritySize();
+
+    // open file descriptors to read all good blocks of the stripe, followed
+    // by its parity blocks. The data blocks past the end of the file are
+    // coded as zeros and need no stream.
+    FSDataInputStream[] ins = new FSDataInputStream[stripeLength + parityLength];
+    long[] lengths = new long[ins.length];
+    FSDataOutputStream[] fouts = new FSDataOutputStream[erasedLocations.length];
+    try {
+      for (int i = 0; i < stripeLength; i++) {
+        long blockStart = startOffset + i * blockSize;
+        if (indexOf(erasedLocations, i) >= 0) {
+          continue;  // do not open corrupt block
+        }
+        if (blockStart >= fileSize) {
+          LOG.info("Stop offset of relevent stripe = " + blockStart);
+          break;
+        }
+        ins[i] = srcFs.open(srcPath);
+        ins[i].seek(blockStart);
+        lengths[i] = Math.min(blockSize, fileSize - blockStart);
+      }
+      // seek to the appropriate offsets in parity file.
+      for (int j = 0; j < parityLength; j++) {
+        FSDataInputStream in = parityIn;
+        parityIn = null;
+        if (in == null) {
+          in = parityFs.open(parityFile);
+        }
+        ins[stripeLength + j] = in;
+        in.seek((snum * parityLength + j) * blockSize);
+        lengths[stripeLength + j] = blockSize;
+      }
+      LOG.info("Parity file " + parityFile +
+               " seeking to relevent block at offset " + 
+               ins[stripeLength].getPos());
+      LOG.info("Decode blocks " + Arrays.toString(erasedLocations) +
+               " of a stripe of " + stripeLength + " data and " +
+               parityLength + " parity blocks.");
+
+      // create temporary files in the source filesystem for the recovered
+      // blocks. Do not overwrite an existing tmp file.
+      for (int e = 0; e < erasedLocations.length; e++) {
+        tmpFiles[e] = new Path("/tmp/raid/" + rand.nextInt());
+        fouts[e] = destFs.create(tmpFiles[e], false);
+        LOG.info("Created recovered block file " + tmpFiles[e]);
+      }
+      return new Decoder(conf, code).recoverBlocks(ins, lengths,
+          erasedLocations, erasedSizes, fouts);
+    } finally {
+      // close all files
+      if (parityIn != null) {
+        parityIn.close();
+      }
+      for (int e = 0; e < fouts.length; e++) {
+        if (fouts[e] != null) {
+          fouts[e].close();
+        }
+      }
+      for (int i = 0; i < ins.length; i++) {
+        if (ins[i] != null) {
+          ins[i].close();
+        }
+      }
+    }
+  }
+
+  private static int indexOf(int[] values, int value) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /**
    * Periodically delete orphaned parity files.
    */
@@ -1528,20 +1550,59 @@ public class RaidNode implements RaidProtocol {
   
   /**
    * If the config file has an entry for hdfs.raid.locations, then that overrides
-   * destination path specified in the raid policy file
+   * destination path specified in the raid policy file. Policies that use
+   * Reed-Solomon parity are overridden by hdfs.raidrs.locations instead,
+   * since the parity files of the two codes cannot share a location.
    */
   static private String getDestinationPath(Configuration conf, PolicyInfo info) {
-    String locs = conf.get("hdfs.raid.locations"); 
+    boolean rs = getErasureCodeType(info) == ErasureCodeType.RS;
+    String locs = conf.get(rs ? "hdfs.raidrs.locations" : "hdfs.raid.locations"); 
     if (locs != null) {
       return locs;
     }
     locs = info.getDestinationPath();
     if (locs == null) {
-      return DEFAULT_RAID_LOCATION;
+      return rs ? DEFAULT_RAIDRS_LOCATION : DEFAULT_RAID_LOCATION;
     }
     return locs;
   }
 
+  /**
+   * The erasure code of a policy, from its erasureCode property.
+   */
+  static ErasureCodeType getErasureCodeType(PolicyInfo info) {
+    return ErasureCodeType.fromString(info.getProperty("erasureCode"));
+  }
+
+  /**
+   * If the config file has an entry for hdfs.raidrs.paritylength, then use
+   * that, otherwise the parityLength specified in the raid policy file.
+   * XOR codes always have one parity block.
+   */
+  static private int getParityLength(Configuration conf, PolicyInfo info) {
+    if (getErasureCodeType(info) != ErasureCodeType.RS) {
+      return 1;
+    }
+    int len = conf.getInt("hdfs.raidrs.paritylength", 0);
+    if (len != 0) {
+      return len;
+    }
+    String str = info.getProperty("parityLength");
+    if (str == null) {
+      return DEFAULT_RS_PARITY_LENGTH;
+    }
+    return Integer.parseInt(str);
+  }
+
+  /**
+   * Creates the erasure code that a policy uses for its stripes.
+   */
+  static ErasureCode getErasureCode(Configuration conf, PolicyInfo info)
+    throws IOException {
+    return getErasureCodeType(info).newCode(getStripeLength(conf, info),
+                                            getParityLength(conf, info));
+  }
+
   /**
    * If the config file has an entry for hdfs.raid.stripeLength, then use that
    * specified in the raid policy file
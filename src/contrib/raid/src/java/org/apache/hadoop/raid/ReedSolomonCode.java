@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A Reed-Solomon code over GF(2^8) that computes paritySize parity blocks
+ * from stripeSize data blocks and recovers any paritySize lost blocks of
+ * a stripe.
+ *
+ * The parity rows of the generator matrix form a Cauchy matrix
+ * 1 / (x_i + y_j) with x_i = i and y_j = paritySize + j. Every square
+ * submatrix of a Cauchy matrix is invertible, so the data can be solved
+ * from any stripeSize surviving blocks.
+ */
+public class ReedSolomonCode implements ErasureCode {
+  private final int stripeSize;
+  private final int paritySize;
+  /** paritySize x stripeSize coefficients of the parity blocks */
+  private final int[][] parityMatrix;
+
+  // the decoding matrix of the last erasure pattern, since a stripe is
+  // decoded a buffer at a time with the same erasures
+  private int[] cachedErasures = null;
+  private int[] cachedSurvivors;
+  private int[][] cachedInverse;
+
+  public ReedSolomonCode(int stripeSize, int paritySize) {
+    if (stripeSize <= 0 || paritySize <= 0 ||
+        stripeSize + paritySize > GaloisField.FIELD_SIZE) {
+      throw new IllegalArgumentException("Bad Reed-Solomon code (" +
+          stripeSize + ", " + paritySize + ")");
+    }
+    this.stripeSize = stripeSize;
+    this.paritySize = paritySize;
+    this.parityMatrix = new int[paritySize][stripeSize];
+    for (int i = 0; i < paritySize; i++) {
+      for (int j = 0; j < stripeSize; j++) {
+        parityMatrix[i][j] = GaloisField.inverse(i ^ (paritySize + j));
+      }
+    }
+  }
+
+  public int stripeSize() {
+    return stripeSize;
+  }
+
+  public int paritySize() {
+    return paritySize;
+  }
+
+  public void encode(byte[][] data, byte[][] parity, int len) {
+    for (int i = 0; i < paritySize; i++) {
+      Arrays.fill(parity[i], 0, len, (byte)0);
+      for (int j = 0; j < stripeSize; j++) {
+        GaloisField.multiplyAdd(parityMatrix[i][j], data[j], 0,
+                                parity[i], 0, len);
+      }
+    }
+  }
+
+  public void decode(byte[][] stripe, int[] erasedLocations, int len)
+      throws IOException {
+    if (erasedLocations.length == 0) {
+      return;
+    }
+    if (erasedLocations.length > paritySize) {
+      throw new IOException("Reed-Solomon code (" + stripeSize + ", " +
+          paritySize + ") cannot recover " + erasedLocations.length +
+          " erased blocks");
+    }
+    int[] erased = erasedLocations.clone();
+    Arrays.sort(erased);
+    if (!Arrays.equals(erased, cachedErasures)) {
+      prepareDecoding(erased);
+    }
+
+    // solve the erased data blocks from the survivors
+    boolean parityErased = false;
+    for (int e : erased) {
+      if (e >= stripeSize) {
+        parityErased = true;
+        continue;
+      }
+      byte[] out = stripe[e];
+      Arrays.fill(out, 0, len, (byte)0);
+      int[] row = cachedInverse[e];
+      for (int j = 0; j < stripeSize; j++) {
+        GaloisField.multiplyAdd(row[j], stripe[cachedSurvivors[j]], 0,
+                                out, 0, len);
+      }
+    }
+
+    // with all data known, erased parity is simply encoded again
+    if (parityErased) {
+      for (int e : erased) {
+        if (e < stripeSize) {
+          continue;
+        }
+        int p = e - stripeSize;
+        byte[] out = stripe[e];
+        Arrays.fill(out, 0, len, (byte)0);
+        for (int j = 0; j < stripeSize; j++) {
+          GaloisField.multiplyAdd(parityMatrix[p][j], stripe[j], 0,
+                                  out, 0, len);
+        }
+      }
+    }
+  }
+
+  /**
+   * Picks stripeSize surviving locations and inverts the rows of the
+   * generator matrix that produced them.
+   */
+  private void prepareDecoding(int[] erased) {
+    int[] survivors = new int[stripeSize];
+    int n = 0;
+    for (int loc = 0; loc < stripeSize + paritySize && n < stripeSize; loc++) {
+      if (Arrays.binarySearch(erased, loc) < 0) {
+        survivors[n++] = loc;
+      }
+    }
+    int[][] m = new int[stripeSize][];
+    for (int i = 0; i < stripeSize; i++) {
+      int loc = survivors[i];
+      if (loc < stripeSize) {
+        m[i] = new int[stripeSize];
+        m[i][loc] = 1;
+      } else {
+        m[i] = parityMatrix[loc - stripeSize].clone();
+      }
+    }
+    GaloisField.invertMatrix(m);
+    cachedSurvivors = survivors;
+    cachedInverse = m;
+    cachedErasures = erased;
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The single parity block of a stripe is the xor of its data blocks,
+ * which recovers any one lost block of the stripe.
+ */
+public class XORCode implements ErasureCode {
+  private final int stripeSize;
+
+  public XORCode(int stripeSize) {
+    if (stripeSize <= 0) {
+      throw new IllegalArgumentException("Bad stripe size " + stripeSize);
+    }
+    this.stripeSize = stripeSize;
+  }
+
+  public int stripeSize() {
+    return stripeSize;
+  }
+
+  public int paritySize() {
+    return 1;
+  }
+
+  public void encode(byte[][] data, byte[][] parity, int len) {
+    byte[] p = parity[0];
+    System.arraycopy(data[0], 0, p, 0, len);
+    for (int i = 1; i < stripeSize; i++) {
+      xorInto(data[i], p, len);
+    }
+  }
+
+  public void decode(byte[][] stripe, int[] erasedLocations, int len)
+      throws IOException {
+    if (erasedLocations.length == 0) {
+      return;
+    }
+    if (erasedLocations.length > 1) {
+      throw new IOException("XOR parity cannot recover " +
+                            erasedLocations.length + " erased blocks");
+    }
+    int erased = erasedLocations[0];
+    byte[] out = stripe[erased];
+    Arrays.fill(out, 0, len, (byte)0);
+    for (int i = 0; i < stripe.length; i++) {
+      if (i != erased) {
+        xorInto(stripe[i], out, len);
+      }
+    }
+  }
+
+  private static void xorInto(byte[] src, byte[] dst, int len) {
+    for (int i = 0; i < len; i++) {
+      dst[i] ^= src[i];
+    }
+  }
+}
@@ -71,6 +71,10 @@ public class TestRaidDfs extends TestCase {
   String jobTrackerName = null;
 
   private void mySetup() throws Exception {
+    mySetup("xor");
+  }
+
+  private void mySetup(String erasureCode) throws Exception {
 
     new File(TEST_DIR).mkdirs(); // Make sure data directory exists
     conf = new Configuration();
@@ -90,6 +94,8 @@ public class TestRaidDfs extends TestCase {
     conf.set("raid.server.address", "localhost:0");
     conf.setInt("hdfs.raid.stripeLength", 3);
     conf.set("hdfs.raid.locations", "/destraid");
+    conf.set("hdfs.raidrs.locations", "/destraidrs");
+    conf.setInt("hdfs.raidrs.paritylength", 2);
 
     dfs = new MiniDFSCluster(conf, NUM_DATANODES, true, null);
     dfs.waitActive();
@@ -105,6 +111,10 @@ public class TestRaidDfs extends TestCase {
                    "<srcPath prefix=\"/user/dhruba/raidtest\"> " +
                      "<policy name = \"RaidTest1\"> " +
                         "<destPath> /destraid</destPath> " +
+                        "<property> " +
+                          "<name>erasureCode</name> " +
+                          "<value>" + erasureCode + "</value> " +
+                        "</property> " +
                         "<property> " +
                           "<name>targetReplication</name> " +
                           "<value>1</value> " + 
@@ -204,6 +214,66 @@ public class TestRaidDfs extends TestCase {
     LOG.info("Test testPathFilter completed.");
   }
   
+  /**
+   * Test DFS Raid with Reed-Solomon parity, recovering two lost blocks
+   * of a stripe.
+   */
+  public void testRaidDfsReedSolomon() throws Exception {
+    LOG.info("Test testRaidDfsReedSolomon started.");
+    long blockSize = 8192L;
+    mySetup("rs");
+    Path file1 = new Path("/user/dhruba/raidtest/file1");
+    Path destPath = new Path("/destraidrs/user/dhruba/raidtest");
+    long crc1 = createOldFile(fileSys, file1, 1, 7, blockSize);
+
+    // create an instance of the RaidNode
+    cnode = RaidNode.createRaidNode(null, conf);
+
+    try {
+      FileStatus[] listPaths = null;
+
+      // wait till file is raided
+      while (listPaths == null || listPaths.length != 1) {
+        LOG.info("Test testRaidDfsReedSolomon waiting for files to be raided.");
+        try {
+          listPaths = fileSys.listStatus(destPath);
+        } catch (FileNotFoundException e) {
+          //ignore
+        }
+        Thread.sleep(1000);                  // keep waiting
+      }
+      // two parity blocks for each of the three stripes
+      assertEquals(6 * blockSize, listPaths[0].getLen());
+
+      LocatedBlocks locations = null;
+      DistributedFileSystem dfs = (DistributedFileSystem) fileSys;
+      while (true) {
+        locations = dfs.getClient().namenode.getBlockLocations(file1.toString(),
+                                                               0, 7 * blockSize);
+        if (!locations.isUnderConstruction()) {
+          break;
+        }
+        Thread.sleep(1000);
+      }
+
+      Configuration clientConf = new Configuration(conf);
+      clientConf.set("fs.hdfs.impl", "org.apache.hadoop.hdfs.DistributedRaidFileSystem");
+      clientConf.set("fs.raid.underlyingfs.impl", "org.apache.hadoop.hdfs.DistributedFileSystem");
+      URI dfsUri = dfs.getUri();
+      FileSystem.closeAll();
+      FileSystem raidfs = FileSystem.get(dfsUri, clientConf);
+
+      // lose the first two blocks of the second stripe, more than xor
+      // parity could recover
+      corruptBlock(file1, locations.get(3).getBlock());
+      corruptBlock(file1, locations.get(4).getBlock());
+      validateFile(raidfs, file1, file1, crc1);
+    } finally {
+      myTearDown();
+    }
+    LOG.info("Test testRaidDfsReedSolomon completed.");
+  }
+
   //
   // creates a file and populate it with random data. Returns its crc.
   //
@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+import java.util.Random;
+
+/**
+ * Measures the encode and decode throughput of the erasure codes on in
+ * memory buffers. Run it with:
+ *
+ *   java -cp path/to/test/classes:path/to/raid/classes:... \
+ *      org.apache.hadoop.raid.ErasureCodeBenchmark [-stripe k] [-parity m]
+ *      [-bufsize bytes] [-mb megabytes of data per run]
+ *
+ * Throughput is reported in MB of data blocks per second.
+ */
+public class ErasureCodeBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int stripe = 10;
+    int parity = 4;
+    int bufSize = 1024 * 1024;
+    int mb = 1024;
+    for (int i = 0; i < args.length; i++) {
+      if ("-stripe".equals(args[i])) {
+        stripe = Integer.parseInt(args[++i]);
+      } else if ("-parity".equals(args[i])) {
+        parity = Integer.parseInt(args[++i]);
+      } else if ("-bufsize".equals(args[i])) {
+        bufSize = Integer.parseInt(args[++i]);
+      } else if ("-mb".equals(args[i])) {
+        mb = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("Usage: ErasureCodeBenchmark [-stripe k] " +
+            "[-parity m] [-bufsize bytes] [-mb megabytes]");
+        System.exit(-1);
+      }
+    }
+    run(new XORCode(stripe), bufSize, mb);
+    run(new ReedSolomonCode(stripe, parity), bufSize, mb);
+  }
+
+  static void run(ErasureCode code, int bufSize, int mb) throws Exception {
+    int k = code.stripeSize();
+    int m = code.paritySize();
+    Random r = new Random(0);
+    byte[][] stripe = new byte[k + m][bufSize];
+    byte[][] data = new byte[k][];
+    byte[][] parity = new byte[m][];
+    for (int i = 0; i < k; i++) {
+      r.nextBytes(stripe[i]);
+      data[i] = stripe[i];
+    }
+    for (int j = 0; j < m; j++) {
+      parity[j] = stripe[k + j];
+    }
+    long rounds = Math.max(1, (long)mb * 1024 * 1024 / ((long)k * bufSize));
+    String name = code.getClass().getSimpleName() + "(" + k + ", " + m + ")";
+
+    // warm up, then time encoding
+    for (int i = 0; i < 3; i++) {
+      code.encode(data, parity, bufSize);
+    }
+    long start = System.nanoTime();
+    for (long i = 0; i < rounds; i++) {
+      code.encode(data, parity, bufSize);
+    }
+    report(name + " encode", rounds * k * bufSize, System.nanoTime() - start);
+
+    // decode as many data blocks as there are parity blocks
+    int[] erased = new int[m];
+    for (int e = 0; e < m; e++) {
+      erased[e] = e;
+    }
+    for (int i = 0; i < 3; i++) {
+      code.decode(stripe, erased, bufSize);
+    }
+    start = System.nanoTime();
+    for (long i = 0; i < rounds; i++) {
+      code.decode(stripe, erased, bufSize);
+    }
+    report(name + " decode " + m + " erasures", rounds * k * bufSize,
+           System.nanoTime() - start);
+  }
+
+  private static void report(String what, long bytes, long nanos) {
+    System.out.printf("%-40s %10.1f MB/s%n", what,
+                      bytes / 1024.0 / 1024.0 / (nanos / 1e9));
+  }
+}
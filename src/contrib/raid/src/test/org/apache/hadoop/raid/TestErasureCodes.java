@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.raid;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests encoding and decoding stripes with the XOR and Reed-Solomon codes.
+ */
+public class TestErasureCodes extends TestCase {
+  final static int LEN = 1000;
+  final Random rand = new Random();
+
+  public void testGaloisField() {
+    for (int a = 1; a < GaloisField.FIELD_SIZE; a++) {
+      assertEquals(1, GaloisField.multiply(a, GaloisField.inverse(a)));
+      for (int b = 1; b < GaloisField.FIELD_SIZE; b += 17) {
+        assertEquals(a, GaloisField.divide(GaloisField.multiply(a, b), b));
+      }
+    }
+    // a zero coefficient leaves the destination alone
+    byte[] src = randomBuffer();
+    byte[] dst = randomBuffer();
+    byte[] copy = dst.clone();
+    GaloisField.multiplyAdd(0, src, 0, dst, 0, LEN);
+    assertTrue(Arrays.equals(copy, dst));
+  }
+
+  public void testXORCode() throws Exception {
+    ErasureCode code = new XORCode(5);
+    checkAllErasures(code, 1);
+    try {
+      checkErasures(code, new int[] {0, 1});
+      fail("XOR recovered two erasures");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testReedSolomonCode() throws Exception {
+    checkAllErasures(new ReedSolomonCode(6, 3), 3);
+    checkAllErasures(new ReedSolomonCode(10, 4), 2);
+    ReedSolomonCode code = new ReedSolomonCode(3, 2);
+    try {
+      checkErasures(code, new int[] {0, 1, 4});
+      fail("RS(3, 2) recovered three erasures");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  /** Checks every pattern of up to maxErasures erased locations. */
+  private void checkAllErasures(ErasureCode code, int maxErasures)
+      throws IOException {
+    int n = code.stripeSize() + code.paritySize();
+    for (int mask = 1; mask < (1 << n); mask++) {
+      if (Integer.bitCount(mask) > maxErasures) {
+        continue;
+      }
+      int[] erased = new int[Integer.bitCount(mask)];
+      for (int i = 0, e = 0; i < n; i++) {
+        if ((mask & (1 << i)) != 0) {
+          erased[e++] = i;
+        }
+      }
+      checkErasures(code, erased);
+    }
+  }
+
+  private void checkErasures(ErasureCode code, int[] erased)
+      throws IOException {
+    int k = code.stripeSize();
+    int m = code.paritySize();
+    byte[][] data = new byte[k][];
+    byte[][] parity = new byte[m][];
+    for (int i = 0; i < k; i++) {
+      data[i] = randomBuffer();
+    }
+    for (int j = 0; j < m; j++) {
+      parity[j] = new byte[LEN];
+    }
+    code.encode(data, parity, LEN);
+
+    byte[][] stripe = new byte[k + m][];
+    for (int i = 0; i < k; i++) {
+      stripe[i] = data[i].clone();
+    }
+    for (int j = 0; j < m; j++) {
+      stripe[k + j] = parity[j].clone();
+    }
+    for (int e : erased) {
+      stripe[e] = randomBuffer();
+    }
+    code.decode(stripe, erased, LEN);
+    for (int i = 0; i < k; i++) {
+      assertTrue("data block " + i + " erased " + Arrays.toString(erased),
+                 Arrays.equals(data[i], stripe[i]));
+    }
+    for (int j = 0; j < m; j++) {
+      assertTrue("parity block " + j + " erased " + Arrays.toString(erased),
+                 Arrays.equals(parity[j], stripe[k + j]));
+    }
+  }
+
+  private byte[] randomBuffer() {
+    byte[] b = new byte[LEN];
+    rand.nextBytes(b);
+    return b;
+  }
+}
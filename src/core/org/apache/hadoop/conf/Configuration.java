@@ -531,7 +531,7 @@ public class Configuration implements Iterable<Map.Entry<String,String>>,
     }
   }
 
-  private String getHexDigits(String value) {
+  String getHexDigits(String value) {
     boolean negative = false;
     String str = value;
     String hexString = null;
@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.conf;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * An immutable copy of a {@link Configuration}, for code that looks up
+ * properties on hot paths.
+ *
+ * <p>The values of a snapshot are <a href="Configuration.html#VariableExpansion">
+ * expanded</a> once, when it is taken, so lookups neither take the lock of
+ * the configuration nor match variables. The parsed values of
+ * {@link #getInt(String, int)}, {@link #getLong(String, long)} and
+ * {@link #getClass(String, Class)}, and the classes loaded by
+ * {@link #getClassByName(String)}, are kept for later lookups. A value that
+ * cannot be expanded is expanded on each lookup instead, which fails as it
+ * does on a {@link Configuration}.</p>
+ *
+ * <p>A snapshot does not change once it is taken: its setters,
+ * <code>addResource</code> and {@link #clear()} throw
+ * {@link UnsupportedOperationException}, later changes to the configuration
+ * it was taken from are not seen, and system properties are expanded as they
+ * were when the snapshot was taken.</p>
+ */
+public class ConfigurationSnapshot extends Configuration {
+
+  /** Marks a property that is not set or cannot be parsed. */
+  private static final Object NO_VALUE = new Object();
+
+  private final Map<String, String> values = new HashMap<String, String>();
+  private final Map<String, String> rawValues = new HashMap<String, String>();
+  /** Properties whose values could not be expanded when taken. */
+  private final Set<String> lazyNames = new HashSet<String>();
+
+  private final Map<String, Object> ints =
+    new ConcurrentHashMap<String, Object>();
+  private final Map<String, Object> longs =
+    new ConcurrentHashMap<String, Object>();
+  private final Map<String, Object> classes =
+    new ConcurrentHashMap<String, Object>();
+  private final Map<String, Class<?>> classesByName =
+    new ConcurrentHashMap<String, Class<?>>();
+
+  /**
+   * Take a snapshot of a configuration.
+   *
+   * @param other the configuration to take the snapshot of.
+   */
+  public ConfigurationSnapshot(Configuration other) {
+    super(other);
+    super.setClassLoader(other.getClassLoader());
+    for (Map.Entry<String, String> item : this) {
+      rawValues.put(item.getKey(), item.getValue());
+    }
+    for (String name : rawValues.keySet()) {
+      try {
+        values.put(name, super.get(name));
+      } catch (IllegalStateException e) {
+        lazyNames.add(name);                    // too deep, fail on lookup
+      }
+    }
+  }
+
+  /**
+   * Take a snapshot of a configuration, unless it is a snapshot already.
+   *
+   * @param conf the configuration to take the snapshot of.
+   * @return a snapshot of <code>conf</code>.
+   */
+  public static ConfigurationSnapshot of(Configuration conf) {
+    if (conf instanceof ConfigurationSnapshot) {
+      return (ConfigurationSnapshot)conf;
+    }
+    return new ConfigurationSnapshot(conf);
+  }
+
+  /** Get the expanded value of a property, or null if it is not set. */
+  private String getValue(String name) {
+    String value = values.get(name);
+    if (value == null && lazyNames.contains(name)) {
+      value = super.get(name);
+    }
+    return value;
+  }
+
+  @Override
+  public String get(String name) {
+    return getValue(name);
+  }
+
+  @Override
+  public String get(String name, String defaultValue) {
+    String value = getValue(name);
+    if (value != null) {
+      return value;
+    }
+    if (defaultValue != null && defaultValue.indexOf("${") >= 0) {
+      return super.get(name, defaultValue);     // expand the default value
+    }
+    return defaultValue;
+  }
+
+  @Override
+  public String getRaw(String name) {
+    return rawValues.get(name);
+  }
+
+  @Override
+  public int getInt(String name, int defaultValue) {
+    Object value = ints.get(name);
+    if (value == null) {
+      value = NO_VALUE;
+      String valueString = getValue(name);
+      if (valueString != null) {
+        try {
+          String hexString = getHexDigits(valueString);
+          value = hexString != null
+            ? Integer.parseInt(hexString, 16) : Integer.parseInt(valueString);
+        } catch (NumberFormatException e) {
+        }
+      }
+      ints.put(name, value);
+    }
+    return value == NO_VALUE ? defaultValue : (Integer)value;
+  }
+
+  @Override
+  public long getLong(String name, long defaultValue) {
+    Object value = longs.get(name);
+    if (value == null) {
+      value = NO_VALUE;
+      String valueString = getValue(name);
+      if (valueString != null) {
+        try {
+          String hexString = getHexDigits(valueString);
+          value = hexString != null
+            ? Long.parseLong(hexString, 16) : Long.parseLong(valueString);
+        } catch (NumberFormatException e) {
+        }
+      }
+      longs.put(name, value);
+    }
+    return value == NO_VALUE ? defaultValue : (Long)value;
+  }
+
+  @Override
+  public Class<?> getClass(String name, Class<?> defaultValue) {
+    Object value = classes.get(name);
+    if (value == null) {
+      value = rawValues.containsKey(name) ? super.getClass(name, null) : NO_VALUE;
+      classes.put(name, value);
+    }
+    return value == NO_VALUE ? defaultValue : (Class<?>)value;
+  }
+
+  @Override
+  public Class<?> getClassByName(String name) throws ClassNotFoundException {
+    Class<?> theClass = classesByName.get(name);
+    if (theClass == null) {
+      theClass = super.getClassByName(name);
+      classesByName.put(name, theClass);
+    }
+    return theClass;
+  }
+
+  @Override
+  public void set(String name, String value) {
+    throw new UnsupportedOperationException(
+        "Cannot set " + name + " in a configuration snapshot");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException(
+        "Cannot clear a configuration snapshot");
+  }
+
+  @Override
+  public void addResource(String name) {
+    throw new UnsupportedOperationException(
+        "Cannot add resource " + name + " to a configuration snapshot");
+  }
+
+  @Override
+  public void addResource(URL url) {
+    throw new UnsupportedOperationException(
+        "Cannot add resource " + url + " to a configuration snapshot");
+  }
+
+  @Override
+  public void addResource(Path file) {
+    throw new UnsupportedOperationException(
+        "Cannot add resource " + file + " to a configuration snapshot");
+  }
+
+  @Override
+  public void addResource(InputStream in) {
+    throw new UnsupportedOperationException(
+        "Cannot add resource " + in + " to a configuration snapshot");
+  }
+
+  /** A snapshot keeps the values it was taken with. */
+  @Override
+  public void reloadConfiguration() {
+  }
+
+  @Override
+  public void setClassLoader(ClassLoader classLoader) {
+    throw new UnsupportedOperationException(
+        "Cannot set the class loader of a configuration snapshot");
+  }
+}
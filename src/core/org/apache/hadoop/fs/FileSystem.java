@@ -30,6 +30,7 @@ import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicLong;
@@ -901,6 +902,42 @@ public abstract class FileSystem extends Configured implements Closeable {
     return results.toArray(new FileStatus[results.size()]);
   }
 
+  /**
+   * List the statuses of the files/directories in the given path if the path
+   * is a directory, fetching the entries lazily.
+   * The default implementation fetches the whole listing with
+   * {@link #listStatus(Path)}; file systems that can list a directory in
+   * batches override it so that huge directories can be iterated without
+   * materializing all of their entries at once.
+   *
+   * @param f a path
+   * @return an iterator over the statuses of the files/directories in
+   *         the given path
+   * @throws FileNotFoundException if <code>f</code> does not exist
+   * @throws IOException if any I/O error occurred
+   */
+  public RemoteIterator<FileStatus> listStatusIterator(final Path f)
+      throws IOException {
+    final FileStatus[] stats = listStatus(f);
+    if (stats == null) {
+      throw new FileNotFoundException("File " + f + " does not exist.");
+    }
+    return new RemoteIterator<FileStatus>() {
+      private int i = 0;
+
+      public boolean hasNext() {
+        return i < stats.length;
+      }
+
+      public FileStatus next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException("No more entry in " + f);
+        }
+        return stats[i++];
+      }
+    };
+  }
+
   /**
    * <p>Return all the files that match filePattern and are not checksum
    * files. Results are sorted by their names.
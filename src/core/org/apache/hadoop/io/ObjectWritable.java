@@ -173,10 +173,18 @@ public class ObjectWritable implements Writable, Configurable {
     
   /** Read a {@link Writable}, {@link String}, primitive type, or an array of
    * the preceding. */
-  @SuppressWarnings("unchecked")
   public static Object readObject(DataInput in, ObjectWritable objectWritable, Configuration conf)
     throws IOException {
-    String className = UTF8.readString(in);
+    return readObject(in, UTF8.readString(in), objectWritable, conf);
+  }
+
+  /** Read a {@link Writable}, {@link String}, primitive type, or an array of
+   * the preceding, the name of whose declared class was already read. */
+  @SuppressWarnings("unchecked")
+  public static Object readObject(DataInput in, String className,
+                                  ObjectWritable objectWritable,
+                                  Configuration conf)
+    throws IOException {
     Class<?> declaredClass = PRIMITIVE_NAMES.get(className);
     if (declaredClass == null) {
       try {
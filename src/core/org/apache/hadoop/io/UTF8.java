@@ -198,7 +198,15 @@ public class UTF8 implements WritableComparable {
    * @see DataInput#readUTF()
    */
   public static String readString(DataInput in) throws IOException {
-    int bytes = in.readUnsignedShort();
+    return readString(in, in.readUnsignedShort());
+  }
+
+  /** Read a UTF-8 encoded string, the length of which was already read.
+   *
+   * @see #readString(DataInput)
+   */
+  public static String readString(DataInput in, int bytes)
+    throws IOException {
     StringBuffer buffer = new StringBuffer(bytes);
     readChars(in, buffer, bytes);
     return buffer.toString();
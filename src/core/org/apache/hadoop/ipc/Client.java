@@ -32,9 +32,12 @@ import java.io.BufferedOutputStream;
 import java.io.FilterInputStream;
 import java.io.InputStream;
 
-import java.util.Hashtable;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -68,11 +71,11 @@ public class Client {
   
   public static final Log LOG =
     LogFactory.getLog(Client.class);
-  private Hashtable<ConnectionId, Connection> connections =
-    new Hashtable<ConnectionId, Connection>();
+  private ConcurrentHashMap<ConnectionId, Connection> connections =
+    new ConcurrentHashMap<ConnectionId, Connection>();
 
   private Class<? extends Writable> valueClass;   // class of call values
-  private int counter;                            // counter for call ids
+  private final AtomicInteger counter = new AtomicInteger(); // for call ids
   private AtomicBoolean running = new AtomicBoolean(true); // if client runs
   final private Configuration conf;
   final private int maxIdleTime; //connections will be culled if it was idle for 
@@ -83,8 +86,15 @@ public class Client {
 
   private SocketFactory socketFactory;           // how to create sockets
   private int refCount = 1;
+  final private int connectionPoolSize; // connections per connection id
   
   final private static String PING_INTERVAL_NAME = "ipc.ping.interval";
+  /**
+   * The number of connections calls with the same address, protocol, ticket
+   * and timeout are spread over.
+   */
+  final public static String CONNECTION_POOL_SIZE_KEY =
+    "ipc.client.connection.pool.size";
   final static int DEFAULT_PING_INTERVAL = 60000; // 1 min
   final static int PING_CALL_ID = -1;
   
@@ -165,9 +175,7 @@ public class Client {
 
     protected Call(Writable param) {
       this.param = param;
-      synchronized (Client.this) {
-        this.id = counter++;
-      }
+      this.id = counter.getAndIncrement();
     }
 
     /** Indicate when the call is complete and the
@@ -212,7 +220,11 @@ public class Client {
     private int rpcTimeout;  // max waiting time for each RPC
     
     // currently active calls
-    private Hashtable<Integer, Call> calls = new Hashtable<Integer, Call>();
+    private ConcurrentHashMap<Integer, Call> calls =
+      new ConcurrentHashMap<Integer, Call>();
+    // serialized calls waiting to be written
+    private ConcurrentLinkedQueue<PendingSend> pendingSends =
+      new ConcurrentLinkedQueue<PendingSend>();
     private AtomicLong lastActivity = new AtomicLong();// last I/O activity time
     private AtomicBoolean shouldCloseConnection = new AtomicBoolean();  // indicate if the connection is closed
     private IOException closeException; // close reason
@@ -509,55 +521,72 @@ public class Client {
 
     /** Initiates a call by sending the parameter to the remote server.
      * Note: this is not called from the Connection thread, but by other
-     * threads.
+     * threads. The parameter is serialized in the calling thread, and
+     * written by the thread of the executor, which writes all the calls
+     * queued by then with a single flush.
      */
     public void sendParam(final Call call) throws InterruptedException {
       if (shouldCloseConnection.get()) {
         return;
       }
-      
-      final CountDownLatch latch = new CountDownLatch(1);
+
+      //for serializing the
+      //data to be written
+      DataOutputBuffer d = new DataOutputBuffer();
+      try {
+        d.writeInt(call.id);
+        call.param.write(d);
+      } catch (IOException e) {
+        markClosed(e);
+        return;
+      }
+      PendingSend send = new PendingSend(call.id, d);
+      pendingSends.add(send);
       executor.submit(new Runnable() {
         @Override
         public void run() {
-          DataOutputBuffer d = null;
-
-          try {
-            if (shouldCloseConnection.get()) {
-              return;
-            }
-            synchronized (Connection.this.out) {
-              if (LOG.isDebugEnabled())
-                LOG.debug(getName() + " sending #" + call.id);
-
-              //for serializing the
-              //data to be written
-              d = new DataOutputBuffer();
-              d.writeInt(call.id);
-              call.param.write(d);
-              byte[] data = d.getData();
-              int dataLength = d.getLength();
-              out.writeInt(dataLength);      //first put the data length
-              out.write(data, 0, dataLength);//write the data
-              out.flush();
-            }
-          } catch (IOException e) {
-            markClosed(e);
-          } finally {
-            latch.countDown();
-            //the buffer is just an in-memory buffer, but it is still polite to
-            // close early
-            IOUtils.closeStream(d);
-          }
+          writePendingSends();
         }
       });
 
-      if (!latch.await(pingInterval, TimeUnit.MILLISECONDS)) {
+      if (!send.latch.await(pingInterval, TimeUnit.MILLISECONDS)) {
         markClosed(new IOException(
           String.format("timeout waiting for sendParam, %d ms", pingInterval)
         ));
       }
-    }  
+    }
+
+    /* Write the calls waiting to be written, if the connection is not
+     * closed, and flush once. Only called from the thread of the executor.
+     */
+    private void writePendingSends() {
+      List<PendingSend> sent = new ArrayList<PendingSend>();
+      try {
+        synchronized (out) {
+          for (PendingSend send = pendingSends.poll(); send != null;
+               send = pendingSends.poll()) {
+            sent.add(send);
+            if (shouldCloseConnection.get()) {
+              continue;
+            }
+            if (LOG.isDebugEnabled())
+              LOG.debug(getName() + " sending #" + send.id);
+            int dataLength = send.data.getLength();
+            out.writeInt(dataLength);      //first put the data length
+            out.write(send.data.getData(), 0, dataLength);//write the data
+          }
+          if (!sent.isEmpty() && !shouldCloseConnection.get()) {
+            out.flush();
+          }
+        }
+      } catch (IOException e) {
+        markClosed(e);
+      } finally {
+        for (PendingSend send : sent) {
+          send.latch.countDown();
+        }
+      }
+    }
 
     /* Receive a response.
      * Because only one receiver, so no synchronization on in.
@@ -661,6 +690,18 @@ public class Client {
     }
   }
 
+  /** A serialized call waiting to be written. */
+  private static class PendingSend {
+    final int id;
+    final DataOutputBuffer data;
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    PendingSend(int id, DataOutputBuffer data) {
+      this.id = id;
+      this.data = data;
+    }
+  }
+
   /** Call implementation used for parallel calls. */
   private class ParallelCall extends Call {
     private ParallelResults results;
@@ -708,6 +749,11 @@ public class Client {
     this.maxRetries = conf.getInt("ipc.client.connect.max.retries", 10);
     this.tcpNoDelay = conf.getBoolean("ipc.client.tcpnodelay", false);
     this.pingInterval = getPingInterval(conf);
+    this.connectionPoolSize = conf.getInt(CONNECTION_POOL_SIZE_KEY, 1);
+    if (connectionPoolSize < 1) {
+      throw new IllegalArgumentException("Invalid " +
+          CONNECTION_POOL_SIZE_KEY + ": " + connectionPoolSize);
+    }
     if (LOG.isDebugEnabled()) {
       LOG.debug("The ping interval is" + this.pingInterval + "ms.");
     }
@@ -920,7 +966,8 @@ public class Client {
   }
 
   /** Get a connection from the pool, or create a new one and add it to the
-   * pool.  Connections to a given host/port are reused. */
+   * pool.  Connections to a given host/port are reused, and calls are spread
+   * over {@link #CONNECTION_POOL_SIZE_KEY} of them by call id. */
   private Connection getConnection(InetSocketAddress addr,
                                    Class<?> protocol,
                                    UserGroupInformation ticket,
@@ -937,13 +984,17 @@ public class Client {
      * refs for keys in HashMap properly. For now its ok.
      */
     ConnectionId remoteId = new ConnectionId(
-    		addr, protocol, ticket, rpcTimeout);
+    		addr, protocol, ticket, rpcTimeout,
+    		(call.id & Integer.MAX_VALUE) % connectionPoolSize);
     do {
-      synchronized (connections) {
-        connection = connections.get(remoteId);
-        if (connection == null) {
-          connection = new Connection(remoteId);
-          connections.put(remoteId, connection);
+      connection = connections.get(remoteId);
+      if (connection == null) {
+        synchronized (connections) {
+          connection = connections.get(remoteId);
+          if (connection == null) {
+            connection = new Connection(remoteId);
+            connections.put(remoteId, connection);
+          }
         }
       }
     } while (!connection.addCall(call));
@@ -959,6 +1010,7 @@ public class Client {
   /**
    * This class holds the address and the user ticket. The client connections
    * to servers are uniquely identified by <remoteAddress, protocol, ticket>
+   * and the index of the connection in the pool of such connections.
    */
   private static class ConnectionId {
     InetSocketAddress address;
@@ -966,13 +1018,15 @@ public class Client {
     Class<?> protocol;
     private static final int PRIME = 16777619;
     private int rpcTimeout;
+    private int index;
     
     ConnectionId(InetSocketAddress address, Class<?> protocol, 
-                 UserGroupInformation ticket, int rpcTimeout) {
+                 UserGroupInformation ticket, int rpcTimeout, int index) {
       this.protocol = protocol;
       this.address = address;
       this.ticket = ticket;
       this.rpcTimeout = rpcTimeout;
+      this.index = index;
     }
     
     InetSocketAddress getAddress() {
@@ -996,7 +1050,8 @@ public class Client {
      if (obj instanceof ConnectionId) {
        ConnectionId id = (ConnectionId) obj;
        return address.equals(id.address) && protocol == id.protocol && 
-              ticket == id.ticket && rpcTimeout == id.rpcTimeout;
+              ticket == id.ticket && rpcTimeout == id.rpcTimeout &&
+              index == id.index;
        //Note : ticket is a ref comparision.
      }
      return false;
@@ -1009,7 +1064,7 @@ public class Client {
                   PRIME * System.identityHashCode(protocol) +
                   System.identityHashCode(ticket)
                 ) + rpcTimeout
-             ));
+             ) + index);
     }
   }  
 }
@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.metrics.RpcMetrics;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+
+/**
+ * A call queue keeping the calls of every user, or of every protocol, in
+ * a sub-queue of its own, and handing out calls from the sub-queues in
+ * turn, so that a flood of calls from one source does not hold up the
+ * calls of the others. A sub-queue may be given a weight: the number of
+ * calls it hands out in its turn, 1 by default. The sub-queues share the
+ * capacity of the queue, and the calls of a source are handed out in the
+ * order they were queued.
+ * <p>
+ * The queue is configured with
+ * <li>{@link #SOURCE_KEY}, <code>user</code> or <code>protocol</code>,
+ * what the calls are queued by. Calls of an unknown source share the
+ * sub-queue named {@link #UNKNOWN_SOURCE}.
+ * <li>{@link #WEIGHTS_KEY}, a list of <code>source:weight</code> pairs,
+ * for instance <code>hdfs:4</code>.
+ * <li>{@link #METRICS_SOURCES_KEY}, the number of sources without a weight
+ * that get metrics of their own. The sources seen after that share the
+ * metrics of {@link #OTHER_SOURCES}, so that a server seeing many users
+ * does not register metrics for every one of them.
+ */
+public class FairCallQueue<E extends Schedulable> extends AbstractQueue<E>
+    implements BlockingQueue<E> {
+
+  public static final String SOURCE_KEY = "ipc.server.callqueue.fair.source";
+  public static final String WEIGHTS_KEY =
+    "ipc.server.callqueue.fair.weights";
+  public static final String UNKNOWN_SOURCE = "unknown";
+  public static final String METRICS_SOURCES_KEY =
+    "ipc.server.callqueue.fair.metrics.sources";
+  public static final String OTHER_SOURCES = "other";
+
+  /** The calls of one source. */
+  private static class SubQueue<E> {
+    final String source;
+    final int weight;
+    final LinkedList<E> calls = new LinkedList<E>();
+    final LinkedList<Long> queueTimes = new LinkedList<Long>();
+    /** Calls the sub-queue may still hand out in its turn. */
+    int credit;
+    MetricsIntValue depth = null;
+    MetricsTimeVaryingRate waitTime = null;
+    /** Whether the metrics are those of {@link #OTHER_SOURCES}. */
+    boolean otherMetrics = false;
+
+    SubQueue(String source, int weight) {
+      this.source = source;
+      this.weight = weight;
+      this.credit = weight;
+    }
+  }
+
+  private final int capacity;
+  private final boolean byProtocol;
+  private final Map<String, Integer> weights = new HashMap<String, Integer>();
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  /** The sub-queues holding calls, by source. */
+  private final Map<String, SubQueue<E>> subQueues =
+    new HashMap<String, SubQueue<E>>();
+  /** The sub-queues holding calls, in the order they take turns. */
+  private final LinkedList<SubQueue<E>> turns = new LinkedList<SubQueue<E>>();
+  private int count = 0;
+  private RpcMetrics metrics = null;
+  private final int maxMetricsSources;
+  /** The sources without a weight that have metrics of their own. */
+  private final Set<String> metricsSources = new HashSet<String>();
+  /** The calls of the sources sharing the metrics of OTHER_SOURCES. */
+  private int otherCalls = 0;
+
+  public FairCallQueue(int capacity, Configuration conf) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    this.capacity = capacity;
+    String source = conf.get(SOURCE_KEY, "user");
+    if ("protocol".equals(source)) {
+      byProtocol = true;
+    } else if ("user".equals(source)) {
+      byProtocol = false;
+    } else {
+      throw new IllegalArgumentException("Invalid " + SOURCE_KEY + ": " +
+                                         source);
+    }
+    String[] pairs = conf.getStrings(WEIGHTS_KEY);
+    for (String pair : pairs == null ? new String[0] : pairs) {
+      int colon = pair.lastIndexOf(':');
+      int weight = 0;
+      try {
+        weight = colon < 0 ? 0 : Integer.parseInt(pair.substring(colon + 1));
+      } catch (NumberFormatException e) {
+        weight = 0;
+      }
+      if (weight <= 0) {
+        throw new IllegalArgumentException("Invalid " + WEIGHTS_KEY + ": " +
+                                           pair);
+      }
+      weights.put(pair.substring(0, colon).trim(), weight);
+    }
+    maxMetricsSources = conf.getInt(METRICS_SOURCES_KEY, 20);
+  }
+
+  /**
+   * Publishes the depth of every sub-queue and the time its calls wait
+   * in the metrics of the server.
+   */
+  public void setMetrics(RpcMetrics metrics) {
+    lock.lock();
+    try {
+      this.metrics = metrics;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private String getSource(E call) {
+    String source = byProtocol ? call.getProtocolName() : call.getUserName();
+    return source == null ? UNKNOWN_SOURCE : source;
+  }
+
+  /** Adds a call, with the lock held and room in the queue. */
+  private void enqueue(E call) {
+    final String source = getSource(call);
+    SubQueue<E> queue = subQueues.get(source);
+    if (queue == null) {
+      Integer weight = weights.get(source);
+      queue = new SubQueue<E>(source, weight == null ? 1 : weight);
+      if (metrics != null) {
+        String name = source;
+        if (weight == null && !metricsSources.contains(source)) {
+          if (metricsSources.size() < maxMetricsSources) {
+            metricsSources.add(source);
+          } else {
+            name = OTHER_SOURCES;
+            queue.otherMetrics = true;
+          }
+        }
+        queue.depth = metrics.getCallQueueDepth(name);
+        queue.waitTime = metrics.getCallQueueWaitTime(name);
+      }
+      subQueues.put(source, queue);
+      turns.addLast(queue);
+    }
+    queue.calls.addLast(call);
+    queue.queueTimes.addLast(System.currentTimeMillis());
+    updateDepth(queue, 1);
+    ++count;
+    notEmpty.signal();
+  }
+
+  /** Publishes the depth of a sub-queue after delta calls were added. */
+  private void updateDepth(SubQueue<E> queue, int delta) {
+    if (queue.depth == null) {
+      return;
+    }
+    if (queue.otherMetrics) {
+      otherCalls += delta;
+      queue.depth.set(otherCalls);
+    } else {
+      queue.depth.set(queue.calls.size());
+    }
+  }
+
+  /** Removes the next call, with the lock held and calls in the queue. */
+  private E dequeue() {
+    SubQueue<E> queue = turns.getFirst();
+    E call = queue.calls.removeFirst();
+    long queueTime = queue.queueTimes.removeFirst();
+    if (queue.waitTime != null) {
+      queue.waitTime.inc(System.currentTimeMillis() - queueTime);
+    }
+    updateDepth(queue, -1);
+    if (queue.calls.isEmpty()) {
+      turns.removeFirst();
+      subQueues.remove(queue.source);
+    } else if (--queue.credit == 0) {
+      // the turn of the next sub-queue
+      queue.credit = queue.weight;
+      turns.addLast(turns.removeFirst());
+    }
+    --count;
+    notFull.signal();
+    return call;
+  }
+
+  public boolean offer(E call) {
+    if (call == null) {
+      throw new NullPointerException();
+    }
+    lock.lock();
+    try {
+      if (count == capacity) {
+        return false;
+      }
+      enqueue(call);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean offer(E call, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    if (call == null) {
+      throw new NullPointerException();
+    }
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (count == capacity) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(call);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void put(E call) throws InterruptedException {
+    if (call == null) {
+      throw new NullPointerException();
+    }
+    lock.lockInterruptibly();
+    try {
+      while (count == capacity) {
+        notFull.await();
+      }
+      enqueue(call);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public E poll() {
+    lock.lock();
+    try {
+      return count == 0 ? null : dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public E take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        notEmpty.await();
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public E peek() {
+    lock.lock();
+    try {
+      return count == 0 ? null : turns.getFirst().calls.getFirst();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return capacity - count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException();
+    }
+    lock.lock();
+    try {
+      int n = 0;
+      for (; n < maxElements && count > 0; ++n) {
+        c.add(dequeue());
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return an iterator over a snapshot of the calls, in no particular
+   *         order, which does not support removal
+   */
+  public Iterator<E> iterator() {
+    lock.lock();
+    try {
+      List<E> calls = new ArrayList<E>(count);
+      for (SubQueue<E> queue : turns) {
+        calls.addAll(queue.calls);
+      }
+      return Collections.unmodifiableList(calls).iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
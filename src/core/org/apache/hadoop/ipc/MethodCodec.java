@@ -0,0 +1,392 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.ObjectWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableFactories;
+
+/**
+ * Writes the parameters and the value of the calls to a protocol method
+ * with codecs picked once for the declared types of the method. Unlike
+ * {@link ObjectWritable}, it writes no class names, except for instances
+ * of subclasses of the declared classes, and does not look classes or the
+ * method up on every call. A method is identified by its fingerprint, see
+ * {@link ProtocolSignature#getFingerprint(Method)}, which covers the names
+ * of the types the codecs are picked for, so that the client and the server
+ * pick the same codecs for a fingerprint they agree on.
+ */
+final class MethodCodec {
+
+  /** The codecs of the methods of a protocol, by fingerprint. */
+  private static final Map<Class<?>, Map<Integer, MethodCodec>> CODECS =
+    new ConcurrentHashMap<Class<?>, Map<Integer, MethodCodec>>();
+
+  private final Method method;
+  private final int id;
+  private final TypeCodec[] parameterCodecs;
+  private final TypeCodec valueCodec;
+
+  private MethodCodec(Method method, int id, TypeCodec[] parameterCodecs,
+                      TypeCodec valueCodec) {
+    this.method = method;
+    this.id = id;
+    this.parameterCodecs = parameterCodecs;
+    this.valueCodec = valueCodec;
+  }
+
+  /**
+   * @return the codecs of the methods of a protocol, by fingerprint. Methods
+   *         sharing a fingerprint, or with types ObjectWritable cannot
+   *         write, have no codec.
+   */
+  static Map<Integer, MethodCodec> getCodecs(Class<?> protocol) {
+    Map<Integer, MethodCodec> codecs = CODECS.get(protocol);
+    if (codecs == null) {
+      Map<Integer, Method> methods = new HashMap<Integer, Method>();
+      for (Method method : protocol.getMethods()) {
+        Integer id = ProtocolSignature.getFingerprint(method);
+        // the method of an ambiguous fingerprint is null
+        methods.put(id, methods.containsKey(id) ? null : method);
+      }
+      codecs = new HashMap<Integer, MethodCodec>();
+      for (Map.Entry<Integer, Method> e : methods.entrySet()) {
+        MethodCodec codec = create(e.getValue(), e.getKey());
+        if (codec != null) {
+          codecs.put(e.getKey(), codec);
+        }
+      }
+      codecs = Collections.unmodifiableMap(codecs);
+      CODECS.put(protocol, codecs);
+    }
+    return codecs;
+  }
+
+  private static MethodCodec create(Method method, int id) {
+    if (method == null) {
+      return null;
+    }
+    Class<?>[] types = method.getParameterTypes();
+    TypeCodec[] parameterCodecs = new TypeCodec[types.length];
+    for (int i = 0; i < types.length; ++i) {
+      parameterCodecs[i] = TypeCodec.forClass(types[i]);
+      if (parameterCodecs[i] == null) {
+        return null;
+      }
+    }
+    TypeCodec valueCodec = TypeCodec.forClass(method.getReturnType());
+    return valueCodec == null
+      ? null : new MethodCodec(method, id, parameterCodecs, valueCodec);
+  }
+
+  Method getMethod() {
+    return method;
+  }
+
+  /** @return the fingerprint of the method */
+  int getId() {
+    return id;
+  }
+
+  void writeParameters(DataOutput out, Object[] parameters,
+                       Configuration conf) throws IOException {
+    for (int i = 0; i < parameterCodecs.length; ++i) {
+      parameterCodecs[i].write(out, parameters[i], conf);
+    }
+  }
+
+  Object[] readParameters(DataInput in, Configuration conf)
+    throws IOException {
+    Object[] parameters = new Object[parameterCodecs.length];
+    for (int i = 0; i < parameterCodecs.length; ++i) {
+      parameters[i] = parameterCodecs[i].read(in, conf);
+    }
+    return parameters;
+  }
+
+  void writeValue(DataOutput out, Object value, Configuration conf)
+    throws IOException {
+    valueCodec.write(out, value, conf);
+  }
+
+  Object readValue(DataInput in, Configuration conf) throws IOException {
+    return valueCodec.read(in, conf);
+  }
+
+  /** Writes and reads the instances of a declared type. */
+  private static abstract class TypeCodec {
+
+    abstract void write(DataOutput out, Object instance, Configuration conf)
+      throws IOException;
+
+    abstract Object read(DataInput in, Configuration conf)
+      throws IOException;
+
+    /**
+     * @return the codec of a declared class, null for the classes
+     *         ObjectWritable cannot write
+     */
+    static TypeCodec forClass(Class<?> declaredClass) {
+      if (declaredClass.isPrimitive()) {
+        return PRIMITIVE_CODECS.get(declaredClass);
+      } else if (declaredClass.isArray()) {
+        TypeCodec componentCodec =
+          forClass(declaredClass.getComponentType());
+        return componentCodec == null ? null
+          : new ArrayCodec(declaredClass.getComponentType(), componentCodec);
+      } else if (declaredClass == String.class) {
+        return STRING;
+      } else if (declaredClass.isEnum()) {
+        return new EnumCodec(declaredClass);
+      } else if (Writable.class.isAssignableFrom(declaredClass)) {
+        return new WritableCodec(declaredClass);
+      }
+      return null;
+    }
+  }
+
+  private static final Map<Class<?>, TypeCodec> PRIMITIVE_CODECS =
+    new HashMap<Class<?>, TypeCodec>();
+  static {
+    PRIMITIVE_CODECS.put(Void.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf) { }
+      Object read(DataInput in, Configuration conf) { return null; }
+    });
+    PRIMITIVE_CODECS.put(Boolean.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeBoolean((Boolean)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readBoolean();
+      }
+    });
+    PRIMITIVE_CODECS.put(Byte.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeByte((Byte)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readByte();
+      }
+    });
+    PRIMITIVE_CODECS.put(Character.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeChar((Character)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readChar();
+      }
+    });
+    PRIMITIVE_CODECS.put(Short.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeShort((Short)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readShort();
+      }
+    });
+    PRIMITIVE_CODECS.put(Integer.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeInt((Integer)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readInt();
+      }
+    });
+    PRIMITIVE_CODECS.put(Long.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeLong((Long)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readLong();
+      }
+    });
+    PRIMITIVE_CODECS.put(Float.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeFloat((Float)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readFloat();
+      }
+    });
+    PRIMITIVE_CODECS.put(Double.TYPE, new TypeCodec() {
+      void write(DataOutput out, Object instance, Configuration conf)
+        throws IOException {
+        out.writeDouble((Double)instance);
+      }
+      Object read(DataInput in, Configuration conf) throws IOException {
+        return in.readDouble();
+      }
+    });
+  }
+
+  private static final TypeCodec STRING = new TypeCodec() {
+    void write(DataOutput out, Object instance, Configuration conf)
+      throws IOException {
+      out.writeBoolean(instance != null);
+      if (instance != null) {
+        Text.writeString(out, (String)instance);
+      }
+    }
+    Object read(DataInput in, Configuration conf) throws IOException {
+      return in.readBoolean() ? Text.readString(in) : null;
+    }
+  };
+
+  /** Writes the name of the constant, like ObjectWritable. */
+  private static class EnumCodec extends TypeCodec {
+    @SuppressWarnings("unchecked")
+    private final Class<? extends Enum> declaredClass;
+
+    @SuppressWarnings("unchecked")
+    EnumCodec(Class<?> declaredClass) {
+      this.declaredClass = (Class<? extends Enum>)declaredClass;
+    }
+
+    void write(DataOutput out, Object instance, Configuration conf)
+      throws IOException {
+      STRING.write(out, instance == null ? null : ((Enum<?>)instance).name(),
+                   conf);
+    }
+
+    @SuppressWarnings("unchecked")
+    Object read(DataInput in, Configuration conf) throws IOException {
+      String name = (String)STRING.read(in, conf);
+      return name == null ? null : Enum.valueOf(declaredClass, name);
+    }
+  }
+
+  private static class ArrayCodec extends TypeCodec {
+    private final Class<?> componentClass;
+    private final TypeCodec componentCodec;
+
+    ArrayCodec(Class<?> componentClass, TypeCodec componentCodec) {
+      this.componentClass = componentClass;
+      this.componentCodec = componentCodec;
+    }
+
+    void write(DataOutput out, Object instance, Configuration conf)
+      throws IOException {
+      if (instance == null) {
+        out.writeInt(-1);
+        return;
+      }
+      int length = Array.getLength(instance);
+      out.writeInt(length);
+      if (componentClass == Byte.TYPE) {
+        out.write((byte[])instance);
+      } else {
+        for (int i = 0; i < length; ++i) {
+          componentCodec.write(out, Array.get(instance, i), conf);
+        }
+      }
+    }
+
+    Object read(DataInput in, Configuration conf) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        return null;
+      }
+      Object instance = Array.newInstance(componentClass, length);
+      if (componentClass == Byte.TYPE) {
+        in.readFully((byte[])instance);
+      } else {
+        for (int i = 0; i < length; ++i) {
+          Array.set(instance, i, componentCodec.read(in, conf));
+        }
+      }
+      return instance;
+    }
+  }
+
+  /**
+   * Writes the class name of the instance only if it is not the declared
+   * class, as a subclass or an implementation of a declared interface.
+   */
+  private static class WritableCodec extends TypeCodec {
+    private static final byte NULL = 0;
+    private static final byte DECLARED = 1;
+    private static final byte SUBCLASS = 2;
+
+    private final Class<?> declaredClass;
+
+    WritableCodec(Class<?> declaredClass) {
+      this.declaredClass = declaredClass;
+    }
+
+    void write(DataOutput out, Object instance, Configuration conf)
+      throws IOException {
+      if (instance == null) {
+        out.writeByte(NULL);
+      } else if (instance.getClass() == declaredClass) {
+        out.writeByte(DECLARED);
+        ((Writable)instance).write(out);
+      } else {
+        out.writeByte(SUBCLASS);
+        Text.writeString(out, instance.getClass().getName());
+        ((Writable)instance).write(out);
+      }
+    }
+
+    Object read(DataInput in, Configuration conf) throws IOException {
+      Class<?> instanceClass;
+      switch (in.readByte()) {
+      case NULL:
+        return null;
+      case DECLARED:
+        instanceClass = declaredClass;
+        break;
+      case SUBCLASS:
+        String className = Text.readString(in);
+        try {
+          instanceClass = conf.getClassByName(className);
+        } catch (ClassNotFoundException e) {
+          throw new RuntimeException("readObject can't find class " +
+                                     className, e);
+        }
+        break;
+      default:
+        throw new IOException("Corrupt instance of " +
+                              declaredClass.getName());
+      }
+      Writable writable = WritableFactories.newInstance(
+          instanceClass.asSubclass(Writable.class), conf);
+      writable.readFields(in);
+      return writable;
+    }
+  }
+}
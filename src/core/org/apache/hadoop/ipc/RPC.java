@@ -28,6 +28,7 @@ import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.io.*;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -62,11 +63,30 @@ import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
  *
  * All methods in the protocol should throw only IOException.  No field data of
  * the protocol instance is transmitted.
+ *
+ * Clients with {@link #COMPACT_INVOCATION_KEY} set write the calls to the
+ * methods the server has the same fingerprints for, see
+ * {@link ProtocolSignature}, with the codecs of the methods rather than with
+ * {@link ObjectWritable}, which writes and looks up the names of the
+ * classes of the parameters and values on every call. Servers take both.
  */
 public class RPC {
   private static final Log LOG =
     LogFactory.getLog(RPC.class);
 
+  /**
+   * Whether clients write calls with the codecs of the methods. Only to be
+   * set once all the servers the clients call understand such calls.
+   */
+  public static final String COMPACT_INVOCATION_KEY =
+    "ipc.client.compact.invocation";
+
+  /**
+   * The length of a method or class name a compact invocation or value
+   * starts with in place of the name. No name is empty.
+   */
+  private static final int COMPACT = 0;
+
   private RPC() {}                                  // no public ctor
 
 
@@ -76,6 +96,12 @@ public class RPC {
     private Class[] parameterClasses;
     private Object[] parameters;
     private Configuration conf;
+    /** The codec of the method, for compact invocations. */
+    private MethodCodec codec;
+    private Method method;
+    /** The fingerprint and parameters of a compact invocation as read. */
+    private int methodId;
+    private byte[] compactParameters;
 
     public Invocation() {}
 
@@ -85,6 +111,43 @@ public class RPC {
       this.parameters = parameters;
     }
 
+    /** A compact invocation. */
+    public Invocation(MethodCodec codec, Object[] parameters) {
+      this(codec.getMethod(), parameters);
+      this.codec = codec;
+    }
+
+    /** Whether the parameters are written by the codec of the method. */
+    public boolean isCompact() {
+      return codec != null || compactParameters != null;
+    }
+
+    /** The codec of the method, for compact invocations. */
+    public MethodCodec getCodec() { return codec; }
+
+    /** The method invoked, once the server looked it up. */
+    public Method getMethod() { return method; }
+
+    public void setMethod(Method method) { this.method = method; }
+
+    /**
+     * Reads the parameters of a compact invocation of a method of the
+     * protocol.
+     */
+    public void decode(Class<?> protocol) throws IOException {
+      codec = MethodCodec.getCodecs(protocol).get(methodId);
+      if (codec == null) {
+        throw new IOException("Unknown method " + methodId + " of " +
+                              protocol.getName());
+      }
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(compactParameters, compactParameters.length);
+      parameters = codec.readParameters(in, conf);
+      methodName = codec.getMethod().getName();
+      parameterClasses = codec.getMethod().getParameterTypes();
+      compactParameters = null;
+    }
+
     /** The name of the method invoked. */
     public String getMethodName() { return methodName; }
 
@@ -95,7 +158,14 @@ public class RPC {
     public Object[] getParameters() { return parameters; }
 
     public void readFields(DataInput in) throws IOException {
-      methodName = UTF8.readString(in);
+      int length = in.readUnsignedShort();
+      if (length == COMPACT) {
+        methodId = in.readInt();
+        compactParameters = new byte[in.readInt()];
+        in.readFully(compactParameters);
+        return;
+      }
+      methodName = UTF8.readString(in, length);
       parameters = new Object[in.readInt()];
       parameterClasses = new Class[parameters.length];
       ObjectWritable objectWritable = new ObjectWritable();
@@ -106,6 +176,15 @@ public class RPC {
     }
 
     public void write(DataOutput out) throws IOException {
+      if (codec != null) {
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        codec.writeParameters(buffer, parameters, conf);
+        out.writeShort(COMPACT);
+        out.writeInt(codec.getId());
+        out.writeInt(buffer.getLength());
+        out.write(buffer.getData(), 0, buffer.getLength());
+        return;
+      }
       UTF8.writeString(out, methodName);
       out.writeInt(parameterClasses.length);
       for (int i = 0; i < parameterClasses.length; i++) {
@@ -115,6 +194,9 @@ public class RPC {
     }
 
     public String toString() {
+      if (compactParameters != null) {
+        return "method " + methodId;            // compact, not decoded yet
+      }
       StringBuffer buffer = new StringBuffer();
       buffer.append(methodName);
       buffer.append("(");
@@ -137,6 +219,66 @@ public class RPC {
 
   }
 
+  /**
+   * The value of a call, as written by {@link ObjectWritable} or, for
+   * compact invocations, by the codec of the method.
+   */
+  private static class Response implements Writable, Configurable {
+    private MethodCodec codec;
+    private Object value;
+    /** The value of a compact invocation as read. */
+    private byte[] compactValue;
+    private Configuration conf;
+
+    public Response() {}
+
+    /** The value of a compact invocation. */
+    public Response(MethodCodec codec, Object value) {
+      this.codec = codec;
+      this.value = value;
+    }
+
+    /**
+     * The value of the call.
+     * @param codec the codec of the method, for compact invocations
+     */
+    public Object get(MethodCodec codec) throws IOException {
+      if (compactValue == null) {
+        return value;
+      }
+      DataInputBuffer in = new DataInputBuffer();
+      in.reset(compactValue, compactValue.length);
+      return codec.readValue(in, conf);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+      int length = in.readUnsignedShort();
+      if (length == COMPACT) {
+        compactValue = new byte[in.readInt()];
+        in.readFully(compactValue);
+      } else {
+        value = ObjectWritable.readObject(in, UTF8.readString(in, length),
+                                          null, conf);
+      }
+    }
+
+    public void write(DataOutput out) throws IOException {
+      DataOutputBuffer buffer = new DataOutputBuffer();
+      codec.writeValue(buffer, value, conf);
+      out.writeShort(COMPACT);
+      out.writeInt(buffer.getLength());
+      out.write(buffer.getData(), 0, buffer.getLength());
+    }
+
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+    }
+
+    public Configuration getConf() {
+      return this.conf;
+    }
+  }
+
   /* Cache a client using its socket factory as the hash key */
   static private class ClientCache {
     private Map<SocketFactory, Client> clients =
@@ -158,7 +300,7 @@ public class RPC {
       // per-job, we choose (a).
       Client client = clients.get(factory);
       if (client == null) {
-        client = new Client(ObjectWritable.class, conf, factory);
+        client = new Client(Response.class, conf, factory);
         clients.put(factory, client);
       } else {
         client.incCount();
@@ -203,6 +345,9 @@ public class RPC {
     private boolean isClosed = false;
     final private int rpcTimeout;
     final private Class<?> protocol;
+    /** The codecs of the methods invoked with compact invocations. */
+    private volatile Map<Method, MethodCodec> compactMethods =
+      Collections.emptyMap();
 
     public Invoker(InetSocketAddress address, UserGroupInformation ticket, 
                    Configuration conf, SocketFactory factory, int rpcTimeout,
@@ -222,14 +367,41 @@ public class RPC {
         startTime = System.currentTimeMillis();
       }
 
-      ObjectWritable value = (ObjectWritable)
-        client.call(new Invocation(method, args), address, 
-                    protocol, ticket, rpcTimeout);
+      MethodCodec codec = compactMethods.get(method);
+      Invocation invocation = codec == null
+        ? new Invocation(method, args) : new Invocation(codec, args);
+      Response value = (Response)
+        client.call(invocation, address, protocol, ticket, rpcTimeout);
       if (logDebug) {
         long callTime = System.currentTimeMillis() - startTime;
         LOG.debug("Call: " + method.getName() + " " + callTime);
       }
-      return value.get();
+      return value.get(codec);
+    }
+
+    /**
+     * Invokes the methods the server has the same fingerprints for with
+     * compact invocations.
+     * @param serverMethods the fingerprints of the methods of the server,
+     *        null if the server has the same protocol
+     */
+    private void setCompactMethods(int[] serverMethods) {
+      Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+      if (serverMethods != null) {
+        for (int id : serverMethods) {
+          Integer count = counts.get(id);
+          counts.put(id, count == null ? 1 : count + 1);
+        }
+      }
+      Map<Method, MethodCodec> methods = new HashMap<Method, MethodCodec>();
+      for (MethodCodec codec : MethodCodec.getCodecs(protocol).values()) {
+        // the method of a fingerprint the server has twice is ambiguous
+        Integer count = counts.get(codec.getId());
+        if (serverMethods == null || (count != null && count == 1)) {
+          methods.put(codec.getMethod(), codec);
+        }
+      }
+      compactMethods = methods;
     }
     
     /* close the IPC client that's responsible for this invoker's RPCs */ 
@@ -541,6 +713,10 @@ public class RPC {
       ProtocolSignature serverInfo = proxy
       .getProtocolSignature(protocolName, clientVersion,
           ProtocolSignature.getFingerprint(protocol.getMethods()));
+      if (conf.getBoolean(COMPACT_INVOCATION_KEY, false)) {
+        ((Invoker)Proxy.getInvocationHandler(proxy)).setCompactMethods(
+            serverInfo.getMethods());
+      }
       return new ProtocolProxy<T>(protocol, proxy, serverInfo.getMethods());
     } catch (RemoteException re) {
       IOException ioe = re.unwrapRemoteException(IOException.class);
@@ -606,6 +782,12 @@ public class RPC {
     }
   }
 
+  /** Whether a proxy invokes a method with compact invocations. */
+  static boolean isCompact(Object proxy, Method method) {
+    return ((Invoker)Proxy.getInvocationHandler(proxy))
+             .compactMethods.containsKey(method);
+  }
+
   /** 
    * Expert: Make multiple, parallel calls to a set of servers.
    * @deprecated Use {@link #call(Method, Object[][], InetSocketAddress[], UserGroupInformation, Configuration)} instead 
@@ -638,7 +820,7 @@ public class RPC {
       (Object[])Array.newInstance(method.getReturnType(), wrappedValues.length);
     for (int i = 0; i < values.length; i++)
       if (wrappedValues[i] != null)
-        values[i] = ((ObjectWritable)wrappedValues[i]).get();
+        values[i] = ((Response)wrappedValues[i]).get(null);
     
     return values;
     } finally {
@@ -713,11 +895,17 @@ public class RPC {
     throws IOException {
       try {
         Invocation call = (Invocation)param;
+        Method method;
+        if (call.isCompact()) {
+          call.decode(protocol);
+          method = call.getCodec().getMethod();
+        } else {
+          method = protocol.getMethod(call.getMethodName(),
+                                      call.getParameterClasses());
+        }
+        call.setMethod(method);
         if (verbose) log("Call: " + call);
 
-        Method method =
-          protocol.getMethod(call.getMethodName(),
-                                   call.getParameterClasses());
         method.setAccessible(true);
 
         long startTime = System.currentTimeMillis();
@@ -749,7 +937,7 @@ public class RPC {
 
         if (verbose) log("Return: "+value);
 
-        return new ObjectWritable(method.getReturnType(), value);
+        return getResponseValue(call, value);
 
       } catch (InvocationTargetException e) {
         Throwable target = e.getTargetException();
@@ -770,6 +958,20 @@ public class RPC {
       }
     }
 
+    /**
+     * Returns the value of a method as the response to its invocation:
+     * written by the codec of the method for compact invocations, by
+     * {@link ObjectWritable} otherwise.
+     */
+    @Override
+    protected Writable getResponseValue(Writable param, Object value) {
+      Invocation call = (Invocation)param;
+      if (call.isCompact()) {
+        return new Response(call.getCodec(), value);
+      }
+      return new ObjectWritable(call.getMethod().getReturnType(), value);
+    }
+
     @Override
     public void authorize(Subject user, ConnectionHeader connection) 
     throws AuthorizationException {
@@ -56,13 +56,16 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.security.auth.Subject;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.ConfigurationSnapshot;
 import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.util.ReflectionUtils;
@@ -104,6 +107,19 @@ public abstract class Server {
   public static final String IPC_SERVER_RPC_READ_THREADS_KEY =
                                         "ipc.server.read.threadpool.size";
   public static final int IPC_SERVER_RPC_READ_THREADS_DEFAULT = 1;
+  /**
+   * The class of the queue of calls waiting for a handler, a
+   * {@link BlockingQueue} with a constructor taking its capacity and the
+   * configuration, or its capacity only.
+   */
+  public static final String IPC_SERVER_CALLQUEUE_IMPL_KEY =
+                                        "ipc.server.callqueue.impl";
+  /**
+   * Whether the parameters of calls are configured with an immutable
+   * {@link ConfigurationSnapshot} of the configuration of the server.
+   */
+  public static final String IPC_SERVER_PARAM_CONF_SNAPSHOT_KEY =
+                                        "ipc.server.param.conf.snapshot";
     
   public static final Log LOG = LogFactory.getLog(Server.class);
 
@@ -153,6 +169,80 @@ public abstract class Server {
     return (addr == null) ? null : addr.getHostAddress();
   }
 
+  /**
+   * Defers the response to the call the calling handler runs, so that the
+   * handler takes the next call once this one returns, and the response is
+   * sent when any thread sends the returned {@link DeferredResponse}. The
+   * value the call returns is then ignored, while an exception it throws is
+   * sent, unless the response was sent already. May be called more than once
+   * in a call, returning the same response.
+   * @throws IllegalStateException if not invoked inside an RPC
+   */
+  public static DeferredResponse deferResponse() {
+    Call call = CurCall.get();
+    if (call == null) {
+      throw new IllegalStateException("Not invoked inside an RPC");
+    }
+    if (call.deferredResponse == null) {
+      call.deferredResponse = new DeferredResponse(SERVER.get(), call);
+    }
+    return call.deferredResponse;
+  }
+
+  /**
+   * The response to a call a handler deferred with {@link #deferResponse()}.
+   * It is sent once, by the first thread to send it; it is then written to
+   * the connection of the call like the responses handlers send.
+   */
+  public static class DeferredResponse {
+    private final Server server;
+    private final Call call;
+    private final AtomicBoolean sent = new AtomicBoolean(false);
+
+    private DeferredResponse(Server server, Call call) {
+      this.server = server;
+      this.call = call;
+    }
+
+    /**
+     * Sends the value of the call, as the call would have returned it, see
+     * {@link Server#getResponseValue(Writable, Object)}.
+     * @return false if the response was sent already
+     */
+    public boolean sendValue(Object value) throws IOException {
+      return send(Status.SUCCESS, server.getResponseValue(call.param, value),
+                  null, null);
+    }
+
+    /**
+     * Sends a response as it is, as if the call had returned it.
+     * @return false if the response was sent already
+     */
+    public boolean sendResponse(Writable response) throws IOException {
+      return send(Status.SUCCESS, response, null, null);
+    }
+
+    /**
+     * Sends an error, as if the call had thrown it.
+     * @return false if the response was sent already
+     */
+    public boolean sendError(Throwable error) throws IOException {
+      return send(Status.ERROR, null, error.getClass().getName(),
+                  StringUtils.stringifyException(error));
+    }
+
+    private boolean send(Status status, Writable value, String errorClass,
+                         String error) throws IOException {
+      if (!sent.compareAndSet(false, true)) {
+        return false;
+      }
+      server.setupResponse(new ByteArrayOutputStream(), call, status, value,
+                           errorClass, error);
+      server.responder.doRespond(call);
+      return true;
+    }
+  }
+
   private String bindAddress; 
   private int port;                               // port we listen on
   private int handlerCount;                       // number of handler threads
@@ -171,6 +261,8 @@ public abstract class Server {
   protected RpcMetrics  rpcMetrics;
   
   private Configuration conf;
+  /** The configuration handed to the parameter of each call. */
+  private final Configuration paramConf;
 
   private int maxQueueSize;
   private final int maxRespSize;
@@ -221,13 +313,14 @@ public abstract class Server {
   }
 
   /** A call queued for handling. */
-  private static class Call {
+  private static class Call implements Schedulable {
     private int id;                               // the client's call id
     private Writable param;                       // the parameter passed
     private Connection connection;                // connection to client
     private long timestamp;     // the time received when response is null
                                    // the time served when response is not null
     private ByteBuffer response;                      // the response for this call
+    private DeferredResponse deferredResponse;  // if the handler deferred it
 
     public Call(int id, Writable param, Connection connection) { 
       this.id = id;
@@ -245,6 +338,15 @@ public abstract class Server {
     public void setResponse(ByteBuffer response) {
       this.response = response;
     }
+
+    public String getUserName() {
+      UserGroupInformation ugi = connection.header.getUgi();
+      return ugi == null ? null : ugi.getUserName();
+    }
+
+    public String getProtocolName() {
+      return connection.header.getProtocol();
+    }
   }
 
   /** Listens on the socket. Creates jobs for the handler threads*/
@@ -1007,7 +1109,7 @@ public abstract class Server {
       if (LOG.isDebugEnabled())
         LOG.debug(" got #" + id);
 
-      Writable param = ReflectionUtils.newInstance(paramClass, conf);           // read param
+      Writable param = ReflectionUtils.newInstance(paramClass, paramConf);      // read param
       param.readFields(dis);        
         
       Call call = new Call(id, param, this);
@@ -1081,6 +1183,18 @@ public abstract class Server {
           }
           CurCall.set(null);
 
+          if (call.deferredResponse != null) {
+            // the response is sent by whoever holds the deferred response,
+            // or here if the call failed
+            if (error != null &&
+                !call.deferredResponse.send(Status.ERROR, null, errorClass,
+                                            error)) {
+              LOG.warn(getName() + ", call " + call + ": " + errorClass +
+                       " thrown after its deferred response was sent");
+            }
+            continue;
+          }
+
           setupResponse(buf, call, 
                         (error == null) ? Status.SUCCESS : Status.ERROR, 
                         value, errorClass, error);
@@ -1125,6 +1239,13 @@ public abstract class Server {
     throws IOException {
     this.bindAddress = bindAddress;
     this.conf = conf;
+    // a subclass, such as a JobConf, is passed as it is: parameters may
+    // depend on its type
+    this.paramConf =
+      conf.getBoolean(IPC_SERVER_PARAM_CONF_SNAPSHOT_KEY, false) &&
+      (conf.getClass() == Configuration.class ||
+       conf instanceof ConfigurationSnapshot)
+      ? ConfigurationSnapshot.of(conf) : conf;
     this.port = port;
     this.paramClass = paramClass;
     this.handlerCount = handlerCount;
@@ -1134,7 +1255,7 @@ public abstract class Server {
                                    IPC_SERVER_RPC_MAX_RESPONSE_SIZE_DEFAULT);
     this.readThreads = conf.getInt(IPC_SERVER_RPC_READ_THREADS_KEY,
                                    IPC_SERVER_RPC_READ_THREADS_DEFAULT);
-    this.callQueue  = new LinkedBlockingQueue<Call>(maxQueueSize); 
+    this.callQueue  = createCallQueue(conf, maxQueueSize);
     this.maxIdleTime = 2*conf.getInt("ipc.client.connection.maxidletime", 1000);
     this.maxConnectionsToNuke = conf.getInt("ipc.client.kill.max", 10);
     this.thresholdIdleConnections = conf.getInt("ipc.client.idlethreshold", 4000);
@@ -1144,6 +1265,9 @@ public abstract class Server {
     this.port = listener.getAddress().getPort();    
     this.rpcMetrics = new RpcMetrics(serverName,
                           Integer.toString(this.port), this);
+    if (callQueue instanceof FairCallQueue) {
+      ((FairCallQueue<Call>)callQueue).setMetrics(rpcMetrics);
+    }
     this.tcpNoDelay = conf.getBoolean("ipc.server.tcpnodelay", false);
 
 
@@ -1151,6 +1275,31 @@ public abstract class Server {
     responder = new Responder();
   }
 
+  @SuppressWarnings("unchecked")
+  private static BlockingQueue<Call> createCallQueue(Configuration conf,
+                                                     int capacity)
+    throws IOException {
+    Class<? extends BlockingQueue> queueClass =
+      conf.getClass(IPC_SERVER_CALLQUEUE_IMPL_KEY, LinkedBlockingQueue.class,
+                    BlockingQueue.class);
+    if (queueClass == LinkedBlockingQueue.class) {
+      return new LinkedBlockingQueue<Call>(capacity);
+    }
+    try {
+      try {
+        return queueClass.getConstructor(Integer.TYPE, Configuration.class)
+                         .newInstance(capacity, conf);
+      } catch (NoSuchMethodException e) {
+        return queueClass.getConstructor(Integer.TYPE).newInstance(capacity);
+      }
+    } catch (Exception e) {
+      IOException ioe = new IOException("Cannot create the call queue " +
+                                        queueClass.getName());
+      ioe.initCause(e);
+      throw ioe;
+    }
+  }
+
   private void closeConnection(Connection connection) {
     synchronized (connectionList) {
       if (connectionList.remove(connection))
@@ -1194,6 +1343,17 @@ public abstract class Server {
   Configuration getConf() {
     return conf;
   }
+
+  /**
+   * Returns the response to a call, for a value a deferred response is sent
+   * with. By default the value is the {@link Writable} the call would have
+   * returned.
+   * @param param the parameter of the call
+   * @param value the value the response is sent with
+   */
+  protected Writable getResponseValue(Writable param, Object value) {
+    return (Writable)value;
+  }
   
   /** Sets the socket buffer size used for responding to RPCs */
   public void setSocketSendBufSize(int size) { this.socketSendBufferSize = size; }
@@ -80,6 +80,33 @@ public class RpcMetrics implements Updater {
   public MetricsIntValue callQueueLen = 
           new MetricsIntValue("callQueueLen", registry);
   
+  /**
+   * @return the number of calls waiting in a sub-queue of the call queue,
+   *         registered on first use
+   */
+  public synchronized MetricsIntValue getCallQueueDepth(String queue) {
+    String name = "CallQueueDepth_" + queue;
+    MetricsIntValue m = (MetricsIntValue) registry.get(name);
+    if (m == null) {
+      m = new MetricsIntValue(name, registry);
+    }
+    return m;
+  }
+
+  /**
+   * @return the time calls wait in a sub-queue of the call queue,
+   *         registered on first use
+   */
+  public synchronized MetricsTimeVaryingRate getCallQueueWaitTime(
+      String queue) {
+    String name = "CallQueueWaitTime_" + queue;
+    MetricsTimeVaryingRate m = (MetricsTimeVaryingRate) registry.get(name);
+    if (m == null) {
+      m = new MetricsTimeVaryingRate(name, registry);
+    }
+    return m;
+  }
+
   /**
    * Push the metrics to the monitoring subsystem on doUpdate() call.
    */
@@ -23,6 +23,8 @@ import java.util.zip.CRC32;
 
 import java.io.*;
 
+import org.apache.hadoop.fs.ChecksumException;
+
 /**
  * This class provides inteface and utilities for processing checksums for
  * DFS data transfers.
@@ -36,9 +38,36 @@ public class DataChecksum implements Checksum {
   // checksum types
   public static final int CHECKSUM_NULL    = 0;
   public static final int CHECKSUM_CRC32   = 1;
+  public static final int CHECKSUM_CRC32C  = 2;
   
   private static final int CHECKSUM_NULL_SIZE  = 0;
   private static final int CHECKSUM_CRC32_SIZE = 4;
+  private static final int CHECKSUM_CRC32C_SIZE = 4;
+  
+  /**
+   * Returns the checksum type for the given name, which is either the
+   * type number or one of "NULL", "CRC32" or "CRC32C".
+   * @throws IllegalArgumentException if the name is not a known type
+   */
+  public static int getChecksumTypeByName( String name ) {
+    String n = name.trim();
+    if ( n.equalsIgnoreCase( "NULL" ) ) {
+      return CHECKSUM_NULL;
+    } else if ( n.equalsIgnoreCase( "CRC32" ) ) {
+      return CHECKSUM_CRC32;
+    } else if ( n.equalsIgnoreCase( "CRC32C" ) ) {
+      return CHECKSUM_CRC32C;
+    }
+    try {
+      int type = Integer.parseInt( n );
+      if ( type >= CHECKSUM_NULL && type <= CHECKSUM_CRC32C ) {
+        return type;
+      }
+    } catch ( NumberFormatException e ) {
+      // fall through
+    }
+    throw new IllegalArgumentException( "Unknown checksum type " + name );
+  }
   
   
   public static DataChecksum newDataChecksum( int type, int bytesPerChecksum ) {
@@ -53,12 +82,17 @@ public class DataChecksum implements Checksum {
     case CHECKSUM_CRC32 :
       return new DataChecksum( CHECKSUM_CRC32, new CRC32(), 
                                CHECKSUM_CRC32_SIZE, bytesPerChecksum );
+    case CHECKSUM_CRC32C :
+      return new DataChecksum( CHECKSUM_CRC32C, new PureJavaCrc32C(), 
+                               CHECKSUM_CRC32C_SIZE, bytesPerChecksum );
     default:
       return null;  
     }
   }
 
-  // This constructor uses the specified summer instance
+  // This constructor uses the specified summer instance for CRC32 and
+  // CRC32C, so it must compute that type of checksum.
+  // CHECKSUM_NULL always uses its own implementation.
   public static DataChecksum newDataChecksum( int type, int bytesPerChecksum, Checksum sum ) {
     if ( bytesPerChecksum <= 0 ) {
       return null;
@@ -71,6 +105,9 @@ public class DataChecksum implements Checksum {
     case CHECKSUM_CRC32 :
       return new DataChecksum( CHECKSUM_CRC32, sum, 
                                CHECKSUM_CRC32_SIZE, bytesPerChecksum );
+    case CHECKSUM_CRC32C :
+      return new DataChecksum( CHECKSUM_CRC32C, sum, 
+                               CHECKSUM_CRC32C_SIZE, bytesPerChecksum );
     default:
       return null;  
     }
@@ -151,7 +188,7 @@ public class DataChecksum implements Checksum {
        return 0;
      }
 
-     if ( type == CHECKSUM_CRC32 ) {
+     if ( size == 4 ) {
        out.writeInt( (int) summer.getValue() );
      } else {
        throw new IOException( "Unknown Checksum " + type );
@@ -175,7 +212,7 @@ public class DataChecksum implements Checksum {
         return 0;
       }
 
-      if ( type == CHECKSUM_CRC32 ) {
+      if ( size == 4 ) {
         int checksum = (int) summer.getValue();
         buf[offset+0] = (byte) ((checksum >>> 24) & 0xff);
         buf[offset+1] = (byte) ((checksum >>> 16) & 0xff);
@@ -197,7 +234,7 @@ public class DataChecksum implements Checksum {
     * @return true if the checksum matches and false otherwise.
     */
    public boolean compare( byte buf[], int offset ) {
-     if ( size > 0 && type == CHECKSUM_CRC32 ) {
+     if ( size == 4 ) {
        int checksum = ( (buf[offset+0] & 0xff) << 24 ) | 
                       ( (buf[offset+1] & 0xff) << 16 ) |
                       ( (buf[offset+2] & 0xff) << 8 )  |
@@ -207,6 +244,78 @@ public class DataChecksum implements Checksum {
      return size == 0;
    }
    
+
+  /**
+   * Verifies the checksums of the chunks in data[dataOffset, dataOffset+len)
+   * against the checksums stored back to back in checksums[checksumOffset].
+   * The last chunk may be shorter than bytesPerChecksum. This resets the
+   * running checksum.
+   *
+   * @param fileName name reported in the exception on a mismatch
+   * @param basePos position in the file of data[dataOffset]
+   * @throws ChecksumException for the first chunk that does not match
+   */
+  public void verifyChunkedSums( byte[] data, int dataOffset, int len,
+                                 byte[] checksums, int checksumOffset,
+                                 String fileName, long basePos )
+                                 throws ChecksumException {
+    if ( size == 0 ) {
+      return;
+    }
+    reset();
+    int remaining = len;
+    int dataPos = dataOffset;
+    int sumPos = checksumOffset;
+    while ( remaining > 0 ) {
+      int n = Math.min( remaining, bytesPerChecksum );
+      summer.update( data, dataPos, n );
+      int computed = (int) summer.getValue();
+      summer.reset();
+      int stored = ( (checksums[sumPos+0] & 0xff) << 24 ) |
+                   ( (checksums[sumPos+1] & 0xff) << 16 ) |
+                   ( (checksums[sumPos+2] & 0xff) << 8 )  |
+                   ( (checksums[sumPos+3] & 0xff) );
+      if ( computed != stored ) {
+        long errPos = basePos + dataPos - dataOffset;
+        throw new ChecksumException( "Checksum error: " + fileName + " at " +
+            errPos + " exp: " + stored + " got: " + computed, errPos );
+      }
+      dataPos += n;
+      sumPos += size;
+      remaining -= n;
+    }
+  }
+
+  /**
+   * Computes the checksums of the chunks in data[dataOffset, dataOffset+len)
+   * and stores them back to back in checksums[checksumOffset]. The last
+   * chunk may be shorter than bytesPerChecksum. This resets the running
+   * checksum.
+   */
+  public void calculateChunkedSums( byte[] data, int dataOffset, int len,
+                                    byte[] checksums, int checksumOffset ) {
+    if ( size == 0 ) {
+      return;
+    }
+    reset();
+    int remaining = len;
+    int dataPos = dataOffset;
+    int sumPos = checksumOffset;
+    while ( remaining > 0 ) {
+      int n = Math.min( remaining, bytesPerChecksum );
+      summer.update( data, dataPos, n );
+      int checksum = (int) summer.getValue();
+      summer.reset();
+      checksums[sumPos+0] = (byte) ((checksum >>> 24) & 0xff);
+      checksums[sumPos+1] = (byte) ((checksum >>> 16) & 0xff);
+      checksums[sumPos+2] = (byte) ((checksum >>> 8) & 0xff);
+      checksums[sumPos+3] = (byte) (checksum & 0xff);
+      dataPos += n;
+      sumPos += size;
+      remaining -= n;
+    }
+  }
+   
   private final int type;
   private final int size;
   private final Checksum summer;
@@ -50,6 +50,7 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.ConcurrentHashMap;
 import java.nio.BufferOverflowException;
@@ -90,6 +91,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
   private int datanodeWriteTimeout;
   private int timeoutValue;  // read timeout for the socket
   final int writePacketSize;
+  final int checksumType;     // checksum type used for new files
   private final FileSystem.Statistics stats;
   private int maxBlockAcquireFailures;
   private final int hdfsTimeout;    // timeout value for a DFS operation.
@@ -106,6 +108,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
   private final InetAddress localHost;
   
   private Integer dataTransferVersion = -1;
+  private final int lsBatchSize; // entries asked per getPartialListing call
     
   /**
    * The locking hierarchy is to first acquire lock on DFSClient object, followed by 
@@ -263,6 +266,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     this.socketFactory = NetUtils.getSocketFactory(conf, ClientProtocol.class);
     // dfs.write.packet.size is an internal config variable
     this.writePacketSize = conf.getInt("dfs.write.packet.size", 64*1024);
+    this.checksumType = DataChecksum.getChecksumTypeByName(
+                          conf.get("dfs.checksum.type", "CRC32"));
     this.maxBlockAcquireFailures = getMaxBlockAcquireFailures(conf);
     // The hdfsTimeout is currently the same as the ipc timeout 
     this.hdfsTimeout = Client.getTimeout(conf);
@@ -282,6 +287,8 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     }
     defaultBlockSize = conf.getLong("dfs.block.size", DEFAULT_BLOCK_SIZE);
     defaultReplication = (short) conf.getInt("dfs.replication", 3);
+    this.lsBatchSize = conf.getInt(FSConstants.DFS_LIST_LIMIT_KEY,
+        FSConstants.DFS_LIST_LIMIT_DEFAULT);
 
     if (nameNodeAddr != null && rpcNamenode == null) {
       createRPCNamenodeIfCompatible(nameNodeAddr, conf, ugi);
@@ -964,6 +971,46 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     }
   }
 
+  /**
+   * Get a partial listing of the indicated directory.
+   * At most dfs.ls.limit entries following <code>startAfter</code> are
+   * fetched, so a large directory can be listed in several round trips
+   * without holding the namespace lock for the whole directory.
+   *
+   * @param src the directory name
+   * @param startAfter the name to start listing after encoded in UTF8;
+   *        {@link DirectoryListing#EMPTY_NAME} to start from the beginning
+   * @return a partial listing; null if src does not exist
+   * @see ClientProtocol#getPartialListing(String, byte[], int)
+   */
+  public DirectoryListing listPaths(String src, byte[] startAfter)
+    throws IOException {
+    checkOpen();
+    metrics.incLsCalls();
+    try {
+      if (isPartialListingSupported()) {
+        return namenode.getPartialListing(src, startAfter, lsBatchSize);
+      }
+      // the namenode can only return the whole directory in one call
+      if (startAfter.length != 0) {
+        return new DirectoryListing(new FileStatus[0], 0);
+      }
+      FileStatus[] listing = namenode.getListing(src);
+      return listing == null ? null : new DirectoryListing(listing, 0);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class);
+    }
+  }
+
+  /** check if the namenode supports getPartialListing */
+  private boolean isPartialListingSupported() throws IOException {
+    if (namenodeProtocolProxy == null) {
+      return namenodeVersion >= ClientProtocol.ITERATIVE_LISTING_VERSION;
+    }
+    return namenodeProtocolProxy.isMethodSupported(
+        "getPartialListing", String.class, byte[].class, int.class);
+  }
+
   public FileStatus getFileInfo(String src) throws IOException {
     checkOpen();
     try {
@@ -1834,7 +1881,15 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                               " for file " + file + 
                               " for block " + blockId);
       }
-      DataChecksum checksum = DataChecksum.newDataChecksum( in , new PureJavaCrc32());
+      int checksumType = in.readByte();
+      int bytesPerChecksum = in.readInt();
+      DataChecksum checksum = DataChecksum.newDataChecksum(
+          checksumType, bytesPerChecksum, newPacketSummer(checksumType));
+      if (checksum == null) {
+        throw new IOException("Could not create DataChecksum of type " +
+                              checksumType + " with bytesPerChecksum " +
+                              bytesPerChecksum + " for file " + file);
+      }
       //Warning when we get CHECKSUM_NULL?
       
       // Read the first chunk offset.
@@ -2695,6 +2750,18 @@ public class DFSClient implements FSConstants, java.io.Closeable {
     }
   }
 
+  /** The summer used by DFSOutputStream for the given checksum type. */
+  private static Checksum newSummer(int type) {
+    return type == DataChecksum.CHECKSUM_CRC32C ? new PureJavaCrc32C()
+                                                : new CRC32();
+  }
+
+  /** The summer for the packet checksums of the given checksum type. */
+  private static Checksum newPacketSummer(int type) {
+    return type == DataChecksum.CHECKSUM_CRC32C ? new PureJavaCrc32C()
+                                                : new PureJavaCrc32();
+  }
+
   /****************************************************************
    * DFSOutputStream creates files from a stream of bytes.
    *
@@ -3374,7 +3441,7 @@ public class DFSClient implements FSConstants, java.io.Closeable {
 
     private DFSOutputStream(String src, long blockSize, Progressable progress,
         int bytesPerChecksum, short replication) throws IOException {
-      super(new CRC32(), bytesPerChecksum, 4);
+      super(newSummer(DFSClient.this.checksumType), bytesPerChecksum, 4);
       this.src = src;
       this.blockSize = blockSize;
       this.blockReplication = replication;
@@ -3390,9 +3457,13 @@ public class DFSClient implements FSConstants, java.io.Closeable {
                               "multiple of io.bytes.per.checksum");
                               
       }
-      checksum = DataChecksum.newDataChecksum(DataChecksum.CHECKSUM_CRC32, 
+      checksum = DataChecksum.newDataChecksum(checksumType, 
                                               bytesPerChecksum,
-                                              new PureJavaCrc32());
+                                              newPacketSummer(checksumType));
+      if (checksum == null || checksum.getChecksumSize() != 4) {
+        throw new IOException("Unsupported checksum type " + checksumType +
+                              " for writing " + src);
+      }
     }
 
     /**
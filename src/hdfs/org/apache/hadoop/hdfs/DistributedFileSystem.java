@@ -20,11 +20,14 @@ package org.apache.hadoop.hdfs;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
 
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.*;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
@@ -290,14 +293,102 @@ public class DistributedFileSystem extends FileSystem {
         f.getPath().makeQualified(this)); // fully-qualify path
   }
 
+  /**
+   * List all the entries of a directory.
+   *
+   * The directory is fetched from the namenode in batches of at most
+   * dfs.ls.limit entries, so the namenode holds its lock only for
+   * one batch at a time.
+   */
   public FileStatus[] listStatus(Path p) throws IOException {
-    FileStatus[] infos = dfs.listPaths(getPathName(p));
-    if (infos == null) return null;
-    FileStatus[] stats = new FileStatus[infos.length];
-    for (int i = 0; i < infos.length; i++) {
-      stats[i] = makeQualified(infos[i]);
+    String src = getPathName(p);
+
+    // fetch the first batch of entries in the directory
+    DirectoryListing thisListing = dfs.listPaths(
+        src, DirectoryListing.EMPTY_NAME);
+    if (thisListing == null) { // the directory does not exist
+      return null;
+    }
+
+    FileStatus[] partialListing = thisListing.getPartialListing();
+    if (!thisListing.hasMore()) { // got all entries of the directory
+      FileStatus[] stats = new FileStatus[partialListing.length];
+      for (int i = 0; i < partialListing.length; i++) {
+        stats[i] = makeQualified(partialListing[i]);
+      }
+      return stats;
+    }
+
+    // The directory size is too big that it needs to fetch more
+    // estimate the total number of entries in the directory
+    int totalNumEntries =
+      partialListing.length + thisListing.getRemainingEntries();
+    ArrayList<FileStatus> listing =
+      new ArrayList<FileStatus>(totalNumEntries);
+    // add the first batch of entries to the array list
+    for (FileStatus fileStatus : partialListing) {
+      listing.add(makeQualified(fileStatus));
     }
-    return stats;
+
+    // now fetch more entries
+    do {
+      thisListing = dfs.listPaths(src, thisListing.getLastName());
+
+      if (thisListing == null) {
+        // the directory is deleted
+        throw new FileNotFoundException("File " + p + " does not exist.");
+      }
+
+      partialListing = thisListing.getPartialListing();
+      for (FileStatus fileStatus : partialListing) {
+        listing.add(makeQualified(fileStatus));
+      }
+    } while (thisListing.hasMore());
+
+    return listing.toArray(new FileStatus[listing.size()]);
+  }
+
+  /**
+   * List the entries of a directory lazily.
+   *
+   * Only one batch of at most dfs.ls.limit entries is held in memory;
+   * the next batch is fetched from the namenode when the current one
+   * has been consumed.
+   */
+  @Override
+  public RemoteIterator<FileStatus> listStatusIterator(final Path p)
+      throws IOException {
+    final String src = getPathName(p);
+    final DirectoryListing firstListing = dfs.listPaths(
+        src, DirectoryListing.EMPTY_NAME);
+    if (firstListing == null) {
+      throw new FileNotFoundException("File " + p + " does not exist.");
+    }
+
+    return new RemoteIterator<FileStatus>() {
+      private DirectoryListing thisListing = firstListing;
+      private int i = 0;
+
+      public boolean hasNext() throws IOException {
+        if (i >= thisListing.getPartialListing().length
+            && thisListing.hasMore()) {
+          // current listing is exhausted; fetch the next batch
+          thisListing = dfs.listPaths(src, thisListing.getLastName());
+          if (thisListing == null) {
+            throw new FileNotFoundException("File " + p + " does not exist.");
+          }
+          i = 0;
+        }
+        return i < thisListing.getPartialListing().length;
+      }
+
+      public FileStatus next() throws IOException {
+        if (!hasNext()) {
+          throw new NoSuchElementException("No more entry in " + p);
+        }
+        return makeQualified(thisListing.getPartialListing()[i++]);
+      }
+    };
   }
 
   public boolean mkdirs(Path f, FsPermission permission) throws IOException {
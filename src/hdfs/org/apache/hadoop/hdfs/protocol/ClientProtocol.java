@@ -38,13 +38,14 @@ public interface ClientProtocol extends VersionedProtocol {
   public static final long RECOVER_LEASE_VERSION = 42L;
   public static final long SAVENAMESPACE_FORCE = 54L; // in sync with the warehouse branch
   public static final long CLOSE_RECOVER_LEASE_VERSION = 55L;
+  public static final long ITERATIVE_LISTING_VERSION = 56L;
   /**
    * Compared to the previous version the following changes have been introduced:
    * (Only the latest change is reflected.
    * The log of historical changes can be retrieved from the svn).
-   * 54: make recoverLease returns if the file is closed or not
+   * 56: add getPartialListing to list a directory in batches
    */
-  public static final long versionID = CLOSE_RECOVER_LEASE_VERSION;
+  public static final long versionID = ITERATIVE_LISTING_VERSION;
 
   
   ///////////////////////////////////////
@@ -319,6 +320,29 @@ public interface ClientProtocol extends VersionedProtocol {
    */
   public FileStatus[] getListing(String src) throws IOException;
 
+  /**
+   * Get a partial listing of the indicated directory.
+   * <p>
+   * The listing starts from the first child whose name is greater than
+   * <code>startAfter</code> and contains at most <code>maxEntries</code>
+   * entries. The NameNode may return fewer entries than requested if
+   * <code>maxEntries</code> exceeds <tt>dfs.ls.limit</tt>.
+   * The namespace lock is held only while a single batch is built, so
+   * a huge directory can be listed without blocking other operations.
+   *
+   * @param src the directory name
+   * @param startAfter the name to start listing after encoded in UTF8;
+   *        {@link DirectoryListing#EMPTY_NAME} to start from the beginning
+   * @param maxEntries maximum number of entries to return
+   * @return a partial listing starting after startAfter;
+   *         null if the path does not exist
+   * @throws AccessControlException if permission to list the directory
+   *         is denied by the system
+   * @throws IOException if other errors occur
+   */
+  public DirectoryListing getPartialListing(String src, byte[] startAfter,
+                                            int maxEntries) throws IOException;
+
   ///////////////////////////////////////
   // System issues and management
   ///////////////////////////////////////
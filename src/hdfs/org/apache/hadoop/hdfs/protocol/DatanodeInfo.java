@@ -38,11 +38,13 @@ import org.apache.hadoop.util.StringUtils;
  * Datanode Protocol and the Client Protocol.
  */
 public class DatanodeInfo extends DatanodeID implements Node {
-  protected long capacity;
-  protected long dfsUsed;
-  protected long remaining;
-  protected long lastUpdate;
-  protected int xceiverCount;
+  // Usage fields are written by heartbeats and read without locking
+  // by the namenode monitors, hence volatile.
+  protected volatile long capacity;
+  protected volatile long dfsUsed;
+  protected volatile long remaining;
+  protected volatile long lastUpdate;
+  protected volatile int xceiverCount;
   protected String location = NetworkTopology.DEFAULT_RACK;
 
   /** HostName as suplied by the datanode during registration as its 
@@ -18,6 +18,8 @@
 package org.apache.hadoop.hdfs.protocol;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
 
 /************************************
  * Some handy constants
@@ -81,12 +83,33 @@ public interface FSConstants {
   // Version is reflected in the data storage file.
   // Versions are negative.
   // Decrement LAYOUT_VERSION to define a new version.
-  public static final int LAYOUT_VERSION = -18;
+  public static final int LAYOUT_VERSION = -19;
   // Current version: 
   // Support disk space quotas
   
   public static final String DFS_SOFT_LEASE_KEY = "dfs.softlease.period";
   public static final String DFS_HARD_LEASE_KEY = "dfs.hardlease.period";
+
+  // maximum number of entries returned by a single getPartialListing call
+  public static final String DFS_LIST_LIMIT_KEY = "dfs.ls.limit";
+  public static final int DFS_LIST_LIMIT_DEFAULT = 1000;
+
+  // format of the namespace image
+  public static final String DFS_IMAGE_COMPRESS_KEY = "dfs.image.compress";
+  public static final boolean DFS_IMAGE_COMPRESS_DEFAULT = false;
+  public static final String DFS_IMAGE_COMPRESSION_CODEC_KEY =
+    "dfs.image.compression.codec";
+  public static final Class<? extends CompressionCodec>
+    DFS_IMAGE_COMPRESSION_CODEC_DEFAULT = DefaultCodec.class;
+  public static final String DFS_IMAGE_THREADS_KEY = "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_THREADS_DEFAULT = 4;
+  public static final String DFS_IMAGE_SECTION_SIZE_KEY = "dfs.image.section.size";
+  public static final int DFS_IMAGE_SECTION_SIZE_DEFAULT = 65536;
+
+  // names used at least this often while loading the namespace are shared
+  public static final String DFS_NAME_CACHE_THRESHOLD_KEY =
+    "dfs.namenode.name.cache.threshold";
+  public static final int DFS_NAME_CACHE_THRESHOLD_DEFAULT = 10;
   
   // Convert the bytes to KB
   public static int KB_RIGHT_SHIFT_BITS = 10;
@@ -18,12 +18,14 @@ public class ProtocolCompatible {
     return (clientVersion == ClientProtocol.RECOVER_LEASE_VERSION -1 ||
             clientVersion == ClientProtocol.RECOVER_LEASE_VERSION ||
             clientVersion == ClientProtocol.SAVENAMESPACE_FORCE  ||
-            clientVersion == ClientProtocol.CLOSE_RECOVER_LEASE_VERSION) 
+            clientVersion == ClientProtocol.CLOSE_RECOVER_LEASE_VERSION ||
+            clientVersion == ClientProtocol.ITERATIVE_LISTING_VERSION) 
            &&
            (serverVersion == ClientProtocol.RECOVER_LEASE_VERSION - 1 ||
             serverVersion == ClientProtocol.RECOVER_LEASE_VERSION ||
             serverVersion == ClientProtocol.SAVENAMESPACE_FORCE ||
-            serverVersion == ClientProtocol.CLOSE_RECOVER_LEASE_VERSION);
+            serverVersion == ClientProtocol.CLOSE_RECOVER_LEASE_VERSION ||
+            serverVersion == ClientProtocol.ITERATIVE_LISTING_VERSION);
   }
 
   /**
@@ -25,10 +25,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.LinkedList;
-import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 import java.io.FileOutputStream;
 import org.apache.commons.logging.Log;
+import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSInputChecker;
 import org.apache.hadoop.fs.FSOutputSummer;
 import org.apache.hadoop.hdfs.protocol.Block;
@@ -111,6 +111,11 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
         if (datanode.blockScanner != null && isRecovery) {
           datanode.blockScanner.deleteBlock(block);
         }
+        // Appending to existing data with a different checksum would leave
+        // a meta file whose header does not describe all of its checksums.
+        if (isRecovery && datanode.data.getLength(block) > 0) {
+          verifyExistingChecksum();
+        }
       }
     } catch (BlockAlreadyExistsException bae) {
       throw bae;
@@ -208,32 +213,24 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
   private void verifyChunks( byte[] dataBuf, int dataOff, int len, 
                              byte[] checksumBuf, int checksumOff ) 
                              throws IOException {
-    while (len > 0) {
-      int chunkLen = Math.min(len, bytesPerChecksum);
-      
-      checksum.update(dataBuf, dataOff, chunkLen);
-
-      if (!checksum.compare(checksumBuf, checksumOff)) {
-        if (srcDataNode != null) {
-          try {
-            LOG.info("report corrupt block " + block + " from datanode " +
-                      srcDataNode + " to namenode");
-            LocatedBlock lb = new LocatedBlock(block, 
-                                            new DatanodeInfo[] {srcDataNode});
-            datanode.namenode.reportBadBlocks(new LocatedBlock[] {lb});
-          } catch (IOException e) {
-            LOG.warn("Failed to report bad block " + block + 
-                      " from datanode " + srcDataNode + " to namenode");
-          }
+    try {
+      checksum.verifyChunkedSums(dataBuf, dataOff, len,
+                                 checksumBuf, checksumOff, block.toString(), 0);
+    } catch (ChecksumException ce) {
+      if (srcDataNode != null) {
+        try {
+          LOG.info("report corrupt block " + block + " from datanode " +
+                    srcDataNode + " to namenode");
+          LocatedBlock lb = new LocatedBlock(block, 
+                                          new DatanodeInfo[] {srcDataNode});
+          datanode.namenode.reportBadBlocks(new LocatedBlock[] {lb});
+        } catch (IOException e) {
+          LOG.warn("Failed to report bad block " + block + 
+                    " from datanode " + srcDataNode + " to namenode");
         }
-        throw new IOException("Unexpected checksum mismatch " + 
-                              "while writing " + block + " from " + inAddr);
       }
-
-      checksum.reset();
-      dataOff += chunkLen;
-      checksumOff += checksumSize;
-      len -= chunkLen;
+      throw new IOException("Unexpected checksum mismatch " + 
+                            "while writing " + block + " from " + inAddr);
     }
   }
 
@@ -657,6 +654,30 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
     datanode.data.setChannelPosition(block, streams, offsetInBlock, offsetInChecksum);
   }
 
+  /**
+   * Checks that the checksum type and chunk size recorded in the meta file
+   * of the block match the ones of the data being written.
+   */
+  private void verifyExistingChecksum() throws IOException {
+    FSDataset.BlockInputStreams instr = null;
+    DataChecksum existing;
+    try {
+      instr = datanode.data.getTmpInputStreams(block, 0, 0);
+      existing = BlockMetadataHeader.readHeader(
+          new DataInputStream(instr.checksumIn)).getChecksum();
+    } finally {
+      IOUtils.closeStream(instr);
+    }
+    if (existing.getChecksumType() != checksum.getChecksumType() ||
+        existing.getBytesPerChecksum() != bytesPerChecksum) {
+      throw new IOException("Checksum of block " + block + " is of type " +
+          existing.getChecksumType() + " with bytesPerChecksum " +
+          existing.getBytesPerChecksum() + " but the writer uses type " +
+          checksum.getChecksumType() + " with bytesPerChecksum " +
+          bytesPerChecksum);
+    }
+  }
+
   /**
    * reads in the partial crc chunk and computes checksum
    * of pre-existing data in partial chunk.
@@ -692,7 +713,8 @@ class BlockReceiver implements java.io.Closeable, FSConstants {
     }
 
     // compute crc of partial chunk from data read in the block file.
-    partialCrc = new CRC32();
+    partialCrc = DataChecksum.newDataChecksum(checksum.getChecksumType(),
+                                              bytesPerChecksum);
     partialCrc.update(buf, 0, sizePartialChunk);
     LOG.info("Read in partial CRC chunk from disk for block " + block);
 
@@ -748,7 +748,12 @@ public class DataNode extends Configured
     
   /** Number of concurrent xceivers per node. */
   int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    int count = threadGroup == null ? 0 : threadGroup.activeCount();
+    if (dataXceiverServer != null) {
+      count += ((DataXceiverServer) dataXceiverServer.getRunnable())
+                 .getActiveWorkerCount();
+    }
+    return count;
   }
     
   /**
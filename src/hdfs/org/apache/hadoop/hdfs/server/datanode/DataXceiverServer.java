@@ -21,15 +21,27 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.server.balancer.Balancer;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.StringUtils;
 
@@ -38,6 +50,13 @@ import org.apache.hadoop.util.StringUtils;
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ * 
+ * By default every accepted connection gets its own {@link DataXceiver}
+ * thread. With dfs.datanode.xceiver.nio set, accepted connections are
+ * parked in a small pool of selectors until their request arrives, and
+ * only then handed to a bounded pool of worker threads, so that clients
+ * holding many idle connections do not tie up a thread each. Connections
+ * that send no request within dfs.socket.timeout are closed.
  */
 class DataXceiverServer implements Runnable, FSConstants {
   public static final Log LOG = DataNode.LOG;
@@ -56,6 +75,17 @@ class DataXceiverServer implements Runnable, FSConstants {
   static final int MAX_XCEIVER_COUNT = 256;
   int maxXceiverCount = MAX_XCEIVER_COUNT;
 
+  /** Number of selector threads used by default in NIO mode. */
+  static final int DEFAULT_NUM_SELECTORS = 2;
+
+  private final boolean useNio;
+  private SelectorThread[] selectors = null;
+  private Daemon[] selectorDaemons = null;
+  private ThreadPoolExecutor workers = null;
+  private int nextSelector = 0;
+  /** How long a connection may wait for its request in a selector. */
+  private int idleTimeout = 0;
+
   /** A manager to make sure that cluster balancing does not
    * take too much resources.
    * 
@@ -120,17 +150,178 @@ class DataXceiverServer implements Runnable, FSConstants {
     //set up parameter for cluster balancing
     this.balanceThrottler = new BlockBalanceThrottler(
       conf.getLong("dfs.balance.bandwidthPerSec", 1024L*1024));
+
+    boolean nio = conf.getBoolean("dfs.datanode.xceiver.nio", false);
+    if (nio && ss.getChannel() == null) {
+      LOG.warn("dfs.datanode.xceiver.nio requires a positive "
+               + "dfs.datanode.socket.write.timeout; "
+               + "using a thread per connection instead");
+      nio = false;
+    }
+    this.useNio = nio;
+    if (useNio) {
+      int numSelectors = Math.max(1, conf.getInt(
+          "dfs.datanode.xceiver.selectors", DEFAULT_NUM_SELECTORS));
+      this.selectors = new SelectorThread[numSelectors];
+      this.selectorDaemons = new Daemon[numSelectors];
+      for (int i = 0; i < numSelectors; i++) {
+        try {
+          selectors[i] = new SelectorThread();
+        } catch (IOException e) {
+          throw new RuntimeException("Cannot open selector", e);
+        }
+        selectorDaemons[i] = new Daemon(selectors[i]);
+        selectorDaemons[i].setName("DataXceiverServer selector " + i);
+      }
+      this.idleTimeout = datanode.socketTimeout;
+      this.workers = new ThreadPoolExecutor(0, maxXceiverCount,
+          60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+              return new Daemon(r);
+            }
+          });
+      LOG.info("Serving data transfers with " + numSelectors
+               + " selectors and at most " + maxXceiverCount
+               + " worker threads");
+    }
+  }
+
+  /**
+   * Waits in a selector until accepted connections have sent their
+   * request, then hands each of them to a worker thread. Connections
+   * still idle after the idle timeout are closed.
+   */
+  private class SelectorThread implements Runnable {
+    private final Selector selector;
+    private final Queue<SocketChannel> pending =
+      new ConcurrentLinkedQueue<SocketChannel>();
+    private long nextIdleCheck = 0;
+
+    SelectorThread() throws IOException {
+      this.selector = Selector.open();
+    }
+
+    void add(SocketChannel channel) {
+      pending.add(channel);
+      selector.wakeup();
+    }
+
+    public void run() {
+      // check for idle connections a few times per timeout
+      long checkInterval = idleTimeout > 0
+        ? Math.max(1, Math.min(idleTimeout / 4, 1000)) : 0;
+      while (datanode.shouldRun && selector.isOpen()) {
+        try {
+          selector.select(checkInterval);
+          registerPending();
+          if (idleTimeout > 0) {
+            closeIdle(checkInterval);
+          }
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            // the worker reads the request through its own selector
+            key.cancel();
+            dispatch(((SocketChannel)key.channel()).socket());
+          }
+        } catch (ClosedSelectorException e) {
+          break;
+        } catch (IOException ie) {
+          LOG.warn(datanode.dnRegistration + ":DataXceiveServer: "
+                   + StringUtils.stringifyException(ie));
+        }
+      }
+    }
+
+    private void registerPending() {
+      SocketChannel channel;
+      while ((channel = pending.poll()) != null) {
+        try {
+          channel.configureBlocking(false);
+          channel.register(selector, SelectionKey.OP_READ,
+                           System.currentTimeMillis() + idleTimeout);
+        } catch (IOException ie) {
+          LOG.warn(datanode.dnRegistration + ":DataXceiveServer: "
+                   + StringUtils.stringifyException(ie));
+          closeChild(channel.socket());
+        }
+      }
+    }
+
+    /** Close the connections whose request is overdue. */
+    private void closeIdle(long checkInterval) {
+      long now = System.currentTimeMillis();
+      if (now < nextIdleCheck) {
+        return;
+      }
+      nextIdleCheck = now + checkInterval;
+      for (SelectionKey key : selector.keys()) {
+        if (key.isValid() && (Long)key.attachment() <= now) {
+          key.cancel();
+          Socket s = ((SocketChannel)key.channel()).socket();
+          LOG.debug(datanode.dnRegistration + ":DataXceiveServer: closing "
+                    + "connection from " + s.getRemoteSocketAddress()
+                    + ", no request in " + idleTimeout + " ms");
+          closeChild(s);
+        }
+      }
+    }
+
+    void close() {
+      try {
+        selector.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /** Run the request of a connection on a worker thread. */
+  private void dispatch(Socket s) {
+    try {
+      workers.execute(new DataXceiver(s, datanode, this));
+    } catch (RejectedExecutionException e) {
+      LOG.warn(datanode.dnRegistration + ":DataXceiveServer: "
+               + "closing connection from " + s.getRemoteSocketAddress()
+               + ", all " + maxXceiverCount + " xceivers are busy");
+      closeChild(s);
+    }
+  }
+
+  private void closeChild(Socket s) {
+    IOUtils.closeSocket(s);
+    childSockets.remove(s);
+  }
+
+  /**
+   * Number of requests being served by worker threads in NIO mode.
+   * These threads are not part of the data-node thread group.
+   */
+  int getActiveWorkerCount() {
+    return workers == null ? 0 : workers.getActiveCount();
   }
 
   /**
    */
   public void run() {
+    if (useNio) {
+      for (Daemon d : selectorDaemons) {
+        d.start();
+      }
+    }
     while (datanode.shouldRun) {
       try {
         Socket s = ss.accept();
         s.setTcpNoDelay(true);
-        new Daemon(datanode.threadGroup, 
-            new DataXceiver(s, datanode, this)).start();
+        if (useNio) {
+          childSockets.put(s, s);
+          selectors[nextSelector].add(s.getChannel());
+          nextSelector = (nextSelector + 1) % selectors.length;
+        } else {
+          new Daemon(datanode.threadGroup, 
+              new DataXceiver(s, datanode, this)).start();
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (IOException ie) {
@@ -171,5 +362,12 @@ class DataXceiverServer implements Runnable, FSConstants {
         }
       }
     }
+
+    if (useNio) {
+      for (SelectorThread selector : selectors) {
+        selector.close();
+      }
+      workers.shutdownNow();
+    }
   }
 }
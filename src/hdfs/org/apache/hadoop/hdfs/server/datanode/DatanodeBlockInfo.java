@@ -34,8 +34,8 @@ import org.apache.hadoop.io.IOUtils;
  */
 class DatanodeBlockInfo {
 
-  private FSVolume volume;       // volume where the block belongs
-  private File     file;         // block file
+  private final FSVolume volume; // volume where the block belongs
+  private final File file;       // block file
   private boolean detached;      // copy-on-write done for block
 
   DatanodeBlockInfo(FSVolume vol, File file) {
@@ -26,13 +26,14 @@ import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -256,7 +257,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       }
     }    
     
-    void getVolumeMap(HashMap<Block, DatanodeBlockInfo> volumeMap, FSVolume volume) {
+    void getVolumeMap(Map<Block, DatanodeBlockInfo> volumeMap, FSVolume volume) {
       if (children != null) {
         for (int i = 0; i < children.length; i++) {
           children[i].getVolumeMap(volumeMap, volume);
@@ -521,7 +522,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       dataDir.getBlockInfo(blockSet);
     }
 
-    void getVolumeMap(HashMap<Block, DatanodeBlockInfo> volumeMap) {
+    void getVolumeMap(Map<Block, DatanodeBlockInfo> volumeMap) {
       dataDir.getVolumeMap(volumeMap, this);
     }
       
@@ -685,7 +686,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
           volumes.length + " volumes in " + scanTime + " seconds");
     }
       
-    synchronized void getVolumeMap(HashMap<Block, DatanodeBlockInfo> volumeMap) {
+    synchronized void getVolumeMap(Map<Block, DatanodeBlockInfo> volumeMap) {
       for (int idx = 0; idx < volumes.length; idx++) {
         volumes[idx].getVolumeMap(volumeMap);
       }
@@ -873,12 +874,23 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   }
 
   /** Return the block file for the given ID */ 
-  public synchronized File findBlockFile(long blockId) {
+  public File findBlockFile(long blockId) {
     final Block b = new Block(blockId);
     File blockfile = null;
     ActiveFile activefile = ongoingCreates.get(b);
     if (activefile != null) {
-      blockfile = activefile.file;
+      if (activefile.file.exists()) {
+        blockfile = activefile.file;
+      } else {
+        // the temporary file is renamed when the block is being finalized;
+        // look again once that is done
+        synchronized (getBlockLock(b)) {
+          activefile = ongoingCreates.get(b);
+        }
+        if (activefile != null && activefile.file.exists()) {
+          blockfile = activefile.file;
+        }
+      }
     }
     if (blockfile == null) {
       blockfile = getFile(b);
@@ -893,7 +905,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   }
 
   /** {@inheritDoc} */
-  public synchronized Block getStoredBlock(long blkid) throws IOException {
+  public Block getStoredBlock(long blkid) throws IOException {
     File blockfile = findBlockFile(blkid);
     
     if (blockfile == null) {
@@ -901,7 +913,15 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     }
     File metafile = findMetaFile(blockfile, true);
     if (metafile == null) {
-      return null;
+      // finalizing the block moves the meta file first; look again once
+      // that is done
+      synchronized (getBlockLock(new Block(blkid))) {
+        blockfile = findBlockFile(blkid);
+        metafile = blockfile == null ? null : findMetaFile(blockfile, true);
+      }
+      if (metafile == null) {
+        return null;
+      }
     }
     Block block = new Block(blkid);
     return new Block(blkid, getVisibleLength(block),
@@ -925,9 +945,21 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   }
 
   FSVolumeSet volumes;
-  private HashMap<Block,ActiveFile> ongoingCreates = new HashMap<Block,ActiveFile>();
+  /*
+   * The block maps are concurrent so that lookups, and hence reads of
+   * finalized blocks, take no lock. The files of a block and its entries
+   * in the maps are changed while holding the lock on the FSVolume of the
+   * block (see getBlockLock), so writes to different volumes do not
+   * contend. Creating and finalizing a block take only that lock; the
+   * rarer changes (recovery, updateBlock, unfinalizeBlock, invalidate)
+   * take the lock on this FSDataset first. Locks are always taken in that
+   * order: FSDataset, then FSVolume.
+   */
+  private final ConcurrentMap<Block,ActiveFile> ongoingCreates =
+    new ConcurrentHashMap<Block,ActiveFile>();
   private int maxBlocksPerDir = 0;
-  HashMap<Block,DatanodeBlockInfo> volumeMap = new HashMap<Block, DatanodeBlockInfo>();;
+  final Map<Block,DatanodeBlockInfo> volumeMap =
+    new ConcurrentHashMap<Block,DatanodeBlockInfo>();
   static  Random random = new Random();
   FSDatasetAsyncDiskService asyncDiskService;
   
@@ -987,7 +1019,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   }
 
   @Override
-  public synchronized long getVisibleLength(Block b) throws IOException {
+  public long getVisibleLength(Block b) throws IOException {
     ActiveFile activeFile = ongoingCreates.get(b);
 
     if (activeFile != null) {
@@ -998,7 +1030,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   }
 
   @Override
-  public synchronized void setVisibleLength(Block b, long length) 
+  public void setVisibleLength(Block b, long length) 
     throws IOException {
     ActiveFile activeFile = ongoingCreates.get(b);
 
@@ -1011,10 +1043,21 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     }
   }
 
+  /**
+   * Return the lock that guards the files of a block and its entries in
+   * the block maps: the volume of the block, or this FSDataset if the
+   * block has none.
+   */
+  private Object getBlockLock(Block b) {
+    DatanodeBlockInfo info = volumeMap.get(b);
+    FSVolume v = info == null ? null : info.getVolume();
+    return v != null ? v : this;
+  }
+
   /**
    * Get File name for a given block.
    */
-  public synchronized File getBlockFile(Block b) throws IOException {
+  public File getBlockFile(Block b) throws IOException {
     File f = validateBlockFile(b);
     if(f == null) {
       if (InterDatanodeProtocol.LOG.isDebugEnabled()) {
@@ -1025,11 +1068,11 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     return f;
   }
   
-  public synchronized InputStream getBlockInputStream(Block b) throws IOException {
+  public InputStream getBlockInputStream(Block b) throws IOException {
     return new FileInputStream(getBlockFile(b));
   }
 
-  public synchronized InputStream getBlockInputStream(Block b, long seekOffset) throws IOException {
+  public InputStream getBlockInputStream(Block b, long seekOffset) throws IOException {
 
     File blockFile = getBlockFile(b);
     RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
@@ -1042,29 +1085,30 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   /**
    * Returns handles to the block file and its metadata file
    */
-  public synchronized BlockInputStreams getTmpInputStreams(Block b, 
+  public BlockInputStreams getTmpInputStreams(Block b, 
                           long blkOffset, long ckoff) throws IOException {
-
-    DatanodeBlockInfo info = volumeMap.get(b);
-    if (info == null) {
-      throw new IOException("Block " + b + " does not exist in volumeMap.");
-    }
-    FSVolume v = info.getVolume();
-    File blockFile = info.getFile();
-    if (blockFile == null) {
-      blockFile = v.getTmpFile(b);
-    }
-    RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
-    if (blkOffset > 0) {
-      blockInFile.seek(blkOffset);
-    }
-    File metaFile = getMetaFile(blockFile, b);
-    RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
-    if (ckoff > 0) {
-      metaInFile.seek(ckoff);
+    synchronized (getBlockLock(b)) {
+      DatanodeBlockInfo info = volumeMap.get(b);
+      if (info == null) {
+        throw new IOException("Block " + b + " does not exist in volumeMap.");
+      }
+      FSVolume v = info.getVolume();
+      File blockFile = info.getFile();
+      if (blockFile == null) {
+        blockFile = v.getTmpFile(b);
+      }
+      RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
+      if (blkOffset > 0) {
+        blockInFile.seek(blkOffset);
+      }
+      File metaFile = getMetaFile(blockFile, b);
+      RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
+      if (ckoff > 0) {
+        metaInFile.seek(ckoff);
+      }
+      return new BlockInputStreams(new FileInputStream(blockInFile.getFD()),
+                                  new FileInputStream(metaInFile.getFD()));
     }
-    return new BlockInputStreams(new FileInputStream(blockInFile.getFD()),
-                                new FileInputStream(metaInFile.getFD()));
   }
     
   private BlockWriteStreams createBlockWriteStreams( File f , File metafile) throws IOException {
@@ -1083,11 +1127,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
    * @return - true if the specified block was detached
    */
   public boolean detachBlock(Block block, int numLinks) throws IOException {
-    DatanodeBlockInfo info = null;
-
-    synchronized (this) {
-      info = volumeMap.get(block);
-    }
+    DatanodeBlockInfo info = volumeMap.get(block);
     return info.detachBlock(block, numLinks);
   }
 
@@ -1191,60 +1231,62 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       return activeThreads;
     }
     
-    //No ongoing create threads is alive.  Update block.
-    File blockFile = findBlockFile(oldblock.getBlockId());
-    if (blockFile == null) {
-      throw new IOException("Block " + oldblock + " does not exist.");
-    }
+    synchronized (getBlockLock(oldblock)) {
+      //No ongoing create threads is alive.  Update block.
+      File blockFile = findBlockFile(oldblock.getBlockId());
+      if (blockFile == null) {
+        throw new IOException("Block " + oldblock + " does not exist.");
+      }
 
-    File oldMetaFile = findMetaFile(blockFile);
-    long oldgs = parseGenerationStamp(blockFile, oldMetaFile);
+      File oldMetaFile = findMetaFile(blockFile);
+      long oldgs = parseGenerationStamp(blockFile, oldMetaFile);
     
-    // First validate the update
+      // First validate the update
     
-    //update generation stamp
-    if (oldgs > newblock.getGenerationStamp()) {
-      throw new IOException("Cannot update block (id=" + newblock.getBlockId()
-          + ") generation stamp from " + oldgs
-          + " to " + newblock.getGenerationStamp());
-    }
+      //update generation stamp
+      if (oldgs > newblock.getGenerationStamp()) {
+        throw new IOException("Cannot update block (id=" + newblock.getBlockId()
+            + ") generation stamp from " + oldgs
+            + " to " + newblock.getGenerationStamp());
+      }
     
-    //update length
-    if (newblock.getNumBytes() > oldblock.getNumBytes()) {
-      throw new IOException("Cannot update block file (=" + blockFile
-          + ") length from " + oldblock.getNumBytes() + " to " + newblock.getNumBytes());
-    }
+      //update length
+      if (newblock.getNumBytes() > oldblock.getNumBytes()) {
+        throw new IOException("Cannot update block file (=" + blockFile
+            + ") length from " + oldblock.getNumBytes() + " to " + newblock.getNumBytes());
+      }
 
-    // Now perform the update
+      // Now perform the update
 
-    //rename meta file to a tmp file
-    File tmpMetaFile = new File(oldMetaFile.getParent(),
-        oldMetaFile.getName()+"_tmp" + newblock.getGenerationStamp());
-    if (!oldMetaFile.renameTo(tmpMetaFile)){
-      throw new IOException("Cannot rename block meta file to " + tmpMetaFile);
-    }
+      //rename meta file to a tmp file
+      File tmpMetaFile = new File(oldMetaFile.getParent(),
+          oldMetaFile.getName()+"_tmp" + newblock.getGenerationStamp());
+      if (!oldMetaFile.renameTo(tmpMetaFile)){
+        throw new IOException("Cannot rename block meta file to " + tmpMetaFile);
+      }
 
-    if (newblock.getNumBytes() < oldblock.getNumBytes()) {
-      truncateBlock(blockFile, tmpMetaFile, oldblock.getNumBytes(), newblock.getNumBytes());
-      ActiveFile file = ongoingCreates.get(oldblock);
-      if (file != null) {
-        file.setVisibleLength(newblock.getNumBytes());
+      if (newblock.getNumBytes() < oldblock.getNumBytes()) {
+        truncateBlock(blockFile, tmpMetaFile, oldblock.getNumBytes(), newblock.getNumBytes());
+        ActiveFile file = ongoingCreates.get(oldblock);
+        if (file != null) {
+          file.setVisibleLength(newblock.getNumBytes());
+        }
       }
-    }
 
-    //rename the tmp file to the new meta file (with new generation stamp)
-    File newMetaFile = getMetaFile(blockFile, newblock);
-    if (!tmpMetaFile.renameTo(newMetaFile)) {
-      throw new IOException("Cannot rename tmp meta file to " + newMetaFile);
-    }
+      //rename the tmp file to the new meta file (with new generation stamp)
+      File newMetaFile = getMetaFile(blockFile, newblock);
+      if (!tmpMetaFile.renameTo(newMetaFile)) {
+        throw new IOException("Cannot rename tmp meta file to " + newMetaFile);
+      }
 
-    updateBlockMap(ongoingCreates, oldblock, newblock);
-    updateBlockMap(volumeMap, oldblock, newblock);
+      updateBlockMap(ongoingCreates, oldblock, newblock);
+      updateBlockMap(volumeMap, oldblock, newblock);
 
-    // paranoia! verify that the contents of the stored block 
-    // matches the block file on disk.
-    validateBlockMetadata(newblock);
-    return null;
+      // paranoia! verify that the contents of the stored block 
+      // matches the block file on disk.
+      validateBlockMetadata(newblock);
+      return null;
+    }
   }
 
   static void truncateBlock(File blockFile, File metaFile,
@@ -1358,81 +1400,98 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     //
     File f = null;
     List<Thread> threads = null;
-    synchronized (this) {
+    if (!isRecovery) {
       //
-      // Is it already in the create process?
+      // A new block takes only the lock of the volume it is created on.
       //
-      ActiveFile activeFile = ongoingCreates.get(b);
-      if (activeFile != null) {
-        f = activeFile.file;
-        threads = activeFile.threads;
-        
-        if (!isRecovery) {
+      FSVolume v = volumes.getNextVolume(blockSize);
+      synchronized (v) {
+        if (ongoingCreates.containsKey(b)) {
           throw new BlockAlreadyExistsException("Block " + b +
                                   " has already been started (though not completed), and thus cannot be created.");
-        } else {
-          for (Thread thread:threads) {
-            thread.interrupt();
-          }
         }
-        ongoingCreates.remove(b);
-      }
-      FSVolume v = null;
-      if (!isRecovery) {
-        v = volumes.getNextVolume(blockSize);
         // create temporary file to hold block in the designated volume
-        f = createTmpFile(v, b, replicationRequest);
-      } else if (f != null) {
-        DataNode.LOG.info("Reopen already-open Block for append " + b);
-        // create or reuse temporary file to hold block in the designated volume
-        v = volumeMap.get(b).getVolume();
-        volumeMap.put(b, new DatanodeBlockInfo(v, f));
-      } else {
-        // reopening block for appending to it.
-        DataNode.LOG.info("Reopen Block for append " + b);
-        v = volumeMap.get(b).getVolume();
-        f = createTmpFile(v, b, replicationRequest);
-        File blkfile = getBlockFile(b);
-        File oldmeta = getMetaFile(b);
-        File newmeta = getMetaFile(f, b);
-
-        // rename meta file to tmp directory
-        DataNode.LOG.debug("Renaming " + oldmeta + " to " + newmeta);
-        if (!oldmeta.renameTo(newmeta)) {
-          throw new IOException("Block " + b + " reopen failed. " +
-                                " Unable to move meta file  " + oldmeta +
-                                " to tmp dir " + newmeta);
+        f = v.createTmpFile(b, replicationRequest);
+        // the same block may have been started on another volume meanwhile
+        if (ongoingCreates.putIfAbsent(b, new ActiveFile(f, null)) != null) {
+          f.delete();
+          throw new BlockAlreadyExistsException("Block " + b +
+                                  " has already been started (though not completed), and thus cannot be created.");
         }
+        // A replication request is not a permanent block yet, it could
+        // get removed if the datanode restarts.
+        volumeMap.put(b, replicationRequest ? new DatanodeBlockInfo(v)
+                                            : new DatanodeBlockInfo(v, f));
+      }
+    } else {
+      synchronized (this) {
+        synchronized (getBlockLock(b)) {
+          //
+          // Is it already in the create process?
+          //
+          ActiveFile activeFile = ongoingCreates.get(b);
+          if (activeFile != null) {
+            f = activeFile.file;
+            threads = activeFile.threads;
+            for (Thread thread:threads) {
+              thread.interrupt();
+            }
+            ongoingCreates.remove(b);
+          }
+          FSVolume v = null;
+          if (f != null) {
+            DataNode.LOG.info("Reopen already-open Block for append " + b);
+            // create or reuse temporary file to hold block in the designated volume
+            v = volumeMap.get(b).getVolume();
+            volumeMap.put(b, new DatanodeBlockInfo(v, f));
+          } else {
+            // reopening block for appending to it.
+            DataNode.LOG.info("Reopen Block for append " + b);
+            v = volumeMap.get(b).getVolume();
+            f = createTmpFile(v, b, replicationRequest);
+            File blkfile = getBlockFile(b);
+            File oldmeta = getMetaFile(b);
+            File newmeta = getMetaFile(f, b);
+
+            // rename meta file to tmp directory
+            DataNode.LOG.debug("Renaming " + oldmeta + " to " + newmeta);
+            if (!oldmeta.renameTo(newmeta)) {
+              throw new IOException("Block " + b + " reopen failed. " +
+                                    " Unable to move meta file  " + oldmeta +
+                                    " to tmp dir " + newmeta);
+            }
 
-        // rename block file to tmp directory
-        DataNode.LOG.debug("Renaming " + blkfile + " to " + f);
-        if (!blkfile.renameTo(f)) {
-          if (!f.delete()) {
-            throw new IOException("Block " + b + " reopen failed. " +
-                                  " Unable to remove file " + f);
+            // rename block file to tmp directory
+            DataNode.LOG.debug("Renaming " + blkfile + " to " + f);
+            if (!blkfile.renameTo(f)) {
+              if (!f.delete()) {
+                throw new IOException("Block " + b + " reopen failed. " +
+                                      " Unable to remove file " + f);
+              }
+              if (!blkfile.renameTo(f)) {
+                throw new IOException("Block " + b + " reopen failed. " +
+                                      " Unable to move block file " + blkfile +
+                                      " to tmp dir " + f);
+              }
+            }
+          }
+          if (f == null) {
+            DataNode.LOG.warn("Block " + b + " reopen failed " +
+                              " Unable to locate tmp file.");
+            throw new IOException("Block " + b + " reopen failed " +
+                                  " Unable to locate tmp file.");
           }
-          if (!blkfile.renameTo(f)) {
-            throw new IOException("Block " + b + " reopen failed. " +
-                                  " Unable to move block file " + blkfile +
-                                  " to tmp dir " + f);
+          // If this is a replication request, then this is not a permanent
+          // block yet, it could get removed if the datanode restarts. If this
+          // is a write or append request, then it is a valid block.
+          if (replicationRequest) {
+            volumeMap.put(b, new DatanodeBlockInfo(v));
+          } else {
+            volumeMap.put(b, new DatanodeBlockInfo(v, f));
           }
+          ongoingCreates.put(b, new ActiveFile(f, threads));
         }
       }
-      if (f == null) {
-        DataNode.LOG.warn("Block " + b + " reopen failed " +
-                          " Unable to locate tmp file.");
-        throw new IOException("Block " + b + " reopen failed " +
-                              " Unable to locate tmp file.");
-      }
-      // If this is a replication request, then this is not a permanent
-      // block yet, it could get removed if the datanode restarts. If this
-      // is a write or append request, then it is a valid block.
-      if (replicationRequest) {
-        volumeMap.put(b, new DatanodeBlockInfo(v));
-      } else {
-        volumeMap.put(b, new DatanodeBlockInfo(v, f));
-      }
-      ongoingCreates.put(b, new ActiveFile(f, threads));
     }
 
     try {
@@ -1451,8 +1510,10 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
     // block size, so clients can't go crazy
     //
     File metafile = getMetaFile(f, b);
-    DataNode.LOG.debug("writeTo blockfile is " + f + " of size " + f.length());
-    DataNode.LOG.debug("writeTo metafile is " + metafile + " of size " + metafile.length());
+    if (DataNode.LOG.isDebugEnabled()) {
+      DataNode.LOG.debug("writeTo blockfile is " + f + " of size " + f.length());
+      DataNode.LOG.debug("writeTo metafile is " + metafile + " of size " + metafile.length());
+    }
     return createBlockWriteStreams( f , metafile);
   }
 
@@ -1520,38 +1581,41 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   /**
    * Complete the block write!
    */
-  private synchronized void finalizeBlockInternal(Block b, boolean reFinalizeOk) 
+  private void finalizeBlockInternal(Block b, boolean reFinalizeOk) 
     throws IOException {
-    ActiveFile activeFile = ongoingCreates.get(b);
-    if (activeFile == null) {
-      if (reFinalizeOk) {
-        return;
-      } else {
-        throw new IOException("Block " + b + " is already finalized.");
+    synchronized (getBlockLock(b)) {
+      ActiveFile activeFile = ongoingCreates.get(b);
+      if (activeFile == null) {
+        if (reFinalizeOk) {
+          return;
+        } else {
+          throw new IOException("Block " + b + " is already finalized.");
+        }
+      }
+      File f = activeFile.file;
+      if (f == null || !f.exists()) {
+        throw new IOException("No temporary file " + f + " for block " + b);
+      }
+      FSVolume v = volumeMap.get(b).getVolume();
+      if (v == null) {
+        throw new IOException("No volume for temporary file " + f + 
+                              " for block " + b);
       }
-    }
-    File f = activeFile.file;
-    if (f == null || !f.exists()) {
-      throw new IOException("No temporary file " + f + " for block " + b);
-    }
-    FSVolume v = volumeMap.get(b).getVolume();
-    if (v == null) {
-      throw new IOException("No volume for temporary file " + f + 
-                            " for block " + b);
-    }
         
-    File dest = null;
-    dest = v.addBlock(b, f);
-    volumeMap.put(b, new DatanodeBlockInfo(v, dest));
-    ongoingCreates.remove(b);
+      File dest = null;
+      dest = v.addBlock(b, f);
+      volumeMap.put(b, new DatanodeBlockInfo(v, dest));
+      ongoingCreates.remove(b);
+    }
   }
 
   /**
    * is this block finalized? Returns true if the block is already
    * finalized, otherwise returns false.
    */
-  private synchronized boolean isFinalized(Block b) {
-    FSVolume v = volumeMap.get(b).getVolume();
+  private boolean isFinalized(Block b) {
+    DatanodeBlockInfo info = volumeMap.get(b);
+    FSVolume v = info == null ? null : info.getVolume();
     if (v == null) {
       DataNode.LOG.warn("No volume for block " + b);
       return false;             // block is not finalized
@@ -1572,16 +1636,18 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
    * Remove the temporary block file (if any)
    */
   public synchronized void unfinalizeBlock(Block b) throws IOException {
-    // remove the block from in-memory data structure
-    ActiveFile activefile = ongoingCreates.remove(b);
-    if (activefile == null) {
-      return;
-    }
-    volumeMap.remove(b);
+    synchronized (getBlockLock(b)) {
+      // remove the block from in-memory data structure
+      ActiveFile activefile = ongoingCreates.remove(b);
+      if (activefile == null) {
+        return;
+      }
+      volumeMap.remove(b);
     
-    // delete the on-disk temp file
-    if (delBlockFromDisk(activefile.file, getMetaFile(activefile.file, b), b)) {
-      DataNode.LOG.warn("Block " + b + " unfinalized and removed. " );
+      // delete the on-disk temp file
+      if (delBlockFromDisk(activefile.file, getMetaFile(activefile.file, b), b)) {
+        DataNode.LOG.warn("Block " + b + " unfinalized and removed. " );
+      }
     }
   }
 
@@ -1645,6 +1711,16 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   File validateBlockFile(Block b) throws IOException {
     //Should we check for metadata file too?
     File f = getFile(b);
+    if (f != null && f.exists()) {
+      return f;
+    }
+    if (f != null) {
+      // the file may be being renamed by finalizeBlock; look again once
+      // that is done
+      synchronized (getBlockLock(b)) {
+        f = getFile(b);
+      }
+    }
     
     if(f != null ) {
       if(f.exists())
@@ -1663,70 +1739,72 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
 
   /** {@inheritDoc} */
   public synchronized void validateBlockMetadata(Block b) throws IOException {
-    DatanodeBlockInfo info = volumeMap.get(b);
-    if (info == null) {
-      throw new IOException("Block " + b + " does not exist in volumeMap.");
-    }
-    FSVolume v = info.getVolume();
-    File tmp = v.getTmpFile(b);
-    File f = getFile(b);
-    if (f == null) {
-      f = tmp;
-    }
-    if (f == null) {
-      throw new IOException("Block " + b + " does not exist on disk.");
-    }
-    if (!f.exists()) {
-      throw new IOException("Block " + b + 
-                            " block file " + f +
-                            " does not exist on disk.");
-    }
-    if (b.getNumBytes() != f.length()) {
-      throw new IOException("Block " + b + 
-                            " length is " + b.getNumBytes()  +
-                            " does not match block file length " +
-                            f.length());
-    }
-    File meta = getMetaFile(f, b);
-    if (meta == null) {
-      throw new IOException("Block " + b + 
-                            " metafile does not exist.");
-    }
-    if (!meta.exists()) {
-      throw new IOException("Block " + b + 
-                            " metafile " + meta +
-                            " does not exist on disk.");
-    }
-    if (meta.length() == 0) {
-      throw new IOException("Block " + b + " metafile " + meta + " is empty.");
-    }
-    long stamp = parseGenerationStamp(f, meta);
-    if (stamp != b.getGenerationStamp()) {
-      throw new IOException("Block " + b + 
-                            " genstamp is " + b.getGenerationStamp()  +
-                            " does not match meta file stamp " +
-                            stamp);
-    }
-    // verify that checksum file has an integral number of checkum values.
-    DataChecksum dcs = BlockMetadataHeader.readHeader(meta).getChecksum();
-    int checksumsize = dcs.getChecksumSize();
-    long actual = meta.length() - BlockMetadataHeader.getHeaderSize();
-    long numChunksInMeta = actual/checksumsize;
-    if (actual % checksumsize != 0) {
-      throw new IOException("Block " + b +
-                            " has a checksum file of size " + meta.length() +
-                            " but it does not align with checksum size of " +
-                            checksumsize);
-    }
-    int bpc = dcs.getBytesPerChecksum();
-    long minDataSize = (numChunksInMeta - 1) * bpc;
-    long maxDataSize = numChunksInMeta * bpc;
-    if (f.length() > maxDataSize || f.length() <= minDataSize) {
-      throw new IOException("Block " + b +
-                            " is of size " + f.length() +
-                            " but has " + (numChunksInMeta + 1) +
-                            " checksums and each checksum size is " +
-                            checksumsize + " bytes.");
+    synchronized (getBlockLock(b)) {
+      DatanodeBlockInfo info = volumeMap.get(b);
+      if (info == null) {
+        throw new IOException("Block " + b + " does not exist in volumeMap.");
+      }
+      FSVolume v = info.getVolume();
+      File tmp = v.getTmpFile(b);
+      File f = getFile(b);
+      if (f == null) {
+        f = tmp;
+      }
+      if (f == null) {
+        throw new IOException("Block " + b + " does not exist on disk.");
+      }
+      if (!f.exists()) {
+        throw new IOException("Block " + b + 
+                              " block file " + f +
+                              " does not exist on disk.");
+      }
+      if (b.getNumBytes() != f.length()) {
+        throw new IOException("Block " + b + 
+                              " length is " + b.getNumBytes()  +
+                              " does not match block file length " +
+                              f.length());
+      }
+      File meta = getMetaFile(f, b);
+      if (meta == null) {
+        throw new IOException("Block " + b + 
+                              " metafile does not exist.");
+      }
+      if (!meta.exists()) {
+        throw new IOException("Block " + b + 
+                              " metafile " + meta +
+                              " does not exist on disk.");
+      }
+      if (meta.length() == 0) {
+        throw new IOException("Block " + b + " metafile " + meta + " is empty.");
+      }
+      long stamp = parseGenerationStamp(f, meta);
+      if (stamp != b.getGenerationStamp()) {
+        throw new IOException("Block " + b + 
+                              " genstamp is " + b.getGenerationStamp()  +
+                              " does not match meta file stamp " +
+                              stamp);
+      }
+      // verify that checksum file has an integral number of checkum values.
+      DataChecksum dcs = BlockMetadataHeader.readHeader(meta).getChecksum();
+      int checksumsize = dcs.getChecksumSize();
+      long actual = meta.length() - BlockMetadataHeader.getHeaderSize();
+      long numChunksInMeta = actual/checksumsize;
+      if (actual % checksumsize != 0) {
+        throw new IOException("Block " + b +
+                              " has a checksum file of size " + meta.length() +
+                              " but it does not align with checksum size of " +
+                              checksumsize);
+      }
+      int bpc = dcs.getBytesPerChecksum();
+      long minDataSize = (numChunksInMeta - 1) * bpc;
+      long maxDataSize = numChunksInMeta * bpc;
+      if (f.length() > maxDataSize || f.length() <= minDataSize) {
+        throw new IOException("Block " + b +
+                              " is of size " + f.length() +
+                              " but has " + (numChunksInMeta + 1) +
+                              " checksums and each checksum size is " +
+                              checksumsize + " bytes.");
+      }
     }
     // We could crc-check the entire block here, but it will be a costly 
     // operation. Instead we rely on the above check (file length mismatch)
@@ -1744,42 +1822,44 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
       File f = null;
       FSVolume v;
       synchronized (this) {
-        f = getFile(invalidBlks[i]);
-        DatanodeBlockInfo dinfo = volumeMap.get(invalidBlks[i]);
-        if (dinfo == null) {
-          DataNode.LOG.warn("Unexpected error trying to delete block "
-                           + invalidBlks[i] + 
-                           ". BlockInfo not found in volumeMap.");
-          error = true;
-          continue;
-        }
-        v = dinfo.getVolume();
-        if (f == null) {
-          DataNode.LOG.warn("Unexpected error trying to delete block "
-                            + invalidBlks[i] + 
-                            ". Block not found in blockMap." +
-                            ((v == null) ? " " : " Block found in volumeMap."));
-          error = true;
-          continue;
-        }
-        if (v == null) {
-          DataNode.LOG.warn("Unexpected error trying to delete block "
-                            + invalidBlks[i] + 
-                            ". No volume for this block." +
-                            " Block found in blockMap. " + f + ".");
-          error = true;
-          continue;
-        }
-        File parent = f.getParentFile();
-        if (parent == null) {
-          DataNode.LOG.warn("Unexpected error trying to delete block "
-                            + invalidBlks[i] + 
-                            ". Parent not found for file " + f + ".");
-          error = true;
-          continue;
+        synchronized (getBlockLock(invalidBlks[i])) {
+          f = getFile(invalidBlks[i]);
+          DatanodeBlockInfo dinfo = volumeMap.get(invalidBlks[i]);
+          if (dinfo == null) {
+            DataNode.LOG.warn("Unexpected error trying to delete block "
+                             + invalidBlks[i] + 
+                             ". BlockInfo not found in volumeMap.");
+            error = true;
+            continue;
+          }
+          v = dinfo.getVolume();
+          if (f == null) {
+            DataNode.LOG.warn("Unexpected error trying to delete block "
+                              + invalidBlks[i] + 
+                              ". Block not found in blockMap." +
+                              ((v == null) ? " " : " Block found in volumeMap."));
+            error = true;
+            continue;
+          }
+          if (v == null) {
+            DataNode.LOG.warn("Unexpected error trying to delete block "
+                              + invalidBlks[i] + 
+                              ". No volume for this block." +
+                              " Block found in blockMap. " + f + ".");
+            error = true;
+            continue;
+          }
+          File parent = f.getParentFile();
+          if (parent == null) {
+            DataNode.LOG.warn("Unexpected error trying to delete block "
+                              + invalidBlks[i] + 
+                              ". Parent not found for file " + f + ".");
+            error = true;
+            continue;
+          }
+          v.clearPath(parent);
+          volumeMap.remove(invalidBlks[i]);
         }
-        v.clearPath(parent);
-        volumeMap.remove(invalidBlks[i]);
       }
       File metaFile = getMetaFile( f, invalidBlks[i] );
       long dfsBytes = f.length() + metaFile.length();
@@ -1795,7 +1875,7 @@ public class FSDataset implements FSConstants, FSDatasetInterface {
   /**
    * Turn the block identifier into a filename.
    */
-  public synchronized File getFile(Block b) {
+  public File getFile(Block b) {
     DatanodeBlockInfo info = volumeMap.get(b);
     if (info != null) {
       return info.getFile();
@@ -20,6 +20,8 @@ package org.apache.hadoop.hdfs.server.namenode;
 import java.util.*;
 
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.util.GSet;
+import org.apache.hadoop.hdfs.util.LightWeightGSet;
 
 /**
  * This class maintains the map from a block to its metadata.
@@ -31,9 +33,12 @@ public class BlocksMap {
   /**
    * Internal class for block metadata.
    */
-  static class BlockInfo extends Block {
+  static class BlockInfo extends Block implements LightWeightGSet.LinkedElement {
     private INodeFile          inode;
 
+    /** For implementing {@link LightWeightGSet.LinkedElement} interface */
+    private LightWeightGSet.LinkedElement nextLinkedElement;
+
     /**
      * This array contains triplets of references.
      * For each i-th data-node the block belongs to
@@ -54,6 +59,16 @@ public class BlocksMap {
       return inode;
     }
 
+    @Override
+    public LightWeightGSet.LinkedElement getNext() {
+      return nextLinkedElement;
+    }
+
+    @Override
+    public void setNext(LightWeightGSet.LinkedElement next) {
+      this.nextLinkedElement = next;
+    }
+
     DatanodeDescriptor getDatanode(int index) {
       assert this.triplets != null : "BlockInfo is not initialized";
       assert index >= 0 && index*3 < triplets.length : "Index is out of bound";
@@ -290,35 +305,47 @@ public class BlocksMap {
     }
   }
 
-  // Used for tracking HashMap capacity growth
-  private int capacity;
-  private final float loadFactor;
+  /** Percentage of the maximum heap used by the block index by default */
+  static final double DEFAULT_MEMORY_PERCENT = 2.0;
+
+  /** Constant {@link LightWeightGSet} capacity. */
+  private final int capacity;
   
-  private Map<BlockInfo, BlockInfo> map;
-
-  BlocksMap(int initialCapacity, float loadFactor) {
-    this.capacity = 1;
-    // Capacity is initialized to the next multiple of 2 of initialCapacity
-    while (this.capacity < initialCapacity)
-      this.capacity <<= 1;
-    this.loadFactor = loadFactor;
-    this.map = new HashMap<BlockInfo, BlockInfo>(initialCapacity, loadFactor);
+  private GSet<Block, BlockInfo> blocks;
+
+  /**
+   * Create a block map whose index uses
+   * {@link #DEFAULT_MEMORY_PERCENT} of the maximum heap.
+   */
+  BlocksMap() {
+    this(LightWeightGSet.computeCapacity(DEFAULT_MEMORY_PERCENT, "BlocksMap"));
+  }
+
+  /**
+   * Create a block map with a fixed index capacity.
+   * The index is allocated once and never rehashed, and blocks are chained
+   * through {@link BlockInfo} itself, so no wrapper object is allocated
+   * per block.
+   */
+  BlocksMap(int capacity) {
+    this.blocks = new LightWeightGSet<Block, BlockInfo>(capacity);
+    this.capacity = ((LightWeightGSet<Block, BlockInfo>)blocks).getCapacity();
   }
 
   /**
    * Add BlockInfo if mapping does not exist.
    */
   private BlockInfo checkBlockInfo(Block b, int replication) {
-    BlockInfo info = map.get(b);
+    BlockInfo info = blocks.get(b);
     if (info == null) {
       info = new BlockInfo(b, replication);
-      map.put(info, info);
+      blocks.put(info);
     }
     return info;
   }
 
   INodeFile getINode(Block b) {
-    BlockInfo info = map.get(b);
+    BlockInfo info = blocks.get(b);
     return (info != null) ? info.inode : null;
   }
 
@@ -337,11 +364,11 @@ public class BlocksMap {
    * then remove the block from the block map.
    */
   void removeINode(Block b) {
-    BlockInfo info = map.get(b);
+    BlockInfo info = blocks.get(b);
     if (info != null) {
       info.inode = null;
       if (info.getDatanode(0) == null) {  // no datanodes left
-        map.remove(b);  // remove block from the map
+        blocks.remove(b);  // remove block from the map
       }
     }
   }
@@ -359,27 +386,27 @@ public class BlocksMap {
       DatanodeDescriptor dn = blockInfo.getDatanode(idx);
       dn.removeBlock(blockInfo); // remove from the list and wipe the location
     }
-    map.remove(blockInfo);  // remove block from the map
+    blocks.remove(blockInfo);  // remove block from the map
   }
 
   /** Returns the block object it it exists in the map. */
   BlockInfo getStoredBlock(Block b) {
-    return map.get(b);
+    return blocks.get(b);
   }
   
   /** Return the block object without matching against generation stamp. */
   BlockInfo getStoredBlockWithoutMatchingGS(Block b) {
-    return map.get(new Block(b.getBlockId()));
+    return blocks.get(new Block(b.getBlockId()));
   }
 
   /** Returned Iterator does not support. */
   Iterator<DatanodeDescriptor> nodeIterator(Block b) {
-    return new NodeIterator(map.get(b));
+    return new NodeIterator(blocks.get(b));
   }
 
   /** counts number of containing nodes. Better than using iterator. */
   int numNodes(Block b) {
-    BlockInfo info = map.get(b);
+    BlockInfo info = blocks.get(b);
     return info == null ? 0 : info.numNodes();
   }
 
@@ -398,7 +425,7 @@ public class BlocksMap {
    * only if it does not belong to any file and data-nodes.
    */
   boolean removeNode(Block b, DatanodeDescriptor node) {
-    BlockInfo info = map.get(b);
+    BlockInfo info = blocks.get(b);
     if (info == null)
       return false;
 
@@ -407,30 +434,30 @@ public class BlocksMap {
 
     if (info.getDatanode(0) == null     // no datanodes left
               && info.inode == null) {  // does not belong to a file
-      map.remove(b);  // remove block from the map
+      blocks.remove(b);  // remove block from the map
     }
     return removed;
   }
 
   int size() {
-    return map.size();
+    return blocks.size();
   }
 
-  Collection<BlockInfo> getBlocks() {
-    return map.values();
+  Iterable<BlockInfo> getBlocks() {
+    return blocks;
   }
   /**
    * Check if the block exists in map
    */
   boolean contains(Block block) {
-    return map.containsKey(block);
+    return blocks.contains(block);
   }
   
   /**
    * Check if the replica at the given datanode exists in map
    */
   boolean contains(Block block, DatanodeDescriptor datanode) {
-    BlockInfo info = map.get(block);
+    BlockInfo info = blocks.get(block);
     if (info == null)
       return false;
     
@@ -440,17 +467,8 @@ public class BlocksMap {
     return true;
   }
   
-  /** Get the capacity of the HashMap that stores blocks */
+  /** Get the capacity of the index that stores blocks */
   public int getCapacity() {
-    // Capacity doubles every time the map size reaches the threshold
-    while (map.size() > (int)(capacity * loadFactor)) {
-      capacity <<= 1;
-    }
     return capacity;
   }
-  
-  /** Get the load factor of the map */
-  public float getLoadFactor() {
-    return loadFactor;
-  }
 }
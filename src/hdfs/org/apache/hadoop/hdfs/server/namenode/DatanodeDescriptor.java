@@ -90,7 +90,8 @@ public class DatanodeDescriptor extends DatanodeInfo {
   private volatile BlockInfo blockList = null;
   // isAlive == heartbeats.contains(this)
   // This is an optimization, because contains takes O(n) time on Arraylist
-  protected boolean isAlive = false;
+  // Modified only while holding both the heartbeats lock and this node's lock.
+  protected volatile boolean isAlive = false;
 
   /** A queue of blocks to be replicated by this datanode */
   private BlockQueue replicateBlocks = new BlockQueue();
@@ -27,9 +27,17 @@ import org.apache.hadoop.io.Writable;
  * a persistent storage.
  */
 abstract class EditLogOutputStream extends OutputStream {
+  /**
+   * Number of buckets in the sync latency histogram.
+   * Bucket 0 counts syncs shorter than 1 ms, bucket i > 0 counts
+   * syncs that took [2^(i-1), 2^i) ms, and the last bucket is open-ended.
+   */
+  static final int NUM_LATENCY_BUCKETS = 13;
+
   // these are statistics counters
   private long numSync;        // number of sync(s) to disk
   private long totalTimeSync;  // total time to sync
+  private final long[] syncLatency = new long[NUM_LATENCY_BUCKETS];
 
   EditLogOutputStream() throws IOException {
     numSync = totalTimeSync = 0;
@@ -89,6 +97,19 @@ abstract class EditLogOutputStream extends OutputStream {
     flushAndSync();
     long end = FSNamesystem.now();
     totalTimeSync += (end - start);
+    recordSyncLatency(end - start);
+  }
+
+  private synchronized void recordSyncLatency(long elapsed) {
+    syncLatency[getLatencyBucket(elapsed)]++;
+  }
+
+  static int getLatencyBucket(long elapsed) {
+    if (elapsed <= 0) {
+      return 0;
+    }
+    int bucket = 64 - Long.numberOfLeadingZeros(elapsed);
+    return Math.min(bucket, NUM_LATENCY_BUCKETS - 1);
   }
 
   /**
@@ -110,4 +131,31 @@ abstract class EditLogOutputStream extends OutputStream {
   long getNumSync() {
     return numSync;
   }
+
+  /**
+   * Return a copy of the sync latency histogram.
+   * See {@link #NUM_LATENCY_BUCKETS} for the bucket boundaries.
+   */
+  synchronized long[] getSyncLatencyHistogram() {
+    return syncLatency.clone();
+  }
+
+  /**
+   * Return the non-empty buckets of the sync latency histogram
+   * in the form "[lo,hi):count ...", with times in milliseconds.
+   */
+  String getSyncLatencyHistogramString() {
+    long[] hist = getSyncLatencyHistogram();
+    StringBuilder buf = new StringBuilder();
+    for (int i = 0; i < hist.length; i++) {
+      if (hist[i] == 0) {
+        continue;
+      }
+      long lo = (i == 0) ? 0 : 1L << (i - 1);
+      buf.append(buf.length() == 0 ? "[" : " [").append(lo).append(",");
+      buf.append(i == hist.length - 1 ? "inf" : String.valueOf(1L << i));
+      buf.append("):").append(hist[i]);
+    }
+    return buf.toString();
+  }
 }
@@ -30,6 +30,7 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.server.common.HdfsConstants.StartupOption;
 import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
@@ -53,6 +54,7 @@ class FSDirectory implements FSConstants, Closeable {
   final INodeDirectoryWithQuota rootDir;
   FSImage fsImage;  
   private boolean ready = false;
+  private final NameCache nameCache;
   // Metrics record
   private MetricsRecord directoryMetrics = null;
 
@@ -107,7 +109,10 @@ class FSDirectory implements FSConstants, Closeable {
         ns.createFsOwnerPermissions(new FsPermission((short)0755)),
         Integer.MAX_VALUE, -1);
     this.fsImage = fsImage;
+    fsImage.setImageParameters(conf);
     namesystem = ns;
+    nameCache = new NameCache(conf.getInt(DFS_NAME_CACHE_THRESHOLD_KEY,
+                                          DFS_NAME_CACHE_THRESHOLD_DEFAULT));
     initialize(conf);
   }
     
@@ -144,6 +149,9 @@ class FSDirectory implements FSConstants, Closeable {
     }
     writeLock();
     try {
+      nameCache.initialized();
+      NameNode.LOG.info("Number of shared file names: "
+                        + nameCache.size());
       this.ready = true;
       cond.signalAll();
     } finally {
@@ -151,6 +159,19 @@ class FSDirectory implements FSConstants, Closeable {
     }
   }
 
+  /**
+   * Replace the name of the inode by its shared copy, if any.
+   * Must be called with the write lock held.
+   */
+  void cacheName(INode inode) {
+    inode.setLocalName(nameCache.put(inode.getLocalNameBytes()));
+  }
+
+  /** @return the cache of shared file names */
+  NameCache getNameCache() {
+    return nameCache;
+  }
+
   private void incrDeletedFileCount(int count) {
     directoryMetrics.incrMetric("files_deleted", count);
     directoryMetrics.update();
@@ -299,6 +320,7 @@ class FSDirectory implements FSConstants, Closeable {
       }
       if(newParent == null)
         return null;
+      cacheName(newNode);
       if(blocks != null) {
         int nrBlocks = blocks.length;
         // Add file->block mapping
@@ -834,6 +856,50 @@ class FSDirectory implements FSConstants, Closeable {
     }
   }
 
+  /**
+   * Get a partial listing of the indicated directory
+   *
+   * The read lock is held only while this batch is built, so listing
+   * a huge directory does not block the namespace for its whole length.
+   *
+   * @param src the directory name
+   * @param startAfter the name to start listing after
+   * @param maxEntries the maximum number of entries to return
+   * @return a partial listing starting after startAfter;
+   *         null if the path does not exist
+   */
+  DirectoryListing getPartialListing(String src, byte[] startAfter,
+      int maxEntries) {
+    String srcs = normalizePath(src);
+
+    readLock();
+    try {
+      INode targetNode = rootDir.getNode(srcs);
+      if (targetNode == null)
+        return null;
+      if (!targetNode.isDirectory()) {
+        return new DirectoryListing(new FileStatus[]{
+            createFileStatus(srcs, targetNode)}, 0);
+      }
+      INodeDirectory dirInode = (INodeDirectory)targetNode;
+      List<INode> contents = dirInode.getChildren();
+      int startChild = dirInode.nextChild(startAfter);
+      int totalNumChildren = contents.size();
+      int numOfListing = Math.min(totalNumChildren-startChild, maxEntries);
+      FileStatus listing[] = new FileStatus[numOfListing];
+      if(! srcs.endsWith(Path.SEPARATOR))
+        srcs += Path.SEPARATOR;
+      for (int i = 0; i < numOfListing; i++) {
+        INode cur = contents.get(startChild+i);
+        listing[i] = createFileStatus(srcs+cur.getLocalName(), cur);
+      }
+      return new DirectoryListing(
+          listing, totalNumChildren-startChild-numOfListing);
+    } finally {
+      readUnlock();
+    }
+  }
+
   /** Get the file info for a specific file.
    * @param src The string representation of the path to the file
    * @return object containing information regarding the file
@@ -1225,6 +1291,7 @@ class FSDirectory implements FSConstants, Closeable {
     }
     updateCount(pathComponents, pos, counts.getNsCount(), childDiskspace,
         checkQuota);
+    cacheName(child);
     T addedNode = ((INodeDirectory)pathComponents[pos-1]).addChild(
         child, inheritPermission);
     if (addedNode == null) {
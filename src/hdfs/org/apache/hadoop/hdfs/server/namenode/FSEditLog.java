@@ -30,6 +30,14 @@ import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.lang.Math;
 import java.nio.channels.FileChannel;
 import java.nio.ByteBuffer;
@@ -44,6 +52,7 @@ import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.io.*;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.permission.*;
+import org.apache.hadoop.util.StringUtils;
 
 /**
  * FSEditLog maintains a log of the namespace modifications.
@@ -86,6 +95,35 @@ public class FSEditLog {
   // is a sync currently running?
   private boolean isSyncRunning;
 
+  // the highest transactionId that a thread is waiting to be synced.
+  private long syncRequestTxid = 0;
+
+  // the thread that performs all syncs, started on first logSync().
+  private SyncThread syncThread = null;
+
+  // how long the sync thread waits for a request before it exits, so that
+  // an edit log that is never closed does not keep it forever.
+  long syncThreadIdleTimeout = 60 * 1000L;
+
+  // flushes edit streams in parallel when there is more than one of them.
+  // Threads are daemons and time out when idle, so the pool is shared.
+  private static final ExecutorService flushExecutor = new ThreadPoolExecutor(
+      0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(),
+      new ThreadFactory() {
+        int counter = 0;
+
+        public Thread newThread(Runnable r) {
+          int thisIndex;
+          synchronized (this) {
+            thisIndex = counter++;
+          }
+          Thread t = new Thread(r, "FSEditLog flusher #" + thisIndex);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+
   // these are statistics counters.
   private long numTransactions;        // number of transactions
   private long numTransactionsBatchedInSync;
@@ -107,6 +145,25 @@ public class FSEditLog {
     }
   };
 
+  // the transaction up to which this thread deferred syncs, -1 if none yet;
+  // only set while the thread defers its syncs, see deferSyncs().
+  private static final ThreadLocal<TransactionId> deferredSyncTxid =
+    new ThreadLocal<TransactionId>();
+
+  // callbacks of deferred syncs, run once their transaction is durable.
+  private final List<SyncCallback> syncCallbacks =
+    new ArrayList<SyncCallback>();
+
+  private static class SyncCallback {
+    final long txid;
+    final Runnable callback;
+
+    SyncCallback(long txid, Runnable callback) {
+      this.txid = txid;
+      this.callback = callback;
+    }
+  }
+
   /**
    * An implementation of the abstract class {@link EditLogOutputStream},
    * which stores edits in a local file.
@@ -378,12 +435,7 @@ public class FSEditLog {
    * Shutdown the file store.
    */
   public synchronized void close() throws IOException {
-    while (isSyncRunning) {
-      try {
-        wait(1000);
-      } catch (InterruptedException ie) { 
-      }
-    }
+    stopSyncThread();
     if (editStreams == null) {
       return;
     }
@@ -898,60 +950,303 @@ public class FSEditLog {
     // stores in the Thread local variable of current threads
     TransactionId id = myTransactionId.get();
     id.txid = txid;
-    logSync();
+    logSync(id.txid);                     // never deferred
   }
 
   //
   // Sync all modifications done by this thread.
   //
+  // The actual sync is done by the SyncThread. Handler threads only wait
+  // for the transactions they wrote to become durable, so all the
+  // transactions logged while a sync is in progress are committed together
+  // by the next sync.
+  //
   public void logSync() throws IOException {
-    ArrayList<EditLogOutputStream> errorStreams = null;
-    long syncStart = 0;
-
     // Fetch the transactionId of this thread. 
     long mytxid = myTransactionId.get().txid;
 
-    final int numEditStreams;
+    TransactionId deferred = deferredSyncTxid.get();
+    if (deferred != null) {
+      // the caller of deferSyncs() syncs once the thread is done
+      deferred.txid = Math.max(deferred.txid, mytxid);
+      return;
+    }
+    logSync(mytxid);
+  }
+
+  /**
+   * Sync the transactions up to the given one and wait for them to become
+   * durable.
+   */
+  void logSync(long mytxid) throws IOException {
     synchronized (this) {
-      numEditStreams = editStreams.size();
-      assert numEditStreams > 0 : "no editlog streams";
+      assert editStreams.size() > 0 : "no editlog streams";
       printStatistics(false);
 
-      // if somebody is already syncing, then wait
-      while (mytxid > synctxid && isSyncRunning) {
+      // a thread that has not logged anything yet syncs everything so far
+      mytxid = Math.min(mytxid, txid);
+
+      //
+      // If this transaction was already flushed, then nothing to do
+      //
+      if (mytxid <= synctxid) {
+        numTransactionsBatchedInSync++;
+        if (metrics != null) // Metrics is non-null only when used inside name node
+          metrics.transactionsBatchedInSync.inc();
+        return;
+      }
+
+      // ask the sync thread to sync up to this transaction and wait for it
+      if (mytxid > syncRequestTxid) {
+        syncRequestTxid = mytxid;
+      }
+      if (syncThread == null) {
+        syncThread = new SyncThread(this);
+        syncThread.start();
+      }
+      notifyAll();
+      while (mytxid > synctxid) {
         try {
           wait(1000);
         } catch (InterruptedException ie) { 
         }
       }
+    }
+  }
 
-      //
-      // If this transaction was already flushed, then nothing to do
-      //
+  /**
+   * Defer the syncs of the calling thread: until {@link #endDeferSyncs()},
+   * {@link #logSync()} only notes the transactions it would sync instead
+   * of waiting for them. Used by the name-node so that its RPC handlers do
+   * not wait for syncs.
+   */
+  void deferSyncs() {
+    deferredSyncTxid.set(new TransactionId(-1));
+  }
+
+  /**
+   * Stop deferring the syncs of the calling thread.
+   * @return the transaction up to which the thread deferred syncs, to pass
+   *         to {@link #logSync(long)} or {@link #logSyncLater(long, Runnable)},
+   *         or -1 if it did not call {@link #logSync()}
+   */
+  long endDeferSyncs() {
+    TransactionId deferred = deferredSyncTxid.get();
+    deferredSyncTxid.remove();
+    return deferred == null ? -1 : deferred.txid;
+  }
+
+  /**
+   * Sync the transactions up to the given one without waiting for them.
+   * The callback is run once they are durable, by the sync thread, or by
+   * the calling thread if they are durable already.
+   */
+  void logSyncLater(long mytxid, Runnable callback) {
+    synchronized (this) {
+      printStatistics(false);
+      // a thread that has not logged anything yet syncs everything so far
+      mytxid = Math.min(mytxid, txid);
       if (mytxid <= synctxid) {
         numTransactionsBatchedInSync++;
         if (metrics != null) // Metrics is non-null only when used inside name node
           metrics.transactionsBatchedInSync.inc();
+      } else {
+        syncCallbacks.add(new SyncCallback(mytxid, callback));
+        if (mytxid > syncRequestTxid) {
+          syncRequestTxid = mytxid;
+        }
+        if (syncThread == null) {
+          syncThread = new SyncThread(this);
+          syncThread.start();
+        }
+        notifyAll();
+        return;
+      }
+    }
+    callback.run();
+  }
+
+  /**
+   * Remove the callbacks whose transactions are durable.
+   * @return the callbacks removed, null if none
+   */
+  private synchronized List<Runnable> takeSyncCallbacks() {
+    List<Runnable> callbacks = null;
+    for (Iterator<SyncCallback> it = syncCallbacks.iterator(); it.hasNext();) {
+      SyncCallback c = it.next();
+      if (c.txid <= synctxid) {
+        if (callbacks == null) {
+          callbacks = new ArrayList<Runnable>();
+        }
+        callbacks.add(c.callback);
+        it.remove();
+      }
+    }
+    return callbacks;
+  }
+
+  /**
+   * Wait for the pending syncs, then stop the sync thread and wait for it
+   * to exit. The next logSync() starts a new one.
+   */
+  synchronized void stopSyncThread() {
+    while (isSyncRunning || 
+           (syncThread != null && syncRequestTxid > synctxid)) {
+      try {
+        wait(1000);
+      } catch (InterruptedException ie) { 
+      }
+    }
+    SyncThread thread = syncThread;
+    if (thread == null) {
+      return;
+    }
+    thread.shouldRun = false;
+    syncThread = null;
+    notifyAll();
+    while (!thread.exited) {
+      try {
+        wait(1000);
+      } catch (InterruptedException ie) {
+      }
+    }
+  }
+
+  /** @return the thread syncing this edit log, if there is one */
+  synchronized Thread getSyncThread() {
+    return syncThread;
+  }
+
+  /**
+   * Write edits to the given streams instead of those of the image.
+   * Used by tests only.
+   */
+  synchronized void setEditStreams(ArrayList<EditLogOutputStream> streams) {
+    editStreams = streams;
+  }
+
+  /**
+   * Swap the buffers of all the streams and flush the ready buffers,
+   * letting new transactions accumulate in the current buffers meanwhile.
+   * Called only from the sync thread.
+   */
+  private void syncPending(SyncThread caller) {
+    ArrayList<EditLogOutputStream> errorStreams = null;
+    ArrayList<EditLogOutputStream> streams;
+    long syncStart;
+
+    synchronized (this) {
+      long idleSince = FSNamesystem.now();
+      while (caller.shouldRun && syncRequestTxid <= synctxid) {
+        long idle = FSNamesystem.now() - idleSince;
+        if (idle >= syncThreadIdleTimeout) {
+          // exit; the next logSync() starts a new thread
+          caller.shouldRun = false;
+          if (syncThread == caller) {
+            syncThread = null;
+          }
+          break;
+        }
+        try {
+          wait(Math.min(1000, syncThreadIdleTimeout - idle));
+        } catch (InterruptedException ie) { 
+        }
+      }
+      if (!caller.shouldRun) {
         return;
       }
-   
-      // now, this thread will do the sync
       syncStart = txid;
-      isSyncRunning = true;   
 
       // swap buffers
-      for (int idx = 0; idx < numEditStreams; idx++) {
-        editStreams.get(idx).setReadyToFlush();
+      streams = new ArrayList<EditLogOutputStream>(editStreams);
+      for (int idx = 0; idx < streams.size(); idx++) {
+        EditLogOutputStream eStream = streams.get(idx);
+        try {
+          eStream.setReadyToFlush();
+        } catch (IOException ie) {
+          if (errorStreams == null) {
+            errorStreams = new ArrayList<EditLogOutputStream>(1);
+          }
+          errorStreams.add(eStream);
+          streams.remove(idx--);
+        }
       }
+      isSyncRunning = true;
     }
 
     // do the sync
     long start = FSNamesystem.now();
-    for (int idx = 0; idx < numEditStreams; idx++) {
-      EditLogOutputStream eStream = editStreams.get(idx);
+    try {
+      errorStreams = flushStreams(streams, errorStreams);
+    } finally {
+      long elapsed = FSNamesystem.now() - start;
+
+      synchronized (this) {
+        try {
+          processIOError(errorStreams);
+        } finally {
+          synctxid = syncStart;
+          isSyncRunning = false;
+          this.notifyAll();
+        }
+      }
+
+      if (metrics != null) // Metrics is non-null only when used inside name node
+        metrics.syncs.inc(elapsed);
+
+      List<Runnable> callbacks = takeSyncCallbacks();
+      if (callbacks != null) {
+        for (Runnable callback : callbacks) {
+          try {
+            callback.run();
+          } catch (Throwable t) {
+            FSNamesystem.LOG.error("FSEditLog sync callback: " +
+                                   StringUtils.stringifyException(t));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Flush the given streams. When there is more than one stream, all but
+   * the first are flushed by the flush executor while the calling thread
+   * flushes the first one, so the sync takes as long as the slowest
+   * directory rather than the sum of all of them.
+   * 
+   * @return the streams that failed, added to errorStreams
+   */
+  private ArrayList<EditLogOutputStream> flushStreams(
+      List<EditLogOutputStream> streams,
+      ArrayList<EditLogOutputStream> errorStreams) {
+    int numStreams = streams.size();
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(numStreams);
+    for (int idx = 1; idx < numStreams; idx++) {
+      final EditLogOutputStream eStream = streams.get(idx);
+      futures.add(flushExecutor.submit(new Callable<Void>() {
+        public Void call() throws IOException {
+          eStream.flush();
+          return null;
+        }
+      }));
+    }
+    for (int idx = 0; idx < numStreams; idx++) {
+      EditLogOutputStream eStream = streams.get(idx);
+      Throwable error = null;
       try {
-        eStream.flush();
+        if (idx == 0) {
+          eStream.flush();
+        } else {
+          futures.get(idx - 1).get();
+        }
       } catch (IOException ie) {
+        error = ie;
+      } catch (ExecutionException ee) {
+        error = ee.getCause();
+      } catch (InterruptedException ie) {
+        error = ie;
+      }
+      if (error != null) {
         //
         // remember the streams that encountered an error.
         //
@@ -959,21 +1254,46 @@ public class FSEditLog {
           errorStreams = new ArrayList<EditLogOutputStream>(1);
         }
         errorStreams.add(eStream);
-        FSNamesystem.LOG.error("Unable to sync edit log. " +
-                               "Fatal Error.");
+        FSNamesystem.LOG.error("Unable to sync edit log " + eStream.getName()
+            + ". Fatal Error.", error);
       }
     }
-    long elapsed = FSNamesystem.now() - start;
+    return errorStreams;
+  }
 
-    synchronized (this) {
-       processIOError(errorStreams);
-       synctxid = syncStart;
-       isSyncRunning = false;
-       this.notifyAll();
+  /**
+   * The thread that syncs the edit log on behalf of all the handlers.
+   * While it flushes one batch of transactions the next batch is
+   * being filled.
+   */
+  private static class SyncThread extends Thread {
+    final FSEditLog editLog;
+    volatile boolean shouldRun = true;
+    boolean exited = false;   // guarded by the lock of editLog
+
+    SyncThread(FSEditLog editLog) {
+      super("FSEditLog sync thread");
+      this.editLog = editLog;
+      setDaemon(true);
     }
 
-    if (metrics != null) // Metrics is non-null only when used inside name node
-      metrics.syncs.inc(elapsed);
+    public void run() {
+      try {
+        while (shouldRun) {
+          try {
+            editLog.syncPending(this);
+          } catch (Throwable t) {
+            FSNamesystem.LOG.error("FSEditLog sync thread: " +
+                                   StringUtils.stringifyException(t));
+          }
+        }
+      } finally {
+        synchronized (editLog) {
+          exited = true;
+          editLog.notifyAll();
+        }
+      }
+    }
   }
 
   //
@@ -1006,6 +1326,13 @@ public class FSEditLog {
       buf.append(eStream.getTotalSyncTime());
       buf.append(" ");
     }
+    buf.append(" SyncLatencyHistograms(ms):");
+    for (int idx = 0; idx < numEditStreams; idx++) {
+      EditLogOutputStream eStream = editStreams.get(idx);
+      buf.append(" " + eStream.getName() + ":{");
+      buf.append(eStream.getSyncLatencyHistogramString());
+      buf.append("}");
+    }
     FSNamesystem.LOG.info(buf);
   }
 
@@ -53,6 +53,8 @@ import org.apache.hadoop.hdfs.server.common.HdfsConstants.NodeType;
 import org.apache.hadoop.hdfs.server.common.HdfsConstants.StartupOption;
 import org.apache.hadoop.io.UTF8;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLog.EditLogFileInputStream;
@@ -146,8 +148,15 @@ public class FSImage extends Storage {
   /**
    * Used for saving the image to disk
    */
-  static private final FsPermission FILE_PERM = new FsPermission((short)0);
-  static private final byte[] PATH_SEPARATOR = INode.string2Bytes(Path.SEPARATOR);
+  static final byte[] PATH_SEPARATOR = INode.string2Bytes(Path.SEPARATOR);
+
+  /**
+   * Parameters of the sectioned image format, see {@link FSImageFormat}.
+   */
+  private Configuration imageConf = new Configuration();
+  private CompressionCodec imageCodec = null;
+  private int imageThreads = FSConstants.DFS_IMAGE_THREADS_DEFAULT;
+  private int imageSectionSize = FSConstants.DFS_IMAGE_SECTION_SIZE_DEFAULT;
 
   /**
    */
@@ -180,6 +189,27 @@ public class FSImage extends Storage {
     setStorageDirectories(dirs, editsDirs);
   }
   
+  /**
+   * Set the compression and parallelism used to save and load the image.
+   */
+  void setImageParameters(Configuration conf) {
+    imageConf = conf;
+    if (conf.getBoolean(FSConstants.DFS_IMAGE_COMPRESS_KEY,
+                        FSConstants.DFS_IMAGE_COMPRESS_DEFAULT)) {
+      Class<? extends CompressionCodec> codecClass = conf.getClass(
+          FSConstants.DFS_IMAGE_COMPRESSION_CODEC_KEY,
+          FSConstants.DFS_IMAGE_COMPRESSION_CODEC_DEFAULT,
+          CompressionCodec.class);
+      imageCodec = ReflectionUtils.newInstance(codecClass, conf);
+    } else {
+      imageCodec = null;
+    }
+    imageThreads = conf.getInt(FSConstants.DFS_IMAGE_THREADS_KEY,
+                               FSConstants.DFS_IMAGE_THREADS_DEFAULT);
+    imageSectionSize = conf.getInt(FSConstants.DFS_IMAGE_SECTION_SIZE_KEY,
+                                   FSConstants.DFS_IMAGE_SECTION_SIZE_DEFAULT);
+  }
+
   void setStorageDirectories(Collection<File> fsNameDirs,
                         Collection<File> fsEditsDirs
                              ) throws IOException {
@@ -912,11 +942,25 @@ public class FSImage extends Storage {
 
       needToSave = (imgVersion != FSConstants.LAYOUT_VERSION);
 
+      LOG.info("Number of files = " + numFiles);
+
+      if (imgVersion <= FSImageFormat.SECTIONED_LAYOUT_VERSION) {
+        long startTime = FSNamesystem.now();
+        FSImageFormat.Loader loader =
+          new FSImageFormat.Loader(imageConf, imageThreads);
+        long numLoaded = loader.load(this, curFile, in, imgVersion, fsNamesys);
+        if (numLoaded != numFiles) {
+          throw new IOException("Image file " + curFile + " is corrupt: "
+              + "expected " + numFiles + " inodes but loaded " + numLoaded);
+        }
+        LOG.info("Image file of size " + curFile.length() + " loaded in "
+            + (FSNamesystem.now() - startTime)/1000 + " seconds.");
+        return needToSave;
+      }
+
       // read file info
       short replication = FSNamesystem.getFSNamesystem().getDefaultReplication();
 
-      LOG.info("Number of files = " + numFiles);
-
       String path;
       String parentPath = "";
       INodeDirectory parentINode = fsDir.rootDir;
@@ -1054,30 +1098,9 @@ public class FSImage extends Storage {
    */
   void saveFSImage(File newFile) throws IOException {
     FSNamesystem fsNamesys = FSNamesystem.getFSNamesystem();
-    FSDirectory fsDir = fsNamesys.dir;
     long startTime = FSNamesystem.now();
-    //
-    // Write out data
-    //
-    DataOutputStream out = new DataOutputStream(
-                                                new BufferedOutputStream(
-                                                                         new FileOutputStream(newFile)));
-    try {
-      out.writeInt(FSConstants.LAYOUT_VERSION);
-      out.writeInt(namespaceID);
-      out.writeLong(fsDir.rootDir.numItemsInTree());
-      out.writeLong(fsNamesys.getGenerationStamp());
-      byte[] byteStore = new byte[4*FSConstants.MAX_PATH_LENGTH];
-      ByteBuffer strbuf = ByteBuffer.wrap(byteStore);
-      // save the root
-      saveINode2Image(strbuf, fsDir.rootDir, out);
-      // save the rest of the nodes
-      saveImage(strbuf, 0, fsDir.rootDir, out);
-      fsNamesys.saveFilesUnderConstruction(out);
-      strbuf = null;
-    } finally {
-      out.close();
-    }
+    new FSImageFormat.Saver(imageCodec, imageThreads, imageSectionSize)
+      .save(newFile, namespaceID, fsNamesys);
 
     LOG.info("Image file of size " + newFile.length() + " saved in " 
         + (FSNamesystem.now() - startTime)/1000 + " seconds.");
@@ -1174,10 +1197,12 @@ public class FSImage extends Storage {
 
   /*
    * Save one inode's attributes to the image.
+   * filePerm is a scratch object, it must not be shared between threads.
    */
-  private static void saveINode2Image(ByteBuffer name,
-                                      INode node,
-                                      DataOutputStream out) throws IOException {
+  static void saveINode2Image(ByteBuffer name,
+                              INode node,
+                              DataOutputStream out,
+                              FsPermission filePerm) throws IOException {
     int nameLen = name.position();
     out.writeShort(nameLen);
     out.write(name.array(), name.arrayOffset(), nameLen);
@@ -1191,10 +1216,10 @@ public class FSImage extends Storage {
       out.writeInt(blocks.length);
       for (Block blk : blocks)
         blk.write(out);
-      FILE_PERM.fromShort(fileINode.getFsPermissionShort());
+      filePerm.fromShort(fileINode.getFsPermissionShort());
       PermissionStatus.write(out, fileINode.getUserName(),
                              fileINode.getGroupName(),
-                             FILE_PERM);
+                             filePerm);
     } else {   // write directory inode
       out.writeShort(0);  // replication
       out.writeLong(node.getModificationTime());
@@ -1203,41 +1228,12 @@ public class FSImage extends Storage {
       out.writeInt(-1);    // # of blocks
       out.writeLong(node.getNsQuota());
       out.writeLong(node.getDsQuota());
-      FILE_PERM.fromShort(node.getFsPermissionShort());
+      filePerm.fromShort(node.getFsPermissionShort());
       PermissionStatus.write(out, node.getUserName(),
                              node.getGroupName(),
-                             FILE_PERM);
+                             filePerm);
     }
   }
-  /**
-   * Save file tree image starting from the given root.
-   * This is a recursive procedure, which first saves all children of
-   * a current directory and then moves inside the sub-directories.
-   */
-  private static void saveImage(ByteBuffer parentPrefix,
-                                int prefixLength,
-                                INodeDirectory current,
-                                DataOutputStream out) throws IOException {
-    int newPrefixLength = prefixLength;
-    if (current.getChildrenRaw() == null)
-      return;
-    for(INode child : current.getChildren()) {
-      // print all children first
-      parentPrefix.position(prefixLength);
-      parentPrefix.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
-      saveINode2Image(parentPrefix, child, out);
-    }
-    for(INode child : current.getChildren()) {
-      if(!child.isDirectory())
-        continue;
-      parentPrefix.position(prefixLength);
-      parentPrefix.put(PATH_SEPARATOR).put(child.getLocalNameBytes());
-      newPrefixLength = parentPrefix.position();
-      saveImage(parentPrefix, newPrefixLength, (INodeDirectory)child, out);
-    }
-    parentPrefix.position(prefixLength);
-  }
-
   void loadDatanodes(int version, DataInputStream in) throws IOException {
     if (version > -3) // pre datanode image version
       return;
@@ -1252,7 +1248,7 @@ public class FSImage extends Storage {
     }
   }
 
-  private void loadFilesUnderConstruction(int version, DataInputStream in, 
+  void loadFilesUnderConstruction(int version, DataInputStream in, 
                                   FSNamesystem fs) throws IOException {
 
     FSDirectory fsDir = fs.dir;
@@ -0,0 +1,554 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Reads and writes the sectioned image format introduced with
+ * layout version {@link #SECTIONED_LAYOUT_VERSION}.
+ * 
+ * The image starts with an uncompressed header: layout version,
+ * namespace id, number of inodes, generation stamp, compression flag
+ * and codec name, followed by the root inode. It is followed by a
+ * sequence of sections, each of them compressed independently:
+ * <ul>
+ * <li>inode sections, each holding a run of directory listings. A listing
+ * is the full path of a directory followed by (some of) its children,
+ * stored with their local names. Listings appear in the same order as in
+ * the old format, so a directory is always listed after the section
+ * containing its own inode;</li>
+ * <li>one section with the files under construction.</li>
+ * </ul>
+ * The file ends with an index of the sections (type, offset, length,
+ * number of inodes) and the offset of that index as the last 8 bytes.
+ * 
+ * Since the sections are self-contained they are encoded and decoded by a
+ * pool of threads; only linking the decoded inodes into the namespace
+ * and the blocks map is done by a single thread, in section order.
+ */
+class FSImageFormat {
+  static final Log LOG = LogFactory.getLog(FSImageFormat.class);
+
+  /** First layout version that uses the sectioned image format. */
+  static final int SECTIONED_LAYOUT_VERSION = -19;
+
+  static final byte SECTION_INODES = 1;
+  static final byte SECTION_FILES_UNDER_CONSTRUCTION = 2;
+
+  /** An entry of the section index. */
+  static class SectionInfo {
+    final byte type;
+    final long offset;
+    final long length;
+    final long numINodes;
+
+    SectionInfo(byte type, long offset, long length, long numINodes) {
+      this.type = type;
+      this.offset = offset;
+      this.length = length;
+      this.numINodes = numINodes;
+    }
+  }
+
+  /** Directory listings of a decoded inode section. */
+  private static class DecodedSection {
+    final List<byte[]> paths = new ArrayList<byte[]>();
+    final List<INode[]> children = new ArrayList<INode[]>();
+    final List<Block[][]> blocks = new ArrayList<Block[][]>();
+  }
+
+  /** Saves the namespace in the sectioned format. */
+  static class Saver {
+    private final CompressionCodec codec;
+    private final int numThreads;
+    private final int sectionSize;
+
+    private ExecutorService pool;
+    private LinkedList<Future<byte[]>> pendingData;
+    private LinkedList<Long> pendingINodes;
+    private List<SectionInfo> index;
+    private DataOutputStream out;
+    private long offset;
+
+    // the listings of the section being built
+    private List<byte[]> curPaths;
+    private List<INode[]> curChildren;
+    private long curINodes;
+
+    /**
+     * @param codec compression codec, or null to write an uncompressed image
+     * @param numThreads number of threads encoding the sections
+     * @param sectionSize approximate number of inodes per section
+     */
+    Saver(CompressionCodec codec, int numThreads, int sectionSize) {
+      this.codec = codec;
+      this.numThreads = Math.max(1, numThreads);
+      this.sectionSize = Math.max(1, sectionSize);
+    }
+
+    void save(File newFile, int namespaceID, FSNamesystem fsNamesys)
+        throws IOException {
+      FSDirectory fsDir = fsNamesys.dir;
+      pool = Executors.newFixedThreadPool(numThreads);
+      pendingData = new LinkedList<Future<byte[]>>();
+      pendingINodes = new LinkedList<Long>();
+      index = new ArrayList<SectionInfo>();
+      newSection();
+      out = new DataOutputStream(new BufferedOutputStream(
+                                   new FileOutputStream(newFile)));
+      try {
+        out.writeInt(FSConstants.LAYOUT_VERSION);
+        out.writeInt(namespaceID);
+        out.writeLong(fsDir.rootDir.numItemsInTree());
+        out.writeLong(fsNamesys.getGenerationStamp());
+        out.writeBoolean(codec != null);
+        if (codec != null) {
+          Text.writeString(out, codec.getClass().getName());
+        }
+        FSImage.saveINode2Image(ByteBuffer.allocate(0), fsDir.rootDir, out,
+                                new FsPermission((short)0));
+        offset = out.size();
+
+        byte[] byteStore = new byte[4*FSConstants.MAX_PATH_LENGTH];
+        ByteBuffer strbuf = ByteBuffer.wrap(byteStore);
+        saveDirectory(strbuf, fsDir.rootDir);
+        submitSection();
+        while (!pendingData.isEmpty()) {
+          writePendingSection();
+        }
+
+        DataOutputBuffer uc = new DataOutputBuffer();
+        fsNamesys.saveFilesUnderConstruction(uc);
+        writeSection(SECTION_FILES_UNDER_CONSTRUCTION,
+                     compress(uc.getData(), uc.getLength()), 0);
+
+        long indexOffset = offset;
+        out.writeInt(index.size());
+        for (SectionInfo s : index) {
+          out.writeByte(s.type);
+          out.writeLong(s.offset);
+          out.writeLong(s.length);
+          out.writeLong(s.numINodes);
+        }
+        out.writeLong(indexOffset);
+      } finally {
+        pool.shutdownNow();
+        out.close();
+      }
+    }
+
+    /**
+     * Save the listing of the given directory and then, recursively,
+     * of its sub-directories. The path of the directory is in
+     * parentPrefix up to its current position.
+     */
+    private void saveDirectory(ByteBuffer parentPrefix,
+                               INodeDirectory current) throws IOException {
+      List<INode> children = current.getChildrenRaw();
+      if (children == null) {
+        return;
+      }
+      int prefixLength = parentPrefix.position();
+      byte[] path = Arrays.copyOf(parentPrefix.array(), prefixLength);
+      INode[] all = children.toArray(new INode[children.size()]);
+      for (int from = 0; from < all.length; ) {
+        int to = (int)Math.min(all.length, from + sectionSize - curINodes);
+        curPaths.add(path);
+        curChildren.add(Arrays.copyOfRange(all, from, to));
+        curINodes += to - from;
+        from = to;
+        if (curINodes >= sectionSize) {
+          submitSection();
+        }
+      }
+      for (INode child : all) {
+        if (!child.isDirectory()) {
+          continue;
+        }
+        parentPrefix.position(prefixLength);
+        parentPrefix.put(FSImage.PATH_SEPARATOR).put(child.getLocalNameBytes());
+        saveDirectory(parentPrefix, (INodeDirectory)child);
+      }
+      parentPrefix.position(prefixLength);
+    }
+
+    private void newSection() {
+      curPaths = new ArrayList<byte[]>();
+      curChildren = new ArrayList<INode[]>();
+      curINodes = 0;
+    }
+
+    private void submitSection() throws IOException {
+      if (curPaths.isEmpty()) {
+        return;
+      }
+      final List<byte[]> paths = curPaths;
+      final List<INode[]> children = curChildren;
+      pendingData.add(pool.submit(new Callable<byte[]>() {
+        public byte[] call() throws IOException {
+          return encodeSection(paths, children);
+        }
+      }));
+      pendingINodes.add(curINodes);
+      newSection();
+      // bound the number of encoded sections held in memory
+      while (pendingData.size() > 2 * numThreads) {
+        writePendingSection();
+      }
+    }
+
+    private void writePendingSection() throws IOException {
+      byte[] data = getResult(pendingData.removeFirst());
+      writeSection(SECTION_INODES, data, pendingINodes.removeFirst());
+    }
+
+    private void writeSection(byte type, byte[] data, long numINodes)
+        throws IOException {
+      out.write(data);
+      index.add(new SectionInfo(type, offset, data.length, numINodes));
+      offset += data.length;
+    }
+
+    private byte[] encodeSection(List<byte[]> paths, List<INode[]> children)
+        throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream dout = new DataOutputStream(
+          new BufferedOutputStream(compressedStream(bytes)));
+      FsPermission perm = new FsPermission((short)0);
+      dout.writeInt(paths.size());
+      for (int i = 0; i < paths.size(); i++) {
+        byte[] path = paths.get(i);
+        INode[] nodes = children.get(i);
+        dout.writeShort(path.length);
+        dout.write(path);
+        dout.writeInt(nodes.length);
+        for (INode node : nodes) {
+          ByteBuffer name = ByteBuffer.wrap(node.getLocalNameBytes());
+          name.position(name.limit());
+          FSImage.saveINode2Image(name, node, dout, perm);
+        }
+      }
+      dout.close();
+      return bytes.toByteArray();
+    }
+
+    private byte[] compress(byte[] data, int length) throws IOException {
+      if (codec == null) {
+        return Arrays.copyOf(data, length);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      OutputStream cout = compressedStream(bytes);
+      cout.write(data, 0, length);
+      cout.close();
+      return bytes.toByteArray();
+    }
+
+    private OutputStream compressedStream(OutputStream bytes)
+        throws IOException {
+      return codec == null ? bytes : codec.createOutputStream(bytes);
+    }
+  }
+
+  /** Loads an image saved in the sectioned format. */
+  static class Loader {
+    private final Configuration conf;
+    private final int numThreads;
+    private CompressionCodec codec;
+
+    Loader(Configuration conf, int numThreads) {
+      this.conf = conf;
+      this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Load the rest of the image. The header up to and including the
+     * generation stamp has already been read from in.
+     * 
+     * @return number of inodes loaded, including the root
+     */
+    long load(FSImage image, File curFile, DataInputStream in, int imgVersion,
+              FSNamesystem fsNamesys) throws IOException {
+      FSDirectory fsDir = fsNamesys.dir;
+      if (in.readBoolean()) {
+        String codecName = Text.readString(in);
+        try {
+          codec = (CompressionCodec)ReflectionUtils.newInstance(
+              conf.getClassByName(codecName), conf);
+        } catch (ClassNotFoundException e) {
+          throw new IOException("Image compression codec " + codecName
+                                + " is not available.");
+        }
+      }
+
+      // the root
+      INode root = decodeINode(in, null, 0);
+      if (root.getNsQuota() != -1 || root.getDsQuota() != -1) {
+        fsDir.rootDir.setQuota(root.getNsQuota(), root.getDsQuota());
+      }
+      fsDir.rootDir.setModificationTime(root.getModificationTime());
+      fsDir.rootDir.setPermissionStatus(root.getPermissionStatus());
+      long numLoaded = 1;
+
+      RandomAccessFile raf = new RandomAccessFile(curFile, "r");
+      ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+      try {
+        List<SectionInfo> sections = readIndex(raf);
+        LinkedList<Future<DecodedSection>> pending =
+          new LinkedList<Future<DecodedSection>>();
+        for (SectionInfo s : sections) {
+          if (s.type != SECTION_INODES) {
+            continue;
+          }
+          final byte[] data = readSection(raf, s);
+          pending.add(pool.submit(new Callable<DecodedSection>() {
+            public DecodedSection call() throws IOException {
+              return decodeSection(data);
+            }
+          }));
+          // bound the number of decoded sections held in memory
+          while (pending.size() > 2 * numThreads) {
+            numLoaded += attach(fsNamesys, getResult(pending.removeFirst()));
+          }
+        }
+        while (!pending.isEmpty()) {
+          numLoaded += attach(fsNamesys, getResult(pending.removeFirst()));
+        }
+
+        for (SectionInfo s : sections) {
+          if (s.type == SECTION_FILES_UNDER_CONSTRUCTION) {
+            image.loadFilesUnderConstruction(imgVersion,
+                new DataInputStream(decompressedStream(readSection(raf, s))),
+                fsNamesys);
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+        raf.close();
+      }
+      return numLoaded;
+    }
+
+    private List<SectionInfo> readIndex(RandomAccessFile raf)
+        throws IOException {
+      long length = raf.length();
+      raf.seek(length - 8);
+      long indexOffset = raf.readLong();
+      if (indexOffset < 0 || indexOffset > length - 8) {
+        throw new IOException("Invalid image section index offset "
+                              + indexOffset);
+      }
+      byte[] data = new byte[(int)(length - 8 - indexOffset)];
+      raf.seek(indexOffset);
+      raf.readFully(data);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+      int numSections = in.readInt();
+      List<SectionInfo> sections = new ArrayList<SectionInfo>(numSections);
+      for (int i = 0; i < numSections; i++) {
+        sections.add(new SectionInfo(in.readByte(), in.readLong(),
+                                     in.readLong(), in.readLong()));
+      }
+      return sections;
+    }
+
+    private byte[] readSection(RandomAccessFile raf, SectionInfo s)
+        throws IOException {
+      if (s.length > Integer.MAX_VALUE) {
+        throw new IOException("Image section at offset " + s.offset
+                              + " is too large: " + s.length);
+      }
+      byte[] data = new byte[(int)s.length];
+      raf.seek(s.offset);
+      raf.readFully(data);
+      return data;
+    }
+
+    private InputStream decompressedStream(byte[] data) throws IOException {
+      InputStream bytes = new ByteArrayInputStream(data);
+      return codec == null ? bytes : codec.createInputStream(bytes);
+    }
+
+    /**
+     * Decode the inodes of a section. This runs in the thread pool and
+     * therefore must not touch the namespace.
+     */
+    private DecodedSection decodeSection(byte[] data) throws IOException {
+      DataInputStream in = new DataInputStream(decompressedStream(data));
+      DecodedSection section = new DecodedSection();
+      int numListings = in.readInt();
+      for (int i = 0; i < numListings; i++) {
+        byte[] path = new byte[in.readShort()];
+        in.readFully(path);
+        int numChildren = in.readInt();
+        INode[] children = new INode[numChildren];
+        Block[][] blocks = new Block[numChildren][];
+        for (int j = 0; j < numChildren; j++) {
+          children[j] = decodeINode(in, blocks, j);
+        }
+        section.paths.add(path);
+        section.children.add(children);
+        section.blocks.add(blocks);
+      }
+      in.close();
+      return section;
+    }
+
+    /**
+     * Link the decoded inodes into the namespace and the blocks map.
+     * @return number of inodes added
+     */
+    private long attach(FSNamesystem fsNamesys, DecodedSection section)
+        throws IOException {
+      FSDirectory fsDir = fsNamesys.dir;
+      long numAdded = 0;
+      fsDir.writeLock();
+      try {
+        for (int i = 0; i < section.paths.size(); i++) {
+          String path = DFSUtil.bytes2String(section.paths.get(i));
+          INode parentNode = path.length() == 0 ? fsDir.rootDir
+                                                : fsDir.rootDir.getNode(path);
+          if (parentNode == null || !parentNode.isDirectory()) {
+            throw new IOException("Image contains children of " + path
+                                  + " which is not a loaded directory.");
+          }
+          INodeDirectory parent = (INodeDirectory)parentNode;
+          INode[] children = section.children.get(i);
+          Block[][] blocks = section.blocks.get(i);
+          parent.ensureChildrenCapacity(
+              parent.getChildrenCount() + children.length);
+          for (int j = 0; j < children.length; j++) {
+            INode child = children[j];
+            fsDir.cacheName(child);
+            if (parent.addChild(child, false) == null) {
+              throw new IOException("Image contains duplicate entry "
+                  + child.getLocalName() + " in " + path);
+            }
+            if (blocks[j] != null) {
+              INodeFile file = (INodeFile)child;
+              for (int k = 0; k < blocks[j].length; k++) {
+                file.setBlock(k,
+                    fsNamesys.blocksMap.addINode(blocks[j][k], file));
+              }
+            }
+          }
+          numAdded += children.length;
+        }
+      } finally {
+        fsDir.writeUnlock();
+      }
+      return numAdded;
+    }
+
+    /**
+     * Read an inode saved by {@link FSImage#saveINode2Image}. The blocks
+     * of a file are returned in blocks[idx], since they can only be added
+     * to the blocks map once the inode is linked into the namespace.
+     */
+    private static INode decodeINode(DataInputStream in, Block[][] blocks,
+                                     int idx) throws IOException {
+      byte[] name = new byte[in.readShort()];
+      in.readFully(name);
+      short replication = FSEditLog.adjustReplication(in.readShort());
+      long modificationTime = in.readLong();
+      long atime = in.readLong();
+      long blockSize = in.readLong();
+      int numBlocks = in.readInt();
+      Block[] fileBlocks = null;
+      long nsQuota = -1L;
+      long dsQuota = -1L;
+      if (numBlocks >= 0) {
+        fileBlocks = new Block[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+          fileBlocks[i] = new Block();
+          fileBlocks[i].readFields(in);
+        }
+      } else {
+        nsQuota = in.readLong();
+        dsQuota = in.readLong();
+      }
+      PermissionStatus permissions = PermissionStatus.read(in);
+
+      INode node;
+      if (fileBlocks == null) {
+        if (nsQuota >= 0 || dsQuota >= 0) {
+          node = new INodeDirectoryWithQuota(
+              permissions, modificationTime, nsQuota, dsQuota);
+        } else {
+          node = new INodeDirectory(permissions, modificationTime);
+        }
+      } else {
+        node = new INodeFile(permissions, numBlocks, replication,
+                             modificationTime, atime, blockSize);
+        if (blocks != null) {
+          blocks[idx] = fileBlocks;
+        }
+      }
+      node.setLocalName(name);
+      return node;
+    }
+  }
+
+  private static <T> T getResult(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      throw (IOException)new IOException(
+          "Interrupted while processing image section").initCause(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException)cause;
+      }
+      throw (IOException)new IOException(
+          "Failed to process image section").initCause(cause);
+    }
+  }
+}
@@ -122,9 +122,6 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
   public static final Log auditLog = LogFactory.getLog(
       FSNamesystem.class.getName() + ".audit");
 
-  // Default initial capacity and load factor of map
-  public static final int DEFAULT_INITIAL_MAP_CAPACITY = 16;
-  public static final float DEFAULT_MAP_LOAD_FACTOR = 0.75f;
   public static final int DEFAULT_MAX_CORRUPT_FILES_RETURNED = 500;
 
   private boolean isPermissionEnabled;
@@ -134,8 +131,10 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
   private PermissionStatus defaultPermission;
   // FSNamesystemMetrics counter variables
   private FSNamesystemMetrics myFSMetrics;
-  private long capacityTotal = 0L, capacityUsed = 0L, capacityRemaining = 0L;
-  private int totalLoad = 0;
+  // Aggregate datanode statistics. Heartbeats apply their deltas under the
+  // lock of stats alone, so readers see all four totals from the same moment
+  // without contending with heartbeats on any other lock.
+  private final DatanodeStats stats = new DatanodeStats();
 
   volatile long pendingReplicationBlocksCount = 0L;
   volatile long corruptReplicaBlocksCount = 0L;
@@ -153,8 +152,7 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
   // Mapping: Block -> { INode, datanodes, self ref } 
   // Updated only in response to client-sent information.
   //
-  final BlocksMap blocksMap = new BlocksMap(DEFAULT_INITIAL_MAP_CAPACITY, 
-                                            DEFAULT_MAP_LOAD_FACTOR);
+  final BlocksMap blocksMap = new BlocksMap();
 
   //
   // Store blocks-->datanodedescriptor(s) map of corrupt replicas
@@ -248,6 +246,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
   private volatile boolean stallReplicationWork = false;
   // How many entries are returned by getCorruptInodes()
   int maxCorruptFilesReturned;
+  // How many entries are returned by a single getPartialListing()
+  private int lsLimit;
   // heartbeatRecheckInterval is how often namenode checks for expired datanodes
   private long heartbeatRecheckInterval;
   // heartbeatExpireInterval is how long namenode waits for datanode to report
@@ -352,9 +352,8 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
     setBlockTotal();
     if ("true".equals(conf.get("dfs.namenode.initialize.counting"))) {
       LOG.info("Start counting items in the file tree");
-      dir.rootDir.countItems();
+      INodeDirectory.ItemCounts counts = dir.rootDir.countItems();
       LOG.info("Finish counting items in the file tree");
-      INodeDirectory.ItemCounts counts = dir.rootDir.getItemCounts();
       LOG.info("Counting result: " +
                counts.numDirectories + " directories, " +
                counts.numFiles + " files, and " +
@@ -498,6 +497,10 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
 
     this.maxCorruptFilesReturned = conf.getInt("dfs.corruptfilesreturned.max",
         DEFAULT_MAX_CORRUPT_FILES_RETURNED);
+    int configuredLsLimit = conf.getInt(FSConstants.DFS_LIST_LIMIT_KEY,
+        FSConstants.DFS_LIST_LIMIT_DEFAULT);
+    this.lsLimit = configuredLsLimit > 0 ?
+        configuredLsLimit : FSConstants.DFS_LIST_LIMIT_DEFAULT;
     this.defaultReplication = conf.getInt("dfs.replication", 3);
     this.maxReplication = conf.getInt("dfs.replication.max", 512);
     this.minReplication = conf.getInt("dfs.replication.min", 1);
@@ -2470,6 +2473,35 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
     return dir.getListing(src);
   }
 
+  /**
+   * Get a partial listing of the indicated directory
+   *
+   * @param src the directory name
+   * @param startAfter the name to start after
+   * @param maxEntries the maximum number of entries requested by the client;
+   *        it is capped by dfs.ls.limit
+   * @return a partial listing starting after startAfter
+   */
+  public DirectoryListing getPartialListing(String src, byte[] startAfter,
+      int maxEntries) throws IOException {
+    if (isPermissionEnabled) {
+      if (dir.isDir(src)) {
+        checkPathAccess(src, FsAction.READ_EXECUTE);
+      }
+      else {
+        checkTraverse(src);
+      }
+    }
+    if (startAfter.length == 0 && auditLog.isInfoEnabled()) {
+      // only log the first batch of an iterative listing
+      logAuditEvent(UserGroupInformation.getCurrentUGI(),
+                    Server.getRemoteIp(),
+                    "listStatus", src, null, null);
+    }
+    int limit = (maxEntries > 0 && maxEntries < lsLimit) ? maxEntries : lsLimit;
+    return dir.getPartialListing(src, startAfter, limit);
+  }
+
   /////////////////////////////////////////////////////////
   //
   // These methods are called by datanodes
@@ -2578,9 +2610,11 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
       synchronized(heartbeats) {
         if( !heartbeats.contains(nodeS)) {
           heartbeats.add(nodeS);
-          //update its timestamp
-          nodeS.updateHeartbeat(0L, 0L, 0L, 0);
-          nodeS.isAlive = true;
+          synchronized (nodeS) {
+            //update its timestamp
+            nodeS.updateHeartbeat(0L, 0L, 0L, 0);
+            nodeS.isAlive = true;
+          }
         }
       }
       return;
@@ -2605,7 +2639,9 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
     // also treat the registration message as a heartbeat
     synchronized(heartbeats) {
       heartbeats.add(nodeDescr);
-      nodeDescr.isAlive = true;
+      synchronized (nodeDescr) {
+        nodeDescr.isAlive = true;
+      }
       // no need to update its timestamp
       // because its is done when the descriptor is created
     }
@@ -2695,50 +2731,54 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
       long capacity, long dfsUsed, long remaining,
       int xceiverCount, int xmitsInProgress) throws IOException {
     DatanodeCommand cmd = null;
-    synchronized (heartbeats) {
-      synchronized (datanodeMap) {
-        DatanodeDescriptor nodeinfo = null;
-        try {
-          nodeinfo = getDatanode(nodeReg);
-        } catch(UnregisteredDatanodeException e) {
-          return new DatanodeCommand[]{DatanodeCommand.REGISTER};
-        }
-          
-        // Check if this datanode should actually be shutdown instead. 
-        if (nodeinfo != null && shouldNodeShutdown(nodeinfo)) {
-          setDatanodeDead(nodeinfo);
-          throw new DisallowedDatanodeException(nodeinfo);
-        }
+    DatanodeDescriptor nodeinfo = null;
+    synchronized (datanodeMap) {
+      try {
+        nodeinfo = getDatanode(nodeReg);
+      } catch(UnregisteredDatanodeException e) {
+        return new DatanodeCommand[]{DatanodeCommand.REGISTER};
+      }
+    }
+    if (nodeinfo == null) {
+      return new DatanodeCommand[]{DatanodeCommand.REGISTER};
+    }
 
-        if (nodeinfo == null || !nodeinfo.isAlive) {
-          return new DatanodeCommand[]{DatanodeCommand.REGISTER};
-        }
+    // Per-datanode state is guarded by the descriptor itself, so heartbeats
+    // from different datanodes do not serialize on the heartbeats list.
+    synchronized (nodeinfo) {
+      // Check if this datanode should actually be shutdown instead. 
+      if (shouldNodeShutdown(nodeinfo)) {
+        setDatanodeDead(nodeinfo);
+        throw new DisallowedDatanodeException(nodeinfo);
+      }
+
+      if (!nodeinfo.isAlive) {
+        return new DatanodeCommand[]{DatanodeCommand.REGISTER};
+      }
 
-        updateStats(nodeinfo, false);
-        nodeinfo.updateHeartbeat(capacity, dfsUsed, remaining, xceiverCount);
-        updateStats(nodeinfo, true);
+      updateStats(nodeinfo, capacity, dfsUsed, remaining, xceiverCount);
+      nodeinfo.updateHeartbeat(capacity, dfsUsed, remaining, xceiverCount);
         
-        //check lease recovery
-        cmd = nodeinfo.getLeaseRecoveryCommand(Integer.MAX_VALUE);
-        if (cmd != null) {
-          return new DatanodeCommand[] {cmd};
-        }
+      //check lease recovery
+      cmd = nodeinfo.getLeaseRecoveryCommand(Integer.MAX_VALUE);
+      if (cmd != null) {
+        return new DatanodeCommand[] {cmd};
+      }
       
-        ArrayList<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>(2);
-        //check pending replication
-        cmd = nodeinfo.getReplicationCommand(
-              maxReplicationStreams - xmitsInProgress);
-        if (cmd != null) {
-          cmds.add(cmd);
-        }
-        //check block invalidation
-        cmd = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
-        if (cmd != null) {
-          cmds.add(cmd);
-        }
-        if (!cmds.isEmpty()) {
-          return cmds.toArray(new DatanodeCommand[cmds.size()]);
-        }
+      ArrayList<DatanodeCommand> cmds = new ArrayList<DatanodeCommand>(2);
+      //check pending replication
+      cmd = nodeinfo.getReplicationCommand(
+            maxReplicationStreams - xmitsInProgress);
+      if (cmd != null) {
+        cmds.add(cmd);
+      }
+      //check block invalidation
+      cmd = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
+      if (cmd != null) {
+        cmds.add(cmd);
+      }
+      if (!cmds.isEmpty()) {
+        return cmds.toArray(new DatanodeCommand[cmds.size()]);
       }
     }
 
@@ -2750,21 +2790,66 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
     return null;
   }
 
+  /**
+   * Add or remove the node's last reported usage to the cluster totals.
+   * The caller must hold the lock of the node.
+   */
   private void updateStats(DatanodeDescriptor node, boolean isAdded) {
-    //
-    // The statistics are protected by the heartbeat lock
-    //
-    assert(Thread.holdsLock(heartbeats));
-    if (isAdded) {
-      capacityTotal += node.getCapacity();
-      capacityUsed += node.getDfsUsed();
-      capacityRemaining += node.getRemaining();
-      totalLoad += node.getXceiverCount();
-    } else {
-      capacityTotal -= node.getCapacity();
-      capacityUsed -= node.getDfsUsed();
-      capacityRemaining -= node.getRemaining();
-      totalLoad -= node.getXceiverCount();
+    assert(Thread.holdsLock(node));
+    int sign = isAdded ? 1 : -1;
+    stats.add(sign * node.getCapacity(), sign * node.getDfsUsed(),
+              sign * node.getRemaining(), sign * node.getXceiverCount());
+  }
+
+  /**
+   * Apply the difference between the node's last reported usage and
+   * the newly reported values to the cluster totals.
+   * The caller must hold the lock of the node.
+   */
+  private void updateStats(DatanodeDescriptor node, long capacity,
+      long dfsUsed, long remaining, int xceiverCount) {
+    assert(Thread.holdsLock(node));
+    stats.add(capacity - node.getCapacity(), dfsUsed - node.getDfsUsed(),
+              remaining - node.getRemaining(),
+              xceiverCount - node.getXceiverCount());
+  }
+
+  /**
+   * Cluster totals of the usage last reported by the live datanodes.
+   */
+  private static class DatanodeStats {
+    private long capacityTotal = 0L;
+    private long capacityUsed = 0L;
+    private long capacityRemaining = 0L;
+    private int totalLoad = 0;
+
+    synchronized void add(long capacity, long dfsUsed, long remaining,
+                          int xceiverCount) {
+      capacityTotal += capacity;
+      capacityUsed += dfsUsed;
+      capacityRemaining += remaining;
+      totalLoad += xceiverCount;
+    }
+
+    /** @return capacity total, used and remaining, as of the same moment */
+    synchronized long[] getCapacities() {
+      return new long[] {capacityTotal, capacityUsed, capacityRemaining};
+    }
+
+    synchronized long getCapacityTotal() {
+      return capacityTotal;
+    }
+
+    synchronized long getCapacityUsed() {
+      return capacityUsed;
+    }
+
+    synchronized long getCapacityRemaining() {
+      return capacityRemaining;
+    }
+
+    synchronized int getTotalLoad() {
+      return totalLoad;
     }
   }
   /**
@@ -3280,10 +3365,12 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
    */
   private void removeDatanode(DatanodeDescriptor nodeInfo) {
     synchronized (heartbeats) {
-      if (nodeInfo.isAlive) {
-        updateStats(nodeInfo, false);
-        heartbeats.remove(nodeInfo);
-        nodeInfo.isAlive = false;
+      synchronized (nodeInfo) {
+        if (nodeInfo.isAlive) {
+          updateStats(nodeInfo, false);
+          heartbeats.remove(nodeInfo);
+          nodeInfo.isAlive = false;
+        }
       }
     }
 
@@ -3385,10 +3472,16 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
               } catch (IOException e) {
                 nodeInfo = null;
               }
-              if (nodeInfo != null && isDatanodeDead(nodeInfo)) {
-                NameNode.stateChangeLog.info("BLOCK* NameSystem.heartbeatCheck: "
-                                             + "lost heartbeat from " + nodeInfo.getName());
-                removeDatanode(nodeInfo);
+              if (nodeInfo != null) {
+                // A heartbeat from the node may be under way; check again
+                // once it has been applied.
+                synchronized (nodeInfo) {
+                  if (isDatanodeDead(nodeInfo)) {
+                    NameNode.stateChangeLog.info("BLOCK* NameSystem.heartbeatCheck: "
+                                                 + "lost heartbeat from " + nodeInfo.getName());
+                    removeDatanode(nodeInfo);
+                  }
+                }
               }
             }
           }
@@ -4033,83 +4126,71 @@ public class FSNamesystem implements FSConstants, FSNamesystemMBean, FSClusterSt
   
   long[] getStats() throws IOException {
     checkSuperuserPrivilege();
-    synchronized(heartbeats) {
-      return new long[] {this.capacityTotal, this.capacityUsed, 
-                         this.capacityRemaining,
-                         this.underReplicatedBlocksCount,
-                         this.corruptReplicaBlocksCount,
-                         getMissingBlocksCount()};
-    }
+    long[] capacities = stats.getCapacities();
+    return new long[] {capacities[0], capacities[1], capacities[2],
+                       this.underReplicatedBlocksCount,
+                       this.corruptReplicaBlocksCount,
+                       getMissingBlocksCount()};
   }
 
   /**
    * Total raw bytes including non-dfs used space.
    */
   public long getCapacityTotal() {
-    synchronized (heartbeats) {
-      return this.capacityTotal;
-    }
+    return stats.getCapacityTotal();
   }
 
   /**
    * Total used space by data nodes
    */
   public long getCapacityUsed() {
-    synchronized(heartbeats){
-      return this.capacityUsed;
-    }
+    return stats.getCapacityUsed();
   }
   /**
    * Total used space by data nodes as percentage of total capacity
    */
   public float getCapacityUsedPercent() {
-    synchronized(heartbeats){
-      if (capacityTotal <= 0) {
-        return 100;
-      }
-
-      return ((float)capacityUsed * 100.0f)/(float)capacityTotal;
+    long[] capacities = stats.getCapacities();
+    long total = capacities[0];
+    if (total <= 0) {
+      return 100;
     }
+
+    return ((float)capacities[1] * 100.0f)/(float)total;
   }
   /**
    * Total used space by data nodes for non DFS purposes such
    * as storing temporary files on the local file system
    */
   public long getCapacityUsedNonDFS() {
-    long nonDFSUsed = 0;
-    synchronized(heartbeats){
-      nonDFSUsed = capacityTotal - capacityRemaining - capacityUsed;
-    }
+    long[] capacities = stats.getCapacities();
+    long nonDFSUsed = capacities[0] - capacities[2] - capacities[1];
     return nonDFSUsed < 0 ? 0 : nonDFSUsed;
   }
   /**
    * Total non-used raw bytes.
    */
   public long getCapacityRemaining() {
-    synchronized (heartbeats) {
-      return this.capacityRemaining;
-    }
+    return stats.getCapacityRemaining();
   }
 
   /**
    * Total remaining space by data nodes as percentage of total capacity
    */
   public float getCapacityRemainingPercent() {
-    synchronized(heartbeats){
-      if (capacityTotal <= 0) {
-        return 0;
-      }
-
-      return ((float)capacityRemaining * 100.0f)/(float)capacityTotal;
+    long[] capacities = stats.getCapacities();
+    long total = capacities[0];
+    if (total <= 0) {
+      return 0;
     }
+
+    return ((float)capacities[2] * 100.0f)/(float)total;
   }
   /**
    * Total number of connections.
    */
   public int getTotalLoad() {
-    synchronized (heartbeats) {
-      return this.totalLoad;
-    }
+    return stats.getTotalLoad();
   }
 
   int getNumberOfDatanodes(DatanodeReportType type) {
@@ -18,10 +18,10 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.RandomAccess;
 
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
@@ -30,12 +30,16 @@ import org.apache.hadoop.hdfs.protocol.Block;
 
 /**
  * Directory INode class.
+ * 
+ * The children are kept sorted by name in an array that is grown in
+ * place, which is considerably smaller than an ArrayList per directory.
  */
 class INodeDirectory extends INode {
   protected static final int DEFAULT_FILES_PER_DIRECTORY = 5;
   final static String ROOT_NAME = "";
 
-  private List<INode> children;
+  private INode[] children;
+  private int numChildren;
 
   INodeDirectory(String name, PermissionStatus permissions) {
     super(name, permissions);
@@ -59,7 +63,8 @@ class INodeDirectory extends INode {
    */
   INodeDirectory(INodeDirectory other) {
     super(other);
-    this.children = other.getChildren();
+    this.children = other.children;
+    this.numChildren = other.numChildren;
   }
   
   /**
@@ -69,11 +74,52 @@ class INodeDirectory extends INode {
     return true;
   }
 
+  /**
+   * Binary search for a child by name.
+   * @return the index of the child if it exists;
+   *         otherwise (-(insertion point) - 1)
+   */
+  private int searchChildren(byte[] name) {
+    int low = 0;
+    int high = numChildren - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = children[mid].compareTo(name);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Make room for at least minCapacity children, so that loading a
+   * directory of known size does not leave slack in the array.
+   */
+  void ensureChildrenCapacity(int minCapacity) {
+    int capacity = children == null ? 0 : children.length;
+    if (minCapacity > capacity) {
+      INode[] newChildren = new INode[minCapacity];
+      if (numChildren > 0) {
+        System.arraycopy(children, 0, newChildren, 0, numChildren);
+      }
+      children = newChildren;
+    }
+  }
+
   INode removeChild(INode node) {
     assert children != null;
-    int low = Collections.binarySearch(children, node.name);
+    int low = searchChildren(node.name);
     if (low >= 0) {
-      return children.remove(low);
+      INode removed = children[low];
+      System.arraycopy(children, low + 1, children, low,
+                       numChildren - low - 1);
+      children[--numChildren] = null;
+      return removed;
     } else {
       return null;
     }
@@ -87,9 +133,9 @@ class INodeDirectory extends INode {
     if ( children == null ) {
       throw new IllegalArgumentException("The directory is empty");
     }
-    int low = Collections.binarySearch(children, newChild.name);
+    int low = searchChildren(newChild.name);
     if (low>=0) { // an old child exists so replace by the newChild
-      children.set(low, newChild);
+      children[low] = newChild;
     } else {
       throw new IllegalArgumentException("No child exists to be replaced");
     }
@@ -103,13 +149,30 @@ class INodeDirectory extends INode {
     if (children == null) {
       return null;
     }
-    int low = Collections.binarySearch(children, name);
+    int low = searchChildren(name);
     if (low >= 0) {
-      return children.get(low);
+      return children[low];
     }
     return null;
   }
 
+  /**
+   * Given a child's name, return the index of the next child
+   * 
+   * @param name a child's name
+   * @return the index of the next child
+   */
+  int nextChild(byte[] name) {
+    if (name.length == 0 || children == null) { // empty name
+      return 0;
+    }
+    int nextPos = searchChildren(name) + 1;
+    if (nextPos >= 0) {
+      return nextPos;
+    }
+    return -nextPos;
+  }
+
   /**
    */
   private INode getNode(byte[][] components) {
@@ -222,14 +285,19 @@ class INodeDirectory extends INode {
       node.setPermission(p);
     }
 
-    if (children == null) {
-      children = new ArrayList<INode>(DEFAULT_FILES_PER_DIRECTORY);
-    }
-    int low = Collections.binarySearch(children, node.name);
+    int low = searchChildren(node.name);
     if(low >= 0)
       return null;
+    if (children == null) {
+      children = new INode[DEFAULT_FILES_PER_DIRECTORY];
+    } else if (numChildren == children.length) {
+      ensureChildrenCapacity(numChildren + (numChildren >> 1) + 1);
+    }
     node.parent = this;
-    children.add(-low - 1, node);
+    int pos = -low - 1;
+    System.arraycopy(children, pos, children, pos + 1, numChildren - pos);
+    children[pos] = node;
+    numChildren++;
     // update modification time of the parent directory
     setModificationTime(node.getModificationTime());
     if (node.getGroupName() == null) {
@@ -306,32 +374,66 @@ class INodeDirectory extends INode {
   /** {@inheritDoc} */
   DirCounts spaceConsumedInTree(DirCounts counts) {
     counts.nsCount += 1;
-    if (children != null) {
-      for (INode child : children) {
-        child.spaceConsumedInTree(counts);
-      }
+    for (int i = 0; i < numChildren; i++) {
+      children[i].spaceConsumedInTree(counts);
     }
     return counts;    
   }
 
   /** {@inheritDoc} */
   long[] computeContentSummary(long[] summary) {
-    if (children != null) {
-      for (INode child : children) {
-        child.computeContentSummary(summary);
-      }
+    for (int i = 0; i < numChildren; i++) {
+      children[i].computeContentSummary(summary);
     }
     summary[2]++;
     return summary;
   }
 
+  /** Read-only view of the children of a directory. */
+  private static class ChildrenList extends AbstractList<INode>
+      implements RandomAccess {
+    private final INode[] children;
+    private final int size;
+
+    ChildrenList(INode[] children, int size) {
+      this.children = children;
+      this.size = size;
+    }
+
+    public INode get(int index) {
+      if (index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index
+                                            + ", Size: " + size);
+      }
+      return children[index];
+    }
+
+    public int size() {
+      return size;
+    }
+  }
+
   /**
+   * @return a read-only list of the children, sorted by name
    */
   List<INode> getChildren() {
-    return children==null ? new ArrayList<INode>() : children;
+    if (numChildren == 0) {
+      return Collections.<INode>emptyList();
+    }
+    return new ChildrenList(children, numChildren);
   }
+
+  /**
+   * @return a read-only list of the children, or null if the
+   *         directory never had any
+   */
   List<INode> getChildrenRaw() {
-    return children;
+    return children == null ? null : getChildren();
+  }
+
+  /** @return the number of children */
+  int getChildrenCount() {
+    return numChildren;
   }
 
   int collectSubtreeBlocksAndClear(List<Block> v) {
@@ -339,11 +441,12 @@ class INodeDirectory extends INode {
     if (children == null) {
       return total;
     }
-    for (INode child : children) {
-      total += child.collectSubtreeBlocksAndClear(v);
+    for (int i = 0; i < numChildren; i++) {
+      total += children[i].collectSubtreeBlocksAndClear(v);
     }
     parent = null;
     children = null;
+    numChildren = 0;
     return total;
   }
   
@@ -359,43 +462,34 @@ class INodeDirectory extends INode {
     long finishTime; // time stamp when counting finished
   }
   
-  private ItemCounts itemCounts = null;
-  
-  /**
-   * Get item counts of the current directory. Need to do countItems() first
-   * if you need updated item counts.
-   * @return numbers of blocks, files and directories
-   */
-  public ItemCounts getItemCounts() {
-    return itemCounts;
-  }
-  
   /**
    * Count items under the current directory
+   * @return numbers of blocks, files and directories
    */
-  public void countItems() {
-    itemCounts = new ItemCounts();
+  public ItemCounts countItems() {
+    ItemCounts itemCounts = new ItemCounts();
     itemCounts.startTime = System.currentTimeMillis();
     itemCounts.numDirectories = 1; // count the current directory
     itemCounts.numFiles = 0;
     itemCounts.numBlocks = 0;
-    for (INode child : children) {
-      countItemsRecursively(child);
+    for (int i = 0; i < numChildren; i++) {
+      countItemsRecursively(children[i], itemCounts);
     }
     itemCounts.finishTime = System.currentTimeMillis();
+    return itemCounts;
   }
   
-  private void countItemsRecursively(INode curr) {
+  private static void countItemsRecursively(INode curr,
+                                            ItemCounts itemCounts) {
     if (curr == null) {
       return;
     }
     itemCounts.numDirectories++;
     if (curr instanceof INodeDirectory) {
       itemCounts.numDirectories++;
-      if (((INodeDirectory) curr).children != null) {
-        for (INode child : ((INodeDirectory) curr).children) {
-          countItemsRecursively(child);
-        }
+      INodeDirectory dir = (INodeDirectory) curr;
+      for (int i = 0; i < dir.numChildren; i++) {
+        countItemsRecursively(dir.children[i], itemCounts);
       }
     } else {
       itemCounts.numFiles++;
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares the byte arrays of frequently used inode names, such as
+ * "part-00000" or "_logs", between all the inodes that carry them.
+ * 
+ * While the image and the edits are being loaded the cache counts how
+ * often each name is seen and promotes a name once it was seen
+ * useThreshold times. After {@link #initialized()} no more names are
+ * promoted: the cache only hands out the names it already holds, so it
+ * does not grow with the namespace.
+ * 
+ * The cache is not thread-safe; it is only used under the
+ * {@link FSDirectory} write lock.
+ */
+class NameCache {
+  /** Wrapper to compare and hash byte arrays by value. */
+  private static class Name {
+    private final byte[] bytes;
+    private final int hash;
+
+    Name(byte[] bytes) {
+      this.bytes = bytes;
+      this.hash = Arrays.hashCode(bytes);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object o) {
+      return o instanceof Name && Arrays.equals(bytes, ((Name)o).bytes);
+    }
+  }
+
+  private final int useThreshold;
+  private final Map<Name, byte[]> cache = new HashMap<Name, byte[]>();
+  private Map<Name, Integer> transientCounts = new HashMap<Name, Integer>();
+  private long lookups = 0;
+  private long hits = 0;
+
+  /**
+   * @param useThreshold number of uses after which a name is cached
+   */
+  NameCache(int useThreshold) {
+    this.useThreshold = useThreshold;
+  }
+
+  /**
+   * Get the cached copy of a name.
+   * @return the shared byte array equal to name, or name itself if
+   *         the name is not (yet) cached
+   */
+  byte[] put(byte[] name) {
+    if (name == null || name.length == 0 || useThreshold <= 0) {
+      return name;
+    }
+    lookups++;
+    Name key = new Name(name);
+    byte[] cached = cache.get(key);
+    if (cached != null) {
+      hits++;
+      return cached;
+    }
+    if (transientCounts != null) {
+      Integer count = transientCounts.get(key);
+      int newCount = count == null ? 1 : count + 1;
+      if (newCount >= useThreshold) {
+        transientCounts.remove(key);
+        cache.put(key, name);
+      } else {
+        transientCounts.put(key, newCount);
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Mark the end of namespace loading: stop promoting names and release
+   * the use counts gathered so far.
+   */
+  void initialized() {
+    transientCounts = null;
+  }
+
+  /** @return number of cached names */
+  int size() {
+    return cache.size();
+  }
+
+  /** @return number of names looked up in the cache */
+  long getLookupCount() {
+    return lookups;
+  }
+
+  /** @return number of lookups that returned a shared name */
+  long getHitCount() {
+    return hits;
+  }
+}
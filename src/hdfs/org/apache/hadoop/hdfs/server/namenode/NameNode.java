@@ -41,6 +41,7 @@ import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 import org.apache.hadoop.hdfs.server.protocol.UpgradeCommand;
 import org.apache.hadoop.http.HttpServer;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.ipc.*;
 import org.apache.hadoop.conf.*;
 import org.apache.hadoop.util.ReflectionUtils;
@@ -152,6 +153,10 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
   // The address where the server processing datanode requests is running
   public static final String DATANODE_PROTOCOL_ADDRESS =
                                 "dfs.namenode.dn-address";
+  // Whether RPC handlers hand the edit log sync of a call to the sync
+  // thread instead of waiting for it
+  public static final String DEFERRED_SYNC_KEY =
+                                "dfs.namenode.edits.sync.deferred";
   public static final int DEFAULT_PORT = 8020;
 
   public static final Log LOG = LogFactory.getLog(NameNode.class.getName());
@@ -369,14 +374,74 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
     }
   }
   
+  /** Create an RPC server for the protocols of the name-node. */
+  private Server getServer(String bindAddress, int port, int numHandlers)
+      throws IOException {
+    if (conf.getBoolean(DEFERRED_SYNC_KEY, false)) {
+      return new DeferredSyncServer(bindAddress, port, numHandlers);
+    }
+    return RPC.getServer(this, bindAddress, port, numHandlers, false, conf);
+  }
+
+  /**
+   * An RPC server whose handlers do not wait for the edit log to be synced.
+   * The edits a call logs are synced by the sync thread of the edit log,
+   * which then sends the response of the call, so the handler takes the
+   * next call meanwhile. A call that fails still waits for its edits to be
+   * synced before its error is sent.
+   */
+  private class DeferredSyncServer extends RPC.Server {
+    DeferredSyncServer(String bindAddress, int port, int numHandlers)
+        throws IOException {
+      super(NameNode.this, conf, bindAddress, port, numHandlers, false);
+    }
+
+    @Override
+    public Writable call(Class<?> protocol, Writable param, long receivedTime)
+        throws IOException {
+      FSNamesystem ns = namesystem;
+      if (ns == null) {           // the namesystem is still being created
+        return super.call(protocol, param, receivedTime);
+      }
+      FSEditLog editLog = ns.getEditLog();
+      editLog.deferSyncs();
+      final Writable value;
+      try {
+        value = super.call(protocol, param, receivedTime);
+      } catch (IOException e) {
+        long txid = editLog.endDeferSyncs();
+        if (txid >= 0) {
+          editLog.logSync(txid);
+        }
+        throw e;
+      }
+      long txid = editLog.endDeferSyncs();
+      if (txid >= 0) {
+        final Server.DeferredResponse response = Server.deferResponse();
+        editLog.logSyncLater(txid, new Runnable() {
+          public void run() {
+            try {
+              response.sendResponse(value);
+            } catch (IOException e) {
+              NameNode.LOG.warn("Could not send a response after the "
+                                + "edit log sync: "
+                                + StringUtils.stringifyException(e));
+            }
+          }
+        });
+      }
+      return value;
+    }
+  }
+
   public void startServerForClientRequests() throws IOException {
     if (this.server == null) {
       InetSocketAddress socAddr = NameNode.getAddress(conf);
       int handlerCount = conf.getInt("dfs.namenode.handler.count", 10);
       
       // create rpc server 
-      this.server = RPC.getServer(this, socAddr.getHostName(), socAddr.getPort(),
-                                  handlerCount, false, conf);
+      this.server = getServer(socAddr.getHostName(), socAddr.getPort(),
+                              handlerCount);
       // The rpc-server port can be ephemeral... ensure we have the correct info
       this.serverAddress = this.server.getListenerAddress();
       FileSystem.setDefaultUri(conf, getUri(serverAddress));
@@ -399,8 +464,8 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
     
     if (dnAddr != null) {
       int dnHandlerCount = conf.getInt(DATANODE_PROTOCOL_HANDLERS, handlerCount);
-      this.dnProtocolServer = RPC.getServer(this, dnAddr.getHostName(),
-                              dnAddr.getPort(), dnHandlerCount, false, conf);
+      this.dnProtocolServer = getServer(dnAddr.getHostName(),
+                              dnAddr.getPort(), dnHandlerCount);
       this.dnProtocolAddress = dnProtocolServer.getListenerAddress();
       NameNode.setDNProtocolAddress(conf, 
           dnProtocolAddress.getHostName() + ":" + dnProtocolAddress.getPort());
@@ -732,6 +797,20 @@ public class NameNode implements ClientProtocol, DatanodeProtocol,
     return files;
   }
 
+  /**
+   * Get at most maxEntries entries of a directory, starting after the
+   * name startAfter. Counted as a listing operation in the metrics.
+   */
+  public DirectoryListing getPartialListing(String src, byte[] startAfter,
+      int maxEntries) throws IOException {
+    DirectoryListing files = namesystem.getPartialListing(
+        src, startAfter, maxEntries);
+    if (files != null) {
+      myMetrics.numGetListingOps.inc();
+    }
+    return files;
+  }
+
   /**
    * Get the file info for a specific file.
    * @param src The string representation of the path to the file
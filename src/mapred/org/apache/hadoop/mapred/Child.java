@@ -67,6 +67,8 @@ class Child {
           TaskUmbilicalProtocol.versionID,
           address,
           defaultConf);
+    final boolean loadDefaults =
+      !defaultConf.getBoolean(TaskTracker.SKIP_DEFAULT_RESOURCES_KEY, false);
     int numTasksToExecute = -1; //-1 signifies "no limit"
     int numTasksExecuted = 0;
     Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -137,7 +139,8 @@ class Child {
         //create the index file so that the log files 
         //are viewable immediately
         TaskLog.syncLogs(firstTaskid, taskid, isCleanup);
-        JobConf job = new JobConf(task.getJobFile());
+        JobConf job = new JobConf(loadDefaults);
+        job.addResource(new Path(task.getJobFile()));
         //setupWorkDir actually sets up the symlinks for the distributed
         //cache. After a task exits we wipe the workdir clean, and hence
         //the symlinks have to be rebuilt.
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of fixed size pages of direct memory, which hold map outputs
+ * shuffled into memory outside of the heap. Direct memory is only returned
+ * to the system when the garbage collector finds its buffers unreachable,
+ * so the pool keeps the pages it hands out and hands them out again once
+ * they are released, rather than allocating more. Pages are cut from
+ * slabs of several pages to keep the number of direct buffers low.
+ */
+class DirectMemoryPool {
+
+  private static final int PAGES_PER_SLAB = 64;
+  private static final ByteBuffer[] NO_PAGES = new ByteBuffer[0];
+
+  private final int pageSize;
+  private final List<ByteBuffer> freePages = new ArrayList<ByteBuffer>();
+  private long allocatedBytes = 0;
+
+  DirectMemoryPool(int pageSize) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Invalid page size " + pageSize);
+    }
+    this.pageSize = pageSize;
+  }
+
+  int getPageSize() {
+    return pageSize;
+  }
+
+  /** @return the number of bytes of the pages holding length bytes */
+  int getReservedSize(int length) {
+    return (int)((((long)length + pageSize - 1) / pageSize) * pageSize);
+  }
+
+  /**
+   * Hands out cleared pages holding at least length bytes. The pages must
+   * be given back with {@link #release(ByteBuffer[])}.
+   */
+  synchronized ByteBuffer[] allocate(int length) {
+    final int numPages = getReservedSize(length) / pageSize;
+    if (numPages == 0) {
+      return NO_PAGES;
+    }
+    ByteBuffer[] pages = new ByteBuffer[numPages];
+    for (int i = 0; i < numPages; ++i) {
+      if (freePages.isEmpty()) {
+        allocateSlab(numPages - i);
+      }
+      pages[i] = freePages.remove(freePages.size() - 1);
+      pages[i].clear();
+    }
+    return pages;
+  }
+
+  /** Gives pages back to the pool. */
+  synchronized void release(ByteBuffer[] pages) {
+    for (ByteBuffer page : pages) {
+      freePages.add(page);
+    }
+  }
+
+  /**
+   * Copies len bytes from src to the pages, starting at offset in the
+   * pages.
+   */
+  void put(ByteBuffer[] pages, long offset, byte[] src, int off, int len) {
+    while (len > 0) {
+      final int pos = (int)(offset % pageSize);
+      final int n = Math.min(len, pageSize - pos);
+      ByteBuffer page = pages[(int)(offset / pageSize)].duplicate();
+      page.position(pos);
+      page.put(src, off, n);
+      offset += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Copies len bytes from the pages, starting at offset in the pages, to
+   * dst.
+   */
+  void get(ByteBuffer[] pages, long offset, byte[] dst, int off, int len) {
+    while (len > 0) {
+      final int pos = (int)(offset % pageSize);
+      final int n = Math.min(len, pageSize - pos);
+      ByteBuffer page = pages[(int)(offset / pageSize)].duplicate();
+      page.position(pos);
+      page.get(dst, off, n);
+      offset += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /** @return the byte at offset in the pages */
+  byte get(ByteBuffer[] pages, long offset) {
+    return pages[(int)(offset / pageSize)].get((int)(offset % pageSize));
+  }
+
+  /** @return the bytes of direct memory the pool took from the system */
+  synchronized long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  /** @return the bytes of the pages that are not handed out */
+  synchronized long getFreeBytes() {
+    return (long)freePages.size() * pageSize;
+  }
+
+  private void allocateSlab(int minPages) {
+    final int numPages = Math.max(minPages, PAGES_PER_SLAB);
+    // a slab never goes over 2GB
+    final int slabPages = Math.min(numPages, Integer.MAX_VALUE / pageSize);
+    ByteBuffer slab = ByteBuffer.allocateDirect(slabPages * pageSize);
+    for (int i = 0; i < slabPages; ++i) {
+      slab.limit((i + 1) * pageSize);
+      slab.position(i * pageSize);
+      freePages.add(slab.slice());
+    }
+    allocatedBytes += (long)slabPages * pageSize;
+  }
+}
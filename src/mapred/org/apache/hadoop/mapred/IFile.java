@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
@@ -48,7 +49,7 @@ import org.apache.hadoop.io.serializer.Serializer;
  */
 class IFile {
 
-  private static final int EOF_MARKER = -1;
+  static final int EOF_MARKER = -1;
   
   /**
    * <code>IFile.Writer</code> to write out intermediate map-outputs. 
@@ -564,4 +565,124 @@ class IFile {
       ramManager.unreserve(bufferSize);
     }
   }
+
+  /**
+   * <code>IFile.DirectMemoryReader</code> reads an uncompressed IFile held
+   * in pages of direct memory from a {@link DirectMemoryPool}. The records
+   * are copied one at a time to the heap, as the key and value have to be
+   * handed out as byte arrays. The pages go back to the pool when the
+   * reader is closed.
+   */
+  public static class DirectMemoryReader<K, V> extends Reader<K, V> {
+    private static final int INITIAL_RECORD_BUFFER_SIZE = 4 * 1024;
+
+    private final RamManager ramManager;
+    private final TaskAttemptID taskAttemptId;
+    private final DirectMemoryPool pool;
+    private ByteBuffer[] pages;
+    private final int reservedSize;
+
+    public DirectMemoryReader(RamManager ramManager,
+                              TaskAttemptID taskAttemptId,
+                              DirectMemoryPool pool, ByteBuffer[] pages,
+                              int length, int reservedSize)
+                              throws IOException {
+      super(null, null, length, null, null);
+      this.ramManager = ramManager;
+      this.taskAttemptId = taskAttemptId;
+      this.pool = pool;
+      this.pages = pages;
+      this.reservedSize = reservedSize;
+      buffer = new byte[INITIAL_RECORD_BUFFER_SIZE];
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+      // the number of bytes read, as in InMemoryReader
+      return bytesRead;
+    }
+
+    @Override
+    public long getLength() {
+      return fileLength;
+    }
+
+    private void checkAvailable(int len) throws IOException {
+      if (bytesRead + len > fileLength) {
+        throw new EOFException("Rec# " + recNo + ": Read past the end of " +
+                               "the map-output of " + taskAttemptId);
+      }
+    }
+
+    private int readVInt() throws IOException {
+      checkAvailable(1);
+      final byte firstByte = pool.get(pages, bytesRead++);
+      final int len = WritableUtils.decodeVIntSize(firstByte);
+      if (len == 1) {
+        return firstByte;
+      }
+      checkAvailable(len - 1);
+      long i = 0;
+      for (int idx = 0; idx < len - 1; idx++) {
+        i = (i << 8) | (pool.get(pages, bytesRead++) & 0xFF);
+      }
+      return (int)(WritableUtils.isNegativeVInt(firstByte) ? (i ^ -1L) : i);
+    }
+
+    public boolean next(DataInputBuffer key, DataInputBuffer value)
+    throws IOException {
+      // Sanity check
+      if (eof) {
+        throw new EOFException("Completed reading " + bytesRead);
+      }
+
+      // Read key and value lengths
+      final int keyLength = readVInt();
+      final int valueLength = readVInt();
+
+      // Check for EOF
+      if (keyLength == EOF_MARKER && valueLength == EOF_MARKER) {
+        eof = true;
+        return false;
+      }
+
+      // Sanity check
+      if (keyLength < 0) {
+        throw new IOException("Rec# " + recNo + ": Negative key-length: " +
+                              keyLength);
+      }
+      if (valueLength < 0) {
+        throw new IOException("Rec# " + recNo + ": Negative value-length: " +
+                              valueLength);
+      }
+
+      // Copy the record to the heap
+      final int recordLength = keyLength + valueLength;
+      checkAvailable(recordLength);
+      if (buffer.length < recordLength) {
+        buffer = new byte[recordLength];
+      }
+      pool.get(pages, bytesRead, buffer, 0, recordLength);
+      bytesRead += recordLength;
+      key.reset(buffer, 0, keyLength);
+      value.reset(buffer, keyLength, valueLength);
+
+      ++recNo;
+
+      return true;
+    }
+
+    public void close() {
+      if (pages == null) {
+        return;
+      }
+      // Release
+      pool.release(pages);
+      pages = null;
+      buffer = null;
+
+      // Inform the RamManager
+      ramManager.unreserve(reservedSize);
+    }
+  }
 }
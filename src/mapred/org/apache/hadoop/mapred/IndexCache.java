@@ -18,31 +18,55 @@
 package org.apache.hadoop.mapred;
 
 import java.io.IOException;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.TaskTracker.ShuffleServerMetrics;
 
 class IndexCache {
 
   private final JobConf conf;
   private final int totalMemoryAllowed;
-  private AtomicInteger totalMemoryUsed = new AtomicInteger();
+  private int totalMemoryUsed = 0;
   private static final Log LOG = LogFactory.getLog(IndexCache.class);
 
-  private final ConcurrentHashMap<String,IndexInformation> cache =
-    new ConcurrentHashMap<String,IndexInformation>();
-  
-  private final LinkedBlockingQueue<String> queue = 
-    new LinkedBlockingQueue<String>();
+  /** The index information by map id, least recently used first. */
+  private final LinkedHashMap<String,IndexInformation> cache =
+    new LinkedHashMap<String,IndexInformation>(16, 0.75f, true);
+
+  private final ShuffleServerMetrics metrics;
+
+  /** Reads the indices of the completed maps, or null if disabled. */
+  private final ExecutorService prefetcher;
 
   public IndexCache(JobConf conf) {
+    this(conf, null);
+  }
+
+  IndexCache(JobConf conf, ShuffleServerMetrics metrics) {
     this.conf = conf;
+    this.metrics = metrics;
     totalMemoryAllowed =
       conf.getInt("mapred.tasktracker.indexcache.mb", 10) * 1024 * 1024;
+    if (conf.getBoolean("mapred.tasktracker.indexcache.prefetch", false)) {
+      prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "IndexCache prefetcher");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    } else {
+      prefetcher = null;
+    }
     LOG.info("IndexCache created with max memory = " + totalMemoryAllowed);
   }
 
@@ -59,10 +83,23 @@ class IndexCache {
   public IndexRecord getIndexInformation(String mapId, int reduce,
       Path fileName) throws IOException {
 
-    IndexInformation info = cache.get(mapId);
+    IndexInformation info;
+    boolean load = false;
+    synchronized (cache) {
+      info = cache.get(mapId);
+      if (info == null) {
+        info = new IndexInformation();
+        cache.put(mapId, info);
+        load = true;
+      }
+    }
 
-    if (info == null) {
-      info = readIndexFileToCache(fileName, mapId);
+    if (load) {
+      LOG.debug("IndexCache MISS: MapId " + mapId + " not found") ;
+      if (metrics != null) {
+        metrics.indexCacheMiss();
+      }
+      readIndexFileToCache(fileName, mapId, info);
     } else {
       synchronized (info) {
         while (null == info.mapSpillRecord) {
@@ -74,6 +111,9 @@ class IndexCache {
         }
       }
       LOG.debug("IndexCache HIT: MapId " + mapId + " found");
+      if (metrics != null) {
+        metrics.indexCacheHit();
+      }
     }
 
     if (info.mapSpillRecord.size() == 0 ||
@@ -85,30 +125,53 @@ class IndexCache {
     return info.mapSpillRecord.getIndex(reduce);
   }
 
-  private IndexInformation readIndexFileToCache(Path indexFileName,
-      String mapId) throws IOException {
-    IndexInformation info;
-    IndexInformation newInd = new IndexInformation();
-    if ((info = cache.putIfAbsent(mapId, newInd)) != null) {
-      synchronized (info) {
-        while (null == info.mapSpillRecord) {
-          try {
-            info.wait();
-          } catch (InterruptedException e) {
-            throw new IOException("Interrupted waiting for construction", e);
+  /**
+   * Reads the index of a map into the cache in the background, if
+   * prefetching is enabled and the index is not cached yet. It should be
+   * called when a map on this tracker completes, so that the first
+   * reduce fetching its output does not wait for the index to be read.
+   * @param mapId The taskID of the map.
+   * @param fileName Locates the file to read the index information from
+   */
+  void prefetchIndexInformation(final String mapId,
+      final Callable<Path> fileName) {
+    if (prefetcher == null) {
+      return;
+    }
+    prefetcher.execute(new Runnable() {
+      public void run() {
+        IndexInformation info;
+        synchronized (cache) {
+          if (cache.containsKey(mapId)) {
+            return;
           }
+          info = new IndexInformation();
+          cache.put(mapId, info);
+        }
+        try {
+          readIndexFileToCache(fileName.call(), mapId, info);
+          LOG.debug("IndexCache PREFETCH: MapId " + mapId);
+        } catch (Exception e) {
+          // the map output will be looked up again when it is fetched
+          LOG.info("Failed to prefetch the index of " + mapId + ": " + e);
         }
       }
-      LOG.debug("IndexCache HIT: MapId " + mapId + " found");
-      return info;
-    }
-    LOG.debug("IndexCache MISS: MapId " + mapId + " not found") ;
+    });
+  }
+
+  private void readIndexFileToCache(Path indexFileName,
+      String mapId, IndexInformation newInd) throws IOException {
     SpillRecord tmp = null;
+    final long start = System.currentTimeMillis();
     try { 
       tmp = new SpillRecord(indexFileName, conf);
     } catch (Throwable e) { 
       tmp = new SpillRecord(0);
-      cache.remove(mapId);
+      synchronized (cache) {
+        if (cache.get(mapId) == newInd) {
+          cache.remove(mapId);
+        }
+      }
       throw new IOException("Error Reading IndexFile", e);
     } finally { 
       synchronized (newInd) { 
@@ -116,12 +179,20 @@ class IndexCache {
         newInd.notifyAll();
       } 
     } 
-    queue.add(mapId);
-    
-    if (totalMemoryUsed.addAndGet(newInd.getSize()) > totalMemoryAllowed) {
-      freeIndexInformation();
+    if (metrics != null) {
+      metrics.indexLoadTime(System.currentTimeMillis() - start);
+    }
+
+    synchronized (cache) {
+      // the map may have been removed while its index was read
+      if (cache.get(mapId) == newInd) {
+        newInd.size = newInd.getSize();
+        totalMemoryUsed += newInd.size;
+        if (totalMemoryUsed > totalMemoryAllowed) {
+          freeIndexInformation();
+        }
+      }
     }
-    return newInd;
   }
 
   /**
@@ -130,32 +201,53 @@ class IndexCache {
    * @param mapId The taskID of this map.
    */
   public void removeMap(String mapId) {
-    IndexInformation info = cache.remove(mapId);
-    if (info != null) {
-      totalMemoryUsed.addAndGet(-info.getSize());
-      if (!queue.remove(mapId)) {
-        LOG.warn("Map ID" + mapId + " not found in queue!!");
+    IndexInformation info;
+    synchronized (cache) {
+      info = cache.remove(mapId);
+      if (info != null) {
+        totalMemoryUsed -= info.size;
       }
-    } else {
+    }
+    if (info == null) {
       LOG.info("Map ID " + mapId + " not found in cache");
     }
   }
 
   /**
-   * Bring memory usage below totalMemoryAllowed.
+   * Bring memory usage below totalMemoryAllowed, removing the least
+   * recently used indices first. Indices still being read take no memory
+   * yet and are left in the cache. The caller holds the cache lock.
    */
-  private synchronized void freeIndexInformation() {
-    while (totalMemoryUsed.get() > totalMemoryAllowed) {
-      String s = queue.remove();
-      IndexInformation info = cache.remove(s);
-      if (info != null) {
-        totalMemoryUsed.addAndGet(-info.getSize());
+  private void freeIndexInformation() {
+    Iterator<Map.Entry<String,IndexInformation>> it =
+      cache.entrySet().iterator();
+    while (totalMemoryUsed > totalMemoryAllowed && it.hasNext()) {
+      IndexInformation info = it.next().getValue();
+      if (info.size > 0) {
+        it.remove();
+        totalMemoryUsed -= info.size;
       }
     }
   }
 
+  /** @return the memory taken by the cached indices */
+  int getMemoryUsed() {
+    synchronized (cache) {
+      return totalMemoryUsed;
+    }
+  }
+
+  /** Stops prefetching indices. */
+  void close() {
+    if (prefetcher != null) {
+      prefetcher.shutdownNow();
+    }
+  }
+
   private static class IndexInformation {
     SpillRecord mapSpillRecord;
+    /** The memory accounted for this index, set once it is cached. */
+    int size = 0;
 
     int getSize() {
       return mapSpillRecord == null
@@ -113,8 +113,8 @@ public class JobInProgress {
   JobPriority priority = JobPriority.NORMAL;
   final JobTracker jobtracker;
 
-  // NetworkTopology Node to the set of TIPs
-  Map<Node, List<TaskInProgress>> nonRunningMapCache;
+  // NetworkTopology Node to the queue of non-running TIPs
+  LocalityIndex nonRunningMapCache;
   
   // Map of NetworkTopology Node to set of running TIPs
   Map<Node, Set<TaskInProgress>> runningMapCache;
@@ -403,10 +403,9 @@ public class JobInProgress {
     }
   }
   
-  private Map<Node, List<TaskInProgress>> createCache(
+  private LocalityIndex createCache(
                          JobClient.RawSplit[] splits, int maxLevel) {
-    Map<Node, List<TaskInProgress>> cache = 
-      new IdentityHashMap<Node, List<TaskInProgress>>(maxLevel);
+    LocalityIndex cache = new LocalityIndex();
     
     for (int i = 0; i < splits.length; i++) {
       String[] splitLocations = splits[i].getLocations();
@@ -419,20 +418,9 @@ public class JobInProgress {
         Node node = jobtracker.resolveAndAddToTopology(host);
         LOG.info("tip:" + maps[i].getTIPId() + " has split on node:" + node);
         for (int j = 0; j < maxLevel; j++) {
-          List<TaskInProgress> hostMaps = cache.get(node);
-          if (hostMaps == null) {
-            hostMaps = new ArrayList<TaskInProgress>();
-            cache.put(node, hostMaps);
-            hostMaps.add(maps[i]);
-          }
-          //check whether the hostMaps already contains an entry for a TIP
-          //This will be true for nodes that are racks and multiple nodes in
-          //the rack contain the input for a tip. Note that if it already
-          //exists in the hostMaps, it must be the last element there since
-          //we process one TIP at a time sequentially in the split-size order
-          if (hostMaps.get(hostMaps.size() - 1) != maps[i]) {
-            hostMaps.add(maps[i]);
-          }
+          // the TIP is queued once at nodes that are racks and have more 
+          // than one host with the input of the tip
+          cache.add(node, maps[i]);
           node = node.getParent();
         }
       }
@@ -1120,8 +1108,11 @@ public class JobInProgress {
       return null;
     }
         
+    long lookupStart = System.nanoTime();
     int target = findNewMapTask(tts, clusterSize, numUniqueHosts, maxCacheLevel,
                                 status.mapProgress());
+    jobtracker.getInstrumentation().findMapTask(getJobID(), target != -1,
+        System.nanoTime() - lookupStart);
     if (target == -1) {
       return null;
     }
@@ -1181,8 +1172,11 @@ public class JobInProgress {
       return null;
     }
 
+    long lookupStart = System.nanoTime();
     int target = findNewMapTask(tts, clusterSize, numUniqueHosts, maxLevel, 
                                 status.mapProgress());
+    jobtracker.getInstrumentation().findMapTask(getJobID(), target != -1,
+        System.nanoTime() - lookupStart);
     if (target == -1) {
       return null;
     }
@@ -1204,8 +1198,11 @@ public class JobInProgress {
       return null;
     }
 
+    long lookupStart = System.nanoTime();
     int target = findNewMapTask(tts, clusterSize, numUniqueHosts, 
                                 NON_LOCAL_CACHE_LEVEL, status.mapProgress());
+    jobtracker.getInstrumentation().findMapTask(getJobID(), target != -1,
+        System.nanoTime() - lookupStart);
     if (target == -1) {
       return null;
     }
@@ -1825,12 +1822,7 @@ public class JobInProgress {
       Node node = jobtracker.getNode(host);
       
       for (int j = 0; j < maxLevel; ++j) {
-        List<TaskInProgress> hostMaps = nonRunningMapCache.get(node);
-        if (hostMaps == null) {
-          hostMaps = new LinkedList<TaskInProgress>();
-          nonRunningMapCache.put(node, hostMaps);
-        }
-        hostMaps.add(0, tip);
+        nonRunningMapCache.addFirst(node, tip);
         node = node.getParent();
       }
     }
@@ -1893,6 +1885,39 @@ public class JobInProgress {
     return null;
   }
   
+  /**
+   * Find a non-running task in the queue of a node in the non-running map
+   * cache. Same as {@link #findTaskFromList} except that a TIP which is
+   * scheduled or can no longer be scheduled is removed from the queues of
+   * all the nodes at once.
+   * @param node the node whose queue is searched
+   * @param ttStatus the status of tracker that has requested a task to run
+   * @param numUniqueHosts number of unique hosts that run trask trackers
+   * @param removeFailedTip whether to remove the failed tips
+   */
+  private synchronized TaskInProgress findTaskFromCache(
+      Node node, TaskTrackerStatus ttStatus, int numUniqueHosts,
+      boolean removeFailedTip) {
+    Iterator<TaskInProgress> iter = nonRunningMapCache.iterator(node);
+    while (iter.hasNext()) {
+      TaskInProgress tip = iter.next();
+
+      if (tip.isRunnable() && !tip.isRunning()) {
+        if (!tip.hasFailedOnMachine(ttStatus.getHost()) || 
+             tip.getNumberOfFailedMachines() >= numUniqueHosts) {
+          nonRunningMapCache.remove(tip);
+          return tip;
+        } else if (removeFailedTip) { 
+          // only this host's queue loses the tip
+          iter.remove();
+        }
+      } else {
+        nonRunningMapCache.remove(tip);
+      }
+    }
+    return null;
+  }
+  
   /**
    * Find a speculative task
    * @param list a list of tips
@@ -2026,21 +2051,11 @@ public class JobInProgress {
       // tasks
       int maxLevelToSchedule = Math.min(maxCacheLevel, maxLevel);
       for (level = 0;level < maxLevelToSchedule; ++level) {
-        List <TaskInProgress> cacheForLevel = nonRunningMapCache.get(key);
-        if (cacheForLevel != null) {
-          tip = findTaskFromList(cacheForLevel, tts, 
-              numUniqueHosts,level == 0);
-          if (tip != null) {
-            // Add to running cache
-            scheduleMap(tip);
-
-            // remove the cache if its empty
-            if (cacheForLevel.size() == 0) {
-              nonRunningMapCache.remove(key);
-            }
-
-            return tip.getIdWithinJob();
-          }
+        tip = findTaskFromCache(key, tts, numUniqueHosts, level == 0);
+        if (tip != null) {
+          // Add to running cache
+          scheduleMap(tip);
+          return tip.getIdWithinJob();
         }
         key = key.getParent();
       }
@@ -2071,20 +2086,12 @@ public class JobInProgress {
         continue;
       }
 
-      List<TaskInProgress> cache = nonRunningMapCache.get(parent);
-      if (cache != null) {
-        tip = findTaskFromList(cache, tts, numUniqueHosts, false);
-        if (tip != null) {
-          // Add to the running cache
-          scheduleMap(tip);
-
-          // remove the cache if empty
-          if (cache.size() == 0) {
-            nonRunningMapCache.remove(parent);
-          }
-          LOG.info("Choosing a non-local task " + tip.getTIPId());
-          return tip.getIdWithinJob();
-        }
+      tip = findTaskFromCache(parent, tts, numUniqueHosts, false);
+      if (tip != null) {
+        // Add to the running cache
+        scheduleMap(tip);
+        LOG.info("Choosing a non-local task " + tip.getTIPId());
+        return tip.getIdWithinJob();
       }
     }
 
@@ -2846,7 +2846,7 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
 
     //  Register the tracker if its not registered
     String hostname = status.getHost();
-    if (getNode(status.getTrackerName()) == null) {
+    if (getNode(hostname) == null) {
       // Making the network location resolution inline .. 
       resolveAndAddToTopology(hostname);
     }
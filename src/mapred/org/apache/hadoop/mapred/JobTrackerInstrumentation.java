@@ -160,4 +160,7 @@ class JobTrackerInstrumentation {
   public void setDecommissionedTrackers(int trackers)
   { }  
 
+  public void findMapTask(JobID id, boolean found, long nanos)
+  { }
+
 }
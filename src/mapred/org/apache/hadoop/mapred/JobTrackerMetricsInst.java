@@ -63,6 +63,12 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
   private int numTrackers = 0;
   private int numTrackersBlackListed = 0;
   private int numTrackersDecommissioned = 0;
+
+  // lookups for a map task to assign to a tracker
+  private int numMapLookups = 0;
+  private int numMapLookupMisses = 0;
+  private long mapLookupNanos = 0;
+  private long maxMapLookupNanos = 0;
   
   public JobTrackerMetricsInst(JobTracker tracker, JobConf conf) {
     super(tracker, conf);
@@ -120,6 +126,12 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
       metricsRecord.setMetric("trackers_decommissioned", 
           numTrackersDecommissioned);
 
+      metricsRecord.incrMetric("map_lookups", numMapLookups);
+      metricsRecord.incrMetric("map_lookup_misses", numMapLookupMisses);
+      metricsRecord.incrMetric("map_lookup_time_us", mapLookupNanos / 1000);
+      metricsRecord.setMetric("map_lookup_max_time_us",
+          maxMapLookupNanos / 1000);
+
       numMapTasksLaunched = 0;
       numMapTasksCompleted = 0;
       numMapTasksFailed = 0;
@@ -152,6 +164,11 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
 
       numTrackers = 0;
       numTrackersBlackListed = 0;
+
+      numMapLookups = 0;
+      numMapLookupMisses = 0;
+      mapLookupNanos = 0;
+      maxMapLookupNanos = 0;
     }
     metricsRecord.update();
   }
@@ -399,4 +416,15 @@ class JobTrackerMetricsInst extends JobTrackerInstrumentation implements Updater
   {
     numTrackersDecommissioned = trackers;
   }  
+
+  @Override
+  public synchronized void findMapTask(JobID id, boolean found, long nanos)
+  {
+    ++numMapLookups;
+    if (!found) {
+      ++numMapLookupMisses;
+    }
+    mapLookupNanos += nanos;
+    maxMapLookupNanos = Math.max(maxMapLookupNanos, nanos);
+  }
 }
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.net.Node;
+
+/**
+ * Queues of TIPs kept per node of the network topology, i.e. per host and
+ * per rack. A TIP is queued at every node that is local to its split, and
+ * it can be removed from all of these queues at once in time proportional
+ * to the number of queues it is in, rather than to the length of the
+ * queues. Nodes whose queue becomes empty are dropped from the index.
+ *
+ * The index is not thread safe; the {@link JobInProgress} owning it is
+ * locked while it is used.
+ */
+class LocalityIndex {
+
+  /** A position of a TIP in the queue of a node. */
+  private static class Entry {
+    final TaskInProgress tip;
+    final Queue queue;
+    Entry prev;
+    Entry next;
+
+    Entry(TaskInProgress tip, Queue queue) {
+      this.tip = tip;
+      this.queue = queue;
+    }
+  }
+
+  /** The TIPs queued at one node. */
+  private static class Queue {
+    final Node node;
+    Entry head;
+    Entry tail;
+    int size;
+
+    Queue(Node node) {
+      this.node = node;
+    }
+  }
+
+  private final Map<Node, Queue> queues = new IdentityHashMap<Node, Queue>();
+  // TIP --> its entries, one per queue the TIP is in
+  private final Map<TaskInProgress, List<Entry>> entries =
+    new IdentityHashMap<TaskInProgress, List<Entry>>();
+
+  /**
+   * Adds the TIP to the back of the queue of the node, unless it is
+   * already queued there.
+   */
+  void add(Node node, TaskInProgress tip) {
+    if (findEntry(node, tip) == null) {
+      link(newEntry(node, tip), false);
+    }
+  }
+
+  /**
+   * Puts the TIP at the front of the queue of the node, moving it there if
+   * it is already queued.
+   */
+  void addFirst(Node node, TaskInProgress tip) {
+    Entry entry = findEntry(node, tip);
+    if (entry == null) {
+      entry = newEntry(node, tip);
+    } else {
+      unlink(entry);
+    }
+    link(entry, true);
+  }
+
+  /**
+   * Removes the TIP from the queues of all the nodes.
+   * @return whether the TIP was queued anywhere
+   */
+  boolean remove(TaskInProgress tip) {
+    List<Entry> tipEntries = entries.remove(tip);
+    if (tipEntries == null) {
+      return false;
+    }
+    for (Entry entry : tipEntries) {
+      unlink(entry);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the TIPs queued at the node, front first. Removing a TIP
+   * through the iterator only removes it from the queue of this node.
+   * The iterator stays valid when the current TIP is removed from the
+   * whole index with {@link #remove(TaskInProgress)}.
+   */
+  Iterator<TaskInProgress> iterator(Node node) {
+    final Queue queue = queues.get(node);
+    return new Iterator<TaskInProgress>() {
+      private Entry next = (queue == null) ? null : queue.head;
+      private Entry current;
+
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      public TaskInProgress next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        current = next;
+        next = next.next;
+        return current.tip;
+      }
+
+      public void remove() {
+        if (current == null) {
+          throw new IllegalStateException();
+        }
+        List<Entry> tipEntries = entries.get(current.tip);
+        if (tipEntries != null && tipEntries.remove(current)) {
+          unlink(current);
+          if (tipEntries.isEmpty()) {
+            entries.remove(current.tip);
+          }
+        }
+        current = null;
+      }
+    };
+  }
+
+  /** @return the number of TIPs queued at the node */
+  int size(Node node) {
+    Queue queue = queues.get(node);
+    return queue == null ? 0 : queue.size;
+  }
+
+  /** @return whether any TIP is queued at the node */
+  boolean containsNode(Node node) {
+    return queues.containsKey(node);
+  }
+
+  /** @return the number of distinct TIPs in the index */
+  int size() {
+    return entries.size();
+  }
+
+  private Entry findEntry(Node node, TaskInProgress tip) {
+    List<Entry> tipEntries = entries.get(tip);
+    if (tipEntries != null) {
+      for (Entry entry : tipEntries) {
+        if (entry.queue.node == node) {
+          return entry;
+        }
+      }
+    }
+    return null;
+  }
+
+  private Entry newEntry(Node node, TaskInProgress tip) {
+    Queue queue = queues.get(node);
+    if (queue == null) {
+      queue = new Queue(node);
+      queues.put(node, queue);
+    }
+    List<Entry> tipEntries = entries.get(tip);
+    if (tipEntries == null) {
+      // a TIP is usually in a few host queues and their parents
+      tipEntries = new ArrayList<Entry>(4);
+      entries.put(tip, tipEntries);
+    }
+    Entry entry = new Entry(tip, queue);
+    tipEntries.add(entry);
+    return entry;
+  }
+
+  private void link(Entry entry, boolean first) {
+    Queue queue = entry.queue;
+    if (queue.size == 0) {
+      // the queue may have been dropped when it became empty
+      queues.put(queue.node, queue);
+    }
+    if (first) {
+      entry.prev = null;
+      entry.next = queue.head;
+      if (queue.head != null) {
+        queue.head.prev = entry;
+      } else {
+        queue.tail = entry;
+      }
+      queue.head = entry;
+    } else {
+      entry.next = null;
+      entry.prev = queue.tail;
+      if (queue.tail != null) {
+        queue.tail.next = entry;
+      } else {
+        queue.head = entry;
+      }
+      queue.tail = entry;
+    }
+    ++queue.size;
+  }
+
+  private void unlink(Entry entry) {
+    Queue queue = entry.queue;
+    if (entry.prev != null) {
+      entry.prev.next = entry.next;
+    } else {
+      queue.head = entry.next;
+    }
+    if (entry.next != null) {
+      entry.next.prev = entry.prev;
+    } else {
+      queue.tail = entry.prev;
+    }
+    // entry.next is left alone so that an iterator positioned after the
+    // entry keeps going
+    entry.prev = null;
+    if (--queue.size == 0) {
+      queues.remove(queue.node);
+    }
+  }
+}
@@ -45,6 +45,12 @@ interface MRConstants {
    */
   public static final String RAW_MAP_OUTPUT_LENGTH = "Raw-Map-Output-Length";
 
+  /**
+   * The custom http header set when the map output is not compressed with
+   * the codec of the job.
+   */
+  public static final String MAP_OUTPUT_UNCOMPRESSED = "Map-Output-Uncompressed";
+
   /**
    * The map task from which the map output data is being transferred
    */
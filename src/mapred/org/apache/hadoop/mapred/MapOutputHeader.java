@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Precedes each map output when the outputs of several maps are sent to a
+ * reduce over one connection. It carries what the http headers carry for
+ * a single map output. A negative length means the map output could not
+ * be read on the tracker, and no data follows it.
+ */
+class MapOutputHeader implements Writable {
+  String mapId;
+  long compressedLength;
+  long rawLength;
+  int forReduce;
+  /** Whether the map output is not compressed with the job's codec */
+  boolean uncompressed;
+
+  public MapOutputHeader() {}
+
+  public MapOutputHeader(String mapId, long compressedLength,
+                         long rawLength, int forReduce) {
+    this(mapId, compressedLength, rawLength, forReduce, false);
+  }
+
+  public MapOutputHeader(String mapId, long compressedLength,
+                         long rawLength, int forReduce,
+                         boolean uncompressed) {
+    this.mapId = mapId;
+    this.compressedLength = compressedLength;
+    this.rawLength = rawLength;
+    this.forReduce = forReduce;
+    this.uncompressed = uncompressed;
+  }
+
+  /** @return whether the map output follows the header */
+  boolean isAvailable() {
+    return compressedLength >= 0 && rawLength >= 0;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    Text.writeString(out, mapId);
+    WritableUtils.writeVLong(out, compressedLength);
+    WritableUtils.writeVLong(out, rawLength);
+    WritableUtils.writeVInt(out, forReduce);
+    out.writeBoolean(uncompressed);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    mapId = Text.readString(in);
+    compressedLength = WritableUtils.readVLong(in);
+    rawLength = WritableUtils.readVLong(in);
+    forReduce = WritableUtils.readVInt(in);
+    uncompressed = in.readBoolean();
+  }
+}
@@ -33,7 +33,16 @@ import java.io.OutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -46,9 +55,11 @@ import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.DefaultCodec;
@@ -702,6 +713,12 @@ class MapTask extends Task {
     
     // Compression for map-outputs
     private CompressionCodec codec = null;
+    // partitions written without the codec, null unless adaptive
+    private boolean[] uncompressedPartitions = null;
+    private long[] sampledRawBytes = null;
+    private long[] sampledCompressedBytes = null;
+    private float minCompressionSavings = 0;
+    private static final long COMPRESSION_SAMPLE_BYTES = 64 * 1024;
 
     // k/v accounting
     private volatile int kvstart = 0;  // marks beginning of spill
@@ -723,6 +740,14 @@ class MapTask extends Task {
     private static final int RECSIZE =
                        (ACCTSIZE + 1) * 4;  // acct bytes per record
 
+    // sorting on a prefix of the key bytes, for keys whose raw comparator
+    // orders them by their bytes after a header
+    private static final int NO_PREFIX = 0;
+    private static final int TEXT_PREFIX = 1;      // skip the vint length
+    private static final int BYTES_PREFIX = 2;     // skip the int length
+    private final int keyPrefixType;
+    private final int[] kvprefixes;    // key prefixes, parallel to kvoffsets
+
     // spill accounting
     private volatile int numSpills = 0;
     private volatile Throwable sortSpillException = null;
@@ -737,6 +762,14 @@ class MapTask extends Task {
     private volatile boolean spillThreadRunning = false;
     private final SpillThread spillThread = new SpillThread();
 
+    // sort and write the partitions of a spill concurrently, if there are
+    // more than one spill threads
+    private final int spillThreads;
+    private final int maxPendingSpillBytes; // of the partitions in flight
+    private final ExecutorService spillPool;
+    private final BlockingQueue<SpillWorker> spillWorkers;
+    private int[] groupedOffsets;       // scratch space to group a spill
+
     private final FileSystem localFs;
     private final FileSystem rfs;
    
@@ -777,21 +810,24 @@ class MapTask extends Task {
       sorter = ReflectionUtils.newInstance(
             job.getClass("map.sort.class", QuickSort.class, IndexedSorter.class), job);
       LOG.info("io.sort.mb = " + sortmb);
+      comparator = job.getOutputKeyComparator();
+      keyPrefixType = getKeyPrefixType(job, comparator);
       // buffers and accounting
+      final int recsize = (keyPrefixType == NO_PREFIX) ? RECSIZE : RECSIZE + 4;
       int maxMemUsage = sortmb << 20;
       int recordCapacity = (int)(maxMemUsage * recper);
-      recordCapacity -= recordCapacity % RECSIZE;
+      recordCapacity -= recordCapacity % recsize;
       kvbuffer = new byte[maxMemUsage - recordCapacity];
       bufvoid = kvbuffer.length;
-      recordCapacity /= RECSIZE;
+      recordCapacity /= recsize;
       kvoffsets = new int[recordCapacity];
       kvindices = new int[recordCapacity * ACCTSIZE];
+      kvprefixes = (keyPrefixType == NO_PREFIX) ? null : new int[recordCapacity];
       softBufferLimit = (int)(kvbuffer.length * spillper);
       softRecordLimit = (int)(kvoffsets.length * spillper);
       LOG.info("data buffer = " + softBufferLimit + "/" + kvbuffer.length);
       LOG.info("record buffer = " + softRecordLimit + "/" + kvoffsets.length);
       // k/v serialization
-      comparator = job.getOutputKeyComparator();
       keyClass = (Class<K>)job.getMapOutputKeyClass();
       valClass = (Class<V>)job.getMapOutputValueClass();
       serializationFactory = new SerializationFactory(job);
@@ -810,6 +846,20 @@ class MapTask extends Task {
         Class<? extends CompressionCodec> codecClass =
           job.getMapOutputCompressorClass(DefaultCodec.class);
         codec = ReflectionUtils.newInstance(codecClass, job);
+        // local reduces read whole map outputs, without their indices
+        if (job.getBoolean("mapred.compress.map.output.adaptive", false) &&
+            !"local".equals(job.get("mapred.job.tracker", "local"))) {
+          minCompressionSavings = job.getFloat(
+              "mapred.compress.map.output.adaptive.min.savings", 0.1f);
+          if (minCompressionSavings < 0 || minCompressionSavings > 1) {
+            throw new IOException(
+                "Invalid \"mapred.compress.map.output.adaptive.min.savings\": "
+                + minCompressionSavings);
+          }
+          uncompressedPartitions = new boolean[partitions];
+          sampledRawBytes = new long[partitions];
+          sampledCompressedBytes = new long[partitions];
+        }
       }
       // combiner
       combinerRunner = CombinerRunner.create(job, getTaskID(), 
@@ -821,6 +871,31 @@ class MapTask extends Task {
         combineCollector = null;
       }
       minSpillsForCombine = job.getInt("min.num.spills.for.combine", 3);
+      spillThreads = job.getInt("io.sort.spill.threads", 1);
+      if (spillThreads < 1) {
+        throw new IOException("Invalid \"io.sort.spill.threads\": " + 
+                              spillThreads);
+      }
+      maxPendingSpillBytes = kvbuffer.length / 4;
+      if (spillThreads > 1 && partitions > 1) {
+        LOG.info("io.sort.spill.threads = " + spillThreads);
+        spillWorkers = new ArrayBlockingQueue<SpillWorker>(spillThreads);
+        for (int i = 0; i < spillThreads; ++i) {
+          spillWorkers.add(new SpillWorker(combineInputCounter));
+        }
+        spillPool = Executors.newFixedThreadPool(spillThreads,
+            new ThreadFactory() {
+              private int count = 0;
+              public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SpillWorker " + count++);
+                t.setDaemon(true);
+                return t;
+              }
+            });
+      } else {
+        spillWorkers = null;
+        spillPool = null;
+      }
       spillThread.setDaemon(true);
       spillThread.setName("SpillThread");
       spillLock.lock();
@@ -941,6 +1016,14 @@ class MapTask extends Task {
       if (kvindices[ii + PARTITION] != kvindices[ij + PARTITION]) {
         return kvindices[ii + PARTITION] - kvindices[ij + PARTITION];
       }
+      // sort by key prefix
+      if (kvprefixes != null) {
+        final int pi = kvprefixes[i % kvoffsets.length];
+        final int pj = kvprefixes[j % kvoffsets.length];
+        if (pi != pj) {
+          return pi < pj ? -1 : 1;
+        }
+      }
       // sort by key
       return comparator.compare(kvbuffer,
           kvindices[ii + KEYSTART],
@@ -960,6 +1043,173 @@ class MapTask extends Task {
       int tmp = kvoffsets[i];
       kvoffsets[i] = kvoffsets[j];
       kvoffsets[j] = tmp;
+      if (kvprefixes != null) {
+        tmp = kvprefixes[i];
+        kvprefixes[i] = kvprefixes[j];
+        kvprefixes[j] = tmp;
+      }
+    }
+
+    /**
+     * Whether the keys can be sorted on a prefix of their bytes first, ie.
+     * whether this is asked for and the comparator is the raw comparator
+     * of {@link Text} or {@link BytesWritable}, which order the keys by
+     * their bytes after the length.
+     */
+    private int getKeyPrefixType(JobConf job, RawComparator<K> comparator) {
+      if (!job.getBoolean("io.sort.key.prefix", false)) {
+        return NO_PREFIX;
+      }
+      if (comparator.getClass() == Text.Comparator.class) {
+        LOG.info("Sorting on key prefixes");
+        return TEXT_PREFIX;
+      }
+      if (comparator.getClass() == BytesWritable.Comparator.class) {
+        LOG.info("Sorting on key prefixes");
+        return BYTES_PREFIX;
+      }
+      LOG.info("Not sorting on key prefixes, as the keys are compared with " +
+               comparator.getClass().getName());
+      return NO_PREFIX;
+    }
+
+    /**
+     * Computes the key prefixes of the records in [start, end), if the
+     * keys are sorted on them. A prefix is the first four bytes of the key
+     * after its length, padded with zeros, so that ordering the prefixes
+     * as unsigned ints is consistent with ordering the keys.
+     */
+    private void computeKeyPrefixes(int start, int end) {
+      if (kvprefixes == null) {
+        return;
+      }
+      for (int i = start; i < end; ++i) {
+        final int kvoff = kvoffsets[i % kvoffsets.length];
+        final int keyend = kvindices[kvoff + VALSTART];
+        int pos = kvindices[kvoff + KEYSTART];
+        // keys are never split across the end of kvbuffer
+        pos += (keyPrefixType == TEXT_PREFIX)
+          ? WritableUtils.decodeVIntSize(kvbuffer[pos])
+          : 4;
+        int prefix = 0;
+        for (int b = 0; b < 4; ++b, ++pos) {
+          prefix = (prefix << 8) | (pos < keyend ? kvbuffer[pos] & 0xFF : 0);
+        }
+        // flip the sign bit to compare as signed ints
+        kvprefixes[i % kvoffsets.length] = prefix ^ Integer.MIN_VALUE;
+      }
+    }
+
+    /**
+     * Sorts and writes the partitions of a spill on a thread of the spill
+     * pool. The records of a spill are grouped by partition before the
+     * workers see them, so a worker only compares keys and only swaps
+     * offsets within the range of its partition. Every worker has its own
+     * comparator, sorter and combiner, none of which need be thread safe.
+     */
+    private class SpillWorker implements IndexedSortable {
+      private final RawComparator<K> comparator;
+      private final IndexedSorter sorter;
+      private final CombinerRunner<K,V> combinerRunner;
+      private final CombineOutputCollector<K, V> combineCollector;
+      private final InMemValBytes value = new InMemValBytes();
+      private final DataInputBuffer key = new DataInputBuffer();
+
+      @SuppressWarnings("unchecked")
+      SpillWorker(Counters.Counter combineInputCounter)
+          throws ClassNotFoundException {
+        comparator = job.getOutputKeyComparator();
+        sorter = ReflectionUtils.newInstance(
+            job.getClass("map.sort.class", QuickSort.class,
+                         IndexedSorter.class), job);
+        combinerRunner = CombinerRunner.create(job, getTaskID(),
+                                               combineInputCounter,
+                                               reporter, null);
+        if (combinerRunner != null) {
+          combineCollector =
+            new CombineOutputCollector<K,V>(combineOutputCounter);
+        } else {
+          combineCollector = null;
+        }
+      }
+
+      public int compare(int i, int j) {
+        if (kvprefixes != null) {
+          final int pi = kvprefixes[i % kvoffsets.length];
+          final int pj = kvprefixes[j % kvoffsets.length];
+          if (pi != pj) {
+            return pi < pj ? -1 : 1;
+          }
+        }
+        final int ii = kvoffsets[i % kvoffsets.length];
+        final int ij = kvoffsets[j % kvoffsets.length];
+        return comparator.compare(kvbuffer,
+            kvindices[ii + KEYSTART],
+            kvindices[ii + VALSTART] - kvindices[ii + KEYSTART],
+            kvbuffer,
+            kvindices[ij + KEYSTART],
+            kvindices[ij + VALSTART] - kvindices[ij + KEYSTART]);
+      }
+
+      public void swap(int i, int j) {
+        MapOutputBuffer.this.swap(i, j);
+      }
+
+      /**
+       * Sorts the records of one partition, held in [start, end), and
+       * writes them as an IFile segment to memory.
+       */
+      SpillSegment spill(int start, int end, CompressionCodec partCodec)
+          throws IOException, InterruptedException, ClassNotFoundException {
+        computeKeyPrefixes(start, end);
+        sorter.sort(this, start, end, reporter);
+        final DataOutputBuffer data = new DataOutputBuffer();
+        final FSDataOutputStream out = new FSDataOutputStream(data, null);
+        IFile.Writer<K, V> writer =
+          new Writer<K, V>(job, out, keyClass, valClass, partCodec,
+                           spilledRecordsCounter);
+        try {
+          if (combinerRunner == null) {
+            // spill directly
+            for (int spindex = start; spindex < end; ++spindex) {
+              final int kvoff = kvoffsets[spindex % kvoffsets.length];
+              getVBytesForOffset(kvoff, value);
+              key.reset(kvbuffer, kvindices[kvoff + KEYSTART],
+                        (kvindices[kvoff + VALSTART] - 
+                         kvindices[kvoff + KEYSTART]));
+              writer.append(key, value);
+            }
+          } else if (start != end) {
+            combineCollector.setWriter(writer);
+            combinerRunner.combine(new MRResultIterator(start, end),
+                                   combineCollector);
+          }
+          writer.close();
+          SpillSegment segment = new SpillSegment(data,
+              writer.getRawLength(), writer.getCompressedLength(),
+              partCodec != codec);
+          writer = null;
+          return segment;
+        } finally {
+          if (null != writer) writer.close();
+        }
+      }
+    }
+
+    /** The bytes and the lengths of a partition written by a worker. */
+    private class SpillSegment {
+      final DataOutputBuffer data;
+      final long rawLength;
+      final long partLength;
+      final boolean uncompressed;
+
+      SpillSegment(DataOutputBuffer data, long rawLength, long partLength,
+                   boolean uncompressed) {
+        this.data = data;
+        this.rawLength = rawLength;
+        this.partLength = partLength;
+        this.uncompressed = uncompressed;
+      }
     }
 
     /**
@@ -1152,6 +1402,9 @@ class MapTask extends Task {
         throw (IOException)new IOException("Spill failed"
             ).initCause(e);
       }
+      if (spillPool != null) {
+        spillPool.shutdownNow();
+      }
       // release sort buffer before the merge
       kvbuffer = null;
       mergeParts();
@@ -1228,59 +1481,67 @@ class MapTask extends Task {
         final int endPosition = (kvend > kvstart)
           ? kvend
           : kvoffsets.length + kvend;
-        sorter.sort(MapOutputBuffer.this, kvstart, endPosition, reporter);
-        int spindex = kvstart;
-        IndexRecord rec = new IndexRecord();
-        InMemValBytes value = new InMemValBytes();
-        for (int i = 0; i < partitions; ++i) {
-          IFile.Writer<K, V> writer = null;
-          try {
-            long segmentStart = out.getPos();
-            writer = new Writer<K, V>(job, out, keyClass, valClass, codec,
-                                      spilledRecordsCounter);
-            if (combinerRunner == null) {
-              // spill directly
-              DataInputBuffer key = new DataInputBuffer();
-              while (spindex < endPosition &&
-                  kvindices[kvoffsets[spindex % kvoffsets.length]
-                            + PARTITION] == i) {
-                final int kvoff = kvoffsets[spindex % kvoffsets.length];
-                getVBytesForOffset(kvoff, value);
-                key.reset(kvbuffer, kvindices[kvoff + KEYSTART],
-                          (kvindices[kvoff + VALSTART] - 
-                           kvindices[kvoff + KEYSTART]));
-                writer.append(key, value);
-                ++spindex;
-              }
-            } else {
-              int spstart = spindex;
-              while (spindex < endPosition &&
-                  kvindices[kvoffsets[spindex % kvoffsets.length]
-                            + PARTITION] == i) {
-                ++spindex;
-              }
-              // Note: we would like to avoid the combiner if we've fewer
-              // than some threshold of records for a partition
-              if (spstart != spindex) {
-                combineCollector.setWriter(writer);
-                RawKeyValueIterator kvIter =
-                  new MRResultIterator(spstart, spindex);
-                combinerRunner.combine(kvIter, combineCollector);
+        if (spillPool != null) {
+          spillPartitions(out, spillRec, endPosition);
+        } else {
+          computeKeyPrefixes(kvstart, endPosition);
+          sorter.sort(MapOutputBuffer.this, kvstart, endPosition, reporter);
+          int spindex = kvstart;
+          IndexRecord rec = new IndexRecord();
+          InMemValBytes value = new InMemValBytes();
+          for (int i = 0; i < partitions; ++i) {
+            IFile.Writer<K, V> writer = null;
+            try {
+              long segmentStart = out.getPos();
+              final CompressionCodec partCodec = getCodec(i);
+              writer = new Writer<K, V>(job, out, keyClass, valClass,
+                                        partCodec, spilledRecordsCounter);
+              if (combinerRunner == null) {
+                // spill directly
+                DataInputBuffer key = new DataInputBuffer();
+                while (spindex < endPosition &&
+                    kvindices[kvoffsets[spindex % kvoffsets.length]
+                              + PARTITION] == i) {
+                  final int kvoff = kvoffsets[spindex % kvoffsets.length];
+                  getVBytesForOffset(kvoff, value);
+                  key.reset(kvbuffer, kvindices[kvoff + KEYSTART],
+                            (kvindices[kvoff + VALSTART] - 
+                             kvindices[kvoff + KEYSTART]));
+                  writer.append(key, value);
+                  ++spindex;
+                }
+              } else {
+                int spstart = spindex;
+                while (spindex < endPosition &&
+                    kvindices[kvoffsets[spindex % kvoffsets.length]
+                              + PARTITION] == i) {
+                  ++spindex;
+                }
+                // Note: we would like to avoid the combiner if we've fewer
+                // than some threshold of records for a partition
+                if (spstart != spindex) {
+                  combineCollector.setWriter(writer);
+                  RawKeyValueIterator kvIter =
+                    new MRResultIterator(spstart, spindex);
+                  combinerRunner.combine(kvIter, combineCollector);
+                }
               }
-            }
 
-            // close the writer
-            writer.close();
+              // close the writer
+              writer.close();
 
-            // record offsets
-            rec.startOffset = segmentStart;
-            rec.rawLength = writer.getRawLength();
-            rec.partLength = writer.getCompressedLength();
-            spillRec.putIndex(rec, i);
+              // record offsets
+              rec.startOffset = segmentStart;
+              rec.rawLength = writer.getRawLength();
+              rec.partLength = writer.getCompressedLength();
+              rec.uncompressed = partCodec != codec;
+              spillRec.putIndex(rec, i);
+              noteCompression(i, rec);
 
-            writer = null;
-          } finally {
-            if (null != writer) writer.close();
+              writer = null;
+            } finally {
+              if (null != writer) writer.close();
+            }
           }
         }
 
@@ -1302,6 +1563,157 @@ class MapTask extends Task {
       }
     }
 
+    /**
+     * Sorts and writes the partitions of a spill on the spill pool. The
+     * partitions are handed out in order and their segments are appended
+     * to the spill file in order as they complete. The output of a
+     * partition is kept in memory until it is appended, so no more than
+     * two partitions per spill thread, holding no more than a quarter of
+     * the sort buffer of records, are in flight at a time; a bigger
+     * partition is written on its own.
+     */
+    private void spillPartitions(FSDataOutputStream out, SpillRecord spillRec,
+                                 int endPosition)
+        throws IOException, InterruptedException {
+      final long[] bytes = new long[partitions];
+      final int[] bounds = groupByPartition(kvstart, endPosition, bytes);
+      final int window = 2 * spillThreads;
+      final LinkedList<Future<SpillSegment>> pending =
+        new LinkedList<Future<SpillSegment>>();
+      IndexRecord rec = new IndexRecord();
+      int next = 0;
+      long pendingBytes = 0;
+      try {
+        for (int i = 0; i < partitions; ++i) {
+          for (; next < partitions && pending.size() < window &&
+                 (pending.isEmpty() ||
+                  pendingBytes + bytes[next] <= maxPendingSpillBytes);
+               ++next) {
+            pendingBytes += bytes[next];
+            final int start = bounds[next];
+            final int end = bounds[next + 1];
+            final CompressionCodec partCodec = getCodec(next);
+            pending.add(spillPool.submit(new Callable<SpillSegment>() {
+              public SpillSegment call() throws Exception {
+                SpillWorker worker = spillWorkers.take();
+                try {
+                  return worker.spill(start, end, partCodec);
+                } finally {
+                  spillWorkers.add(worker);
+                }
+              }
+            }));
+          }
+          SpillSegment segment = getSegment(pending.removeFirst());
+          pendingBytes -= bytes[i];
+          // record offsets
+          rec.startOffset = out.getPos();
+          out.write(segment.data.getData(), 0, segment.data.getLength());
+          rec.rawLength = segment.rawLength;
+          rec.partLength = segment.partLength;
+          rec.uncompressed = segment.uncompressed;
+          spillRec.putIndex(rec, i);
+          noteCompression(i, rec);
+        }
+      } finally {
+        for (Future<SpillSegment> f : pending) {
+          f.cancel(true);
+        }
+      }
+    }
+
+    /**
+     * @return the codec to write a partition with, which is none once the
+     *         codec has been found to save too little on the partition
+     */
+    private CompressionCodec getCodec(int partition) {
+      return uncompressedPartitions != null && uncompressedPartitions[partition]
+        ? null : codec;
+    }
+
+    /**
+     * Notes how much the codec saved on a segment of a partition, and
+     * writes the partition uncompressed from then on if it saved less than
+     * mapred.compress.map.output.adaptive.min.savings over enough data.
+     */
+    private void noteCompression(int partition, IndexRecord rec) {
+      if (uncompressedPartitions == null || rec.uncompressed) {
+        return;
+      }
+      sampledRawBytes[partition] += rec.rawLength;
+      sampledCompressedBytes[partition] += rec.partLength;
+      if (sampledRawBytes[partition] >= COMPRESSION_SAMPLE_BYTES &&
+          sampledCompressedBytes[partition] >
+          (1 - minCompressionSavings) * sampledRawBytes[partition]) {
+        uncompressedPartitions[partition] = true;
+        LOG.info("Writing partition " + partition + " uncompressed: " +
+                 sampledRawBytes[partition] + " bytes compressed to " +
+                 sampledCompressedBytes[partition]);
+      }
+    }
+
+    private SpillSegment getSegment(Future<SpillSegment> f)
+        throws IOException, InterruptedException {
+      try {
+        return f.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException)cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException)cause;
+        } else if (cause instanceof Error) {
+          throw (Error)cause;
+        }
+        IOException ioe = new IOException("Spill of partition failed");
+        ioe.initCause(cause);
+        throw ioe;
+      }
+    }
+
+    /**
+     * Groups the offsets of the records in [start, end) by partition,
+     * keeping the order of the records within a partition.
+     * @param bytes set to the serialized size of the records of every
+     *              partition
+     * @return the start of every partition, followed by end
+     */
+    private int[] groupByPartition(int start, int end, long[] bytes) {
+      final int[] bounds = new int[partitions + 1];
+      for (int i = start; i < end; ++i) {
+        final int kvoff = kvoffsets[i % kvoffsets.length];
+        final int partition = kvindices[kvoff + PARTITION];
+        ++bounds[partition + 1];
+        // a record ends where the next one starts, the last one at bufend
+        final int keystart = kvindices[kvoff + KEYSTART];
+        final int recend = i == end - 1
+          ? bufend
+          : kvindices[kvoffsets[(i + 1) % kvoffsets.length] + KEYSTART];
+        bytes[partition] += recend >= keystart
+          ? recend - keystart
+          : (bufvoid - keystart) + recend;
+      }
+      bounds[0] = start;
+      for (int i = 0; i < partitions; ++i) {
+        bounds[i + 1] += bounds[i];
+      }
+      if (groupedOffsets == null) {
+        groupedOffsets = new int[kvoffsets.length];
+      }
+      final int[] next = new int[partitions];
+      for (int i = 0; i < partitions; ++i) {
+        next[i] = bounds[i] - start;
+      }
+      for (int i = start; i < end; ++i) {
+        final int kvoff = kvoffsets[i % kvoffsets.length];
+        groupedOffsets[next[kvindices[kvoff + PARTITION]]++] = kvoff;
+      }
+      for (int i = start; i < end; ++i) {
+        kvoffsets[i % kvoffsets.length] = groupedOffsets[i - start];
+      }
+      return bounds;
+    }
+
     /**
      * Handles the degenerate case where serialization fails to fit in
      * the in-memory buffer, so we must spill the record from collect
@@ -1325,8 +1737,9 @@ class MapTask extends Task {
           try {
             long segmentStart = out.getPos();
             // Create a new codec, don't care!
-            writer = new IFile.Writer<K,V>(job, out, keyClass, valClass, codec,
-                                            spilledRecordsCounter);
+            final CompressionCodec partCodec = getCodec(i);
+            writer = new IFile.Writer<K,V>(job, out, keyClass, valClass,
+                                           partCodec, spilledRecordsCounter);
 
             if (i == partition) {
               final long recordStart = out.getPos();
@@ -1341,7 +1754,9 @@ class MapTask extends Task {
             rec.startOffset = segmentStart;
             rec.rawLength = writer.getRawLength();
             rec.partLength = writer.getCompressedLength();
+            rec.uncompressed = partCodec != codec;
             spillRec.putIndex(rec, i);
+            noteCompression(i, rec);
 
             writer = null;
           } catch (IOException e) {
@@ -1510,7 +1925,8 @@ class MapTask extends Task {
 
             Segment<K,V> s =
               new Segment<K,V>(job, rfs, filename[i], indexRecord.startOffset,
-                               indexRecord.partLength, codec, true);
+                               indexRecord.partLength,
+                               indexRecord.uncompressed ? null : codec, true);
             segmentList.add(i, s);
 
             if (LOG.isDebugEnabled()) {
@@ -1531,8 +1947,9 @@ class MapTask extends Task {
 
           //write merged output to disk
           long segmentStart = finalOut.getPos();
+          final CompressionCodec partCodec = getCodec(parts);
           Writer<K, V> writer =
-              new Writer<K, V>(job, finalOut, keyClass, valClass, codec,
+              new Writer<K, V>(job, finalOut, keyClass, valClass, partCodec,
                                spilledRecordsCounter);
           if (combinerRunner == null || numSpills < minSpillsForCombine) {
             Merger.writeFile(kvIter, writer, reporter, job);
@@ -1548,6 +1965,7 @@ class MapTask extends Task {
           rec.startOffset = segmentStart;
           rec.rawLength = writer.getRawLength();
           rec.partLength = writer.getCompressedLength();
+          rec.uncompressed = partCodec != codec;
           spillRec.putIndex(rec, parts);
         }
         spillRec.writeToFile(finalIndexFile, job);
@@ -19,6 +19,7 @@
 package org.apache.hadoop.mapred;
 
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
@@ -27,10 +28,12 @@ import java.io.OutputStream;
 import java.lang.Math;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -52,12 +55,14 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.ChecksumFileSystem;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FSError;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.RawComparator;
@@ -145,6 +150,10 @@ class ReduceTask extends Task {
   private final SortedSet<FileStatus> mapOutputFilesOnDisk = 
     new TreeSet<FileStatus>(mapOutputFileComparator);
 
+  // The map output files on disk not compressed with the codec of the job
+  private final Set<Path> uncompressedMapOutputFiles =
+    Collections.synchronizedSet(new HashSet<Path>());
+
   public ReduceTask() {
     super();
   }
@@ -203,6 +212,11 @@ class ReduceTask extends Task {
     numMaps = in.readInt();
   }
   
+  /** @return the codec a map output file on disk is compressed with */
+  private CompressionCodec getCodec(Path mapOutputFile) {
+    return uncompressedMapOutputFiles.contains(mapOutputFile) ? null : codec;
+  }
+
   // Get the input files for the reducer.
   private Path[] getMapFiles(FileSystem fs, boolean isLocal) 
   throws IOException {
@@ -594,9 +608,10 @@ class ReduceTask extends Task {
     private ReduceTask reduceTask;
     
     /**
-     * the list of map outputs currently being copied
+     * the lists of map outputs currently being copied, each list holding
+     * the map outputs to be fetched from one tracker over one connection
      */
-    private List<MapOutputLocation> scheduledCopies;
+    private List<List<MapOutputLocation>> scheduledCopies;
     
     /**
      *  the results of dispatched copy attempts
@@ -608,6 +623,12 @@ class ReduceTask extends Task {
      */
     private int numCopiers;
     
+    /**
+     *  the most map outputs fetched from a host over one connection. If it
+     *  is 1, every map output is fetched with a request of its own.
+     */
+    private int maxMapsPerFetch;
+    
     /**
      *  a number that is set to the max #fetches we'd schedule and then
      *  pause the schduling
@@ -734,6 +755,19 @@ class ReduceTask extends Task {
      */
     private CombineOutputCollector combineCollector = null;
 
+    /**
+     * Whether map outputs are combined as they arrive: in-memory merges
+     * keep their combined output in memory when it is small enough, they
+     * happen every io.sort.factor map outputs, and on-disk merges combine
+     * too.
+     */
+    private final boolean incrementalCombine;
+
+    /**
+     * Resettable collector used for combine in the on-disk merges.
+     */
+    private CombineOutputCollector diskCombineCollector = null;
+
     /**
      * Maximum percent of failed fetch attempt before killing the reduce task.
      */
@@ -873,6 +907,10 @@ class ReduceTask extends Task {
       private static final int OBSOLETE = -2;
       
       private CopyOutputErrorType error = CopyOutputErrorType.NO_ERROR;
+      
+      // whether the fetch from the host is over with this result
+      private boolean lastOfFetch = true;
+      
       CopyResult(MapOutputLocation loc, long size) {
         this.loc = loc;
         this.size = size;
@@ -884,6 +922,12 @@ class ReduceTask extends Task {
         this.error = error;
       }
 
+      CopyResult(MapOutputLocation loc, long size, CopyOutputErrorType error,
+                 boolean lastOfFetch) {
+        this(loc, size, error);
+        this.lastOfFetch = lastOfFetch;
+      }
+
       public boolean getSuccess() { return size >= 0; }
       public boolean isObsolete() { 
         return size == OBSOLETE;
@@ -892,9 +936,17 @@ class ReduceTask extends Task {
       public String getHost() { return loc.getHost(); }
       public MapOutputLocation getLocation() { return loc; }
       public CopyOutputErrorType getError() { return error; }
+      public boolean isLastOfFetch() { return lastOfFetch; }
     }
     
     private int nextMapOutputCopierId = 0;
+
+    /**
+     * The ports of the trackers' ShuffleServers, keyed by the address of
+     * the tracker http server that redirected a map output request there.
+     */
+    private final Map<String, Integer> shufflePorts =
+      new ConcurrentHashMap<String, Integer>();
     private boolean reportReadErrorImmediately;
     
     /**
@@ -926,9 +978,47 @@ class ReduceTask extends Task {
         return ttHost;
       }
       
+      /**
+       * @return whether the other map output is served by the same tracker,
+       *         which need not hold for map outputs on the same host
+       */
+      boolean isOnSameTracker(MapOutputLocation other) {
+        return taskOutput.getAuthority().equals(
+            other.taskOutput.getAuthority());
+      }
+      
       public URL getOutputLocation() {
+        Integer shufflePort = shufflePorts.get(taskOutput.getAuthority());
+        if (shufflePort != null) {
+          try {
+            return new URL(taskOutput.getProtocol(), taskOutput.getHost(),
+                           shufflePort, taskOutput.getFile());
+          } catch (MalformedURLException e) {
+            shufflePorts.remove(taskOutput.getAuthority());
+          }
+        }
         return taskOutput;
       }
+
+      /**
+       * Remember the ShuffleServer port if the tracker redirected the
+       * request there, so that later requests go there directly.
+       * @param served the url the map output was actually served from
+       */
+      void setServedFrom(URL served) {
+        if (served.getPort() != taskOutput.getPort() &&
+            served.getHost().equals(taskOutput.getHost())) {
+          shufflePorts.put(taskOutput.getAuthority(), served.getPort());
+        }
+      }
+
+      /**
+       * Go through the tracker http server again, in case the tracker
+       * was restarted with another ShuffleServer port.
+       */
+      void resetServedFrom() {
+        shufflePorts.remove(taskOutput.getAuthority());
+      }
     }
     
     /** Describes the output of a map; could either be on disk or in-memory. */
@@ -940,8 +1030,13 @@ class ReduceTask extends Task {
       final Configuration conf;
       
       byte[] data;
+      // the pages of direct memory holding the data, instead of data
+      ByteBuffer[] pages;
+      final int dataLength;
       final boolean inMemory;
       long compressedSize;
+      // whether the file is not compressed with the codec of the job
+      boolean uncompressed = false;
       
       public MapOutput(TaskID mapId, TaskAttemptID mapAttemptId, 
                        Configuration conf, Path file, long size) {
@@ -953,6 +1048,8 @@ class ReduceTask extends Task {
         this.compressedSize = size;
         
         this.data = null;
+        this.pages = null;
+        this.dataLength = 0;
         
         this.inMemory = false;
       }
@@ -965,6 +1062,25 @@ class ReduceTask extends Task {
         this.conf = null;
         
         this.data = data;
+        this.pages = null;
+        this.dataLength = data.length;
+        this.compressedSize = compressedLength;
+        
+        this.inMemory = true;
+      }
+      
+      public MapOutput(TaskID mapId, TaskAttemptID mapAttemptId,
+                       ByteBuffer[] pages, int dataLength,
+                       int compressedLength) {
+        this.mapId = mapId;
+        this.mapAttemptId = mapAttemptId;
+        
+        this.file = null;
+        this.conf = null;
+        
+        this.data = null;
+        this.pages = pages;
+        this.dataLength = dataLength;
         this.compressedSize = compressedLength;
         
         this.inMemory = true;
@@ -973,6 +1089,10 @@ class ReduceTask extends Task {
       public void discard() throws IOException {
         if (inMemory) {
           data = null;
+          if (pages != null) {
+            ramManager.getDirectPool().release(pages);
+            pages = null;
+          }
         } else {
           FileSystem fs = file.getFileSystem(conf);
           fs.delete(file, true);
@@ -989,8 +1109,12 @@ class ReduceTask extends Task {
        * simultaneously after which a merge is triggered. */ 
       private static final float MAX_STALLED_SHUFFLE_THREADS_FRACTION = 0.75f;
       
+      /* Size of the pages of direct memory map-outputs are kept in. */
+      private static final int DIRECT_PAGE_SIZE = 16 * 1024;
+      
       private final long maxSize;
       private final long maxSingleShuffleLimit;
+      private final DirectMemoryPool directPool;
       
       private long size = 0;
       
@@ -1012,8 +1136,31 @@ class ReduceTask extends Task {
             Runtime.getRuntime().maxMemory() * maxInMemCopyUse,
             Integer.MAX_VALUE);
         maxSingleShuffleLimit = (long)(maxSize * MAX_SINGLE_SHUFFLE_SEGMENT_FRACTION);
+        if (conf.getBoolean("mapred.job.shuffle.direct.memory", false)) {
+          directPool = new DirectMemoryPool(DIRECT_PAGE_SIZE);
+        } else {
+          directPool = null;
+        }
         LOG.info("ShuffleRamManager: MemoryLimit=" + maxSize + 
-                 ", MaxSingleShuffleLimit=" + maxSingleShuffleLimit);
+                 ", MaxSingleShuffleLimit=" + maxSingleShuffleLimit +
+                 (directPool == null ? "" : ", DirectPageSize=" + 
+                                            DIRECT_PAGE_SIZE));
+      }
+      
+      /**
+       * @return the pool of direct memory map-outputs are shuffled into, or
+       *         null if they are shuffled into byte arrays
+       */
+      DirectMemoryPool getDirectPool() {
+        return directPool;
+      }
+      
+      /** 
+       * @return the memory to reserve for a map-output of the given length,
+       *         which is rounded up to whole pages of direct memory
+       */
+      int getReservedSize(int length) {
+        return directPool == null ? length : directPool.getReservedSize(length);
       }
       
       public synchronized boolean reserve(int requestedSize, InputStream in) 
@@ -1052,6 +1199,18 @@ class ReduceTask extends Task {
         return (in != null);
       }
       
+      /**
+       * Reserves memory only if it is available right away.
+       * @return whether the memory was reserved
+       */
+      synchronized boolean tryReserve(int requestedSize) {
+        if (size + requestedSize > maxSize) {
+          return false;
+        }
+        size += requestedSize;
+        return true;
+      }
+      
       public synchronized void unreserve(int requestedSize) {
         size -= requestedSize;
         
@@ -1123,9 +1282,14 @@ class ReduceTask extends Task {
         return (float)fullSize/maxSize;
       }
 
+      long getMaxSingleShuffleLimit() {
+        return maxSingleShuffleLimit;
+      }
+
       boolean canFitInMemory(long requestedSize) {
         return (requestedSize < Integer.MAX_VALUE && 
-                requestedSize < maxSingleShuffleLimit);
+                requestedSize < maxSingleShuffleLimit &&
+                getReservedSize((int)requestedSize) <= maxSize);
       }
     }
 
@@ -1147,6 +1311,9 @@ class ReduceTask extends Task {
       private CompressionCodec codec = null;
       private Decompressor decompressor = null;
       
+      // Staging of map-outputs shuffled into direct memory
+      private byte[] directCopyBuffer = null;
+      
       public MapOutputCopier(JobConf job, Reporter reporter) {
         setName("MapOutputCopier " + reduceTask.getTaskID() + "." + id);
         LOG.debug(getName() + " created");
@@ -1190,10 +1357,16 @@ class ReduceTask extends Task {
       }
       
       private synchronized void finish(long size, CopyOutputErrorType error) {
+        finish(size, error, true);
+      }
+      
+      private synchronized void finish(long size, CopyOutputErrorType error,
+                                       boolean lastOfFetch) {
         if (currentLocation != null) {
           LOG.debug(getName() + " finishing " + currentLocation + " =" + size);
           synchronized (copyResults) {
-            copyResults.add(new CopyResult(currentLocation, size, error));
+            copyResults.add(new CopyResult(currentLocation, size, error,
+                                           lastOfFetch));
             copyResults.notify();
           }
           currentLocation = null;
@@ -1207,15 +1380,20 @@ class ReduceTask extends Task {
       public void run() {
         while (true) {        
           try {
-            MapOutputLocation loc = null;
+            List<MapOutputLocation> locs = null;
             long size = -1;
             
             synchronized (scheduledCopies) {
               while (scheduledCopies.isEmpty()) {
                 scheduledCopies.wait();
               }
-              loc = scheduledCopies.remove(0);
+              locs = scheduledCopies.remove(0);
+            }
+            if (maxMapsPerFetch > 1) {
+              copyOutputs(locs);
+              continue;
             }
+            MapOutputLocation loc = locs.get(0);
             CopyOutputErrorType error = CopyOutputErrorType.OTHER_ERROR;
             readError = false;
             try {
@@ -1262,17 +1440,68 @@ class ReduceTask extends Task {
           
       }
       
+      /**
+       * Copies the outputs of several maps from one host over a single
+       * connection, and reports a result for each of them.
+       * @param locs the map output locations to be copied
+       * @throws InterruptedException if the copier should give up
+       */
+      private void copyOutputs(List<MapOutputLocation> locs
+                               ) throws InterruptedException {
+        MapOutputBatch batch = new MapOutputBatch(locs);
+        try {
+          for (int i = 0; i < locs.size(); i++) {
+            MapOutputLocation loc = locs.get(i);
+            long size = -1;
+            CopyOutputErrorType error = CopyOutputErrorType.OTHER_ERROR;
+            readError = false;
+            try {
+              shuffleClientMetrics.threadBusy();
+              start(loc);
+              size = copyOutput(loc, batch);
+              shuffleClientMetrics.successFetch();
+              error = CopyOutputErrorType.NO_ERROR;
+            } catch (IOException e) {
+              LOG.warn(reduceTask.getTaskID() + " copy failed: " +
+                       loc.getTaskAttemptId() + " from " + loc.getHost());
+              LOG.warn(StringUtils.stringifyException(e));
+              shuffleClientMetrics.failedFetch();
+              if (readError) {
+                error = CopyOutputErrorType.READ_ERROR;
+              }
+              // Reset 
+              size = -1;
+            } finally {
+              shuffleClientMetrics.threadFree();
+              finish(size, error, i == locs.size() - 1);
+            }
+          }
+        } finally {
+          batch.close();
+        }
+      }
+      
+      private long copyOutput(MapOutputLocation loc
+                              ) throws IOException, InterruptedException {
+        return copyOutput(loc, null);
+      }
+      
       /** Copies a a map output from a remote host, via HTTP. 
        * @param currentLocation the map output location to be copied
+       * @param batch the connection fetching the map output along with
+       *        others from the same host, or null to fetch it on its own
        * @return the path (fully qualified) of the copied file
        * @throws IOException if there is an error copying the file
        * @throws InterruptedException if the copier should give up
        */
-      private long copyOutput(MapOutputLocation loc
+      private long copyOutput(MapOutputLocation loc, MapOutputBatch batch
                               ) throws IOException, InterruptedException {
         // check if we still need to copy the output from this location
         if (copiedMapOutputs.contains(loc.getTaskId()) || 
             obsoleteMapIds.contains(loc.getTaskAttemptId())) {
+          if (batch != null) {
+            batch.skip(loc);
+          }
           return CopyResult.OBSOLETE;
         } 
  
@@ -1290,8 +1519,10 @@ class ReduceTask extends Task {
         Path tmpMapOutput = new Path(filename+"-"+id);
         
         // Copy the map output
-        MapOutput mapOutput = getMapOutput(loc, tmpMapOutput,
-                                           reduceId.getTaskID().getId());
+        MapOutput mapOutput = (batch == null)
+          ? getMapOutput(loc, tmpMapOutput, reduceId.getTaskID().getId())
+          : getMapOutput(batch, loc, tmpMapOutput,
+                         reduceId.getTaskID().getId());
         if (mapOutput == null) {
           throw new IOException("Failed to fetch map-output for " + 
                                 loc.getTaskAttemptId() + " from " + 
@@ -1338,8 +1569,14 @@ class ReduceTask extends Task {
                   tmpMapOutput + " to " + filename);
             }
 
+            FileStatus status = localFileSys.getFileStatus(filename);
+            if (mapOutput.uncompressed) {
+              uncompressedMapOutputFiles.add(status.getPath());
+            } else {
+              uncompressedMapOutputFiles.remove(status.getPath());
+            }
             synchronized (mapOutputFilesOnDisk) {        
-              addToMapOutputFilesOnDisk(localFileSys.getFileStatus(filename));
+              addToMapOutputFilesOnDisk(status);
             }
           }
 
@@ -1378,8 +1615,15 @@ class ReduceTask extends Task {
         // Connect
         URLConnection connection = 
           mapOutputLoc.getOutputLocation().openConnection();
-        InputStream input = getInputStream(connection, shuffleConnectionTimeout,
-                                           shuffleReadTimeout); 
+        InputStream input;
+        try {
+          input = getInputStream(connection, shuffleConnectionTimeout,
+                                 shuffleReadTimeout);
+        } catch (IOException ioe) {
+          mapOutputLoc.resetServedFrom();
+          throw ioe;
+        }
+        mapOutputLoc.setServedFrom(connection.getURL());
         
         // Validate header from map output
         TaskAttemptID mapId = null;
@@ -1419,9 +1663,68 @@ class ReduceTask extends Task {
               " arrived to reduce task " + reduce);
           return null;
         }
+        boolean uncompressed = Boolean.parseBoolean(
+            connection.getHeaderField(MAP_OUTPUT_UNCOMPRESSED));
         LOG.info("header: " + mapId + ", compressed len: " + compressedLength +
-                 ", decompressed len: " + decompressedLength);
+                 ", decompressed len: " + decompressedLength +
+                 (uncompressed ? ", uncompressed" : ""));
+
+        return shuffle(mapOutputLoc, null, input, filename,
+                       decompressedLength, compressedLength, uncompressed);
+      }
+
+      /**
+       * Get the map output into memory or a local file from a connection
+       * fetching the outputs of several maps from the same host.
+       * @param batch the connection
+       * @param mapOutputLoc map-output to be fetched
+       * @param filename the filename to write the data into
+       * @param reduce the reduce the map output is for
+       * @return the map output, or null if the tracker sent the wrong one
+       * @throws IOException when something goes wrong
+       */
+      private MapOutput getMapOutput(MapOutputBatch batch,
+                                     MapOutputLocation mapOutputLoc,
+                                     Path filename, int reduce)
+      throws IOException, InterruptedException {
+        MapOutputHeader header = batch.readHeader(mapOutputLoc);
+        if (!header.isAvailable()) {
+          // the tracker could not read it, as with a failed request
+          readError = true;
+          throw new IOException("Map output of " + header.mapId +
+                                " is not available on " +
+                                mapOutputLoc.getHost());
+        }
+        if (header.forReduce != reduce) {
+          LOG.warn("data for the wrong reduce: " + header.forReduce +
+              " with compressed len: " + header.compressedLength +
+              ", decompressed len: " + header.rawLength +
+              " arrived to reduce task " + reduce);
+          batch.close();
+          return null;
+        }
+        LOG.info("header: " + header.mapId + ", compressed len: " +
+                 header.compressedLength + ", decompressed len: " +
+                 header.rawLength +
+                 (header.uncompressed ? ", uncompressed" : ""));
 
+        return shuffle(mapOutputLoc, batch, batch.getMapOutputStream(),
+                       filename, header.rawLength, header.compressedLength,
+                       header.uncompressed);
+      }
+
+      /**
+       * Read a map output into memory if it fits, or into a local file.
+       * @param batch the connection of the input if it fetches several
+       *        map outputs, or null
+       * @param uncompressed whether the map output is not compressed with
+       *        the codec of the job
+       */
+      private MapOutput shuffle(MapOutputLocation mapOutputLoc,
+                                MapOutputBatch batch, InputStream input,
+                                Path filename, long decompressedLength,
+                                long compressedLength, boolean uncompressed)
+      throws IOException, InterruptedException {
         //We will put a file in memory if it meets certain criteria:
         //1. The size of the (decompressed) file should be less than 25% of 
         //    the total inmem fs
@@ -1437,9 +1740,9 @@ class ReduceTask extends Task {
               compressedLength + " raw bytes) " + 
               "into RAM from " + mapOutputLoc.getTaskAttemptId());
 
-          mapOutput = shuffleInMemory(mapOutputLoc, connection, input,
+          mapOutput = shuffleInMemory(mapOutputLoc, batch, input,
                                       (int)decompressedLength,
-                                      (int)compressedLength);
+                                      (int)compressedLength, uncompressed);
         } else {
           LOG.info("Shuffling " + decompressedLength + " bytes (" + 
               compressedLength + " raw bytes) " + 
@@ -1447,6 +1750,7 @@ class ReduceTask extends Task {
 
           mapOutput = shuffleToDisk(mapOutputLoc, input, filename, 
               compressedLength);
+          mapOutput.uncompressed = uncompressed;
         }
             
         return mapOutput;
@@ -1505,28 +1809,35 @@ class ReduceTask extends Task {
       }
 
       private MapOutput shuffleInMemory(MapOutputLocation mapOutputLoc,
-                                        URLConnection connection, 
+                                        MapOutputBatch batch, 
                                         InputStream input,
                                         int mapOutputLength,
-                                        int compressedLength)
+                                        int compressedLength,
+                                        boolean uncompressed)
       throws IOException, InterruptedException {
         // Reserve ram for the map-output
-        boolean createdNow = ramManager.reserve(mapOutputLength, input);
+        final int reservedLength = ramManager.getReservedSize(mapOutputLength);
+        boolean createdNow = ramManager.reserve(reservedLength, input);
       
         // Reconnect if we need to
         if (!createdNow) {
           // Reconnect
           try {
-            connection = mapOutputLoc.getOutputLocation().openConnection();
-            input = getInputStream(connection, shuffleConnectionTimeout, 
-                                   shuffleReadTimeout);
+            if (batch == null) {
+              URLConnection connection =
+                mapOutputLoc.getOutputLocation().openConnection();
+              input = getInputStream(connection, shuffleConnectionTimeout, 
+                                     shuffleReadTimeout);
+            } else {
+              input = batch.reopen(mapOutputLoc, compressedLength);
+            }
           } catch (IOException ioe) {
             LOG.info("Failed reopen connection to fetch map-output from " + 
                      mapOutputLoc.getHost());
             
             // Inform the ram-manager
-            ramManager.closeInMemoryFile(mapOutputLength);
-            ramManager.unreserve(mapOutputLength);
+            ramManager.closeInMemoryFile(reservedLength);
+            ramManager.unreserve(reservedLength);
             
             throw ioe;
           }
@@ -1538,28 +1849,36 @@ class ReduceTask extends Task {
         input = checksumIn;       
       
         // Are map-outputs compressed?
-        if (codec != null) {
+        if (codec != null && !uncompressed) {
           decompressor.reset();
           input = codec.createInputStream(input, decompressor);
         }
       
         // Copy map-output into an in-memory buffer
-        byte[] shuffleData = new byte[mapOutputLength];
-        MapOutput mapOutput = 
-          new MapOutput(mapOutputLoc.getTaskId(), 
-                        mapOutputLoc.getTaskAttemptId(), shuffleData, compressedLength);
+        final DirectMemoryPool directPool = ramManager.getDirectPool();
+        MapOutput mapOutput;
+        if (directPool == null) {
+          byte[] shuffleData = new byte[mapOutputLength];
+          mapOutput = new MapOutput(mapOutputLoc.getTaskId(), 
+                                    mapOutputLoc.getTaskAttemptId(), 
+                                    shuffleData, compressedLength);
+        } else {
+          mapOutput = new MapOutput(mapOutputLoc.getTaskId(), 
+                                    mapOutputLoc.getTaskAttemptId(), 
+                                    directPool.allocate(mapOutputLength),
+                                    mapOutputLength, compressedLength);
+        }
         
         int bytesRead = 0;
         try {
-          int n = input.read(shuffleData, 0, shuffleData.length);
+          int n = readInMemory(input, mapOutput, bytesRead);
           while (n > 0) {
             bytesRead += n;
             shuffleClientMetrics.inputBytes(n);
 
             // indicate we're making progress
             reporter.progress();
-            n = input.read(shuffleData, bytesRead, 
-                           (shuffleData.length-bytesRead));
+            n = readInMemory(input, mapOutput, bytesRead);
           }
 
           LOG.info("Read " + bytesRead + " bytes from map-output for " +
@@ -1571,8 +1890,8 @@ class ReduceTask extends Task {
                    ioe);
 
           // Inform the ram-manager
-          ramManager.closeInMemoryFile(mapOutputLength);
-          ramManager.unreserve(mapOutputLength);
+          ramManager.closeInMemoryFile(reservedLength);
+          ramManager.unreserve(reservedLength);
           
           // Discard the map-output
           try {
@@ -1592,12 +1911,12 @@ class ReduceTask extends Task {
         }
 
         // Close the in-memory file
-        ramManager.closeInMemoryFile(mapOutputLength);
+        ramManager.closeInMemoryFile(reservedLength);
 
         // Sanity check
         if (bytesRead != mapOutputLength) {
           // Inform the ram-manager
-          ramManager.unreserve(mapOutputLength);
+          ramManager.unreserve(reservedLength);
           
           // Discard the map-output
           try {
@@ -1620,7 +1939,14 @@ class ReduceTask extends Task {
         // TODO: Remove this after a 'fix' for HADOOP-3647
         if (mapOutputLength > 0) {
           DataInputBuffer dib = new DataInputBuffer();
-          dib.reset(shuffleData, 0, shuffleData.length);
+          if (directPool == null) {
+            dib.reset(mapOutput.data, 0, mapOutputLength);
+          } else {
+            // the lengths of the first record take at most two vints
+            byte[] head = new byte[Math.min(mapOutputLength, 10)];
+            directPool.get(mapOutput.pages, 0, head, 0, head.length);
+            dib.reset(head, 0, head.length);
+          }
           LOG.info("Rec #1 from " + mapOutputLoc.getTaskAttemptId() + " -> (" + 
                    WritableUtils.readVInt(dib) + ", " + 
                    WritableUtils.readVInt(dib) + ") from " + 
@@ -1630,6 +1956,30 @@ class ReduceTask extends Task {
         return mapOutput;
       }
       
+      /**
+       * Reads the next bytes of a map-output being shuffled into memory.
+       * @param offset the number of bytes of the map-output read so far
+       * @return the number of bytes read, 0 once the map-output is full or
+       *         -1 at the end of the input
+       */
+      private int readInMemory(InputStream input, MapOutput mapOutput,
+                               int offset) throws IOException {
+        if (mapOutput.pages == null) {
+          return input.read(mapOutput.data, offset,
+                            mapOutput.dataLength - offset);
+        }
+        if (directCopyBuffer == null) {
+          directCopyBuffer = new byte[64 * 1024];
+        }
+        int n = input.read(directCopyBuffer, 0, 
+            Math.min(directCopyBuffer.length, mapOutput.dataLength - offset));
+        if (n > 0) {
+          ramManager.getDirectPool().put(mapOutput.pages, offset,
+                                         directCopyBuffer, 0, n);
+        }
+        return n;
+      }
+      
       private MapOutput shuffleToDisk(MapOutputLocation mapOutputLoc,
                                       InputStream input,
                                       Path filename,
@@ -1727,6 +2077,182 @@ class ReduceTask extends Task {
 
       }
       
+      /**
+       * A connection fetching the outputs of several maps from one host.
+       * The tracker sends them back to back, each after a
+       * {@link MapOutputHeader}, in the order they were asked for. The
+       * connection is opened again for the map outputs not read yet if it
+       * had to be given up, and once all are read it goes back to the
+       * keep-alive cache of the JVM for the next fetch from the host.
+       */
+      private class MapOutputBatch {
+        private final List<MapOutputLocation> locs;
+        // index in locs of the map output whose header is read next
+        private int next = 0;
+        private DataInputStream input = null;
+        // bytes of the current map output not read yet
+        private long remaining = 0;
+        // why the last connection attempt failed, if it did
+        private IOException connectFailure = null;
+        
+        MapOutputBatch(List<MapOutputLocation> locs) {
+          this.locs = locs;
+        }
+        
+        /**
+         * Connect, asking for the map outputs from the next one on.
+         */
+        private void connect() throws IOException {
+          if (connectFailure != null) {
+            // do not wait for the host again for each of its map outputs
+            throw new IOException("Failed to connect to " +
+                                  locs.get(next).getHost(), connectFailure);
+          }
+          MapOutputLocation first = locs.get(next);
+          URL base = first.getOutputLocation();
+          StringBuilder file = new StringBuilder(base.getPath());
+          file.append("?job=").append(first.getTaskAttemptId().getJobID());
+          file.append("&reduce=").append(getPartition());
+          file.append("&maps=");
+          for (int i = next; i < locs.size(); i++) {
+            if (i > next) {
+              file.append(',');
+            }
+            file.append(locs.get(i).getTaskAttemptId());
+          }
+          URLConnection connection = new URL(base.getProtocol(),
+              base.getHost(), base.getPort(), file.toString()).openConnection();
+          try {
+            input = new DataInputStream(getInputStream(connection,
+                shuffleConnectionTimeout, shuffleReadTimeout));
+          } catch (IOException ioe) {
+            first.resetServedFrom();
+            connectFailure = ioe;
+            throw ioe;
+          }
+          first.setServedFrom(connection.getURL());
+          remaining = 0;
+        }
+        
+        /**
+         * Read the header of a map output, connecting first if need be.
+         * @param loc the map output, which must not have been read yet
+         * @return its header
+         */
+        MapOutputHeader readHeader(MapOutputLocation loc) throws IOException {
+          int i = locs.indexOf(loc);
+          if (input != null && (i != next || remaining > 0)) {
+            // the previous map output was not read completely
+            close();
+          }
+          next = i;
+          if (input == null) {
+            connect();
+          }
+          MapOutputHeader header = new MapOutputHeader();
+          try {
+            header.readFields(input);
+          } catch (IOException ioe) {
+            close();
+            throw ioe;
+          }
+          next++;
+          if (!loc.getTaskAttemptId().toString().equals(header.mapId)) {
+            close();
+            throw new IOException("data from wrong map:" + header.mapId +
+                " arrived to reduce task " + getPartition() +
+                ", where as expected map output should be from " +
+                loc.getTaskAttemptId());
+          }
+          remaining = header.isAvailable() ? header.compressedLength : 0;
+          return header;
+        }
+        
+        /**
+         * Skip a map output that is not needed anymore.
+         */
+        void skip(MapOutputLocation loc) throws IOException {
+          readHeader(loc);
+          try {
+            IOUtils.skipFully(input, remaining);
+            remaining = 0;
+          } catch (IOException ioe) {
+            close();
+            throw ioe;
+          }
+        }
+        
+        /**
+         * Open the connection again, for a map output whose header has
+         * already been read.
+         * @param loc the map output
+         * @param compressedLength its length, as read before
+         * @return the stream of the map output
+         */
+        InputStream reopen(MapOutputLocation loc, long compressedLength)
+        throws IOException {
+          close();
+          MapOutputHeader header = readHeader(loc);
+          if (header.compressedLength != compressedLength) {
+            close();
+            throw new IOException("Map output of " + header.mapId +
+                                  " changed from " + compressedLength +
+                                  " to " + header.compressedLength + 
+                                  " bytes on " + loc.getHost());
+          }
+          return getMapOutputStream();
+        }
+        
+        /**
+         * @return the stream of the map output whose header was just read.
+         * Closing it before its end closes the connection.
+         */
+        InputStream getMapOutputStream() {
+          return new InputStream() {
+            @Override
+            public int read() throws IOException {
+              if (remaining <= 0) {
+                return -1;
+              }
+              int b = input.read();
+              if (b >= 0) {
+                --remaining;
+              }
+              return b;
+            }
+            
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+              if (remaining <= 0) {
+                return -1;
+              }
+              int n = input.read(b, off, (int)Math.min(len, remaining));
+              if (n > 0) {
+                remaining -= n;
+              }
+              return n;
+            }
+            
+            @Override
+            public void close() {
+              if (remaining > 0) {
+                MapOutputBatch.this.close();
+              }
+            }
+          };
+        }
+        
+        /**
+         * Close the connection. When all of the map outputs have been read,
+         * this leaves it open for reuse.
+         */
+        void close() {
+          IOUtils.closeStream(input);
+          input = null;
+          remaining = 0;
+        }
+      }
+      
     } // MapOutputCopier
     
     private void configureClasspath(JobConf conf)
@@ -1775,9 +2301,11 @@ class ReduceTask extends Task {
       this.umbilical = umbilical;      
       this.reduceTask = ReduceTask.this;
 
-      this.scheduledCopies = new ArrayList<MapOutputLocation>(100);
+      this.scheduledCopies = new ArrayList<List<MapOutputLocation>>(100);
       this.copyResults = new ArrayList<CopyResult>(100);    
       this.numCopiers = conf.getInt("mapred.reduce.parallel.copies", 5);
+      this.maxMapsPerFetch = 
+        Math.max(1, conf.getInt("mapred.reduce.shuffle.maps.per.fetch", 1));
       this.maxInFlight = 4 * numCopiers;
       this.maxBackoff = conf.getInt("mapred.reduce.copy.backoff", 300);
       Counters.Counter combineInputCounter = 
@@ -1789,6 +2317,12 @@ class ReduceTask extends Task {
         combineCollector = 
           new CombineOutputCollector(reduceCombineOutputCounter);
       }
+      this.incrementalCombine = combinerRunner != null &&
+        conf.getBoolean("mapred.reduce.incremental.combine", false);
+      if (incrementalCombine) {
+        diskCombineCollector = 
+          new CombineOutputCollector(reduceCombineOutputCounter);
+      }
       
       this.ioSortFactor = conf.getInt("io.sort.factor", 10);
       // the exponential backoff formula
@@ -1805,7 +2339,13 @@ class ReduceTask extends Task {
              getClosestPowerOf2((this.maxBackoff * 1000 / BACKOFF_INIT) + 1));
       this.maxFailedUniqueFetches = Math.min(numMaps, 
                                              this.maxFailedUniqueFetches);
-      this.maxInMemOutputs = conf.getInt("mapred.inmem.merge.threshold", 1000);
+      int inMemMergeThreshold = conf.getInt("mapred.inmem.merge.threshold", 1000);
+      if (incrementalCombine && 
+          (inMemMergeThreshold <= 0 || inMemMergeThreshold > ioSortFactor)) {
+        // combine the map outputs in memory as they arrive
+        inMemMergeThreshold = ioSortFactor;
+      }
+      this.maxInMemOutputs = inMemMergeThreshold;
       this.maxInMemCopyPer =
         conf.getFloat("mapred.job.shuffle.merge.percent", 0.66f);
       final float maxRedPer =
@@ -1985,8 +2525,10 @@ class ReduceTask extends Task {
               synchronized (knownOutputsByLoc) {
               
                 locItr = knownOutputsByLoc.iterator();
+                List<MapOutputLocation> fetch = null;
             
-                while (locItr.hasNext()) {
+                while (locItr.hasNext() &&
+                       (fetch == null || fetch.size() < maxMapsPerFetch)) {
               
                   MapOutputLocation loc = locItr.next();
               
@@ -1996,12 +2538,20 @@ class ReduceTask extends Task {
                     continue;
                   }
 
-                  uniqueHosts.add(host);
-                  scheduledCopies.add(loc);
+                  if (fetch == null) {
+                    fetch = new ArrayList<MapOutputLocation>(maxMapsPerFetch);
+                  } else if (!loc.isOnSameTracker(fetch.get(0))) {
+                    continue;  // left for a later fetch
+                  }
+                  fetch.add(loc);
                   locItr.remove();  // remove from knownOutputs
                   numInFlight++; numScheduled++;
-
-                  break; //we have a map from this host
+                }
+                
+                // all maps of a fetch come from this host
+                if (fetch != null) {
+                  uniqueHosts.add(host);
+                  scheduledCopies.add(fetch);
                 }
               }
             }
@@ -2200,7 +2750,9 @@ class ReduceTask extends Task {
                        cr.getHost() + " to penalty box, next contact in " +
                        (currentBackOff/1000) + " seconds");
             }
-            uniqueHosts.remove(cr.getHost());
+            if (cr.isLastOfFetch()) {
+              uniqueHosts.remove(cr.getHost());
+            }
             numInFlight--;
           }
         }
@@ -2267,15 +2819,22 @@ class ReduceTask extends Task {
         // closed but not yet present in mapOutputsFilesInMemory
         long fullSize = 0L;
         for (MapOutput mo : mapOutputsFilesInMemory) {
-          fullSize += mo.data.length;
+          fullSize += mo.dataLength;
         }
         while(fullSize > leaveBytes) {
           MapOutput mo = mapOutputsFilesInMemory.remove(0);
-          totalSize += mo.data.length;
-          fullSize -= mo.data.length;
-          Reader<K, V> reader = 
-            new InMemoryReader<K, V>(ramManager, mo.mapAttemptId,
-                                     mo.data, 0, mo.data.length);
+          totalSize += mo.dataLength;
+          fullSize -= mo.dataLength;
+          Reader<K, V> reader;
+          if (mo.pages == null) {
+            reader = new InMemoryReader<K, V>(ramManager, mo.mapAttemptId,
+                                              mo.data, 0, mo.dataLength);
+          } else {
+            // read straight from the direct memory the map-output is in
+            reader = new DirectMemoryReader<K, V>(ramManager,
+                mo.mapAttemptId, ramManager.getDirectPool(), mo.pages,
+                mo.dataLength, ramManager.getReservedSize(mo.dataLength));
+          }
           Segment<K, V> segment = 
             new Segment<K, V>(reader, true);
           inMemorySegments.add(segment);
@@ -2361,7 +2920,8 @@ class ReduceTask extends Task {
       Path[] onDisk = getMapFiles(fs, false);
       for (Path file : onDisk) {
         onDiskBytes += fs.getFileStatus(file).getLen();
-        diskSegments.add(new Segment<K, V>(job, fs, file, codec, keepInputs));
+        diskSegments.add(new Segment<K, V>(job, fs, file, getCodec(file),
+                                           keepInputs));
       }
       LOG.info("Merging " + onDisk.length + " files, " +
                onDiskBytes + " bytes from disk");
@@ -2531,15 +3091,25 @@ class ReduceTask extends Task {
             RawKeyValueIterator iter  = null;
             Path tmpDir = new Path(reduceTask.getTaskID().toString());
             try {
+              List<Segment<K, V>> segments =
+                new ArrayList<Segment<K, V>>(mapFiles.size());
+              for (Path file : mapFiles) {
+                segments.add(new Segment<K, V>(conf, rfs, file,
+                                               getCodec(file), false));
+              }
               iter = Merger.merge(conf, rfs,
-                                  conf.getMapOutputKeyClass(),
-                                  conf.getMapOutputValueClass(),
-                                  codec, mapFiles.toArray(new Path[mapFiles.size()]), 
-                                  true, ioSortFactor, tmpDir, 
-                                  conf.getOutputKeyComparator(), reporter,
-                                  spilledRecordsCounter, null);
+                                  (Class<K>)conf.getMapOutputKeyClass(),
+                                  (Class<V>)conf.getMapOutputValueClass(),
+                                  codec, segments, ioSortFactor, tmpDir, 
+                                  (RawComparator<K>)conf.getOutputKeyComparator(),
+                                  reporter, spilledRecordsCounter, null);
               
-              Merger.writeFile(iter, writer, reporter, conf);
+              if (!incrementalCombine) {
+                Merger.writeFile(iter, writer, reporter, conf);
+              } else {
+                diskCombineCollector.setWriter(writer);
+                combinerRunner.combine(iter, diskCombineCollector);
+              }
               writer.close();
             } catch (Exception e) {
               localFileSys.delete(outputPath, true);
@@ -2625,6 +3195,12 @@ class ReduceTask extends Task {
         Path outputPath = mapOutputFile.getInputFileForWrite(mapId, 
                           reduceTask.getTaskID(), mergeOutputSize);
 
+        if (incrementalCombine) {
+          doInMemCombine(mapId, inMemorySegments, mergeOutputSize, 
+                         outputPath);
+          return;
+        }
+
         Writer writer = 
           new Writer(conf, rfs, outputPath,
                      conf.getMapOutputKeyClass(),
@@ -2671,6 +3247,154 @@ class ReduceTask extends Task {
           addToMapOutputFilesOnDisk(status);
         }
       }
+
+      /**
+       * Merges the in-memory map outputs through the combiner and keeps
+       * the result in memory, as a map output of its own that is merged
+       * again with the map outputs arriving next, while it is no larger
+       * than half of the merged outputs and fits in memory. Otherwise the
+       * result goes to the local disk like the output of any other merge.
+       */
+      @SuppressWarnings("unchecked")
+      private void doInMemCombine(TaskID mapId,
+                                  List<Segment<K, V>> inMemorySegments,
+                                  long mergeOutputSize, Path outputPath)
+      throws IOException {
+        final int limit = (int)Math.min(mergeOutputSize / 2, 
+                                        ramManager.getMaxSingleShuffleLimit());
+        final int noInMemorySegments = inMemorySegments.size();
+        InMemoryCombineCollector collector = 
+          new InMemoryCombineCollector(outputPath, limit);
+        try {
+          LOG.info("Initiating in-memory combine with " + noInMemorySegments + 
+                   " segments...");
+          RawKeyValueIterator rIter = 
+            Merger.merge(conf, rfs,
+                         (Class<K>)conf.getMapOutputKeyClass(),
+                         (Class<V>)conf.getMapOutputValueClass(),
+                         inMemorySegments, inMemorySegments.size(),
+                         new Path(reduceTask.getTaskID().toString()),
+                         conf.getOutputKeyComparator(), reporter,
+                         spilledRecordsCounter, null);
+          combinerRunner.combine(rIter, collector);
+          collector.close();
+        } catch (Exception e) {
+          localFileSys.delete(outputPath, true);
+          throw (IOException)new IOException
+                  ("Intermediate combine failed").initCause(e);
+        }
+
+        if (collector.getInMemoryOutput() != null) {
+          byte[] data = collector.getInMemoryOutput();
+          LOG.info(reduceTask.getTaskID() + " Combine of the " + 
+                   noInMemorySegments + " files in-memory complete." +
+                   " Kept " + data.length + " of " + mergeOutputSize + 
+                   " bytes in memory");
+          MapOutput mapOutput = 
+            new MapOutput(mapId, 
+                          new TaskAttemptID(mapId, -1), data, data.length);
+          ramManager.closeInMemoryFile(data.length);
+          synchronized (mapOutputsFilesInMemory) {
+            mapOutputsFilesInMemory.add(mapOutput);
+          }
+        } else {
+          FileStatus status = localFileSys.getFileStatus(outputPath);
+          LOG.info(reduceTask.getTaskID() + " Combine of the " + 
+                   noInMemorySegments + " files in-memory complete." +
+                   " Local file is " + outputPath + " of size " + 
+                   status.getLen());
+          synchronized (mapOutputFilesOnDisk) {
+            addToMapOutputFilesOnDisk(status);
+          }
+        }
+      }
+    }
+
+    /**
+     * Collects the output of the combiner in memory, uncompressed, while it
+     * stays within a limit, and in a file on the local disk once it goes
+     * over the limit or cannot be reserved memory for when it is complete.
+     */
+    private class InMemoryCombineCollector implements OutputCollector<K, V> {
+      private final Path outputPath;
+      private final int limit;
+      private final DataOutputBuffer buffer = new DataOutputBuffer();
+      private Writer<K, V> memWriter;
+      private Writer<K, V> diskWriter = null;
+      private byte[] inMemoryOutput = null;
+
+      @SuppressWarnings("unchecked")
+      InMemoryCombineCollector(Path outputPath, int limit) 
+      throws IOException {
+        this.outputPath = outputPath;
+        this.limit = limit;
+        memWriter = new Writer<K, V>(conf, new FSDataOutputStream(buffer, null),
+                                     (Class<K>)conf.getMapOutputKeyClass(),
+                                     (Class<V>)conf.getMapOutputValueClass(),
+                                     null, null);
+      }
+
+      public void collect(K key, V value) throws IOException {
+        reduceCombineOutputCounter.increment(1);
+        if (diskWriter != null) {
+          diskWriter.append(key, value);
+        } else {
+          memWriter.append(key, value);
+          if (memWriter.getRawLength() > limit) {
+            memWriter.close();
+            moveToDisk();
+          }
+        }
+      }
+
+      void close() throws IOException {
+        if (diskWriter != null) {
+          diskWriter.close();
+          return;
+        }
+        memWriter.close();
+        final int length = (int)memWriter.getRawLength();
+        if (length <= limit && ramManager.tryReserve(length)) {
+          // the checksum at the end is not kept in memory
+          inMemoryOutput = new byte[length];
+          System.arraycopy(buffer.getData(), 0, inMemoryOutput, 0, length);
+        } else {
+          moveToDisk();
+          diskWriter.close();
+        }
+      }
+
+      /** @return the output if it is kept in memory, else null */
+      byte[] getInMemoryOutput() {
+        return inMemoryOutput;
+      }
+
+      /** Copies the records collected in memory to the file. */
+      @SuppressWarnings("unchecked")
+      private void moveToDisk() throws IOException {
+        diskWriter = new Writer<K, V>(conf, rfs, outputPath,
+                                      (Class<K>)conf.getMapOutputKeyClass(),
+                                      (Class<V>)conf.getMapOutputValueClass(),
+                                      codec, null);
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(buffer.getData(), 0, (int)memWriter.getRawLength());
+        DataInputBuffer key = new DataInputBuffer();
+        DataInputBuffer value = new DataInputBuffer();
+        while (true) {
+          final int keyLength = WritableUtils.readVInt(in);
+          final int valueLength = WritableUtils.readVInt(in);
+          if (keyLength == IFile.EOF_MARKER && 
+              valueLength == IFile.EOF_MARKER) {
+            break;
+          }
+          final int pos = in.getPosition();
+          key.reset(buffer.getData(), pos, keyLength);
+          value.reset(buffer.getData(), pos + keyLength, valueLength);
+          diskWriter.append(key, value);
+          in.skip(keyLength + valueLength);
+        }
+        buffer.reset();
+      }
     }
 
     private class GetMapEventsThread extends Thread {
@@ -0,0 +1,587 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.mapred.TaskTracker.ShuffleServerMetrics;
+import org.apache.hadoop.net.SocketInputStream;
+import org.apache.hadoop.net.SocketOutputStream;
+import org.apache.hadoop.util.Daemon;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Serves map outputs to reduce tasks on a port of its own. The segment of
+ * the map output file that belongs to a reduce is located through the
+ * {@link IndexCache} and sent with {@link FileChannel#transferTo}, so the
+ * data goes from the page cache to the socket without being copied
+ * through the heap of the TaskTracker.
+ *
+ * The server speaks just enough HTTP for the reduce tasks: a GET of
+ * /mapOutput with the same parameters as the map output servlet, answered
+ * with the same headers or framing. Connections are kept alive between
+ * requests, for a short while only since each holds a handler. When the
+ * server is running the servlet redirects map output requests to it, and
+ * the reduce tasks remember the redirect for the rest of their shuffle.
+ */
+class ShuffleServer implements Runnable {
+  static final Log LOG = LogFactory.getLog(ShuffleServer.class);
+
+  /** The longest request or header line that is accepted. */
+  private static final int MAX_LINE_LENGTH = 8 * 1024;
+  /** The most bytes sent by a single transfer. */
+  private static final int MAX_TRANSFER_SIZE = 64 * 1024 * 1024;
+  /** Timeout for reading the request. */
+  private static final int READ_TIMEOUT = 60 * 1000;
+  /** How long a connection may wait for the next request of the reduce. */
+  private static final int KEEP_ALIVE_TIMEOUT = 5 * 1000;
+  /** Timeout for the reduce to accept more of the map output. */
+  private static final int WRITE_TIMEOUT = 3 * 60 * 1000;
+
+  private final TaskTracker tracker;
+  private final JobConf conf;
+  private final LocalDirAllocator lDirAlloc;
+  private final ShuffleServerMetrics shuffleMetrics;
+  private final ServerSocketChannel serverChannel;
+  private final ThreadPoolExecutor handlers;
+  private Daemon acceptor = null;
+  private volatile boolean running = true;
+
+  /**
+   * @param tracker the tracker whose map outputs are served
+   * @param conf the tracker configuration
+   * @param bindAddr the address to listen on
+   * @param numHandlers the number of requests served at the same time
+   * @param lDirAlloc the allocator of the local directories
+   * @param shuffleMetrics the metrics the requests are accounted in
+   */
+  ShuffleServer(TaskTracker tracker, JobConf conf, InetSocketAddress bindAddr,
+                int numHandlers, LocalDirAllocator lDirAlloc,
+                ShuffleServerMetrics shuffleMetrics) throws IOException {
+    this.tracker = tracker;
+    this.conf = conf;
+    this.lDirAlloc = lDirAlloc;
+    this.shuffleMetrics = shuffleMetrics;
+    this.serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.socket().bind(bindAddr);
+    } catch (IOException ie) {
+      serverChannel.close();
+      throw ie;
+    }
+    this.handlers = new ThreadPoolExecutor(numHandlers, numHandlers,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Daemon d = new Daemon(r);
+            d.setName("ShuffleServer handler");
+            return d;
+          }
+        });
+    handlers.allowCoreThreadTimeOut(true);
+  }
+
+  /** @return the port the server listens on */
+  int getPort() {
+    return serverChannel.socket().getLocalPort();
+  }
+
+  void start() {
+    acceptor = new Daemon(this);
+    acceptor.setName("ShuffleServer on " + getPort());
+    acceptor.start();
+    LOG.info("Serving map outputs on port " + getPort() + " with "
+             + handlers.getMaximumPoolSize() + " handlers");
+  }
+
+  void stop() {
+    running = false;
+    IOUtils.closeStream(serverChannel);
+    handlers.shutdownNow();
+    if (acceptor != null) {
+      try {
+        acceptor.join();
+      } catch (InterruptedException ie) {
+      }
+    }
+  }
+
+  public void run() {
+    while (running && serverChannel.isOpen()) {
+      final SocketChannel channel;
+      try {
+        channel = serverChannel.accept();
+      } catch (IOException ie) {
+        if (running) {
+          LOG.warn("ShuffleServer: " + StringUtils.stringifyException(ie));
+        }
+        continue;
+      }
+      try {
+        handlers.execute(new Runnable() {
+          public void run() {
+            serve(channel);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        IOUtils.closeStream(channel);
+      }
+    }
+  }
+
+  /**
+   * Serve the requests of one connection, and close it when the reduce
+   * is done with it or stays idle for too long.
+   */
+  private void serve(SocketChannel channel) {
+    try {
+      InputStream in = new BufferedInputStream(
+          new SocketInputStream(channel, READ_TIMEOUT), 1024);
+      SocketInputStream idle =
+        new SocketInputStream(channel, KEEP_ALIVE_TIMEOUT);
+      SocketOutputStream out = new SocketOutputStream(channel, WRITE_TIMEOUT);
+      boolean keepAlive = true;
+      while (keepAlive && running) {
+        if (in.available() == 0) {
+          idle.waitForReadable();
+        }
+        Request request;
+        try {
+          request = readRequest(in);
+        } catch (IOException ie) {
+          LOG.warn("Bad map output request from "
+                   + channel.socket().getRemoteSocketAddress() + ": "
+                   + ie.getMessage());
+          sendError(out, 400, "Bad Request", ie.getMessage());
+          return;
+        }
+        if (request == null) {
+          return;     // the reduce closed the connection
+        }
+        keepAlive = serve(channel, request, out) && request.keepAlive;
+      }
+    } catch (SocketTimeoutException ste) {
+      // the connection has been idle for too long
+    } catch (IOException ie) {
+      LOG.debug("ShuffleServer: " + StringUtils.stringifyException(ie));
+    } finally {
+      IOUtils.closeStream(channel);
+    }
+  }
+
+  /**
+   * Serve a request for one map output, or for several with the maps
+   * parameter.
+   * @return whether the connection can be used for more requests
+   */
+  private boolean serve(SocketChannel channel, Request request,
+                        SocketOutputStream out) {
+    String jobId = request.params.get("job");
+    String mapId = request.params.get("map");
+    String mapIds = request.params.get("maps");
+    String reduceId = request.params.get("reduce");
+    if (jobId == null || (mapId == null && mapIds == null) ||
+        reduceId == null) {
+      sendError(out, 400, "Bad Request",
+                "job, map and reduce parameters are required");
+      return false;
+    }
+    int reduce;
+    try {
+      reduce = Integer.parseInt(reduceId);
+    } catch (NumberFormatException nfe) {
+      sendError(out, 400, "Bad Request", "Invalid reduce " + reduceId);
+      return false;
+    }
+    String[] maps = null;
+    if (mapIds != null) {
+      maps = mapIds.split(",");
+      for (String map : maps) {
+        try {
+          TaskAttemptID.forName(map);
+        } catch (IllegalArgumentException e) {
+          sendError(out, 400, "Bad Request", "Invalid map " + map);
+          return false;
+        }
+      }
+    }
+
+    long startTime = 0;
+    long startCpuTime = shuffleMetrics.threadCpuTime();
+    long[] totalSent = new long[1];
+    shuffleMetrics.serverHandlerBusy();
+    try {
+      if (TaskTracker.ClientTraceLog.isInfoEnabled()) {
+        startTime = System.nanoTime();
+      }
+      if (maps != null) {
+        return sendMapOutputs(jobId, maps, reduce, out, request.keepAlive,
+                              totalSent);
+      }
+      return sendMapOutput(jobId, mapId, reduce, out, request.keepAlive,
+                           totalSent);
+    } finally {
+      shuffleMetrics.serverHandlerFree();
+      shuffleMetrics.handlerCpuTime(startCpuTime);
+      if (TaskTracker.ClientTraceLog.isInfoEnabled()) {
+        long endTime = System.nanoTime();
+        TaskTracker.ClientTraceLog.info(String.format(
+            TaskTracker.MR_CLIENTTRACE_FORMAT,
+            channel.socket().getLocalSocketAddress(),
+            channel.socket().getRemoteSocketAddress(),
+            totalSent[0], "MAPRED_SHUFFLE",
+            mapIds != null ? mapIds : mapId, endTime-startTime));
+      }
+    }
+  }
+
+  /**
+   * Send the output of one map, described by the http headers.
+   * @return whether the connection can be used for more requests
+   */
+  private boolean sendMapOutput(String jobId, String mapId, int reduce,
+                                SocketOutputStream out, boolean keepAlive,
+                                long[] totalSent) {
+    // true iff IOException was caused by attempt to access input
+    boolean isInputException = true;
+    boolean headerSent = false;
+    RandomAccessFile mapOutputIn = null;
+    try {
+      IndexRecord info = getIndexInformation(jobId, mapId, reduce);
+      mapOutputIn = openMapOutput(jobId, mapId);
+
+      StringBuilder header = new StringBuilder();
+      header.append("HTTP/1.1 200 OK\r\n");
+      header.append("Content-Length: ").append(info.partLength).append("\r\n");
+      appendConnectionHeader(header, keepAlive);
+      header.append(MRConstants.FROM_MAP_TASK).append(": ")
+            .append(mapId).append("\r\n");
+      header.append(MRConstants.RAW_MAP_OUTPUT_LENGTH).append(": ")
+            .append(info.rawLength).append("\r\n");
+      header.append(MRConstants.MAP_OUTPUT_LENGTH).append(": ")
+            .append(info.partLength).append("\r\n");
+      header.append(MRConstants.FOR_REDUCE_TASK).append(": ")
+            .append(reduce).append("\r\n");
+      if (info.uncompressed) {
+        header.append(MRConstants.MAP_OUTPUT_UNCOMPRESSED).append(": ")
+              .append(true).append("\r\n");
+      }
+      header.append("\r\n");
+      isInputException = false;
+      out.write(header.toString().getBytes("ISO-8859-1"));
+      headerSent = true;
+
+      transfer(mapOutputIn, info, out, totalSent);
+      LOG.info("Sent out " + info.partLength + " bytes for reduce: " +
+               reduce + " from map: " + mapId + " given " +
+               info.partLength + "/" + info.rawLength);
+      shuffleMetrics.successOutput();
+      return true;
+    } catch (IOException ie) {
+      String errorMsg = mapOutputFailed(mapId, reduce, ie, isInputException);
+      if (!headerSent) {
+        sendError(out, 410, "Gone", errorMsg);
+      }
+      return false;
+    } finally {
+      IOUtils.closeStream(mapOutputIn);
+    }
+  }
+
+  /**
+   * Send the outputs of several maps back to back, each after a
+   * {@link MapOutputHeader}. A map output that cannot be found is reported
+   * lost and sent as a header without data.
+   * @return whether the connection can be used for more requests
+   */
+  private boolean sendMapOutputs(String jobId, String[] mapIds, int reduce,
+                                 SocketOutputStream out, boolean keepAlive,
+                                 long[] totalSent) {
+    IndexRecord[] infos = new IndexRecord[mapIds.length];
+    RandomAccessFile[] mapOutputIns = new RandomAccessFile[mapIds.length];
+    int done = 0;
+    try {
+      // find all map outputs first, for the length of the response
+      DataOutputBuffer headers = new DataOutputBuffer();
+      int[] headerEnds = new int[mapIds.length];
+      long contentLength = 0;
+      for (int i = 0; i < mapIds.length; i++) {
+        try {
+          infos[i] = getIndexInformation(jobId, mapIds[i], reduce);
+          mapOutputIns[i] = openMapOutput(jobId, mapIds[i]);
+          new MapOutputHeader(mapIds[i], infos[i].partLength,
+                              infos[i].rawLength, reduce,
+                              infos[i].uncompressed).write(headers);
+          contentLength += infos[i].partLength;
+        } catch (IOException ie) {
+          IOUtils.closeStream(mapOutputIns[i]);
+          mapOutputIns[i] = null;
+          mapOutputFailed(mapIds[i], reduce, ie, true);
+          new MapOutputHeader(mapIds[i], -1, -1, reduce).write(headers);
+        }
+        headerEnds[i] = headers.getLength();
+      }
+      contentLength += headers.getLength();
+
+      StringBuilder header = new StringBuilder();
+      header.append("HTTP/1.1 200 OK\r\n");
+      header.append("Content-Length: ").append(contentLength).append("\r\n");
+      appendConnectionHeader(header, keepAlive);
+      header.append("\r\n");
+      out.write(header.toString().getBytes("ISO-8859-1"));
+
+      for (; done < mapIds.length; done++) {
+        int headerStart = done == 0 ? 0 : headerEnds[done - 1];
+        out.write(headers.getData(), headerStart,
+                  headerEnds[done] - headerStart);
+        if (mapOutputIns[done] == null) {
+          continue;
+        }
+        try {
+          transfer(mapOutputIns[done], infos[done], out, totalSent);
+        } catch (IOException ie) {
+          mapOutputFailed(mapIds[done], reduce, ie, false);
+          return false;
+        }
+        LOG.info("Sent out " + infos[done].partLength + " bytes for reduce: " +
+                 reduce + " from map: " + mapIds[done] + " given " +
+                 infos[done].partLength + "/" + infos[done].rawLength);
+        shuffleMetrics.successOutput();
+      }
+      return true;
+    } catch (IOException ie) {
+      LOG.warn("getMapOutputs(" + Arrays.toString(mapIds) + "," + reduce +
+               ") failed :\n" + StringUtils.stringifyException(ie));
+      return false;
+    } finally {
+      for (RandomAccessFile mapOutputIn : mapOutputIns) {
+        IOUtils.closeStream(mapOutputIn);
+      }
+    }
+  }
+
+  private IndexRecord getIndexInformation(String jobId, String mapId,
+                                          int reduce) throws IOException {
+    Path indexFileName = lDirAlloc.getLocalPathToRead(
+        TaskTracker.getIntermediateOutputDir(jobId, mapId)
+        + "/file.out.index", conf);
+    return tracker.indexCache.getIndexInformation(mapId, reduce,
+                                                  indexFileName);
+  }
+
+  private RandomAccessFile openMapOutput(String jobId, String mapId)
+      throws IOException {
+    Path mapOutputFileName = lDirAlloc.getLocalPathToRead(
+        TaskTracker.getIntermediateOutputDir(jobId, mapId)
+        + "/file.out", conf);
+    return new RandomAccessFile(
+        new File(mapOutputFileName.toUri().getPath()), "r");
+  }
+
+  /**
+   * Send the segment of a map output to the reduce with transferTo.
+   * @throws MapOutputException if the map output is shorter than its index
+   */
+  private void transfer(RandomAccessFile mapOutputIn, IndexRecord info,
+                           SocketOutputStream out, long[] totalSent)
+      throws IOException {
+    FileChannel mapOutputChannel = mapOutputIn.getChannel();
+    long position = info.startOffset;
+    long rem = info.partLength;
+    while (rem > 0) {
+      int len = (int)Math.min(rem, MAX_TRANSFER_SIZE);
+      try {
+        out.transferToFully(mapOutputChannel, position, len);
+      } catch (EOFException eof) {
+        throw new MapOutputException(eof);
+      }
+      shuffleMetrics.outputBytes(len);
+      position += len;
+      rem -= len;
+      totalSent[0] += len;
+    }
+  }
+
+  /**
+   * Log a failed map output and report it lost if it could not be read.
+   * @return the error message
+   */
+  private String mapOutputFailed(String mapId, int reduce, IOException ie,
+                                 boolean isInputException) {
+    if (ie instanceof MapOutputException) {
+      isInputException = true;
+      ie = (IOException)ie.getCause();
+    }
+    String errorMsg = ("getMapOutput(" + mapId + "," + reduce +
+                       ") failed :\n"+
+                       StringUtils.stringifyException(ie));
+    LOG.warn(errorMsg);
+    if (isInputException) {
+      try {
+        tracker.mapOutputLost(TaskAttemptID.forName(mapId), errorMsg);
+      } catch (IOException e) {
+        LOG.warn("Cannot report lost map output of " + mapId, e);
+      } catch (IllegalArgumentException e) {
+        LOG.warn("Invalid map id " + mapId);
+      }
+    }
+    shuffleMetrics.failedOutput();
+    return errorMsg;
+  }
+
+  private static void appendConnectionHeader(StringBuilder header,
+                                             boolean keepAlive) {
+    if (keepAlive) {
+      header.append("Keep-Alive: timeout=")
+            .append(KEEP_ALIVE_TIMEOUT / 1000).append("\r\n");
+    } else {
+      header.append("Connection: close\r\n");
+    }
+  }
+
+  /** A map output that ended before its index said it would. */
+  private static class MapOutputException extends IOException {
+    MapOutputException(EOFException cause) {
+      super(cause.getMessage());
+      initCause(cause);
+    }
+  }
+
+  /** A request for map outputs. */
+  static class Request {
+    /** the query parameters */
+    final Map<String, String> params;
+    /** whether the reduce wants to send more requests */
+    final boolean keepAlive;
+
+    Request(Map<String, String> params, boolean keepAlive) {
+      this.params = params;
+      this.keepAlive = keepAlive;
+    }
+  }
+
+  /**
+   * Read an HTTP request for /mapOutput.
+   * @param in a stream that supports mark
+   * @return the request, or null if the stream ended before it
+   * @throws IOException if the request is malformed
+   */
+  static Request readRequest(InputStream in) throws IOException {
+    in.mark(1);
+    if (in.read() < 0) {
+      return null;
+    }
+    in.reset();
+    String requestLine = readLine(in);
+    // only the connection header is of interest, but all must be consumed
+    String connection = null;
+    for (String line = readLine(in); line.length() > 0; line = readLine(in)) {
+      int colon = line.indexOf(':');
+      if (colon > 0 &&
+          "Connection".equalsIgnoreCase(line.substring(0, colon).trim())) {
+        connection = line.substring(colon + 1).trim();
+      }
+    }
+
+    String[] parts = requestLine.split(" ");
+    if (parts.length != 3 || !"GET".equals(parts[0])) {
+      throw new IOException("Unsupported request " + requestLine);
+    }
+    boolean keepAlive = "HTTP/1.1".equals(parts[2])
+      ? !"close".equalsIgnoreCase(connection)
+      : "keep-alive".equalsIgnoreCase(connection);
+    String target = parts[1];
+    int q = target.indexOf('?');
+    String path = q < 0 ? target : target.substring(0, q);
+    if (!"/mapOutput".equals(path)) {
+      throw new IOException("Unknown path " + path);
+    }
+    Map<String, String> params = new HashMap<String, String>();
+    if (q >= 0) {
+      for (String param : target.substring(q + 1).split("&")) {
+        int eq = param.indexOf('=');
+        if (eq > 0) {
+          params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+                     URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+        }
+      }
+    }
+    return new Request(params, keepAlive);
+  }
+
+  /**
+   * Read a line terminated by LF or CRLF, without the terminator.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    int b;
+    while ((b = in.read()) != '\n') {
+      if (b < 0) {
+        throw new EOFException("Connection closed before end of request");
+      }
+      if (line.size() >= MAX_LINE_LENGTH) {
+        throw new IOException("Request line too long");
+      }
+      line.write(b);
+    }
+    String s = line.toString("ISO-8859-1");
+    return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+  }
+
+  private static void sendError(SocketOutputStream out, int code,
+                                String reason, String msg) {
+    try {
+      byte[] body = (msg == null ? reason : msg).getBytes("UTF-8");
+      String header = "HTTP/1.1 " + code + " " + reason + "\r\n" +
+                      "Content-Type: text/plain; charset=utf-8\r\n" +
+                      "Content-Length: " + body.length + "\r\n" +
+                      "Connection: close\r\n\r\n";
+      out.write(header.getBytes("ISO-8859-1"));
+      out.write(body);
+    } catch (IOException ie) {
+      LOG.debug("Cannot send error " + code, ie);
+    }
+  }
+}
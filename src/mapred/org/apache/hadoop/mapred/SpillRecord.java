@@ -36,6 +36,12 @@ import static org.apache.hadoop.mapred.MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH;
 
 class SpillRecord {
 
+  /**
+   * Set in the raw length of a partition stored without the codec of the
+   * job, see mapred.compress.map.output.adaptive. Lengths never use it.
+   */
+  private static final long UNCOMPRESSED = 1L << 62;
+
   /** Backing store */
   private final ByteBuffer buf;
   /** View of backing storage as longs */
@@ -91,8 +97,11 @@ class SpillRecord {
    */
   public IndexRecord getIndex(int partition) {
     final int pos = partition * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH / 8;
-    return new IndexRecord(entries.get(pos), entries.get(pos + 1),
-                           entries.get(pos + 2));
+    final long rawLength = entries.get(pos + 1);
+    IndexRecord rec = new IndexRecord(entries.get(pos),
+        rawLength & ~UNCOMPRESSED, entries.get(pos + 2));
+    rec.uncompressed = (rawLength & UNCOMPRESSED) != 0;
+    return rec;
   }
 
   /**
@@ -101,7 +110,8 @@ class SpillRecord {
   public void putIndex(IndexRecord rec, int partition) {
     final int pos = partition * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH / 8;
     entries.put(pos, rec.startOffset);
-    entries.put(pos + 1, rec.rawLength);
+    entries.put(pos + 1,
+        rec.uncompressed ? rec.rawLength | UNCOMPRESSED : rec.rawLength);
     entries.put(pos + 2, rec.partLength);
   }
 
@@ -142,6 +152,8 @@ class IndexRecord {
   long startOffset;
   long rawLength;
   long partLength;
+  /** Whether the partition is stored without the codec of the job */
+  boolean uncompressed = false;
 
   public IndexRecord() { }
 
@@ -17,11 +17,15 @@
  */
 package org.apache.hadoop.mapred;
 
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -40,6 +44,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Pattern;
 
@@ -227,6 +232,14 @@ public class TaskTracker
   static final String TT_OUTOFBAND_HEARBEAT =
     "mapreduce.tasktracker.outofband.heartbeat";
   private volatile boolean oobHeartbeatOnTaskCompletion;
+
+  /**
+   * Whether the configuration of a job is read from its job file only,
+   * which holds all the properties of the job, rather than from the default
+   * resources and then the job file, in the task tracker and task JVMs.
+   */
+  static final String SKIP_DEFAULT_RESOURCES_KEY =
+    "mapred.job.conf.skip.default.resources";
   
   // Track number of completed tasks to send an out-of-band heartbeat
   private IntWritable finishedCount = new IntWritable(0);
@@ -259,7 +272,7 @@ public class TaskTracker
    */  
   private int probe_sample_size = 500;
 
-  private IndexCache indexCache;
+  IndexCache indexCache;
 
   private MRAsyncDiskService asyncDiskService;
   
@@ -280,23 +293,53 @@ public class TaskTracker
             Collections.synchronizedList(new ArrayList<TaskAttemptID>());
 
   private ShuffleServerMetrics shuffleServerMetrics;
+  /** Serves map outputs with transferTo, if enabled. */
+  private ShuffleServer shuffleServer = null;
   /** This class contains the methods that should be used for metrics-reporting
    * the specific metrics for shuffle. The TaskTracker is actually a server for
    * the shuffle and hence the name ShuffleServerMetrics.
    */
-  private class ShuffleServerMetrics implements Updater {
+  class ShuffleServerMetrics implements Updater {
     private MetricsRecord shuffleMetricsRecord = null;
     private int serverHandlerBusy = 0;
     private long outputBytes = 0;
     private int failedOutputs = 0;
     private int successOutputs = 0;
+    private long handlerCpuNanos = 0;
+    private int indexCacheHits = 0;
+    private int indexCacheMisses = 0;
+    private long indexLoadMillis = 0;
+    private long lastUpdateTime;
+    private final ThreadMXBean threadBean = 
+      ManagementFactory.getThreadMXBean();
     ShuffleServerMetrics(JobConf conf) {
       MetricsContext context = MetricsUtil.getContext("mapred");
       shuffleMetricsRecord = 
                            MetricsUtil.createRecord(context, "shuffleOutput");
       this.shuffleMetricsRecord.setTag("sessionId", conf.getSessionId());
+      lastUpdateTime = System.currentTimeMillis();
       context.registerUpdater(this);
     }
+    /**
+     * @return the CPU time of the calling thread in nanoseconds, or -1
+     *         if the JVM does not measure it
+     */
+    long threadCpuTime() {
+      return threadBean.isCurrentThreadCpuTimeSupported()
+             ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+    /**
+     * Account the CPU time the calling handler thread has used since
+     * {@link #threadCpuTime()} returned startCpuTime.
+     */
+    void handlerCpuTime(long startCpuTime) {
+      if (startCpuTime >= 0) {
+        long used = threadCpuTime() - startCpuTime;
+        synchronized (this) {
+          handlerCpuNanos += used;
+        }
+      }
+    }
     synchronized void serverHandlerBusy() {
       ++serverHandlerBusy;
     }
@@ -312,6 +355,15 @@ public class TaskTracker
     synchronized void successOutput() {
       ++successOutputs;
     }
+    synchronized void indexCacheHit() {
+      ++indexCacheHits;
+    }
+    synchronized void indexCacheMiss() {
+      ++indexCacheMisses;
+    }
+    synchronized void indexLoadTime(long millis) {
+      indexLoadMillis += millis;
+    }
     public void doUpdates(MetricsContext unused) {
       synchronized (this) {
         if (workerThreads != 0) {
@@ -326,9 +378,33 @@ public class TaskTracker
                                         failedOutputs);
         shuffleMetricsRecord.incrMetric("shuffle_success_outputs", 
                                         successOutputs);
+        shuffleMetricsRecord.incrMetric("shuffle_index_cache_hits",
+                                        indexCacheHits);
+        shuffleMetricsRecord.incrMetric("shuffle_index_cache_misses",
+                                        indexCacheMisses);
+        shuffleMetricsRecord.incrMetric("shuffle_index_load_millis",
+                                        indexLoadMillis);
+        IndexCache cache = indexCache;
+        if (cache != null) {
+          shuffleMetricsRecord.setMetric("shuffle_index_cache_bytes",
+                                         cache.getMemoryUsed());
+        }
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastUpdateTime;
+        shuffleMetricsRecord.setMetric("shuffle_output_bytes_per_sec",
+            elapsed > 0 ? outputBytes * 1000f / elapsed : 0);
+        // milliseconds of handler CPU time per GB served
+        shuffleMetricsRecord.setMetric("shuffle_cpu_millis_per_gb",
+            outputBytes > 0
+            ? (float)(handlerCpuNanos / 1e6 * (1L << 30) / outputBytes) : 0);
+        lastUpdateTime = now;
         outputBytes = 0;
         failedOutputs = 0;
         successOutputs = 0;
+        handlerCpuNanos = 0;
+        indexCacheHits = 0;
+        indexCacheMisses = 0;
+        indexLoadMillis = 0;
       }
       shuffleMetricsRecord.update();
     }
@@ -594,7 +670,7 @@ public class TaskTracker
         getReduceUserLogRetainSize()));
     getTaskLogsMonitor().start();
 
-    this.indexCache = new IndexCache(this.fConf);
+    this.indexCache = new IndexCache(this.fConf, shuffleServerMetrics);
 
     mapLauncher = new TaskLauncher(TaskType.MAP, maxMapSlots);
     reduceLauncher = new TaskLauncher(TaskType.REDUCE, maxReduceSlots);
@@ -857,7 +933,13 @@ public class TaskTracker
                                   + jobDir.toString());
         }
         systemFS.copyToLocalFile(jobFile, localJobFile);
-        JobConf localJobConf = new JobConf(localJobFile);
+        JobConf localJobConf;
+        if (fConf.getBoolean(SKIP_DEFAULT_RESOURCES_KEY, false)) {
+          localJobConf = new JobConf(false);
+          localJobConf.addResource(localJobFile);
+        } else {
+          localJobConf = new JobConf(localJobFile);
+        }
         
         // create the 'work' directory
         // job-specific shared directory for use as scratch space 
@@ -931,6 +1013,11 @@ public class TaskTracker
         LOG.warn("Exception shutting down TaskTracker", e);
       }
     }
+    if (shuffleServer != null) {
+      LOG.info("Shutting down ShuffleServer");
+      shuffleServer.stop();
+      shuffleServer = null;
+    }
   }
   /**
    * Close down the TaskTracker and all its components.  We must also shutdown
@@ -973,6 +1060,9 @@ public class TaskTracker
     // Shutdown the fetcher thread
     this.mapEventsFetcher.interrupt();
     
+    // Stop prefetching map output indices
+    this.indexCache.close();
+    
     //stop the launchers
     this.mapLauncher.interrupt();
     this.reduceLauncher.interrupt();
@@ -1039,6 +1129,14 @@ public class TaskTracker
     server.setAttribute("log", LOG);
     server.setAttribute("localDirAllocator", localDirAllocator);
     server.setAttribute("shuffleServerMetrics", shuffleServerMetrics);
+    if (conf.getBoolean("mapred.task.tracker.shuffle.nio", false)) {
+      InetSocketAddress shuffleAddr = NetUtils.createSocketAddr(
+          conf.get("mapred.task.tracker.shuffle.address", "0.0.0.0:0"));
+      this.shuffleServer = new ShuffleServer(this, conf, shuffleAddr,
+          workerThreads, localDirAllocator, shuffleServerMetrics);
+      shuffleServer.start();
+      server.setAttribute("shuffle.port", shuffleServer.getPort());
+    }
     server.addInternalServlet("mapOutput", "/mapOutput", MapOutputServlet.class);
     server.addInternalServlet("taskLog", "/tasklog", TaskLogServlet.class);
     server.start();
@@ -2276,6 +2374,11 @@ public class TaskTracker
         }
       } else {
         this.taskStatus.setRunState(TaskStatus.State.SUCCEEDED);
+        if (task.isMapTask() && task.isMapOrReduce() &&
+            localJobConf != null && localJobConf.getNumReduceTasks() > 0) {
+          prefetchIndex(task.getJobID().toString(),
+                        task.getTaskID().toString());
+        }
       }
       this.taskStatus.setProgress(1.0f);
       this.taskStatus.setFinishTime(System.currentTimeMillis());
@@ -2848,6 +2951,20 @@ public class TaskTracker
     return commitResponses.contains(taskid); //don't remove it now
   }
   
+  /**
+   * Reads the index of a completed map into the index cache in the
+   * background, before the reduces ask for its output.
+   */
+  private void prefetchIndex(final String jobId, final String mapId) {
+    indexCache.prefetchIndexInformation(mapId, new Callable<Path>() {
+      public Path call() throws IOException {
+        return localDirAllocator.getLocalPathToRead(
+            TaskTracker.getIntermediateOutputDir(jobId, mapId)
+            + "/file.out.index", fConf);
+      }
+    });
+  }
+
   /**
    * The task is done.
    */
@@ -2939,6 +3056,16 @@ public class TaskTracker
   }
   
 
+  /** @return the port of the http server */
+  int getHttpPort() {
+    return httpPort;
+  }
+
+  /** @return the server sending map outputs with transferTo, or null */
+  ShuffleServer getShuffleServer() {
+    return shuffleServer;
+  }
+
   /**
    * A completed map task's output has been lost.
    */
@@ -3126,6 +3253,7 @@ public class TaskTracker
                       HttpServletResponse response
                       ) throws ServletException, IOException {
       String mapId = request.getParameter("map");
+      String mapIds = request.getParameter("maps");
       String reduceId = request.getParameter("reduce");
       String jobId = request.getParameter("job");
 
@@ -3133,11 +3261,33 @@ public class TaskTracker
         throw new IOException("job parameter is required");
       }
 
-      if (mapId == null || reduceId == null) {
+      if ((mapId == null && mapIds == null) || reduceId == null) {
         throw new IOException("map and reduce parameters are required");
       }
       ServletContext context = getServletContext();
+      Integer shufflePort = (Integer) context.getAttribute("shuffle.port");
+      if (shufflePort != null) {
+        // map outputs are sent by the ShuffleServer
+        response.sendRedirect("http://" + request.getServerName() + ":" +
+                              shufflePort + "/mapOutput?" +
+                              request.getQueryString());
+        return;
+      }
       int reduce = Integer.parseInt(reduceId);
+      if (mapIds != null) {
+        String[] maps = mapIds.split(",");
+        for (String map : maps) {
+          try {
+            TaskAttemptID.forName(map);
+          } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                               "Invalid map " + map);
+            return;
+          }
+        }
+        sendMapOutputs(request, response, jobId, maps, reduce);
+        return;
+      }
       byte[] buffer = new byte[MAX_BYTES_TO_READ];
       // true iff IOException was caused by attempt to access input
       boolean isInputException = true;
@@ -3151,6 +3301,7 @@ public class TaskTracker
         (TaskTracker) context.getAttribute("task.tracker");
 
       long startTime = 0;
+      long startCpuTime = shuffleMetrics.threadCpuTime();
       try {
         shuffleMetrics.serverHandlerBusy();
         if(ClientTraceLog.isInfoEnabled())
@@ -3197,6 +3348,12 @@ public class TaskTracker
         //for which this map output is being transferred
         response.setHeader(FOR_REDUCE_TASK, Integer.toString(reduce));
         
+        //set the custom "Map-Output-Uncompressed" http header if the
+        //map output is not compressed with the codec of the job
+        if (info.uncompressed) {
+          response.setHeader(MAP_OUTPUT_UNCOMPRESSED, "true");
+        }
+        
         //use the same buffersize as used for reading the data from disk
         response.setBufferSize(MAX_BYTES_TO_READ);
         
@@ -3248,6 +3405,7 @@ public class TaskTracker
         }
         final long endTime = ClientTraceLog.isInfoEnabled() ? System.nanoTime() : 0;
         shuffleMetrics.serverHandlerFree();
+        shuffleMetrics.handlerCpuTime(startCpuTime);
         if (ClientTraceLog.isInfoEnabled()) {
           ClientTraceLog.info(String.format(MR_CLIENTTRACE_FORMAT,
                 request.getLocalAddr() + ":" + request.getLocalPort(),
@@ -3258,6 +3416,118 @@ public class TaskTracker
       outStream.close();
       shuffleMetrics.successOutput();
     }
+
+    /**
+     * Send the outputs of several maps for a reduce back to back, each
+     * after a {@link MapOutputHeader}. A map output that cannot be found
+     * is reported lost and sent as a header without data, so the reduce
+     * can go on with the others over the same connection.
+     */
+    private void sendMapOutputs(HttpServletRequest request,
+                                HttpServletResponse response,
+                                String jobId, String[] mapIds, int reduce
+                                ) throws IOException {
+      ServletContext context = getServletContext();
+      ShuffleServerMetrics shuffleMetrics =
+        (ShuffleServerMetrics) context.getAttribute("shuffleServerMetrics");
+      TaskTracker tracker = 
+        (TaskTracker) context.getAttribute("task.tracker");
+      JobConf conf = (JobConf) context.getAttribute("conf");
+      LocalDirAllocator lDirAlloc = 
+        (LocalDirAllocator)context.getAttribute("localDirAllocator");
+      FileSystem rfs = ((LocalFileSystem)
+          context.getAttribute("local.file.system")).getRaw();
+      Log log = (Log) context.getAttribute("log");
+      byte[] buffer = new byte[MAX_BYTES_TO_READ];
+
+      long totalRead = 0;
+      long startTime = ClientTraceLog.isInfoEnabled() ? System.nanoTime() : 0;
+      long startCpuTime = shuffleMetrics.threadCpuTime();
+      shuffleMetrics.serverHandlerBusy();
+      try {
+        response.setBufferSize(MAX_BYTES_TO_READ);
+        DataOutputStream out =
+          new DataOutputStream(response.getOutputStream());
+        for (String mapId : mapIds) {
+          IndexRecord info = null;
+          FSDataInputStream mapOutputIn = null;
+          try {
+            Path indexFileName = lDirAlloc.getLocalPathToRead(
+                TaskTracker.getIntermediateOutputDir(jobId, mapId)
+                + "/file.out.index", conf);
+            Path mapOutputFileName = lDirAlloc.getLocalPathToRead(
+                TaskTracker.getIntermediateOutputDir(jobId, mapId)
+                + "/file.out", conf);
+            info = tracker.indexCache.getIndexInformation(mapId, reduce,
+                                                          indexFileName);
+            mapOutputIn = rfs.open(mapOutputFileName);
+            mapOutputIn.seek(info.startOffset);
+          } catch (IOException ie) {
+            if (mapOutputIn != null) {
+              mapOutputIn.close();
+            }
+            String errorMsg = ("getMapOutput(" + mapId + "," + reduce + 
+                               ") failed :\n"+
+                               StringUtils.stringifyException(ie));
+            log.warn(errorMsg);
+            tracker.mapOutputLost(TaskAttemptID.forName(mapId), errorMsg);
+            shuffleMetrics.failedOutput();
+            new MapOutputHeader(mapId, -1, -1, reduce).write(out);
+            continue;
+          }
+
+          // true iff IOException was caused by attempt to access input
+          boolean isInputException = false;
+          try {
+            new MapOutputHeader(mapId, info.partLength, info.rawLength,
+                                reduce, info.uncompressed).write(out);
+            long rem = info.partLength;
+            while (rem > 0) {
+              isInputException = true;
+              int len = mapOutputIn.read(buffer, 0,
+                                         (int)Math.min(rem, MAX_BYTES_TO_READ));
+              if (len < 0) {
+                throw new EOFException("Map output of " + mapId +
+                                       " is shorter than its index");
+              }
+              isInputException = false;
+              shuffleMetrics.outputBytes(len);
+              out.write(buffer, 0, len);
+              rem -= len;
+              totalRead += len;
+            }
+          } catch (IOException ie) {
+            String errorMsg = ("getMapOutput(" + mapId + "," + reduce + 
+                               ") failed :\n"+
+                               StringUtils.stringifyException(ie));
+            log.warn(errorMsg);
+            if (isInputException) {
+              tracker.mapOutputLost(TaskAttemptID.forName(mapId), errorMsg);
+            }
+            shuffleMetrics.failedOutput();
+            throw ie;
+          } finally {
+            mapOutputIn.close();
+          }
+          LOG.info("Sent out " + info.partLength + " bytes for reduce: " +
+                   reduce + " from map: " + mapId + " given " +
+                   info.partLength + "/" + info.rawLength);
+          shuffleMetrics.successOutput();
+        }
+        out.flush();
+      } finally {
+        final long endTime = ClientTraceLog.isInfoEnabled() ? System.nanoTime() : 0;
+        shuffleMetrics.serverHandlerFree();
+        shuffleMetrics.handlerCpuTime(startCpuTime);
+        if (ClientTraceLog.isInfoEnabled()) {
+          ClientTraceLog.info(String.format(MR_CLIENTTRACE_FORMAT,
+                request.getLocalAddr() + ":" + request.getLocalPort(),
+                request.getRemoteAddr() + ":" + request.getRemotePort(),
+                totalRead, "MAPRED_SHUFFLE", Arrays.toString(mapIds),
+                endTime-startTime));
+        }
+      }
+    }
   }
 
   // get the full paths of the directory in all the local disks.
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.conf;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+public class TestConfigurationSnapshot extends TestCase {
+
+  private Configuration conf;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    conf = new Configuration(false);
+    conf.set("dir", "/tmp");
+    conf.set("sub.dir", "${dir}/sub");
+    conf.set("home", "${user.name}/${dir}");
+    conf.set("unbound", "${no.such.property}");
+    conf.set("int", "42");
+    conf.set("hex.int", "-0x1F");
+    conf.set("bad.int", "forty-two");
+    conf.set("long", "10000000000");
+    conf.set("class", List.class.getName());
+    conf.set("list.class", LinkedList.class.getName());
+    conf.set("bool", "true");
+  }
+
+  public void testValues() throws Exception {
+    ConfigurationSnapshot snapshot = new ConfigurationSnapshot(conf);
+    assertEquals(conf.size(), snapshot.size());
+    assertEquals("/tmp/sub", snapshot.get("sub.dir"));
+    assertEquals("${dir}/sub", snapshot.getRaw("sub.dir"));
+    assertEquals(System.getProperty("user.name") + "//tmp",
+                 snapshot.get("home"));
+    assertEquals("${no.such.property}", snapshot.get("unbound"));
+    assertNull(snapshot.get("missing"));
+    assertNull(snapshot.getRaw("missing"));
+    assertEquals("/tmp", snapshot.get("dir", "other"));
+    assertEquals("other", snapshot.get("missing", "other"));
+    assertEquals("/tmp/default", snapshot.get("missing", "${dir}/default"));
+    assertTrue(snapshot.getBoolean("bool", false));
+    assertEquals(1, snapshot.getStrings("sub.dir").length);
+
+    for (int i = 0; i < 2; ++i) {                 // parsed, then cached
+      assertEquals(42, snapshot.getInt("int", 0));
+      assertEquals(-31, snapshot.getInt("hex.int", 0));
+      assertEquals(7, snapshot.getInt("bad.int", 7));
+      assertEquals(8, snapshot.getInt("missing", 8));
+      assertEquals(9, snapshot.getInt("long", 9));
+      assertEquals(10000000000L, snapshot.getLong("long", 0));
+      assertEquals(42L, snapshot.getLong("int", 0));
+      assertEquals(-31L, snapshot.getLong("hex.int", 0));
+      assertEquals(5L, snapshot.getLong("bad.int", 5));
+      assertEquals(6L, snapshot.getLong("missing", 6));
+      assertEquals(List.class, snapshot.getClass("class", null));
+      assertEquals(Object.class, snapshot.getClass("missing", Object.class));
+      assertEquals(LinkedList.class,
+                   snapshot.getClass("list.class", null, List.class));
+      assertEquals(String.class,
+                   snapshot.getClassByName(String.class.getName()));
+    }
+    try {
+      snapshot.getClass("list.class", null, Comparable.class);
+      fail("LinkedList is not Comparable");
+    } catch (RuntimeException e) {
+      // expected
+    }
+    try {
+      snapshot.getClassByName("no.such.Class");
+      fail("no.such.Class does not exist");
+    } catch (ClassNotFoundException e) {
+      // expected
+    }
+  }
+
+  public void testTooDeepValue() throws Exception {
+    conf.set("loop", "${loop}");
+    ConfigurationSnapshot snapshot = new ConfigurationSnapshot(conf);
+    assertEquals("${loop}", snapshot.getRaw("loop"));
+    assertEquals("/tmp/sub", snapshot.get("sub.dir"));
+    assertEquals(42, snapshot.getInt("int", 0));
+    try {
+      snapshot.get("loop");
+      fail("expanded ${loop}");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      snapshot.getInt("loop", 0);
+      fail("expanded ${loop}");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public void testImmutable() throws Exception {
+    ConfigurationSnapshot snapshot = new ConfigurationSnapshot(conf);
+    conf.set("dir", "/var");
+    conf.set("added", "value");
+    assertEquals("/tmp/sub", snapshot.get("sub.dir"));
+    assertNull(snapshot.get("added"));
+    assertSame(snapshot, ConfigurationSnapshot.of(snapshot));
+
+    try {
+      snapshot.set("dir", "/var");
+      fail("set a snapshot");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      snapshot.setInt("int", 1);
+      fail("set a snapshot");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      snapshot.clear();
+      fail("cleared a snapshot");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      snapshot.addResource(new Path("/no/such/file.xml"));
+      fail("added a resource to a snapshot");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    snapshot.reloadConfiguration();
+    assertEquals("/tmp/sub", snapshot.get("sub.dir"));
+    assertEquals(42, snapshot.getInt("int", 0));
+  }
+
+  public void testWritable() throws Exception {
+    ConfigurationSnapshot snapshot = new ConfigurationSnapshot(conf);
+    DataOutputBuffer out = new DataOutputBuffer();
+    snapshot.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    Configuration copy = new Configuration(false);
+    copy.readFields(in);
+    assertEquals(conf.size(), copy.size());
+    assertEquals("${dir}/sub", copy.getRaw("sub.dir"));
+    assertEquals("/tmp/sub", copy.get("sub.dir"));
+  }
+}
@@ -204,6 +204,9 @@ public class TestDFSClientRetries extends TestCase {
 
     public FileStatus[] getListing(String src) throws IOException { return null; }
 
+    public DirectoryListing getPartialListing(String src, byte[] startAfter,
+        int maxEntries) throws IOException { return null; }
+
     public void renewLease(String clientName) throws IOException {}
 
     public long[] getStats() throws IOException { return null; }
@@ -26,6 +26,9 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 
 /**
@@ -141,4 +144,74 @@ public class TestFileStatus extends TestCase {
       cluster.shutdown();
     }
   }
+
+  /**
+   * Tests listing a directory in several batches.
+   */
+  public void testIterativeListing() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setInt(FSConstants.DFS_LIST_LIMIT_KEY, 2);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    FileSystem fs = cluster.getFileSystem();
+    final DFSClient dfsClient = new DFSClient(NameNode.getAddress(conf), conf);
+    try {
+      Path dir = new Path("/test/iterative");
+      assertTrue(fs.mkdirs(dir));
+      final int numFiles = 5;
+      for (int i = 0; i < numFiles; i++) {
+        writeFile(fs, new Path(dir, "file" + i), 1, blockSize/4, blockSize);
+      }
+
+      // the namenode returns at most dfs.ls.limit entries per call
+      DirectoryListing listing = dfsClient.listPaths(dir.toString(),
+          DirectoryListing.EMPTY_NAME);
+      assertEquals(2, listing.getPartialListing().length);
+      assertEquals(numFiles - 2, listing.getRemainingEntries());
+      assertEquals("file1", DFSUtil.bytes2String(listing.getLastName()));
+      listing = dfsClient.listPaths(dir.toString(), listing.getLastName());
+      assertEquals("file2", listing.getPartialListing()[0].getPath().getName());
+      assertEquals(numFiles - 4, listing.getRemainingEntries());
+      listing = dfsClient.listPaths(dir.toString(), listing.getLastName());
+      assertEquals(1, listing.getPartialListing().length);
+      assertFalse(listing.hasMore());
+
+      // listStatus stitches all the batches together
+      FileStatus[] stats = fs.listStatus(dir);
+      assertEquals(numFiles, stats.length);
+      for (int i = 0; i < numFiles; i++) {
+        assertEquals("file" + i, stats[i].getPath().getName());
+        assertEquals(fs.makeQualified(new Path(dir, "file" + i)),
+                     stats[i].getPath());
+      }
+
+      // the iterator fetches the batches lazily
+      RemoteIterator<FileStatus> itor = fs.listStatusIterator(dir);
+      for (int i = 0; i < numFiles; i++) {
+        assertTrue(itor.hasNext());
+        assertEquals(stats[i], itor.next());
+      }
+      assertFalse(itor.hasNext());
+
+      // a file is listed as itself
+      listing = dfsClient.listPaths(dir + "/file0",
+          DirectoryListing.EMPTY_NAME);
+      assertEquals(1, listing.getPartialListing().length);
+      assertFalse(listing.hasMore());
+
+      // a non-existent path
+      assertNull(dfsClient.listPaths("/nonexistent",
+          DirectoryListing.EMPTY_NAME));
+      assertNull(fs.listStatus(new Path("/nonexistent")));
+      try {
+        fs.listStatusIterator(new Path("/nonexistent"));
+        fail("listStatusIterator should fail on a non-existent path");
+      } catch (FileNotFoundException fnfe) {
+        // expected
+      }
+    } finally {
+      dfsClient.close();
+      fs.close();
+      cluster.shutdown();
+    }
+  }
 }
@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.net.NetUtils;
+
+/**
+ * Measures how a single {@link MiniDFSCluster} data-node copes with many
+ * concurrent connections.
+ * 
+ * The benchmark optionally opens a number of connections to the data
+ * transfer port which do not send a request, as clients keeping
+ * connections around do. It then starts the given number of reader
+ * threads, which all open the file and then issue positional reads of the
+ * given size against it at the same time.
+ * It reports the read throughput, the xceiver count and the number of
+ * live threads in the JVM, which includes the data-node.
+ * Compare the thread-per-connection and the NIO server with e.g.
+ * <pre>
+ * DataXceiverBenchmark -readers 10000
+ * DataXceiverBenchmark -readers 10000 -nio
+ * DataXceiverBenchmark -connections 10000 -readers 64 -nio
+ * </pre>
+ * The open file limit must allow for twice the number of connections and
+ * readers.
+ */
+public class DataXceiverBenchmark {
+  private static final Log LOG = LogFactory.getLog(DataXceiverBenchmark.class);
+
+  private static final Path FILE = new Path("/benchmark/file");
+
+  static void printUsage() {
+    System.err.println("Usage: DataXceiverBenchmark"
+        + " [-connections C] [-readers R] [-reads N] [-readSize S]"
+        + " [-fileSize F] [-nio] [-selectors T]");
+    System.exit(-1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numConnections = 0;
+    int numReaders = 10000;
+    int readSize = 64 * 1024;
+    long fileSize = 64L * 1024 * 1024;
+    boolean nio = false;
+    int numSelectors = DataXceiverServer.DEFAULT_NUM_SELECTORS;
+    int reads = 4;
+    for (int i = 0; i < args.length; i++) {
+      if ("-nio".equals(args[i])) {
+        nio = true;
+        continue;
+      }
+      if (i + 1 == args.length) {
+        printUsage();
+      }
+      if ("-connections".equals(args[i])) {
+        numConnections = Integer.parseInt(args[++i]);
+      } else if ("-readers".equals(args[i])) {
+        numReaders = Integer.parseInt(args[++i]);
+      } else if ("-reads".equals(args[i])) {
+        reads = Integer.parseInt(args[++i]);
+      } else if ("-readSize".equals(args[i])) {
+        readSize = Integer.parseInt(args[++i]);
+      } else if ("-fileSize".equals(args[i])) {
+        fileSize = Long.parseLong(args[++i]);
+      } else if ("-selectors".equals(args[i])) {
+        numSelectors = Integer.parseInt(args[++i]);
+      } else {
+        printUsage();
+      }
+    }
+
+    Configuration conf = new Configuration();
+    conf.setBoolean("dfs.datanode.xceiver.nio", nio);
+    conf.setInt("dfs.datanode.xceiver.selectors", numSelectors);
+    // the thread-per-connection server needs a thread for each connection
+    conf.setInt("dfs.datanode.max.xcievers", numConnections + numReaders * 2);
+    conf.setLong("dfs.block.size", fileSize);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    List<Socket> connections = new ArrayList<Socket>(numConnections);
+    try {
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      DataNode dn = cluster.getDataNodes().get(0);
+      DFSTestUtil.createFile(fs, FILE, fileSize, (short)1, 0L);
+
+      int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < numConnections; i++) {
+        Socket s = new Socket();
+        NetUtils.connect(s, dn.getSelfAddr(), 60000);
+        connections.add(s);
+      }
+      long connectTime = System.currentTimeMillis() - start;
+      Thread.sleep(1000);
+      LOG.info("--- " + numConnections + " connections ---");
+      LOG.info("NIO server: " + nio);
+      LOG.info("Connect time (msec): " + connectTime);
+      LOG.info("Xceiver count: " + dn.getXceiverCount());
+      LOG.info("Additional JVM threads: "
+          + (ManagementFactory.getThreadMXBean().getThreadCount()
+             - threadsBefore));
+
+      final AtomicLong bytesRead = new AtomicLong();
+      final long maxOffset = fileSize - readSize;
+      final int size = readSize;
+      final int readsPerReader = reads;
+      final CountDownLatch opened = new CountDownLatch(numReaders);
+      final CountDownLatch go = new CountDownLatch(1);
+      Thread[] readers = new Thread[numReaders];
+      for (int i = 0; i < numReaders; i++) {
+        final long seed = i;
+        // small stacks, so that ten thousands of readers fit
+        readers[i] = new Thread(null, new Runnable() {
+          public void run() {
+            Random r = new Random(seed);
+            byte[] buf = new byte[size];
+            try {
+              FSDataInputStream in = fs.open(FILE);
+              opened.countDown();
+              try {
+                go.await();
+                for (int j = 0; j < readsPerReader; j++) {
+                  long offset = (long)(r.nextDouble() * maxOffset);
+                  in.readFully(offset, buf);
+                  bytesRead.addAndGet(buf.length);
+                }
+              } finally {
+                in.close();
+              }
+            } catch (IOException e) {
+              opened.countDown();
+              LOG.error("Reader failed", e);
+            } catch (InterruptedException e) {
+              LOG.error("Reader interrupted", e);
+            }
+          }
+        }, "reader " + i, 256 * 1024);
+      }
+      for (Thread t : readers) {
+        t.start();
+      }
+      opened.await();
+      ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+      start = System.currentTimeMillis();
+      go.countDown();
+      for (Thread t : readers) {
+        t.join();
+      }
+      long readTime = System.currentTimeMillis() - start;
+      LOG.info("--- " + numReaders + " readers ---");
+      LOG.info("Peak additional JVM threads, not counting readers: "
+          + (ManagementFactory.getThreadMXBean().getPeakThreadCount()
+             - threadsBefore - numReaders));
+      LOG.info("Reads: " + (long)numReaders * readsPerReader
+               + " of " + readSize + " bytes");
+      LOG.info("Time (msec): " + readTime);
+      LOG.info("Reads per sec: " + (readTime == 0 ? 0 :
+               (long)numReaders * readsPerReader * 1000 / readTime));
+      LOG.info("Throughput (MB/sec): " + (readTime == 0 ? 0 :
+               bytesRead.get() * 1000 / readTime / (1024 * 1024)));
+    } finally {
+      for (Socket s : connections) {
+        try {
+          s.close();
+        } catch (IOException ignored) {
+        }
+      }
+      cluster.shutdown();
+    }
+  }
+}
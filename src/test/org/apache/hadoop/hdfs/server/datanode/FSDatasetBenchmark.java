@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.FSDatasetInterface.BlockWriteStreams;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Measures how lookups of finalized blocks in {@link FSDataset} scale
+ * with concurrent block writers.
+ * 
+ * The benchmark uses the data-set of a single {@link MiniDFSCluster}
+ * data-node. It creates a number of finalized blocks and then runs
+ * reader threads, which look up random blocks the way a block read
+ * does (visible length, block file and an input stream), next to
+ * writer threads creating and finalizing new blocks, for a fixed time.
+ * <pre>
+ * FSDatasetBenchmark -blocks 10000 -readers 16 -writers 4 -seconds 20
+ * </pre>
+ */
+public class FSDatasetBenchmark {
+  private static final Log LOG = LogFactory.getLog(FSDatasetBenchmark.class);
+
+  private static final long GENSTAMP = 1001;
+  private static final byte[] DATA = new byte[4096];
+
+  private final FSDatasetInterface data;
+  private final AtomicLong nextBlockId = new AtomicLong(1);
+  private final AtomicBoolean stop = new AtomicBoolean(false);
+  private final AtomicLong reads = new AtomicLong();
+  private final AtomicLong writes = new AtomicLong();
+  private volatile long numFinalized = 0;
+
+  FSDatasetBenchmark(FSDatasetInterface data) {
+    this.data = data;
+  }
+
+  /** Create and finalize a new block. */
+  private void writeBlock() throws IOException {
+    Block b = new Block(nextBlockId.getAndIncrement(), 0, GENSTAMP);
+    BlockWriteStreams streams = data.writeToBlock(b, false, false);
+    try {
+      streams.dataOut.write(DATA);
+    } finally {
+      IOUtils.closeStream(streams.dataOut);
+      IOUtils.closeStream(streams.checksumOut);
+    }
+    b.setNumBytes(DATA.length);
+    data.finalizeBlock(b);
+  }
+
+  /** Look up a block the way a read of the block does. */
+  private void readBlock(Random r) throws IOException {
+    long id = 1 + (long)(r.nextDouble() * numFinalized);
+    Block b = new Block(id, 0, GENSTAMP);
+    if (data.getVisibleLength(b) != DATA.length) {
+      throw new IOException("Unexpected length of " + b);
+    }
+    data.getBlockFile(b);
+    data.getBlockInputStream(b, 0).close();
+  }
+
+  void run(int numBlocks, int numReaders, int numWriters, int seconds)
+      throws Exception {
+    for (int i = 0; i < numBlocks; i++) {
+      writeBlock();
+    }
+    numFinalized = numBlocks;
+
+    Thread[] threads = new Thread[numReaders + numWriters];
+    for (int i = 0; i < threads.length; i++) {
+      final boolean reader = i < numReaders;
+      final long seed = i;
+      threads[i] = new Thread() {
+        public void run() {
+          Random r = new Random(seed);
+          try {
+            while (!stop.get()) {
+              if (reader) {
+                readBlock(r);
+                reads.incrementAndGet();
+              } else {
+                writeBlock();
+                writes.incrementAndGet();
+              }
+            }
+          } catch (IOException e) {
+            LOG.error((reader ? "Reader" : "Writer") + " failed", e);
+          }
+        }
+      };
+    }
+    long start = System.currentTimeMillis();
+    for (Thread t : threads) {
+      t.start();
+    }
+    Thread.sleep(seconds * 1000L);
+    stop.set(true);
+    for (Thread t : threads) {
+      t.join();
+    }
+    long time = System.currentTimeMillis() - start;
+
+    LOG.info("--- " + numReaders + " readers, " + numWriters + " writers ---");
+    LOG.info("Initial blocks: " + numBlocks);
+    LOG.info("Time (msec): " + time);
+    LOG.info("Block lookups per sec: " + reads.get() * 1000 / time);
+    LOG.info("Blocks written per sec: " + writes.get() * 1000 / time);
+  }
+
+  static void printUsage() {
+    System.err.println("Usage: FSDatasetBenchmark"
+        + " [-blocks B] [-readers R] [-writers W] [-seconds S]");
+    System.exit(-1);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int numBlocks = 10000;
+    int numReaders = 16;
+    int numWriters = 4;
+    int seconds = 20;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        printUsage();
+      }
+      if ("-blocks".equals(args[i])) {
+        numBlocks = Integer.parseInt(args[++i]);
+      } else if ("-readers".equals(args[i])) {
+        numReaders = Integer.parseInt(args[++i]);
+      } else if ("-writers".equals(args[i])) {
+        numWriters = Integer.parseInt(args[++i]);
+      } else if ("-seconds".equals(args[i])) {
+        seconds = Integer.parseInt(args[++i]);
+      } else {
+        printUsage();
+      }
+    }
+
+    Configuration conf = new Configuration();
+    // keep the block scanner and block reports out of the measurement
+    conf.setInt("dfs.datanode.scan.period.hours", -1);
+    conf.setLong("dfs.blockreport.intervalMsec", 3600 * 1000L);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      new FSDatasetBenchmark(dn.getFSDataset())
+        .run(numBlocks, numReaders, numWriters, seconds);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
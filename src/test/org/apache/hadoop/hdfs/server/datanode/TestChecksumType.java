@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.util.DataChecksum;
+
+/**
+ * Tests writing, reading and appending files with the CRC32C checksum type.
+ */
+public class TestChecksumType extends TestCase {
+  static final int BLOCK_SIZE = 1024;
+
+  private MiniDFSCluster cluster;
+  private Configuration conf;
+
+  protected void setUp() throws Exception {
+    conf = new Configuration();
+    conf.setBoolean("dfs.support.append", true);
+    conf.setInt("io.bytes.per.checksum", 512);
+    cluster = new MiniDFSCluster(conf, 2, true, null);
+    cluster.waitActive();
+  }
+
+  protected void tearDown() throws Exception {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private FileSystem getFileSystem(String checksumType) throws IOException {
+    Configuration c = new Configuration(conf);
+    c.set("dfs.checksum.type", checksumType);
+    // the file system cache would hand out a client of the other type
+    c.setBoolean("fs.hdfs.impl.disable.cache", true);
+    return FileSystem.get(cluster.getFileSystem().getUri(), c);
+  }
+
+  private void write(FileSystem fs, Path p, byte[] data, boolean append)
+      throws IOException {
+    FSDataOutputStream out = append ? fs.append(p)
+        : fs.create(p, true, 4096, (short)2, (long)BLOCK_SIZE);
+    out.write(data);
+    out.close();
+  }
+
+  private void checkContents(FileSystem fs, Path p, byte[] expected)
+      throws IOException {
+    byte[] actual = new byte[expected.length];
+    FSDataInputStream in = fs.open(p);
+    in.readFully(0, actual);
+    assertEquals(-1, in.read(expected.length, new byte[1], 0, 1));
+    in.close();
+    assertTrue(Arrays.equals(expected, actual));
+  }
+
+  /** Checks the checksum type recorded in the meta files of the file. */
+  private void checkMetaFiles(Path p, int type) throws IOException {
+    for (LocatedBlock lb : cluster.getNameNode().getBlockLocations(
+             p.toString(), 0, Long.MAX_VALUE).getLocatedBlocks()) {
+      for (DataNode dn : cluster.getDataNodes()) {
+        FSDataset data = (FSDataset)dn.getFSDataset();
+        if (data.getStoredBlock(lb.getBlock().getBlockId()) == null) {
+          continue;
+        }
+        DataChecksum checksum = BlockMetadataHeader.readHeader(
+            data.getMetaFile(lb.getBlock())).getChecksum();
+        assertEquals(type, checksum.getChecksumType());
+      }
+    }
+  }
+
+  public void testCrc32c() throws Exception {
+    FileSystem crc32c = getFileSystem("CRC32C");
+    FileSystem crc32 = getFileSystem("CRC32");
+    try {
+      byte[] data = new byte[6000];
+      new Random().nextBytes(data);
+      Path p = new Path("/crc32c");
+      write(crc32c, p, Arrays.copyOf(data, 3000), false);
+      checkContents(crc32, p, Arrays.copyOf(data, 3000));
+      checkMetaFiles(p, DataChecksum.CHECKSUM_CRC32C);
+
+      // the file checksums cover the checksum values, so they differ
+      Path q = new Path("/crc32");
+      write(crc32, q, Arrays.copyOf(data, 3000), false);
+      checkMetaFiles(q, DataChecksum.CHECKSUM_CRC32);
+      assertFalse(crc32.getFileChecksum(q).equals(crc32.getFileChecksum(p)));
+
+      // appending continues the partial chunk of the last block
+      write(crc32c, p, Arrays.copyOfRange(data, 3000, 6000), true);
+      checkContents(crc32c, p, data);
+      checkMetaFiles(p, DataChecksum.CHECKSUM_CRC32C);
+
+      // a writer of the other type is refused by the datanodes
+      try {
+        write(crc32, p, new byte[100], true);
+        fail("appended CRC32 data to a CRC32C block");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      crc32c.close();
+      crc32.close();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.net.NetUtils;
+
+/**
+ * Test the data transfer server with dfs.datanode.xceiver.nio set.
+ */
+public class TestDataXceiverServer extends TestCase {
+  private static final int NUM_IDLE = 50;
+
+  /**
+   * Idle connections do not occupy xceivers, and writes through a
+   * pipeline as well as reads keep working while they are open.
+   */
+  public void testIdleConnections() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean("dfs.datanode.xceiver.nio", true);
+    conf.setInt("dfs.datanode.xceiver.selectors", 2);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 2, true, null);
+    List<Socket> idle = new ArrayList<Socket>();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      DataNode dn = cluster.getDataNodes().get(0);
+
+      for (int i = 0; i < NUM_IDLE; i++) {
+        Socket s = new Socket();
+        NetUtils.connect(s, dn.getSelfAddr(), 10000);
+        idle.add(s);
+      }
+      Thread.sleep(500);
+      assertTrue("xceiverCount " + dn.getXceiverCount(),
+                 dn.getXceiverCount() < NUM_IDLE);
+
+      Path file = new Path("/test/file");
+      byte[] data = new byte[3 * 1024 * 1024];
+      new Random(0xdada).nextBytes(data);
+      FSDataOutputStream out = fs.create(file, (short)2);
+      out.write(data);
+      out.close();
+      DFSTestUtil.waitReplication(fs, file, (short)2);
+
+      byte[] read = new byte[data.length];
+      FSDataInputStream in = fs.open(file);
+      in.readFully(0, read);
+      in.close();
+      assertTrue(Arrays.equals(data, read));
+    } finally {
+      for (Socket s : idle) {
+        try {
+          s.close();
+        } catch (IOException ignored) {
+        }
+      }
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Connections that send no request within dfs.socket.timeout are closed
+   * by the data-node.
+   */
+  public void testIdleTimeout() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean("dfs.datanode.xceiver.nio", true);
+    conf.setInt("dfs.socket.timeout", 2000);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    List<Socket> idle = new ArrayList<Socket>();
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      for (int i = 0; i < NUM_IDLE; i++) {
+        Socket s = new Socket();
+        NetUtils.connect(s, dn.getSelfAddr(), 10000);
+        s.setSoTimeout(20000);
+        idle.add(s);
+      }
+      long start = System.currentTimeMillis();
+      for (Socket s : idle) {
+        assertEquals(-1, s.getInputStream().read());
+      }
+      assertTrue(System.currentTimeMillis() - start >= 1000);
+    } finally {
+      for (Socket s : idle) {
+        try {
+          s.close();
+        } catch (IOException ignored) {
+        }
+      }
+      cluster.shutdown();
+    }
+  }
+}
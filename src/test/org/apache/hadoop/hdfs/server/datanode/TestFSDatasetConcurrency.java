@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.datanode.FSDatasetInterface.BlockWriteStreams;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Test that lookups in {@link FSDataset}, which take no lock, see every
+ * block while other threads create and finalize blocks, and that a block
+ * can only be created once.
+ */
+public class TestFSDatasetConcurrency extends TestCase {
+  private static final long GENSTAMP = 1001;
+  private static final byte[] DATA = new byte[1024];
+
+  private MiniDFSCluster cluster;
+  private FSDatasetInterface data;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    Configuration conf = new Configuration();
+    conf.setInt("dfs.datanode.scan.period.hours", -1);
+    cluster = new MiniDFSCluster(conf, 1, true, null);
+    cluster.waitActive();
+    data = cluster.getDataNodes().get(0).getFSDataset();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    cluster.shutdown();
+    super.tearDown();
+  }
+
+  private void writeBlock(Block b) throws IOException {
+    BlockWriteStreams streams = data.writeToBlock(b, false, false);
+    try {
+      streams.dataOut.write(DATA);
+    } finally {
+      IOUtils.closeStream(streams.dataOut);
+      IOUtils.closeStream(streams.checksumOut);
+    }
+  }
+
+  /**
+   * Look up the most recently started blocks while writers finalize them,
+   * so that lookups keep hitting blocks whose files are being moved.
+   */
+  public void testLookupsDuringFinalize() throws Exception {
+    final int numWriters = 2;
+    final int numBlocks = 500;
+    // writer i writes blocks i + 1, i + 1 + numWriters, ...
+    final AtomicLongArray lastStarted = new AtomicLongArray(numWriters);
+    final AtomicInteger writersDone = new AtomicInteger(0);
+    final Throwable[] error = new Throwable[1];
+
+    Thread[] threads = new Thread[numWriters + 1];
+    for (int i = 0; i < numWriters; i++) {
+      final int writer = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < numBlocks; j++) {
+              long id = writer + 1 + j * numWriters;
+              Block b = new Block(id, 0, GENSTAMP);
+              writeBlock(b);
+              lastStarted.set(writer, id);
+              b.setNumBytes(DATA.length);
+              data.finalizeBlock(b);
+            }
+          } catch (Throwable e) {
+            synchronized (error) {
+              error[0] = e;
+            }
+          } finally {
+            writersDone.incrementAndGet();
+          }
+        }
+      };
+    }
+    threads[numWriters] = new Thread() {
+      public void run() {
+        try {
+          while (writersDone.get() < numWriters) {
+            for (int writer = 0; writer < numWriters; writer++) {
+              long last = lastStarted.get(writer);
+              for (long id = last; id > 0 && id > last - 4 * numWriters;
+                   id -= numWriters) {
+                Block stored = data.getStoredBlock(id);
+                assertNotNull("block " + id + " not found", stored);
+                assertEquals(GENSTAMP, stored.getGenerationStamp());
+              }
+            }
+          }
+        } catch (Throwable e) {
+          synchronized (error) {
+            error[0] = e;
+          }
+        }
+      }
+    };
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    synchronized (error) {
+      if (error[0] != null) {
+        throw new AssertionError(error[0]);
+      }
+    }
+
+    for (long id = 1; id <= numWriters * numBlocks; id++) {
+      Block b = new Block(id, DATA.length, GENSTAMP);
+      assertTrue(data.isValidBlock(b));
+      assertEquals(DATA.length, data.getLength(b));
+    }
+  }
+
+  /**
+   * Start each block from two threads at once: one of them must fail,
+   * and only one temporary file may be left.
+   */
+  public void testConcurrentCreate() throws Exception {
+    final int numBlocks = 200;
+    final AtomicInteger created = new AtomicInteger(0);
+    final AtomicInteger refused = new AtomicInteger(0);
+    final Throwable[] error = new Throwable[1];
+
+    for (int i = 0; i < numBlocks; i++) {
+      final Block b = new Block(10000 + i, 0, GENSTAMP);
+      Thread[] threads = new Thread[2];
+      for (int j = 0; j < threads.length; j++) {
+        threads[j] = new Thread() {
+          public void run() {
+            try {
+              writeBlock(b);
+              created.incrementAndGet();
+            } catch (BlockAlreadyExistsException e) {
+              refused.incrementAndGet();
+            } catch (Throwable e) {
+              synchronized (error) {
+                error[0] = e;
+              }
+            }
+          }
+        };
+      }
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+    }
+    synchronized (error) {
+      if (error[0] != null) {
+        throw new AssertionError(error[0]);
+      }
+    }
+    assertEquals(numBlocks, created.get());
+    assertEquals(numBlocks, refused.get());
+
+    int tmpFiles = 0;
+    for (int i = 1; i <= 2; i++) {
+      File bbw = new File(new File(cluster.getDataDirectory(), "data" + i),
+                          "blocksBeingWritten");
+      for (String name : bbw.list()) {
+        if (!name.endsWith(FSDataset.METADATA_EXTENSION)) {
+          tmpFiles++;
+        }
+      }
+    }
+    assertEquals(numBlocks, tmpFiles);
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.namenode.BlocksMap.BlockInfo;
+
+/**
+ * Measures the heap consumed per block by the name-node block index.
+ * 
+ * The benchmark fills a {@link BlocksMap} with the given number of blocks
+ * and reports the heap used per block, the time to insert the blocks
+ * and the time to look all of them up.
+ * For comparison the same blocks are then stored in a
+ * <tt>HashMap&lt;BlockInfo, BlockInfo&gt;</tt>, which is how the block
+ * index used to be kept.
+ * 
+ * The heap size should be set large enough for the requested number
+ * of blocks, e.g.
+ * <pre>
+ * java -Xmx4g ... BlocksMapBenchmark -blocks 10000000 -replication 3
+ * </pre>
+ * 
+ * @see NNThroughputBenchmark
+ */
+public class BlocksMapBenchmark {
+  private static final Log LOG = LogFactory.getLog(BlocksMapBenchmark.class);
+
+  private final int numBlocks;
+  private final short replication;
+  private final INodeFile inode;
+
+  BlocksMapBenchmark(int numBlocks, short replication) {
+    this.numBlocks = numBlocks;
+    this.replication = replication;
+    this.inode = new INodeFile(new PermissionStatus("bench", "bench",
+        FsPermission.getDefault()), 0, replication, 0L, 0L, 1L);
+  }
+
+  private static long usedMemory() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  private void report(String name, long memBefore, long memAfter,
+      long insertTime, long lookupTime) {
+    LOG.info("--- " + name + " ---");
+    LOG.info("# blocks: " + numBlocks);
+    LOG.info("Heap used (MB): " + (memAfter - memBefore) / (1024 * 1024));
+    LOG.info("Bytes per block: " + (double)(memAfter - memBefore) / numBlocks);
+    LOG.info("Insert time (msec): " + insertTime);
+    LOG.info("Lookup time (msec): " + lookupTime);
+  }
+
+  /** Fill a BlocksMap and measure it. */
+  void benchmarkBlocksMap(int capacity) {
+    long memBefore = usedMemory();
+    BlocksMap map = new BlocksMap(capacity);
+    long start = System.currentTimeMillis();
+    for (long id = 0; id < numBlocks; id++) {
+      map.addINode(new Block(id, 0, 0), inode);
+    }
+    long insertTime = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    Block key = new Block();
+    for (long id = 0; id < numBlocks; id++) {
+      key.set(id, 0, 0);
+      if (map.getStoredBlock(key) == null) {
+        throw new IllegalStateException("Block " + id + " is lost");
+      }
+    }
+    long lookupTime = System.currentTimeMillis() - start;
+    long memAfter = usedMemory();
+    report("BlocksMap (capacity=" + map.getCapacity() + ")",
+        memBefore, memAfter, insertTime, lookupTime);
+    if (map.size() != numBlocks) { // keep the map reachable
+      throw new IllegalStateException("Wrong map size " + map.size());
+    }
+  }
+
+  /** Fill a HashMap the way the block index used to be stored. */
+  void benchmarkHashMap() {
+    long memBefore = usedMemory();
+    Map<BlockInfo, BlockInfo> map = new HashMap<BlockInfo, BlockInfo>();
+    long start = System.currentTimeMillis();
+    for (long id = 0; id < numBlocks; id++) {
+      BlockInfo info = new BlockInfo(new Block(id, 0, 0), replication);
+      map.put(info, info);
+    }
+    long insertTime = System.currentTimeMillis() - start;
+    start = System.currentTimeMillis();
+    Block key = new Block();
+    for (long id = 0; id < numBlocks; id++) {
+      key.set(id, 0, 0);
+      if (map.get(key) == null) {
+        throw new IllegalStateException("Block " + id + " is lost");
+      }
+    }
+    long lookupTime = System.currentTimeMillis() - start;
+    long memAfter = usedMemory();
+    report("HashMap", memBefore, memAfter, insertTime, lookupTime);
+    if (map.size() != numBlocks) { // keep the map reachable
+      throw new IllegalStateException("Wrong map size " + map.size());
+    }
+  }
+
+  static void printUsage() {
+    System.err.println("Usage: BlocksMapBenchmark"
+        + " [-blocks N] [-replication R] [-capacity C]");
+    System.exit(-1);
+  }
+
+  public static void main(String[] args) {
+    int numBlocks = 1000000;
+    short replication = 3;
+    int capacity = -1;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        printUsage();
+      }
+      if ("-blocks".equals(args[i])) {
+        numBlocks = Integer.parseInt(args[++i]);
+      } else if ("-replication".equals(args[i])) {
+        replication = Short.parseShort(args[++i]);
+      } else if ("-capacity".equals(args[i])) {
+        capacity = Integer.parseInt(args[++i]);
+      } else {
+        printUsage();
+      }
+    }
+    if (capacity < 0) {
+      capacity = numBlocks;
+    }
+    BlocksMapBenchmark bench = new BlocksMapBenchmark(numBlocks, replication);
+    bench.benchmarkBlocksMap(capacity);
+    bench.benchmarkHashMap();
+  }
+}
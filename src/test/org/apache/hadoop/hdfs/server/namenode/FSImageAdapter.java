@@ -22,6 +22,8 @@ import static org.mockito.Mockito.spy;
 public class FSImageAdapter {
   public static FSEditLog injectEditLogSpy(FSNamesystem ns) {
     FSImage image = ns.getFSImage();
+    // the spy is a copy, so let it start a sync thread of its own
+    image.editLog.stopSyncThread();
     image.editLog = spy(image.editLog);
     return image.editLog;
   }
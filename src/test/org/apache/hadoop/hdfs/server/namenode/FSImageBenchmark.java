@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+
+/**
+ * Measures how fast the name-node saves and loads its image.
+ * 
+ * The benchmark builds a synthetic namespace of the given number of
+ * files, saves it with {@link FSImage#saveFSImage(File)} and then loads
+ * it back into a fresh name-system, first with a single thread and then
+ * with the requested number of threads, reporting inodes/sec for each.
+ * 
+ * The heap size should be set large enough for the namespace, e.g.
+ * <pre>
+ * java -Xmx8g ... FSImageBenchmark -files 10000000 -threads 8 -compress
+ * </pre>
+ * 
+ * @see NNThroughputBenchmark
+ */
+public class FSImageBenchmark {
+  private static final Log LOG = LogFactory.getLog(FSImageBenchmark.class);
+
+  private final int numFiles;
+  private final int filesPerDir;
+  private final int blocksPerFile;
+  private final File baseDir;
+
+  FSImageBenchmark(int numFiles, int filesPerDir, int blocksPerFile,
+                   File baseDir) {
+    this.numFiles = numFiles;
+    this.filesPerDir = filesPerDir;
+    this.blocksPerFile = blocksPerFile;
+    this.baseDir = baseDir;
+  }
+
+  private static Configuration getConf(int threads, boolean compress) {
+    Configuration conf = new Configuration();
+    conf.setInt(FSConstants.DFS_IMAGE_THREADS_KEY, threads);
+    conf.setBoolean(FSConstants.DFS_IMAGE_COMPRESS_KEY, compress);
+    return conf;
+  }
+
+  private static FSImage newImage(File dir) throws IOException {
+    FSImage image = new FSImage(dir);
+    image.layoutVersion = FSConstants.LAYOUT_VERSION;
+    image.namespaceID = 1;
+    return image;
+  }
+
+  /**
+   * Build the namespace: /dN/dM/fK with filesPerDir files per directory
+   * and at most 1000 directories per first level directory.
+   */
+  private long generate(FSNamesystem namesystem) {
+    FSDirectory fsDir = namesystem.dir;
+    PermissionStatus perm = new PermissionStatus("bench", "bench",
+        FsPermission.getDefault());
+    long blockId = 0;
+    int numDirs = (numFiles + filesPerDir - 1) / filesPerDir;
+    INodeDirectory top = null;
+    for (int d = 0; d < numDirs; d++) {
+      String topPath = "/d" + (d / 1000);
+      if (d % 1000 == 0) {
+        top = fsDir.addToParent(topPath, fsDir.rootDir, perm, null,
+                                (short)0, 0L, 0L, -1L, -1L, 0L);
+        top = (INodeDirectory)fsDir.rootDir.getNode(topPath);
+      }
+      String dirPath = topPath + "/d" + d;
+      fsDir.addToParent(dirPath, top, perm, null, (short)0, 0L, 0L,
+                        -1L, -1L, 0L);
+      INodeDirectory dir = (INodeDirectory)fsDir.rootDir.getNode(dirPath);
+      for (int f = 0; f < filesPerDir && d * filesPerDir + f < numFiles; f++) {
+        Block[] blocks = new Block[blocksPerFile];
+        for (int b = 0; b < blocksPerFile; b++) {
+          blocks[b] = new Block(blockId++, 1024, 1001);
+        }
+        fsDir.addToParent(dirPath + "/f" + f, dir, perm, blocks, (short)3,
+                          1L, 1L, -1L, -1L, 64L * 1024 * 1024);
+      }
+    }
+    fsDir.updateCountForINodeWithQuota();
+    return fsDir.rootDir.numItemsInTree();
+  }
+
+  void run(int threads, boolean compress) throws IOException {
+    File imageFile = new File(baseDir, "fsimage");
+    FileUtil.fullyDelete(baseDir);
+    if (!baseDir.mkdirs()) {
+      throw new IOException("Cannot create directory " + baseDir);
+    }
+
+    // build and save
+    Configuration conf = getConf(threads, compress);
+    FSImage image = newImage(new File(baseDir, "save"));
+    FSNamesystem namesystem = new FSNamesystem(image, conf);
+    long numINodes = generate(namesystem);
+    long start = System.currentTimeMillis();
+    image.saveFSImage(imageFile);
+    long saveTime = System.currentTimeMillis() - start;
+    namesystem = null;
+    image = null;
+    System.gc();
+
+    LOG.info("--- save ---");
+    LOG.info("# inodes: " + numINodes);
+    LOG.info("Compressed: " + compress);
+    LOG.info("Image size (bytes): " + imageFile.length());
+    report("save with " + threads + " thread(s)", numINodes, saveTime);
+
+    load(1, compress, imageFile, numINodes);
+    if (threads > 1) {
+      load(threads, compress, imageFile, numINodes);
+    }
+  }
+
+  private void load(int threads, boolean compress, File imageFile,
+                    long numINodes) throws IOException {
+    FSImage image = newImage(new File(baseDir, "load" + threads));
+    new FSNamesystem(image, getConf(threads, compress));
+    long start = System.currentTimeMillis();
+    image.loadFSImage(imageFile);
+    long loadTime = System.currentTimeMillis() - start;
+    report("load with " + threads + " thread(s)", numINodes, loadTime);
+    System.gc();
+  }
+
+  private static void report(String name, long numINodes, long time) {
+    LOG.info("--- " + name + " ---");
+    LOG.info("Time (msec): " + time);
+    LOG.info("Inodes per sec: " + (time == 0 ? 0 : numINodes * 1000 / time));
+  }
+
+  static void printUsage() {
+    System.err.println("Usage: FSImageBenchmark"
+        + " [-files N] [-filesPerDir F] [-blocksPerFile B] [-threads T]"
+        + " [-compress] [-dir D]");
+    System.exit(-1);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numFiles = 1000000;
+    int filesPerDir = 100;
+    int blocksPerFile = 1;
+    int threads = 4;
+    boolean compress = false;
+    File baseDir = new File(System.getProperty("test.build.data", "/tmp"),
+                            "FSImageBenchmark");
+    for (int i = 0; i < args.length; i++) {
+      if ("-compress".equals(args[i])) {
+        compress = true;
+        continue;
+      }
+      if (i + 1 == args.length) {
+        printUsage();
+      }
+      if ("-files".equals(args[i])) {
+        numFiles = Integer.parseInt(args[++i]);
+      } else if ("-filesPerDir".equals(args[i])) {
+        filesPerDir = Integer.parseInt(args[++i]);
+      } else if ("-blocksPerFile".equals(args[i])) {
+        blocksPerFile = Integer.parseInt(args[++i]);
+      } else if ("-threads".equals(args[i])) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("-dir".equals(args[i])) {
+        baseDir = new File(args[++i]);
+      } else {
+        printUsage();
+      }
+    }
+    new FSImageBenchmark(numFiles, filesPerDir, blocksPerFile, baseDir)
+      .run(threads, compress);
+  }
+}
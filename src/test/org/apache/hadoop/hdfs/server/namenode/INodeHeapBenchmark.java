@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+
+/**
+ * Measures the name-node heap used per inode.
+ * 
+ * The benchmark builds a namespace of map-reduce style output
+ * directories, each holding a _logs directory and files named
+ * part-00000, part-00001, ..., and reports the growth of the used heap
+ * divided by the number of inodes and blocks.
+ * Run it with a fixed heap size to get
+ * stable numbers, e.g.
+ * <pre>
+ * java -Xms4g -Xmx4g ... INodeHeapBenchmark -files 2000000 -filesPerDir 200
+ * </pre>
+ */
+public class INodeHeapBenchmark {
+  private static final Log LOG = LogFactory.getLog(INodeHeapBenchmark.class);
+
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numFiles = 1000000;
+    int filesPerDir = 100;
+    int blocksPerFile = 1;
+    int threshold = FSConstants.DFS_NAME_CACHE_THRESHOLD_DEFAULT;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length) {
+        printUsage();
+      }
+      if ("-files".equals(args[i])) {
+        numFiles = Integer.parseInt(args[++i]);
+      } else if ("-filesPerDir".equals(args[i])) {
+        filesPerDir = Integer.parseInt(args[++i]);
+      } else if ("-blocksPerFile".equals(args[i])) {
+        blocksPerFile = Integer.parseInt(args[++i]);
+      } else if ("-threshold".equals(args[i])) {
+        threshold = Integer.parseInt(args[++i]);
+      } else {
+        printUsage();
+      }
+    }
+
+    File baseDir = new File(System.getProperty("test.build.data", "/tmp"),
+                            "INodeHeapBenchmark");
+    FileUtil.fullyDelete(baseDir);
+    Configuration conf = new Configuration();
+    conf.setInt(FSConstants.DFS_NAME_CACHE_THRESHOLD_KEY, threshold);
+    FSImage image = new FSImage(baseDir);
+    FSNamesystem namesystem = new FSNamesystem(image, conf);
+    FSDirectory fsDir = namesystem.dir;
+    PermissionStatus perm = new PermissionStatus("bench", "bench",
+        FsPermission.getDefault());
+
+    fsDir.unprotectedMkdir("/user", perm, 0L);
+    INodeDirectory home =
+      (INodeDirectory)fsDir.unprotectedMkdir("/user/bench", perm, 0L);
+    long before = usedHeap();
+    long blockId = 0;
+    int numDirs = (numFiles + filesPerDir - 1) / filesPerDir;
+    for (int d = 0; d < numDirs; d++) {
+      String dirPath = "/user/bench/job_" + d;
+      fsDir.addToParent(dirPath, home, perm, null, (short)0, 0L, 0L,
+                        -1L, -1L, 0L);
+      INodeDirectory dir = (INodeDirectory)fsDir.rootDir.getNode(dirPath);
+      fsDir.addToParent(dirPath + "/_logs", dir, perm, null, (short)0,
+                        0L, 0L, -1L, -1L, 0L);
+      for (int f = 0; f < filesPerDir && d * filesPerDir + f < numFiles; f++) {
+        Block[] blocks = new Block[blocksPerFile];
+        for (int b = 0; b < blocksPerFile; b++) {
+          blocks[b] = new Block(blockId++, 1024, 1001);
+        }
+        fsDir.addToParent(dirPath + "/" + String.format("part-%05d", f),
+                          dir, perm, blocks, (short)3, 1L, 1L, -1L, -1L,
+                          64L * 1024 * 1024);
+      }
+    }
+    long after = usedHeap();
+
+    fsDir.updateCountForINodeWithQuota();
+    long numINodes = fsDir.rootDir.numItemsInTree();
+    long used = after - before;
+    LOG.info("--- heap per inode ---");
+    LOG.info("# inodes: " + numINodes);
+    LOG.info("# blocks: " + blockId);
+    LOG.info("# shared names: " + fsDir.getNameCache().size());
+    LOG.info("Heap used (bytes): " + used);
+    LOG.info("Bytes per inode (including blocks): " + used / numINodes);
+    LOG.info("Bytes per object (inodes + blocks): "
+             + used / (numINodes + blockId));
+    namesystem.close();
+  }
+
+  static void printUsage() {
+    System.err.println("Usage: INodeHeapBenchmark"
+        + " [-files N] [-filesPerDir F] [-blocksPerFile B] [-threshold T]");
+    System.exit(-1);
+  }
+}
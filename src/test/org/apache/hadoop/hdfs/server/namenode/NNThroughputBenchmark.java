@@ -798,6 +798,92 @@ public class NNThroughputBenchmark {
     }
   }
 
+  /**
+   * Heartbeat statistics.
+   * 
+   * Registers a set of data-nodes and then measures how fast the name-node
+   * processes their heartbeats. Each thread sends heartbeats on behalf of
+   * its own subset of data-nodes, so threads never share a data-node.
+   */
+  class HeartbeatStats extends OperationStatsBase {
+    static final String OP_HEARTBEAT_NAME = "heartbeat";
+    static final String OP_HEARTBEAT_USAGE = 
+      "-op heartbeat [-threads T] [-datanodes D] [-heartbeats N]";
+
+    private int numDatanodes;
+    private TinyDatanode[] datanodes;
+
+    HeartbeatStats(List<String> args) {
+      super();
+      this.numDatanodes = 10;
+      // set heartbeat interval to 3 min, so that expiration were 40 min
+      config.setLong("dfs.heartbeat.interval", 3 * 60);
+      parseArguments(args);
+      // each thread needs at least one data-node of its own
+      this.numThreads = Math.min(numThreads, numDatanodes);
+    }
+
+    String getOpName() {
+      return OP_HEARTBEAT_NAME;
+    }
+
+    void parseArguments(List<String> args) {
+      boolean ignoreUnrelatedOptions = verifyOpArgument(args);
+      for (int i = 2; i < args.size(); i++) {       // parse command line
+        if(args.get(i).equals("-heartbeats")) {
+          if(i+1 == args.size())  printUsage();
+          numOpsRequired = Integer.parseInt(args.get(++i));
+        } else if(args.get(i).equals("-datanodes")) {
+          if(i+1 == args.size())  printUsage();
+          numDatanodes = Integer.parseInt(args.get(++i));
+        } else if(args.get(i).equals("-threads")) {
+          if(i+1 == args.size())  printUsage();
+          numThreads = Integer.parseInt(args.get(++i));
+        } else if(!ignoreUnrelatedOptions)
+          printUsage();
+      }
+    }
+
+    void generateInputs(int[] ignore) throws IOException {
+      datanodes = new TinyDatanode[numDatanodes];
+      for(int idx=0; idx < numDatanodes; idx++) {
+        datanodes[idx] = new TinyDatanode(idx, 0);
+        datanodes[idx].register();
+        datanodes[idx].sendHeartbeat();
+      }
+    }
+
+    /**
+     * Does not require the argument
+     */
+    String getExecutionArgument(int daemonId) {
+      return null;
+    }
+
+    /**
+     * Thread daemonId owns data-nodes daemonId, daemonId + T, daemonId + 2T, ...
+     * and cycles through them.
+     */
+    long executeOp(int daemonId, int inputIdx, String ignore) throws IOException {
+      assert daemonId < numThreads : "Wrong daemonId.";
+      int owned = (numDatanodes - daemonId + numThreads - 1) / numThreads;
+      TinyDatanode dn = datanodes[daemonId + (inputIdx % owned) * numThreads];
+      long start = System.currentTimeMillis();
+      dn.sendHeartbeat();
+      long end = System.currentTimeMillis();
+      return end-start;
+    }
+
+    void printResults() {
+      LOG.info("--- " + getOpName() + " inputs ---");
+      LOG.info("heartbeats = " + numOpsRequired);
+      LOG.info("datanodes = " + numDatanodes);
+      LOG.info("nrThreads = " + numThreads);
+      LOG.info("capacityTotal = " + nameNode.namesystem.getCapacityTotal());
+      printStats();
+    }
+  }   // end HeartbeatStats
+
   /**
    * Block report statistics.
    * 
@@ -1105,6 +1191,7 @@ public class NNThroughputBenchmark {
         + " | \n\t" + RenameFileStats.OP_RENAME_USAGE
         + " | \n\t" + BlockReportStats.OP_BLOCK_REPORT_USAGE
         + " | \n\t" + ReplicationStats.OP_REPLICATION_USAGE
+        + " | \n\t" + HeartbeatStats.OP_HEARTBEAT_USAGE
         + " | \n\t" + CleanAllStats.OP_CLEAN_USAGE
     );
     System.exit(-1);
@@ -1150,6 +1237,10 @@ public class NNThroughputBenchmark {
         opStat = bench.new ReplicationStats(args);
         ops.add(opStat);
       }
+      if(runAll || HeartbeatStats.OP_HEARTBEAT_NAME.equals(type)) {
+        opStat = bench.new HeartbeatStats(args);
+        ops.add(opStat);
+      }
       if(runAll || CleanAllStats.OP_CLEAN_NAME.equals(type)) {
         opStat = bench.new CleanAllStats(args);
         ops.add(opStat);
@@ -19,15 +19,20 @@ package org.apache.hadoop.hdfs.server.namenode;
 
 import junit.framework.TestCase;
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.*;
 
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.io.ArrayWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.UTF8;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLog.EditLogFileInputStream;
@@ -156,4 +161,275 @@ public class TestEditLog extends TestCase {
 
     }
   }
+
+  /**
+   * Tests the bucketing of the per-stream sync latency histogram.
+   */
+  public void testSyncLatencyHistogram() throws IOException {
+    assertEquals(0, EditLogOutputStream.getLatencyBucket(0));
+    assertEquals(1, EditLogOutputStream.getLatencyBucket(1));
+    assertEquals(2, EditLogOutputStream.getLatencyBucket(2));
+    assertEquals(2, EditLogOutputStream.getLatencyBucket(3));
+    assertEquals(3, EditLogOutputStream.getLatencyBucket(4));
+    assertEquals(EditLogOutputStream.NUM_LATENCY_BUCKETS - 1,
+                 EditLogOutputStream.getLatencyBucket(Long.MAX_VALUE));
+
+    EditLogOutputStream eStream = new EditLogOutputStream() {
+      String getName() { return "test"; }
+      public void write(int b) {}
+      void write(byte op, Writable ... writables) {}
+      void create() {}
+      public void close() {}
+      void setReadyToFlush() {}
+      protected void flushAndSync() {}
+      long length() { return 0; }
+    };
+    for (int i = 0; i < 5; i++) {
+      eStream.setReadyToFlush();
+      eStream.flush();
+    }
+    long total = 0;
+    for (long count : eStream.getSyncLatencyHistogram()) {
+      total += count;
+    }
+    assertEquals(eStream.getNumSync(), total);
+    assertTrue(eStream.getSyncLatencyHistogramString().startsWith("[0,1):"));
+  }
+
+  /**
+   * An edit stream that records the ids of the edits written to it and
+   * which of them have been synced, taking a while for each sync.
+   */
+  static class RecordingOutputStream extends EditLogOutputStream {
+    final ArrayList<Long> written = new ArrayList<Long>();
+    final ArrayList<Long> durable = new ArrayList<Long>();
+    private int ready = 0;
+
+    RecordingOutputStream() throws IOException {
+    }
+
+    String getName() { return "recording"; }
+    public void write(int b) {}
+    synchronized void write(byte op, Writable ... writables) {
+      written.add(((LongWritable)writables[0]).get());
+    }
+    void create() {}
+    public void close() {}
+    synchronized void setReadyToFlush() { ready = written.size(); }
+    protected void flushAndSync() throws IOException {
+      try {
+        Thread.sleep(5);
+      } catch (InterruptedException ie) {
+        throw new InterruptedIOException();
+      }
+      synchronized (this) {
+        durable.addAll(written.subList(durable.size(), ready));
+      }
+    }
+    long length() { return 0; }
+
+    synchronized boolean isDurable(long id) { return durable.contains(id); }
+  }
+
+  static FSEditLog newEditLog(EditLogOutputStream eStream) {
+    FSEditLog editLog = new FSEditLog(null);
+    ArrayList<EditLogOutputStream> streams =
+      new ArrayList<EditLogOutputStream>();
+    streams.add(eStream);
+    editLog.setEditStreams(streams);
+    return editLog;
+  }
+
+  /**
+   * Test that concurrent logSync() calls are batched into fewer syncs,
+   * that none returns before its edit is durable, and that edits become
+   * durable in the order they were logged.
+   */
+  public void testConcurrentLogSync() throws Exception {
+    final RecordingOutputStream eStream = new RecordingOutputStream();
+    final FSEditLog editLog = newEditLog(eStream);
+    final int numCallers = 20;
+    final int numEdits = 50;
+    final Throwable[] error = new Throwable[1];
+
+    Thread[] callers = new Thread[numCallers];
+    for (int i = 0; i < numCallers; i++) {
+      final long first = i * numEdits;
+      callers[i] = new Thread() {
+        public void run() {
+          try {
+            for (long id = first; id < first + numEdits; id++) {
+              editLog.logEdit((byte)3, new LongWritable(id));
+              editLog.logSync();
+              assertTrue("edit " + id + " is not durable",
+                         eStream.isDurable(id));
+            }
+          } catch (Throwable e) {
+            synchronized (error) {
+              error[0] = e;
+            }
+          }
+        }
+      };
+    }
+    for (Thread caller : callers) {
+      caller.start();
+    }
+    for (Thread caller : callers) {
+      caller.join();
+    }
+    synchronized (error) {
+      if (error[0] != null) {
+        throw new AssertionError(error[0]);
+      }
+    }
+
+    Thread syncThread = editLog.getSyncThread();
+    assertNotNull(syncThread);
+    editLog.close();
+    assertFalse(syncThread.isAlive());
+    assertNull(editLog.getSyncThread());
+
+    assertEquals(numCallers * numEdits, eStream.written.size());
+    assertEquals(eStream.written, eStream.durable);
+    assertTrue("syncs: " + eStream.getNumSync(),
+               eStream.getNumSync() < numCallers * numEdits);
+  }
+
+  /**
+   * Test that the sync thread of an edit log that is not closed exits once
+   * it has been idle for a while, and that the next sync starts a new one.
+   */
+  public void testSyncThreadIdleExit() throws Exception {
+    RecordingOutputStream eStream = new RecordingOutputStream();
+    FSEditLog editLog = newEditLog(eStream);
+    editLog.syncThreadIdleTimeout = 100;
+
+    editLog.logEdit((byte)3, new LongWritable(0));
+    editLog.logSync();
+    Thread syncThread = editLog.getSyncThread();
+    assertNotNull(syncThread);
+    syncThread.join(10000);
+    assertFalse(syncThread.isAlive());
+    assertNull(editLog.getSyncThread());
+
+    editLog.logEdit((byte)3, new LongWritable(1));
+    editLog.logSync();
+    assertTrue(eStream.isDurable(1));
+    syncThread = editLog.getSyncThread();
+    assertNotNull(syncThread);
+    editLog.close();
+    assertFalse(syncThread.isAlive());
+  }
+
+  /**
+   * Test that a thread deferring its syncs does not wait for them, and
+   * that the callback of a deferred sync runs once its edits are durable.
+   */
+  public void testDeferredSync() throws Exception {
+    final RecordingOutputStream eStream = new RecordingOutputStream();
+    FSEditLog editLog = newEditLog(eStream);
+
+    editLog.deferSyncs();
+    assertEquals(-1, editLog.endDeferSyncs());
+
+    editLog.deferSyncs();
+    editLog.logEdit((byte)3, new LongWritable(0));
+    editLog.logSync();
+    assertFalse(eStream.isDurable(0));
+    assertNull(editLog.getSyncThread());
+    long txid = editLog.endDeferSyncs();
+    assertTrue(txid >= 0);
+
+    final CountDownLatch synced = new CountDownLatch(1);
+    final boolean[] durable = new boolean[1];
+    editLog.logSyncLater(txid, new Runnable() {
+      public void run() {
+        durable[0] = eStream.isDurable(0);
+        synced.countDown();
+      }
+    });
+    assertTrue(synced.await(10, TimeUnit.SECONDS));
+    assertTrue(durable[0]);
+
+    // the callback of a durable edit runs right away
+    final boolean[] ran = new boolean[1];
+    editLog.logSyncLater(txid, new Runnable() {
+      public void run() {
+        ran[0] = true;
+      }
+    });
+    assertTrue(ran[0]);
+    editLog.close();
+  }
+
+  /**
+   * Test that the name-node answers calls, including failing ones, with
+   * dfs.namenode.edits.sync.deferred set, and that their edits are durable.
+   */
+  public void testDeferredSyncNameNode() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(NameNode.DEFERRED_SYNC_KEY, true);
+    conf.setInt("dfs.namenode.handler.count", 2);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 0, true, null);
+    final int numThreads = 10;
+    final int numDirs = 20;
+    try {
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      final Throwable[] error = new Throwable[1];
+      Thread[] threads = new Thread[numThreads];
+      for (int i = 0; i < numThreads; i++) {
+        final int thread = i;
+        threads[i] = new Thread() {
+          public void run() {
+            try {
+              for (int j = 0; j < numDirs; j++) {
+                assertTrue(fs.mkdirs(new Path("/deferred/" + thread + "/" + j)));
+              }
+            } catch (Throwable e) {
+              synchronized (error) {
+                error[0] = e;
+              }
+            }
+          }
+        };
+      }
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      synchronized (error) {
+        if (error[0] != null) {
+          throw new AssertionError(error[0]);
+        }
+      }
+
+      fs.create(new Path("/deferred/file"), (short)1).close();
+      try {
+        fs.mkdirs(new Path("/deferred/file/dir"));
+        fail("created a directory under a file");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      cluster.shutdown();
+    }
+
+    cluster = new MiniDFSCluster(conf, 0, false, null);
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < numThreads; i++) {
+        for (int j = 0; j < numDirs; j++) {
+          assertTrue(fs.isDirectory(new Path("/deferred/" + i + "/" + j)));
+        }
+      }
+      assertTrue(fs.isFile(new Path("/deferred/file")));
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
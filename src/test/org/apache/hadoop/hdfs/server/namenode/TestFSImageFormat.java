@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.FSConstants;
+import org.apache.hadoop.hdfs.protocol.FSConstants.SafeModeAction;
+
+/**
+ * Tests saving and loading the namespace in the sectioned image format.
+ */
+public class TestFSImageFormat extends TestCase {
+
+  public void testUncompressed() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(FSConstants.DFS_IMAGE_COMPRESS_KEY, false);
+    checkSaveAndLoad(conf);
+  }
+
+  public void testCompressed() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(FSConstants.DFS_IMAGE_COMPRESS_KEY, true);
+    checkSaveAndLoad(conf);
+  }
+
+  /**
+   * Build a namespace, save it with tiny sections so that directories are
+   * split across sections, restart the name-node and compare.
+   */
+  private void checkSaveAndLoad(Configuration conf) throws IOException {
+    conf.setInt(FSConstants.DFS_IMAGE_SECTION_SIZE_KEY, 7);
+    conf.setInt(FSConstants.DFS_IMAGE_THREADS_KEY, 3);
+    MiniDFSCluster cluster = new MiniDFSCluster(conf, 1, true, null);
+    try {
+      cluster.waitActive();
+      DistributedFileSystem fs = (DistributedFileSystem)cluster.getFileSystem();
+      for (int i = 0; i < 5; i++) {
+        for (int j = 0; j < 4; j++) {
+          DFSTestUtil.createFile(fs, new Path("/dir" + i + "/sub" + j + "/f"),
+                                 1024, (short)1, 0L);
+        }
+      }
+      for (int i = 0; i < 30; i++) {
+        DFSTestUtil.createFile(fs, new Path("/big/file" + i), 10, (short)1, 0L);
+      }
+      fs.mkdirs(new Path("/empty"));
+      fs.mkdirs(new Path("/quota"));
+      fs.setQuota(new Path("/quota"), 100, 1024L * 1024 * 1024);
+      FSDataOutputStream open = fs.create(new Path("/quota/open"));
+      open.write(new byte[10]);
+      open.sync();
+
+      List<String> before = listTree(fs, new Path("/"));
+      long numFiles = cluster.getNameNode().getNamesystem().getFilesTotal();
+
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      cluster.getNameNode().saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      cluster.shutdown();
+      cluster = new MiniDFSCluster(conf, 1, false, null);
+      cluster.waitActive();
+      fs = (DistributedFileSystem)cluster.getFileSystem();
+
+      assertEquals(before, listTree(fs, new Path("/")));
+      assertEquals(numFiles,
+                   cluster.getNameNode().getNamesystem().getFilesTotal());
+      assertEquals(100, fs.getContentSummary(new Path("/quota")).getQuota());
+      assertEquals(1, cluster.getNameNode().getNamesystem()
+                           .leaseManager.countPath());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * List the tree under root. Directory modification times are left out
+   * since loading an image moves them forward to their newest child.
+   */
+  private static List<String> listTree(FileSystem fs, Path root)
+      throws IOException {
+    List<String> result = new ArrayList<String>();
+    for (FileStatus stat : fs.listStatus(root)) {
+      result.add(stat.getPath().toUri().getPath() + " " + stat.isDir() + " "
+          + stat.getReplication() + " "
+          + (stat.isDir() ? 0 : stat.getModificationTime()) + " "
+          + stat.getPermission() + " " + stat.getOwner());
+      if (stat.isDir()) {
+        result.addAll(listTree(fs, stat.getPath()));
+      }
+    }
+    return result;
+  }
+}
@@ -1,15 +1,21 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.util.ArrayList;
+import java.util.Random;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeProtocol;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
 
 import junit.framework.TestCase;
 
@@ -85,4 +91,114 @@ public class TestHeartbeatHandling extends TestCase {
       cluster.shutdown();
     }
   }
+
+  /**
+   * Test that the cluster totals kept by the namesystem add up to the usage
+   * last reported by each datanode when heartbeats arrive concurrently, and
+   * that readers never see the totals halfway through a heartbeat.
+   */
+  public void testConcurrentHeartbeatStats() throws Exception {
+    final Configuration conf = new Configuration();
+    final MiniDFSCluster cluster = new MiniDFSCluster(conf, 0, true, null);
+    try {
+      cluster.waitActive();
+      final NameNode nameNode = cluster.getNameNode();
+      final FSNamesystem namesystem = nameNode.getNamesystem();
+      final ClientProtocol client = DFSClient.createNamenode(conf);
+      final int NUM_NODES = 20;
+      final int NUM_THREADS = 4;
+      final int NUM_HEARTBEATS = 2000;
+      final long CAPACITY = 1L << 40;
+
+      final DatanodeRegistration[] nodes = new DatanodeRegistration[NUM_NODES];
+      NamespaceInfo nsInfo = nameNode.versionRequest();
+      for (int i = 0; i < NUM_NODES; i++) {
+        DatanodeRegistration reg =
+          new DatanodeRegistration("127.0.0.1:" + (10000 + i));
+        reg.setStorageInfo(new DataStorage(nsInfo, ""));
+        DataNode.setNewStorageID(reg);
+        nodes[i] = nameNode.register(reg);
+      }
+
+      // Each thread sends the heartbeats of its own nodes, reporting a
+      // remaining space of exactly the capacity less the used space.
+      final long[] lastUsed = new long[NUM_NODES];
+      final int[] lastLoad = new int[NUM_NODES];
+      final Throwable[] error = new Throwable[1];
+      Thread[] senders = new Thread[NUM_THREADS];
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final int first = t;
+        senders[t] = new Thread() {
+          public void run() {
+            Random r = new Random(first);
+            try {
+              for (int i = 0; i < NUM_HEARTBEATS; i++) {
+                int n = first + NUM_THREADS * r.nextInt(NUM_NODES / NUM_THREADS);
+                long used = (long)(r.nextDouble() * CAPACITY);
+                int load = r.nextInt(100);
+                namesystem.handleHeartbeat(
+                    nodes[n], CAPACITY, used, CAPACITY - used, load, 0);
+                lastUsed[n] = used;
+                lastLoad[n] = load;
+              }
+            } catch (Throwable e) {
+              synchronized (error) {
+                error[0] = e;
+              }
+            }
+          }
+        };
+      }
+      Thread reader = new Thread() {
+        public void run() {
+          try {
+            while (!isInterrupted()) {
+              long[] stats = client.getStats();
+              assertEquals(NUM_NODES * CAPACITY, stats[0]);
+              assertEquals(stats[0], stats[1] + stats[2]);
+              assertEquals(0L, namesystem.getCapacityUsedNonDFS());
+              Thread.yield();
+            }
+          } catch (Throwable e) {
+            synchronized (error) {
+              error[0] = e;
+            }
+          }
+        }
+      };
+
+      // Bring every node to its full capacity before reading the totals.
+      for (int i = 0; i < NUM_NODES; i++) {
+        namesystem.handleHeartbeat(nodes[i], CAPACITY, 0, CAPACITY, 0, 0);
+      }
+      reader.start();
+      for (Thread sender : senders) {
+        sender.start();
+      }
+      for (Thread sender : senders) {
+        sender.join();
+      }
+      reader.interrupt();
+      reader.join();
+      synchronized (error) {
+        if (error[0] != null) {
+          throw new AssertionError(error[0]);
+        }
+      }
+
+      long used = 0;
+      int load = 0;
+      for (int i = 0; i < NUM_NODES; i++) {
+        used += lastUsed[i];
+        load += lastLoad[i];
+      }
+      assertEquals(NUM_NODES * CAPACITY, namesystem.getCapacityTotal());
+      assertEquals(used, namesystem.getCapacityUsed());
+      assertEquals(NUM_NODES * CAPACITY - used,
+                   namesystem.getCapacityRemaining());
+      assertEquals(load, namesystem.getTotalLoad());
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+
+import org.junit.Test;
+
+public class TestINodeDirectory {
+
+  private final PermissionStatus perm = new PermissionStatus("Test", null,
+      FsPermission.getDefault());
+
+  private INodeDirectory newDirectory(String name) {
+    return new INodeDirectory(INode.string2Bytes(name), perm, 0L);
+  }
+
+  private static void assertChildren(TreeSet<String> expected,
+                                     INodeDirectory dir) {
+    List<INode> children = dir.getChildren();
+    assertEquals(expected.size(), children.size());
+    assertEquals(expected.size(), dir.getChildrenCount());
+    int i = 0;
+    for (String name : expected) {
+      INode child = children.get(i++);
+      assertEquals(name, child.getLocalName());
+      assertSame(child, dir.getChild(name));
+      assertSame(dir, child.getParent());
+    }
+  }
+
+  /**
+   * Children stay sorted and reachable by name through random
+   * insertions, duplicates, replacements and removals.
+   */
+  @Test
+  public void testChildren() {
+    INodeDirectory dir = newDirectory("dir");
+    assertTrue(dir.getChildren().isEmpty());
+    assertNull(dir.getChildrenRaw());
+    assertNull(dir.getChild("a"));
+
+    Random r = new Random(0xface);
+    TreeSet<String> expected = new TreeSet<String>();
+    for (int i = 0; i < 1000; i++) {
+      String name = "f" + r.nextInt(500);
+      INode added = dir.addChild(newDirectory(name), false);
+      assertEquals(expected.add(name), added != null);
+    }
+    assertChildren(expected, dir);
+
+    INodeDirectory replacement = newDirectory(expected.first());
+    dir.replaceChild(replacement);
+    assertSame(replacement, dir.getChild(expected.first()));
+
+    for (int i = 0; i < 300; i++) {
+      String name = "f" + r.nextInt(500);
+      INode removed = dir.removeChild(newDirectory(name));
+      assertEquals(expected.remove(name), removed != null);
+    }
+    assertChildren(expected, dir);
+
+    String middle = expected.higher("f3");
+    assertEquals(expected.headSet(middle, true).size(),
+                 dir.nextChild(INode.string2Bytes(middle)));
+    assertEquals(0, dir.nextChild(new byte[0]));
+  }
+
+  @Test
+  public void testEnsureCapacity() {
+    INodeDirectory dir = newDirectory("dir");
+    dir.ensureChildrenCapacity(3);
+    TreeSet<String> expected = new TreeSet<String>();
+    for (String name : new String[]{"c", "a", "b", "e", "d"}) {
+      dir.addChild(newDirectory(name), false);
+      expected.add(name);
+    }
+    assertChildren(expected, dir);
+  }
+
+  @Test(expected=UnsupportedOperationException.class)
+  public void testChildrenReadOnly() {
+    INodeDirectory dir = newDirectory("dir");
+    dir.addChild(newDirectory("a"), false);
+    dir.getChildren().remove(0);
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestNameCache {
+
+  /**
+   * A name is shared once it was used threshold times, and no new names
+   * are promoted after the cache is initialized.
+   */
+  @Test
+  public void testPromotion() {
+    NameCache cache = new NameCache(3);
+    byte[] first = INode.string2Bytes("part-00000");
+    assertSame(first, cache.put(first));
+    assertNotSame(first, cache.put(INode.string2Bytes("part-00000")));
+    byte[] third = INode.string2Bytes("part-00000");
+    assertSame(third, cache.put(third));
+    assertEquals(1, cache.size());
+
+    byte[] fourth = INode.string2Bytes("part-00000");
+    assertSame(third, cache.put(fourth));
+
+    cache.put(INode.string2Bytes("_logs"));
+    cache.put(INode.string2Bytes("_logs"));
+    cache.initialized();
+    byte[] logs = INode.string2Bytes("_logs");
+    assertSame(logs, cache.put(logs));
+    assertEquals(1, cache.size());
+    assertSame(third, cache.put(INode.string2Bytes("part-00000")));
+    assertEquals(8, cache.getLookupCount());
+    assertEquals(2, cache.getHitCount());
+  }
+
+  @Test
+  public void testDisabled() {
+    NameCache cache = new NameCache(0);
+    byte[] name = INode.string2Bytes("part-00000");
+    for (int i = 0; i < 10; i++) {
+      assertSame(name, cache.put(name));
+    }
+    assertEquals(0, cache.size());
+  }
+}
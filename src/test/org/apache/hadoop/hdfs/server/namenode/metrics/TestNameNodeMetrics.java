@@ -94,12 +94,8 @@ public class TestNameNodeMetrics extends TestCase {
     updateMetrics();
     assertEquals(blockCapacity, metrics.blockCapacity.get());
 
-    // Blocks are stored in a hashmap. Compute its capacity, which
-    // doubles every time the number of entries reach the threshold.
-    int threshold = (int)(blockCapacity * FSNamesystem.DEFAULT_MAP_LOAD_FACTOR);
-    while (threshold < blockCount) {
-      blockCapacity <<= 1;
-    }
+    // Blocks are stored in a fixed size index whose capacity
+    // does not change as blocks are added.
     updateMetrics();
     int filesTotal = file.depth() + 1; // Add 1 for root
     assertEquals(filesTotal, metrics.filesTotal.get());
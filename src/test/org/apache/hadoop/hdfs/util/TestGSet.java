@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestGSet extends TestCase {
+  private static final Random ran = new Random();
+
+  /** An element keyed by a long id, linked through itself. */
+  private static class IntElement implements LightWeightGSet.LinkedElement {
+    private final long id;
+    private LightWeightGSet.LinkedElement next;
+
+    IntElement(long id) {
+      this.id = id;
+    }
+
+    public void setNext(LightWeightGSet.LinkedElement next) {
+      this.next = next;
+    }
+
+    public LightWeightGSet.LinkedElement getNext() {
+      return next;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof IntElement && ((IntElement)obj).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int)(id ^ (id >>> 32));
+    }
+
+    @Override
+    public String toString() {
+      return "e" + id;
+    }
+  }
+
+  public void testExceptionCases() {
+    final GSet<IntElement, IntElement> gset
+        = new LightWeightGSet<IntElement, IntElement>(16);
+    try {
+      gset.contains(null);
+      fail();
+    } catch(NullPointerException e) {
+      // expected
+    }
+    try {
+      gset.put(null);
+      fail();
+    } catch(NullPointerException e) {
+      // expected
+    }
+    try {
+      gset.remove(null);
+      fail();
+    } catch(NullPointerException e) {
+      // expected
+    }
+
+    // iterator is fail-fast
+    for(int i = 0; i < 5; i++) {
+      gset.put(new IntElement(i));
+    }
+    Iterator<IntElement> iter = gset.iterator();
+    iter.next();
+    gset.remove(new IntElement(3));
+    try {
+      iter.next();
+      fail();
+    } catch(ConcurrentModificationException e) {
+      // expected
+    }
+  }
+
+  /** Compare the behavior of LightWeightGSet with a HashMap. */
+  public void testRandomOps() {
+    // a small capacity forces long collision chains
+    for(int capacity : new int[]{1, 3, 1024}) {
+      final LightWeightGSet<IntElement, IntElement> gset
+          = new LightWeightGSet<IntElement, IntElement>(capacity);
+      final Map<IntElement, IntElement> map
+          = new HashMap<IntElement, IntElement>();
+      for(int i = 0; i < 10000; i++) {
+        final IntElement e = new IntElement(ran.nextInt(500));
+        switch(ran.nextInt(3)) {
+        case 0:
+          assertEquals(map.put(e, e), gset.put(e));
+          break;
+        case 1:
+          assertEquals(map.remove(e), gset.remove(e));
+          break;
+        default:
+          assertEquals(map.get(e), gset.get(e));
+          assertEquals(map.containsKey(e), gset.contains(e));
+        }
+        assertEquals(map.size(), gset.size());
+      }
+
+      // the capacity is a power of two and never changes
+      assertEquals(Integer.highestOneBit(capacity * 2 - 1),
+                   gset.getCapacity());
+
+      // iterate over all elements
+      int count = 0;
+      for(IntElement e : gset) {
+        assertTrue(map.containsKey(e));
+        count++;
+      }
+      assertEquals(map.size(), count);
+    }
+  }
+
+  public void testComputeCapacity() {
+    // 2% of 1GB on a 64-bit VM is 2^24 bytes of references, or 2^21 slots
+    final long oneGB = 1L << 30;
+    final int c = LightWeightGSet.computeCapacity(oneGB, 2.0, "test");
+    final boolean is32 = "32".equals(System.getProperty("sun.arch.data.model"));
+    final int expected = is32 ? 1 << 22 : 1 << 21;
+    assertEquals(expected, c);
+
+    assertEquals(0, LightWeightGSet.computeCapacity(oneGB, 0.0, "test"));
+    // capped at 2^30 entries
+    assertEquals(1 << 30,
+        LightWeightGSet.computeCapacity(Long.MAX_VALUE, 100.0, "test"));
+    try {
+      LightWeightGSet.computeCapacity(oneGB, 101.0, "test");
+      fail();
+    } catch(IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares the calls per second of compact invocations, see
+ * {@link RPC#COMPACT_INVOCATION_KEY}, with those of invocations written by
+ * ObjectWritable.
+ * <p>
+ * The benchmark starts a server in process and times client threads making
+ * small calls, shaped like a lookup of the blocks of a file, to it. Following
+ * are the parameters that can be specified
+ * <li>Number of client threads and of calls each thread makes.
+ * <li>Number of server handlers.
+ * <li>Number of connections the client spreads the calls over, see
+ * {@link Client#CONNECTION_POOL_SIZE_KEY}.
+ * <li>Number of runs of each kind of invocation.
+ */
+public class RPCCallBenchmark extends Configured implements Tool {
+
+  public interface LookupProtocol extends VersionedProtocol {
+    public static final long versionID = 1L;
+    LongWritable lookup(String path, long offset, long length)
+      throws IOException;
+  }
+
+  public static class LookupImpl implements LookupProtocol {
+    public long getProtocolVersion(String protocol, long clientVersion) {
+      return versionID;
+    }
+
+    public ProtocolSignature getProtocolSignature(String protocol,
+        long clientVersion, int clientMethodsHash) throws IOException {
+      return ProtocolSignature.getProtocolSignature(this, protocol,
+          clientVersion, clientMethodsHash);
+    }
+
+    public LongWritable lookup(String path, long offset, long length) {
+      return new LongWritable(offset + length);
+    }
+  }
+
+  private static long runCalls(final InetSocketAddress addr,
+      final Configuration conf, int threads, final int calls)
+    throws Exception {
+    final LookupProtocol proxy = (LookupProtocol)RPC.getProxy(
+        LookupProtocol.class, LookupProtocol.versionID, addr, conf);
+    final IOException[] error = new IOException[1];
+    Thread[] callers = new Thread[threads];
+    for (int i = 0; i < threads; ++i) {
+      callers[i] = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < calls; ++j) {
+              proxy.lookup("/user/benchmark/file", j, 1024);
+            }
+          } catch (IOException e) {
+            error[0] = e;
+          }
+        }
+      };
+    }
+    long start = System.currentTimeMillis();
+    for (Thread caller : callers) {
+      caller.start();
+    }
+    for (Thread caller : callers) {
+      caller.join();
+    }
+    long time = System.currentTimeMillis() - start;
+    RPC.stopProxy(proxy);
+    if (error[0] != null) {
+      throw error[0];
+    }
+    return time;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String usage =
+      "Usage: rpccallbench " +
+      "[-threads <client threads, default is 4>] " +
+      "[-calls <calls per thread, default is 50000>] " +
+      "[-handlers <server handlers, default is 4>] " +
+      "[-connections <client connections, default is 1>] " +
+      "[-runs <runs of each invocation, default is 3>]";
+
+    int threads = 4;
+    int calls = 50000;
+    int handlers = 4;
+    int connections = 1;
+    int runs = 3;
+    for (int i = 0; i < args.length; i++) { // parse command line
+      if (args[i].equals("-threads")) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-calls")) {
+        calls = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-handlers")) {
+        handlers = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-connections")) {
+        connections = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-runs")) {
+        runs = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(usage);
+        return -1;
+      }
+    }
+    if (threads < 1 || calls < 1 || handlers < 1 || connections < 1 ||
+        runs < 1) {
+      System.err.println(usage);
+      return -1;
+    }
+
+    Configuration conf = getConf();
+    conf.setInt(Client.CONNECTION_POOL_SIZE_KEY, connections);
+    Server server = RPC.getServer(new LookupImpl(), "0.0.0.0", 0, handlers,
+                                  false, conf);
+    server.start();
+    try {
+      InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      Configuration legacyConf = new Configuration(conf);
+      legacyConf.setBoolean(RPC.COMPACT_INVOCATION_KEY, false);
+      Configuration compactConf = new Configuration(conf);
+      compactConf.setBoolean(RPC.COMPACT_INVOCATION_KEY, true);
+
+      // warm up
+      runCalls(addr, legacyConf, threads, calls);
+      runCalls(addr, compactConf, threads, calls);
+      long legacy = 0;
+      long compact = 0;
+      for (int i = 0; i < runs; ++i) {
+        legacy += runCalls(addr, legacyConf, threads, calls);
+        compact += runCalls(addr, compactConf, threads, calls);
+      }
+      long total = (long)threads * calls * runs;
+      System.out.println("Threads: " + threads + ", calls per thread: " +
+                         calls + ", handlers: " + handlers +
+                         ", connections: " + connections);
+      System.out.println("ObjectWritable invocations: " +
+                         (total * 1000 / Math.max(legacy, 1)) + " calls/s");
+      System.out.println("Compact invocations: " +
+                         (total * 1000 / Math.max(compact, 1)) + " calls/s");
+    } finally {
+      server.stop();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new RPCCallBenchmark(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.ipc.TestMethodRPCCompatibility.TestImpl0;
+import org.apache.hadoop.ipc.TestMethodRPCCompatibility.TestProtocol1;
+import org.apache.hadoop.net.NetUtils;
+
+public class TestCompactRPC extends TestCase {
+
+  private static final String ADDRESS = "0.0.0.0";
+
+  public enum Color { RED, GREEN }
+
+  public interface CompactProtocol extends VersionedProtocol {
+    public static final long versionID = 1L;
+    void ping() throws IOException;
+    String describe(boolean z, byte b, char c, short s, int i, long l,
+                    float f, double d) throws IOException;
+    String echo(String value) throws IOException;
+    LongWritable echo(LongWritable value) throws IOException;
+    Writable echo(Writable value) throws IOException;
+    Color echo(Color value) throws IOException;
+    byte[] echo(byte[] value) throws IOException;
+    long[] echo(long[] value) throws IOException;
+    String[] echo(String[] value) throws IOException;
+    LongWritable[] echo(LongWritable[] value) throws IOException;
+    void error() throws IOException;
+  }
+
+  public static class CompactImpl implements CompactProtocol {
+    public long getProtocolVersion(String protocol, long clientVersion) {
+      return versionID;
+    }
+    public ProtocolSignature getProtocolSignature(String protocol,
+        long clientVersion, int clientMethodsHash) throws IOException {
+      return ProtocolSignature.getProtocolSignature(this, protocol,
+          clientVersion, clientMethodsHash);
+    }
+    public void ping() { }
+    public String describe(boolean z, byte b, char c, short s, int i,
+                           long l, float f, double d) {
+      return z + " " + b + " " + c + " " + s + " " + i + " " + l + " " +
+             f + " " + d;
+    }
+    public String echo(String value) { return value; }
+    public LongWritable echo(LongWritable value) { return value; }
+    public Writable echo(Writable value) { return value; }
+    public Color echo(Color value) { return value; }
+    public byte[] echo(byte[] value) { return value; }
+    public long[] echo(long[] value) { return value; }
+    public String[] echo(String[] value) { return value; }
+    public LongWritable[] echo(LongWritable[] value) { return value; }
+    public void error() throws IOException {
+      throw new IOException("error");
+    }
+  }
+
+  private Server server;
+  private InetSocketAddress addr;
+
+  @Override
+  protected void setUp() throws Exception {
+    server = RPC.getServer(new CompactImpl(), ADDRESS, 0, 2, false,
+                           new Configuration());
+    server.start();
+    addr = NetUtils.getConnectAddress(server);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  private static void checkCalls(CompactProtocol proxy) throws Exception {
+    proxy.ping();
+    assertEquals("true -1 x 2 3 4 5.5 6.25",
+                 proxy.describe(true, (byte)-1, 'x', (short)2, 3, 4L,
+                                5.5f, 6.25d));
+    assertEquals("value", proxy.echo("value"));
+    assertNull(proxy.echo((String)null));
+    assertEquals(new LongWritable(7), proxy.echo(new LongWritable(7)));
+    assertNull(proxy.echo((LongWritable)null));
+    // instances of classes other than the declared one
+    assertEquals(new Text("text"), proxy.echo((Writable)new Text("text")));
+    assertEquals(new IntWritable(8), proxy.echo((Writable)new IntWritable(8)));
+    assertEquals(Color.GREEN, proxy.echo(Color.GREEN));
+    assertNull(proxy.echo((Color)null));
+    byte[] bytes = { 1, 2, 3 };
+    assertTrue(Arrays.equals(bytes, proxy.echo(bytes)));
+    assertNull(proxy.echo((byte[])null));
+    long[] longs = { 1L, Long.MAX_VALUE };
+    assertTrue(Arrays.equals(longs, proxy.echo(longs)));
+    String[] strings = { "a", null, "" };
+    assertTrue(Arrays.equals(strings, proxy.echo(strings)));
+    assertEquals(0, proxy.echo(new String[0]).length);
+    LongWritable[] writables = { new LongWritable(9), null };
+    assertTrue(Arrays.equals(writables, proxy.echo(writables)));
+    try {
+      proxy.error();
+      fail("Error not thrown");
+    } catch (RemoteException e) {
+      assertEquals(IOException.class.getName(), e.getClassName());
+    }
+  }
+
+  public void testCompactInvocations() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(RPC.COMPACT_INVOCATION_KEY, true);
+    CompactProtocol proxy = (CompactProtocol)RPC.getProxy(
+        CompactProtocol.class, CompactProtocol.versionID, addr, conf);
+    try {
+      for (java.lang.reflect.Method method :
+           CompactProtocol.class.getMethods()) {
+        assertTrue(method.toString(), RPC.isCompact(proxy, method));
+      }
+      checkCalls(proxy);
+    } finally {
+      RPC.stopProxy(proxy);
+    }
+  }
+
+  public void testLegacyInvocations() throws Exception {
+    Configuration conf = new Configuration();
+    CompactProtocol proxy = (CompactProtocol)RPC.getProxy(
+        CompactProtocol.class, CompactProtocol.versionID, addr, conf);
+    try {
+      assertFalse(RPC.isCompact(proxy,
+          CompactProtocol.class.getMethod("echo", String.class)));
+      checkCalls(proxy);
+    } finally {
+      RPC.stopProxy(proxy);
+    }
+  }
+
+  /** Only the methods the server has are invoked with compact invocations. */
+  public void testNegotiation() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(RPC.COMPACT_INVOCATION_KEY, true);
+    Server oldServer = RPC.getServer(new TestImpl0(), ADDRESS, 0, 1, false,
+                                     conf);
+    oldServer.start();
+    TestProtocol1 proxy = (TestProtocol1)RPC.getProxy(TestProtocol1.class,
+        TestProtocol1.versionID, NetUtils.getConnectAddress(oldServer), conf);
+    try {
+      assertTrue(RPC.isCompact(proxy, TestProtocol1.class.getMethod("ping")));
+      assertFalse(RPC.isCompact(proxy,
+          TestProtocol1.class.getMethod("echo", String.class)));
+      proxy.ping();
+      try {
+        proxy.echo("hello");
+        fail("Echo should fail");
+      } catch (RemoteException e) {
+        // expected
+      }
+    } finally {
+      RPC.stopProxy(proxy);
+      oldServer.stop();
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.net.NetUtils;
+
+public class TestDeferredResponse extends TestCase {
+  private static final Log LOG = LogFactory.getLog(TestDeferredResponse.class);
+
+  private static final String ADDRESS = "0.0.0.0";
+  private static final long DELAY = 1000;
+
+  /** Answers the calls from another thread, after a delay. */
+  private static final ExecutorService answerer =
+    Executors.newCachedThreadPool();
+
+  private static void sendLater(final Server.DeferredResponse response,
+                                final Object value, final Throwable error) {
+    answerer.submit(new Runnable() {
+      public void run() {
+        try {
+          Thread.sleep(DELAY);
+          if (error != null) {
+            response.sendError(error);
+          } else {
+            response.sendValue(value);
+          }
+        } catch (Exception e) {
+          LOG.error("Cannot send the response", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Defers the responses of positive values, answers negative values with an
+   * error, and fails zero after deferring it.
+   */
+  private static class DeferringServer extends Server {
+    Server.DeferredResponse failed;
+
+    DeferringServer(Configuration conf) throws IOException {
+      super(ADDRESS, 0, LongWritable.class, 1, conf);
+    }
+
+    @Override
+    public Writable call(Class<?> protocol, Writable param, long receiveTime)
+        throws IOException {
+      long value = ((LongWritable)param).get();
+      Server.DeferredResponse response = Server.deferResponse();
+      assertSame(response, Server.deferResponse());
+      if (value > 0) {
+        sendLater(response, param, null);
+      } else if (value < 0) {
+        sendLater(response, null, new IOException("negative"));
+      } else {
+        failed = response;
+        throw new IOException("zero");
+      }
+      return null;
+    }
+  }
+
+  private static class Caller extends Thread {
+    private final Client client;
+    private final InetSocketAddress addr;
+    private final long value;
+    Writable result;
+    Exception error;
+
+    Caller(Client client, InetSocketAddress addr, long value) {
+      this.client = client;
+      this.addr = addr;
+      this.value = value;
+    }
+
+    public void run() {
+      try {
+        result = client.call(new LongWritable(value), addr, null, null, 0);
+      } catch (Exception e) {
+        error = e;
+      }
+    }
+  }
+
+  public void testDeferredResponses() throws Exception {
+    Configuration conf = new Configuration();
+    DeferringServer server = new DeferringServer(conf);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      // the single handler takes all the calls while earlier ones wait
+      Caller[] callers = new Caller[5];
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < callers.length; i++) {
+        callers[i] = new Caller(client, addr, i + 1);
+        callers[i].start();
+      }
+      for (int i = 0; i < callers.length; i++) {
+        callers[i].join();
+        assertNull(callers[i].error);
+        assertEquals(new LongWritable(i + 1), callers[i].result);
+      }
+      assertTrue(System.currentTimeMillis() - start < 3 * DELAY);
+
+      Caller caller = new Caller(client, addr, -1);
+      caller.run();
+      assertTrue(caller.error instanceof RemoteException);
+      assertEquals(IOException.class.getName(),
+                   ((RemoteException)caller.error).getClassName());
+
+      // a call failing after deferring its response sends the failure
+      caller = new Caller(client, addr, 0);
+      caller.run();
+      assertTrue(caller.error instanceof RemoteException);
+      assertFalse(server.failed.sendValue(new LongWritable(0)));
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  public void testNotInCall() {
+    try {
+      Server.deferResponse();
+      fail("Deferred a response outside of a call");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  public interface DeferringProtocol extends VersionedProtocol {
+    public static final long versionID = 1L;
+    String echo(String value) throws IOException;
+  }
+
+  public static class DeferringImpl implements DeferringProtocol {
+    public long getProtocolVersion(String protocol, long clientVersion) {
+      return versionID;
+    }
+    public ProtocolSignature getProtocolSignature(String protocol,
+        long clientVersion, int clientMethodsHash) throws IOException {
+      return ProtocolSignature.getProtocolSignature(this, protocol,
+          clientVersion, clientMethodsHash);
+    }
+    public String echo(String value) {
+      sendLater(Server.deferResponse(), value, null);
+      return null;
+    }
+  }
+
+  public void testRPC() throws Exception {
+    Configuration conf = new Configuration();
+    Server server = RPC.getServer(new DeferringImpl(), ADDRESS, 0, 1, false,
+                                  conf);
+    server.start();
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    try {
+      for (boolean compact : new boolean[] { false, true }) {
+        Configuration clientConf = new Configuration(conf);
+        clientConf.setBoolean(RPC.COMPACT_INVOCATION_KEY, compact);
+        DeferringProtocol proxy = (DeferringProtocol)RPC.getProxy(
+            DeferringProtocol.class, DeferringProtocol.versionID, addr,
+            clientConf);
+        try {
+          assertEquals("value", proxy.echo("value"));
+        } finally {
+          RPC.stopProxy(proxy);
+        }
+      }
+    } finally {
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.ipc.metrics.RpcMetrics;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.UnixUserGroupInformation;
+
+public class TestFairCallQueue extends TestCase {
+
+  private static class FakeCall implements Schedulable {
+    final String user;
+    final String protocol;
+    final int id;
+
+    FakeCall(String user, String protocol, int id) {
+      this.user = user;
+      this.protocol = protocol;
+      this.id = id;
+    }
+
+    public String getUserName() {
+      return user;
+    }
+
+    public String getProtocolName() {
+      return protocol;
+    }
+
+    @Override
+    public String toString() {
+      return user + id;
+    }
+  }
+
+  private static String takeAll(FairCallQueue<FakeCall> queue)
+    throws InterruptedException {
+    StringBuilder order = new StringBuilder();
+    while (!queue.isEmpty()) {
+      order.append(queue.take()).append(' ');
+    }
+    return order.toString().trim();
+  }
+
+  public void testTurns() throws Exception {
+    FairCallQueue<FakeCall> queue =
+      new FairCallQueue<FakeCall>(100, new Configuration());
+    for (int i = 1; i <= 4; ++i) {
+      queue.put(new FakeCall("a", "p", i));
+    }
+    queue.put(new FakeCall("b", "p", 1));
+    queue.put(new FakeCall("b", "p", 2));
+    queue.put(new FakeCall(null, "p", 1));
+    assertEquals(7, queue.size());
+    assertEquals("a1", queue.peek().toString());
+    assertEquals("a1 b1 null1 a2 b2 a3 a4", takeAll(queue));
+    assertNull(queue.poll());
+  }
+
+  public void testWeights() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(FairCallQueue.WEIGHTS_KEY, "a:3, b:2");
+    FairCallQueue<FakeCall> queue = new FairCallQueue<FakeCall>(100, conf);
+    for (int i = 1; i <= 5; ++i) {
+      queue.put(new FakeCall("a", "p", i));
+      queue.put(new FakeCall("b", "p", i));
+      queue.put(new FakeCall("c", "p", i));
+    }
+    assertEquals("a1 a2 a3 b1 b2 c1 a4 a5 b3 b4 c2 b5 c3 c4 c5",
+                 takeAll(queue));
+
+    conf.set(FairCallQueue.WEIGHTS_KEY, "a:0");
+    try {
+      new FairCallQueue<FakeCall>(100, conf);
+      fail("Invalid weight accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testProtocolSource() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(FairCallQueue.SOURCE_KEY, "protocol");
+    FairCallQueue<FakeCall> queue = new FairCallQueue<FakeCall>(100, conf);
+    queue.put(new FakeCall("a", "p", 1));
+    queue.put(new FakeCall("b", "p", 2));
+    queue.put(new FakeCall("a", "q", 3));
+    assertEquals("a1 a3 b2", takeAll(queue));
+
+    conf.set(FairCallQueue.SOURCE_KEY, "host");
+    try {
+      new FairCallQueue<FakeCall>(100, conf);
+      fail("Invalid source accepted");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testMetricsSources() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(FairCallQueue.WEIGHTS_KEY, "w:2");
+    conf.setInt(FairCallQueue.METRICS_SOURCES_KEY, 2);
+    FairCallQueue<FakeCall> queue = new FairCallQueue<FakeCall>(100, conf);
+    RpcMetrics metrics = new RpcMetrics("localhost", "0", null);
+    try {
+      queue.setMetrics(metrics);
+      for (String user : new String[] { "a", "b", "c", "d", "w" }) {
+        queue.put(new FakeCall(user, "p", 1));
+        queue.put(new FakeCall(user, "p", 2));
+      }
+      for (String source : new String[] { "a", "b", "w", "other" }) {
+        assertNotNull(source,
+            metrics.registry.get("CallQueueDepth_" + source));
+        assertNotNull(source,
+            metrics.registry.get("CallQueueWaitTime_" + source));
+      }
+      assertNull(metrics.registry.get("CallQueueDepth_c"));
+      assertNull(metrics.registry.get("CallQueueDepth_d"));
+      // c and d share the depth of other
+      assertEquals(4, metrics.getCallQueueDepth("other").get());
+      assertEquals(2, metrics.getCallQueueDepth("a").get());
+      assertEquals("a1 b1 c1 d1 w1 w2 a2 b2 c2 d2", takeAll(queue));
+      assertEquals(0, metrics.getCallQueueDepth("other").get());
+
+      // a source keeps its metrics once its sub-queue is gone
+      queue.put(new FakeCall("b", "p", 3));
+      assertEquals(1, metrics.getCallQueueDepth("b").get());
+      assertEquals(0, metrics.getCallQueueDepth("other").get());
+    } finally {
+      metrics.shutdown();
+    }
+  }
+
+  public void testCapacity() throws Exception {
+    final FairCallQueue<FakeCall> queue =
+      new FairCallQueue<FakeCall>(2, new Configuration());
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    assertTrue(queue.offer(new FakeCall("a", "p", 1)));
+    assertTrue(queue.offer(new FakeCall("b", "p", 1)));
+    assertEquals(0, queue.remainingCapacity());
+    assertFalse(queue.offer(new FakeCall("a", "p", 2)));
+    assertFalse(queue.offer(new FakeCall("a", "p", 2),
+                            10, TimeUnit.MILLISECONDS));
+
+    // a put waits for a call to be taken
+    Thread putter = new Thread() {
+      public void run() {
+        try {
+          queue.put(new FakeCall("c", "p", 1));
+        } catch (InterruptedException e) {
+          // the put fails the test below
+        }
+      }
+    };
+    putter.start();
+    putter.join(100);
+    assertTrue(putter.isAlive());
+    assertEquals("a1", queue.take().toString());
+    putter.join();
+    assertEquals(2, queue.size());
+
+    List<FakeCall> drained = new ArrayList<FakeCall>();
+    assertEquals(2, queue.drainTo(drained));
+    assertEquals("[b1, c1]", drained.toString());
+    assertEquals(2, queue.remainingCapacity());
+  }
+
+  private static class TestServer extends Server {
+    TestServer(Configuration conf) throws IOException {
+      super("0.0.0.0", 0, LongWritable.class, 2, conf);
+    }
+
+    @Override
+    public Writable call(Class<?> protocol, Writable param, long receiveTime)
+        throws IOException {
+      return param;
+    }
+  }
+
+  public void testServer() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setClass(Server.IPC_SERVER_CALLQUEUE_IMPL_KEY, FairCallQueue.class,
+                  java.util.concurrent.BlockingQueue.class);
+    TestServer server = new TestServer(conf);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      for (String user : new String[] { "alice", "bob" }) {
+        UnixUserGroupInformation ugi =
+          new UnixUserGroupInformation(user, new String[] { "users" });
+        for (int i = 0; i < 10; ++i) {
+          LongWritable param = new LongWritable(i);
+          assertEquals(param, client.call(param, addr, null, ugi, 0));
+        }
+        assertNotNull(server.rpcMetrics.registry.get(
+            "CallQueueWaitTime_" + user));
+        assertNotNull(server.rpcMetrics.registry.get(
+            "CallQueueDepth_" + user));
+      }
+      assertEquals(0, server.getCallQueueLen());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+}
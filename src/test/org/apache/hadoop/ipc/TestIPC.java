@@ -33,7 +33,9 @@ import java.net.SocketTimeoutException;
 
 import junit.framework.TestCase;
 
+import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.ConfigurationSnapshot;
 
 /** Unit tests for IPC. */
 public class TestIPC extends TestCase {
@@ -215,6 +217,29 @@ public class TestIPC extends TestCase {
     }
   }
 	
+  public void testConnectionPool() throws Exception {
+    Server server = new TestServer(3, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+
+    Configuration poolConf = new Configuration(conf);
+    poolConf.setInt(Client.CONNECTION_POOL_SIZE_KEY, 3);
+    Client client = new Client(LongWritable.class, poolConf);
+    SerialCaller[] callers = new SerialCaller[5];
+    for (int i = 0; i < callers.length; i++) {
+      callers[i] = new SerialCaller(client, addr, 50);
+      callers[i].start();
+    }
+    for (int i = 0; i < callers.length; i++) {
+      callers[i].join();
+      assertFalse(callers[i].failed);
+    }
+    // the calls are spread over all the connections
+    assertEquals(3, server.getNumOpenConnections());
+    client.stop();
+    server.stop();
+  }
+
   public void testStandAloneClient() throws Exception {
     testParallel(10, false, 2, 4, 2, 4, 100);
     Client client = new Client(LongWritable.class, conf);
@@ -293,6 +318,76 @@ public class TestIPC extends TestCase {
         addr, null, null, 3*PING_INTERVAL+MIN_SLEEP_TIME);
   }
 
+  private static class ConfWritable extends LongWritable
+      implements Configurable {
+    private Configuration conf;
+
+    ConfWritable() {}
+
+    ConfWritable(long longValue) {
+      super(longValue);
+    }
+
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+    }
+
+    public Configuration getConf() {
+      return conf;
+    }
+  }
+
+  /** A server that keeps the configuration of the last parameter. */
+  private static class ConfServer extends Server {
+    private volatile Configuration paramConf;
+
+    ConfServer(Configuration conf) throws IOException {
+      super(ADDRESS, 0, ConfWritable.class, 1, conf);
+    }
+
+    @Override
+    public Writable call(Class<?> protocol, Writable param, long receiveTime)
+        throws IOException {
+      paramConf = ((ConfWritable)param).getConf();
+      return param;
+    }
+  }
+
+  private static Configuration getParamConf(Configuration serverConf)
+      throws Exception {
+    ConfServer server = new ConfServer(serverConf);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    try {
+      Client client = new Client(ConfWritable.class, conf);
+      try {
+        client.call(new ConfWritable(RANDOM.nextLong()), addr, null, null, 0);
+      } finally {
+        client.stop();
+      }
+      return server.paramConf;
+    } finally {
+      server.stop();
+    }
+  }
+
+  public void testParamConf() throws Exception {
+    // the configuration of the server, by default
+    Configuration serverConf = new Configuration(conf);
+    assertSame(serverConf, getParamConf(serverConf));
+
+    // a snapshot of it, if asked for
+    serverConf.setBoolean(Server.IPC_SERVER_PARAM_CONF_SNAPSHOT_KEY, true);
+    Configuration paramConf = getParamConf(serverConf);
+    assertTrue(paramConf instanceof ConfigurationSnapshot);
+    assertEquals("true",
+        paramConf.get(Server.IPC_SERVER_PARAM_CONF_SNAPSHOT_KEY));
+
+    // but never of a subclass
+    Configuration subclassConf = new Configuration(serverConf) {};
+    assertSame(subclassConf, getParamConf(subclassConf));
+  }
+
   	public static void main(String[] args) throws Exception {
 
     //new TestIPC("test").testSerial(5, false, 2, 10, 1000);
@@ -0,0 +1,307 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.examples.SleepJob;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Measures how many heartbeats the {@link JobTracker} can process.
+ * <p>
+ * The benchmark starts a JobTracker with no real TaskTrackers, submits
+ * sleep jobs to it and drives it with simulated TaskTrackers. Each
+ * simulated tracker sends {@link TaskTrackerStatus} objects straight to
+ * {@link JobTracker#heartbeat}, as fast as the threads allow, reports the
+ * tasks it is given as running for a number of heartbeats and then as
+ * succeeded. Following are the parameters that can be specified
+ * <li>Number of simulated trackers and of threads driving them.
+ * <li>Number of heartbeats sent by each tracker.
+ * <li>Map and reduce slots per tracker.
+ * <li>Number of jobs and of maps per job.
+ * <li>Number of heartbeats a task runs for.
+ */
+public class HeartbeatBenchmark extends Configured implements Tool {
+
+  private JobTracker jobTracker;
+  private final AtomicLong heartbeats = new AtomicLong();
+  private final AtomicLong heartbeatNanos = new AtomicLong();
+  private final AtomicLong maxHeartbeatNanos = new AtomicLong();
+  private final AtomicLong launchedTasks = new AtomicLong();
+
+  /**
+   * A TaskTracker that only exists as the status it sends.
+   */
+  class SimulatedTracker {
+    private final String trackerName;
+    private final String host;
+    private final int maxMapSlots;
+    private final int maxReduceSlots;
+    private final int taskDuration;
+    private boolean initialContact = true;
+    private short responseId = 0;
+    // running or just finished tasks --> heartbeats left to run
+    private final Map<TaskStatus, Integer> tasks =
+      new HashMap<TaskStatus, Integer>();
+
+    SimulatedTracker(int id, int maxMapSlots, int maxReduceSlots,
+                     int taskDuration) {
+      this.host = "host" + id + ".simulated";
+      this.trackerName = "tracker_" + host + ":" + (40000 + id);
+      this.maxMapSlots = maxMapSlots;
+      this.maxReduceSlots = maxReduceSlots;
+      this.taskDuration = taskDuration;
+    }
+
+    void heartbeat() throws IOException {
+      List<TaskStatus> reports = new ArrayList<TaskStatus>(tasks.size());
+      for (TaskStatus task : tasks.keySet()) {
+        // the jobtracker keeps the statuses it is sent, like it keeps the
+        // ones deserialized from a real heartbeat
+        reports.add((TaskStatus)task.clone());
+      }
+      TaskTrackerStatus status =
+        new TaskTrackerStatus(trackerName, host, 0, reports, 0,
+                              maxMapSlots, maxReduceSlots);
+      long start = System.nanoTime();
+      HeartbeatResponse response =
+        jobTracker.heartbeat(status, false, initialContact, true, responseId);
+      long nanos = System.nanoTime() - start;
+      heartbeats.incrementAndGet();
+      heartbeatNanos.addAndGet(nanos);
+      long max;
+      while (nanos > (max = maxHeartbeatNanos.get()) &&
+             !maxHeartbeatNanos.compareAndSet(max, nanos));
+
+      initialContact = false;
+      responseId = response.getResponseId();
+      advanceTasks();
+      for (TaskTrackerAction action : response.getActions()) {
+        handle(action);
+      }
+    }
+
+    private void advanceTasks() {
+      for (Iterator<Map.Entry<TaskStatus, Integer>> it =
+             tasks.entrySet().iterator(); it.hasNext();) {
+        Map.Entry<TaskStatus, Integer> entry = it.next();
+        TaskStatus task = entry.getKey();
+        if (task.getRunState() != TaskStatus.State.RUNNING) {
+          // the final state has been reported
+          it.remove();
+        } else if (entry.getValue() <= 1) {
+          task.setRunState(TaskStatus.State.SUCCEEDED);
+          task.setProgress(1.0f);
+          task.setFinishTime(System.currentTimeMillis());
+        } else {
+          entry.setValue(entry.getValue() - 1);
+        }
+      }
+    }
+
+    private void handle(TaskTrackerAction action) {
+      switch (action.getActionId()) {
+      case LAUNCH_TASK:
+        Task task = ((LaunchTaskAction)action).getTask();
+        TaskStatus status =
+          TaskStatus.createTaskStatus(task.isMapTask(), task.getTaskID(),
+                                      0.0f, task.getNumSlotsRequired(),
+                                      TaskStatus.State.RUNNING, "", "",
+                                      trackerName, task.isMapTask() ?
+                                        TaskStatus.Phase.MAP :
+                                        TaskStatus.Phase.REDUCE,
+                                      new Counters());
+        status.setStartTime(System.currentTimeMillis());
+        tasks.put(status, taskDuration);
+        launchedTasks.incrementAndGet();
+        break;
+      case KILL_TASK:
+        TaskAttemptID taskId = ((KillTaskAction)action).getTaskID();
+        for (Iterator<TaskStatus> it = tasks.keySet().iterator();
+             it.hasNext();) {
+          if (it.next().getTaskID().equals(taskId)) {
+            it.remove();
+          }
+        }
+        break;
+      case KILL_JOB:
+        JobID jobId = ((KillJobAction)action).getJobID();
+        for (Iterator<TaskStatus> it = tasks.keySet().iterator();
+             it.hasNext();) {
+          if (it.next().getTaskID().getJobID().equals(jobId)) {
+            it.remove();
+          }
+        }
+        break;
+      case REINIT_TRACKER:
+        tasks.clear();
+        initialContact = true;
+        responseId = 0;
+        break;
+      default:
+        break;
+      }
+    }
+  }
+
+  /**
+   * Sends the heartbeats of a share of the simulated trackers, one round
+   * over all of them at a time.
+   */
+  class HeartbeatThread extends Thread {
+    private final List<SimulatedTracker> trackers;
+    private final int rounds;
+    private IOException error;
+
+    HeartbeatThread(List<SimulatedTracker> trackers, int rounds) {
+      super("Heartbeats for " + trackers.size() + " trackers");
+      this.trackers = trackers;
+      this.rounds = rounds;
+    }
+
+    public void run() {
+      try {
+        for (int i = 0; i < rounds; ++i) {
+          for (SimulatedTracker tracker : trackers) {
+            tracker.heartbeat();
+          }
+        }
+      } catch (IOException ie) {
+        error = ie;
+      }
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String usage =
+      "Usage: heartbeatbench " +
+      "[-trackers <number of simulated tasktrackers, default is 1000>] " +
+      "[-threads <number of threads sending heartbeats, default is 10>] " +
+      "[-heartbeats <number of heartbeats per tracker, default is 50>] " +
+      "[-mapSlots <map slots per tracker, default is 2>] " +
+      "[-reduceSlots <reduce slots per tracker, default is 2>] " +
+      "[-jobs <number of jobs, default is 4>] " +
+      "[-maps <number of maps per job, default is 5000>] " +
+      "[-taskDuration <heartbeats a task runs for, default is 5>]";
+
+    int numTrackers = 1000;
+    int numThreads = 10;
+    int numHeartbeats = 50;
+    int mapSlots = 2;
+    int reduceSlots = 2;
+    int numJobs = 4;
+    int numMaps = 5000;
+    int taskDuration = 5;
+    for (int i = 0; i < args.length; i++) { // parse command line
+      if (args[i].equals("-trackers")) {
+        numTrackers = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-threads")) {
+        numThreads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-heartbeats")) {
+        numHeartbeats = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-mapSlots")) {
+        mapSlots = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-reduceSlots")) {
+        reduceSlots = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-jobs")) {
+        numJobs = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-maps")) {
+        numMaps = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-taskDuration")) {
+        taskDuration = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(usage);
+        return -1;
+      }
+    }
+    if (numTrackers < 1 || numThreads < 1 || numHeartbeats < 1 ||
+        numJobs < 0 || numMaps < 1 || taskDuration < 1) {
+      System.err.println(usage);
+      return -1;
+    }
+
+    JobConf conf = new JobConf(getConf());
+    MiniMRCluster mr = new MiniMRCluster(0, "file:///", 1, null, null, conf);
+    try {
+      jobTracker = mr.getJobTrackerRunner().getJobTracker();
+      JobClient client = new JobClient(mr.createJobConf());
+      for (int i = 0; i < numJobs; ++i) {
+        SleepJob sleepJob = new SleepJob();
+        sleepJob.setConf(mr.createJobConf());
+        client.submitJob(sleepJob.setupJobConf(numMaps, 1, 1, 1, 1, 1));
+      }
+
+      List<List<SimulatedTracker>> shares =
+        new ArrayList<List<SimulatedTracker>>();
+      for (int i = 0; i < numThreads; ++i) {
+        shares.add(new ArrayList<SimulatedTracker>());
+      }
+      for (int i = 0; i < numTrackers; ++i) {
+        shares.get(i % numThreads).add(
+            new SimulatedTracker(i, mapSlots, reduceSlots, taskDuration));
+      }
+      List<HeartbeatThread> threads = new ArrayList<HeartbeatThread>();
+      for (List<SimulatedTracker> share : shares) {
+        if (!share.isEmpty()) {
+          threads.add(new HeartbeatThread(share, numHeartbeats));
+        }
+      }
+
+      long start = System.currentTimeMillis();
+      for (HeartbeatThread thread : threads) {
+        thread.start();
+      }
+      for (HeartbeatThread thread : threads) {
+        thread.join();
+        if (thread.error != null) {
+          throw thread.error;
+        }
+      }
+      long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+      long count = heartbeats.get();
+      System.out.println("Trackers: " + numTrackers +
+                         ", threads: " + threads.size());
+      System.out.println("Heartbeats: " + count + " in " + elapsed + " ms" +
+                         " (" + (count * 1000 / elapsed) + " per second)");
+      System.out.println("Average heartbeat latency: " +
+                         (heartbeatNanos.get() / count / 1000) + " us" +
+                         ", max: " + (maxHeartbeatNanos.get() / 1000) + " us");
+      System.out.println("Tasks launched: " + launchedTasks.get());
+    } finally {
+      mr.shutdown();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new HeartbeatBenchmark(), args);
+    System.exit(res);
+  }
+}
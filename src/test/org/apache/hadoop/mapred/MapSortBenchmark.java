@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Compares the map-side sort of keys on their prefixes, see
+ * io.sort.key.prefix, with the sort comparing the keys in full.
+ * <p>
+ * The benchmark runs local jobs with a single map generating random keys
+ * and times them with and without sorting on key prefixes. Following are
+ * the parameters that can be specified
+ * <li>Number of records and the length of the keys.
+ * <li>Length of a prefix shared by all the keys, to measure the cost of
+ * ties on the prefixes.
+ * <li>Key type, Text or BytesWritable.
+ * <li>io.sort.mb and io.sort.record.percent, and so the number of spills.
+ * By default all the records fit in one spill.
+ * <li>Number of runs of each sort.
+ */
+public class MapSortBenchmark extends Configured implements Tool {
+
+  /** Emits random keys with a common prefix and empty values. */
+  public static class RandomKeyMapper
+      implements Mapper<NullWritable,NullWritable,
+                        WritableComparable<?>,NullWritable> {
+
+    private int records;
+    private byte[] key;
+    private int commonPrefix;
+    private boolean text;
+
+    public void configure(JobConf job) {
+      records = job.getInt("test.mapsort.records", 1000000);
+      key = new byte[job.getInt("test.mapsort.keylength", 10)];
+      commonPrefix = job.getInt("test.mapsort.commonprefix", 0);
+      text = job.getMapOutputKeyClass() == Text.class;
+    }
+
+    public void map(NullWritable nk, NullWritable nv,
+        OutputCollector<WritableComparable<?>,NullWritable> output,
+        Reporter reporter) throws IOException {
+      Random random = new Random(0);
+      Text textKey = new Text();
+      BytesWritable bytesKey = new BytesWritable();
+      for (int i = 0; i < records; ++i) {
+        for (int j = commonPrefix; j < key.length; ++j) {
+          // printable, so that the keys are valid text
+          key[j] = (byte)('!' + random.nextInt(94));
+        }
+        if (text) {
+          textKey.set(key);
+          output.collect(textKey, NullWritable.get());
+        } else {
+          bytesKey.set(key, 0, key.length);
+          output.collect(bytesKey, NullWritable.get());
+        }
+      }
+    }
+
+    public void close() { }
+  }
+
+  /** Discards the records. */
+  public static class NullReducer
+      implements Reducer<WritableComparable<?>,NullWritable,
+                         NullWritable,NullWritable> {
+    public void configure(JobConf job) { }
+    public void reduce(WritableComparable<?> key,
+        Iterator<NullWritable> values,
+        OutputCollector<NullWritable,NullWritable> output,
+        Reporter reporter) { }
+    public void close() { }
+  }
+
+  private long runJob(JobConf conf, boolean keyPrefix) throws IOException {
+    JobConf job = new JobConf(conf);
+    job.setJobName("mapsort-" + (keyPrefix ? "prefix" : "full"));
+    job.setBoolean("io.sort.key.prefix", keyPrefix);
+    long start = System.currentTimeMillis();
+    JobClient.runJob(job);
+    return System.currentTimeMillis() - start;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    String usage =
+      "Usage: mapsortbench " +
+      "[-records <number of records, default is 1000000>] " +
+      "[-keyLength <key length, default is 10>] " +
+      "[-commonPrefix <length of the prefix all keys share, default is 0>] " +
+      "[-bytes (use BytesWritable instead of Text keys)] " +
+      "[-sortMb <io.sort.mb, default is 100>] " +
+      "[-recordPercent <io.sort.record.percent, default is 0.5>] " +
+      "[-runs <runs of each sort, default is 3>]";
+
+    int records = 1000000;
+    int keyLength = 10;
+    int commonPrefix = 0;
+    boolean bytes = false;
+    int sortMb = 100;
+    float recordPercent = 0.5f;
+    int runs = 3;
+    for (int i = 0; i < args.length; i++) { // parse command line
+      if (args[i].equals("-records")) {
+        records = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-keyLength")) {
+        keyLength = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-commonPrefix")) {
+        commonPrefix = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-bytes")) {
+        bytes = true;
+      } else if (args[i].equals("-sortMb")) {
+        sortMb = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-recordPercent")) {
+        recordPercent = Float.parseFloat(args[++i]);
+      } else if (args[i].equals("-runs")) {
+        runs = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println(usage);
+        return -1;
+      }
+    }
+    if (records < 0 || keyLength < 0 || commonPrefix < 0 ||
+        commonPrefix > keyLength || runs < 1) {
+      System.err.println(usage);
+      return -1;
+    }
+
+    JobConf conf = new JobConf(getConf(), MapSortBenchmark.class);
+    conf.set("mapred.job.tracker", "local");
+    conf.setInt("test.mapsort.records", records);
+    conf.setInt("test.mapsort.keylength", keyLength);
+    conf.setInt("test.mapsort.commonprefix", commonPrefix);
+    conf.setInt("io.sort.mb", sortMb);
+    conf.setFloat("io.sort.record.percent", recordPercent);
+    conf.setNumMapTasks(1);
+    conf.setNumReduceTasks(1);
+    conf.setInputFormat(FakeIF.class);
+    conf.setMapperClass(RandomKeyMapper.class);
+    conf.setReducerClass(NullReducer.class);
+    conf.setOutputFormat(NullOutputFormat.class);
+    conf.setMapOutputKeyClass(bytes ? BytesWritable.class : Text.class);
+    conf.setMapOutputValueClass(NullWritable.class);
+
+    // warm up
+    runJob(conf, false);
+    long full = 0;
+    long prefix = 0;
+    for (int i = 0; i < runs; ++i) {
+      full += runJob(conf, false);
+      prefix += runJob(conf, true);
+    }
+    System.out.println("Records: " + records + ", key length: " + keyLength +
+                       ", common prefix: " + commonPrefix +
+                       ", keys: " + (bytes ? "BytesWritable" : "Text"));
+    System.out.println("Full key sort: " + (full / runs) + " ms per job");
+    System.out.println("Key prefix sort: " + (prefix / runs) + " ms per job");
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int res = ToolRunner.run(new MapSortBenchmark(), args);
+    System.exit(res);
+  }
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.extensions.TestSetup;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+
+/**
+ * Checks that maps writing the partitions the codec saves little on
+ * uncompressed, see mapred.compress.map.output.adaptive, produce the same
+ * job output as maps compressing every partition.
+ */
+public class TestAdaptiveMapOutputCompression extends TestCase {
+
+  private static final int NUM_MAPS = 2;
+  private static final int RECORDS_PER_PARTITION = 3000;
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"),
+             "TestAdaptiveMapOutputCompression");
+
+  private static MiniMRCluster mrCluster = null;
+  public static Test suite() {
+    TestSetup setup = new TestSetup(
+        new TestSuite(TestAdaptiveMapOutputCompression.class)) {
+      protected void setUp() throws Exception {
+        mrCluster = new MiniMRCluster(1, "file:///", 1);
+      }
+      protected void tearDown() throws Exception {
+        if (mrCluster != null) { mrCluster.shutdown(); }
+      }
+    };
+    return setup;
+  }
+
+  /**
+   * Emits values of zeros, which compress well, for the keys starting with
+   * "c" and random values, which do not, for the keys starting with "r".
+   */
+  public static class MixedMapper
+      implements Mapper<NullWritable,NullWritable,Text,BytesWritable> {
+
+    public void map(NullWritable nk, NullWritable nv,
+        OutputCollector<Text,BytesWritable> output, Reporter reporter)
+        throws IOException {
+      Random random = new Random(0);
+      Text key = new Text();
+      byte[] zeros = new byte[500];
+      byte[] bytes = new byte[500];
+      BytesWritable value = new BytesWritable();
+      for (int i = 0; i < RECORDS_PER_PARTITION; ++i) {
+        key.set("c" + (i % 100));
+        value.set(zeros, 0, zeros.length);
+        output.collect(key, value);
+        random.nextBytes(bytes);
+        key.set("r" + (i % 100));
+        value.set(bytes, 0, bytes.length);
+        output.collect(key, value);
+      }
+    }
+    public void configure(JobConf conf) { }
+    public void close() throws IOException { }
+  }
+
+  /** Sends the keys starting with "c" and "r" to different reduces. */
+  public static class PrefixPartitioner
+      implements Partitioner<Text,BytesWritable> {
+    public int getPartition(Text key, BytesWritable value, int numReduces) {
+      return key.charAt(0) == 'c' ? 0 : 1;
+    }
+    public void configure(JobConf conf) { }
+  }
+
+  /** Writes the number of values of a key and the sum of their bytes. */
+  public static class SumReducer
+      implements Reducer<Text,BytesWritable,Text,Text> {
+    public void reduce(Text key, Iterator<BytesWritable> values,
+        OutputCollector<Text,Text> output, Reporter reporter)
+        throws IOException {
+      long count = 0;
+      long sum = 0;
+      while (values.hasNext()) {
+        BytesWritable value = values.next();
+        byte[] bytes = value.getBytes();
+        for (int i = 0; i < value.getLength(); ++i) {
+          sum += bytes[i];
+        }
+        ++count;
+      }
+      output.collect(key, new Text(count + " " + sum));
+    }
+    public void configure(JobConf conf) { }
+    public void close() throws IOException { }
+  }
+
+  private Counters runJob(String name, boolean adaptive,
+      JobConf conf, List<String> lines) throws Exception {
+    conf.setJobName(name);
+    conf.setCompressMapOutput(true);
+    conf.setBoolean("mapred.compress.map.output.adaptive", adaptive);
+    conf.setInt("io.sort.mb", 1);
+    conf.setNumMapTasks(NUM_MAPS);
+    conf.setNumReduceTasks(2);
+    conf.setInputFormat(FakeIF.class);
+    conf.setMapperClass(MixedMapper.class);
+    conf.setPartitionerClass(PrefixPartitioner.class);
+    conf.setReducerClass(SumReducer.class);
+    conf.setMapOutputKeyClass(Text.class);
+    conf.setMapOutputValueClass(BytesWritable.class);
+    conf.setOutputKeyClass(Text.class);
+    conf.setOutputValueClass(Text.class);
+    FileInputFormat.setInputPaths(conf, new Path(TEST_DIR, "in"));
+    Path outDir = new Path(TEST_DIR, name);
+    FileOutputFormat.setOutputPath(conf, outDir);
+
+    FileSystem fs = outDir.getFileSystem(conf);
+    fs.delete(outDir, true);
+    RunningJob job = JobClient.runJob(conf);
+    assertTrue(job.isSuccessful());
+
+    for (FileStatus stat : fs.listStatus(outDir)) {
+      if (!stat.getPath().getName().startsWith("part-")) {
+        continue;
+      }
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(fs.open(stat.getPath())));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          lines.add(line);
+        }
+      } finally {
+        in.close();
+      }
+    }
+    fs.delete(outDir, true);
+    Collections.sort(lines);
+    return job.getCounters();
+  }
+
+  private void checkAdaptiveCompression(String name, int spillThreads,
+      String shuffleBufferPercent, int mapsPerFetch) throws Exception {
+    List<String> expected = new ArrayList<String>();
+    JobConf conf = mrCluster.createJobConf();
+    Counters compressed = runJob(name + "-compressed", false, conf, expected);
+    assertEquals(200, expected.size());
+
+    conf = mrCluster.createJobConf();
+    conf.setInt("io.sort.spill.threads", spillThreads);
+    conf.set("mapred.job.shuffle.input.buffer.percent",
+             shuffleBufferPercent);
+    conf.setInt("mapred.reduce.shuffle.maps.per.fetch", mapsPerFetch);
+    List<String> lines = new ArrayList<String>();
+    Counters adaptive = runJob(name + "-adaptive", true, conf, lines);
+    assertEquals(expected, lines);
+
+    // the codec saves less than the minimum on the random values, only
+    // their framing, so their partition is shuffled as it is, while the
+    // zeros are still compressed
+    final long compressedBytes =
+      compressed.findCounter(Task.Counter.REDUCE_SHUFFLE_BYTES).getCounter();
+    final long adaptiveBytes =
+      adaptive.findCounter(Task.Counter.REDUCE_SHUFFLE_BYTES).getCounter();
+    final long mapOutputBytes =
+      adaptive.findCounter(Task.Counter.MAP_OUTPUT_BYTES).getCounter();
+    assertTrue("Expected the random values to be shuffled uncompressed (" +
+        adaptiveBytes + " bytes) rather than compressed (" +
+        compressedBytes + " bytes)", adaptiveBytes > compressedBytes);
+    assertTrue("Expected the zeros to be shuffled compressed (" +
+        adaptiveBytes + " of " + mapOutputBytes + " bytes)",
+        adaptiveBytes < 0.6 * mapOutputBytes);
+  }
+
+  public void testShuffleToMemory() throws Exception {
+    checkAdaptiveCompression("memory", 1, "0.70", 1);
+  }
+
+  public void testShuffleToDisk() throws Exception {
+    checkAdaptiveCompression("disk", 1, "0.0", 1);
+  }
+
+  public void testSpillThreadsAndBatchedFetch() throws Exception {
+    checkAdaptiveCompression("batched", 3, "0.70", NUM_MAPS);
+  }
+}
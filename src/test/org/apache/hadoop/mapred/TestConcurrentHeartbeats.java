@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests heartbeats sent to the {@link JobTracker} from several trackers at
+ * once, with each tracker also resending heartbeats as it does when an rpc
+ * is lost.
+ */
+public class TestConcurrentHeartbeats extends TestCase {
+  private static final int NUM_TRACKERS = 10;
+  private static final int NUM_HEARTBEATS = 100;
+  private static final long EXPIRY_INTERVAL = 3000;
+
+  private MiniMRCluster mr;
+  private JobTracker jt;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    JobConf conf = new JobConf();
+    conf.setLong("mapred.tasktracker.expiry.interval", EXPIRY_INTERVAL);
+    mr = new MiniMRCluster(0, 0, 0, "file:///", 1, null, null, null, conf);
+    jt = mr.getJobTrackerRunner().getJobTracker();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    mr.shutdown();
+    super.tearDown();
+  }
+
+  private static String getTrackerName(int i) {
+    return "tracker_host" + i + ":1000";
+  }
+
+  private static TaskTrackerStatus getStatus(String trackerName) {
+    return new TaskTrackerStatus(trackerName,
+        JobInProgress.convertTrackerNameToHostName(trackerName));
+  }
+
+  public void testConcurrentHeartbeats() throws Exception {
+    for (int i = 0; i < NUM_TRACKERS; i++) {
+      jt.heartbeat(getStatus(getTrackerName(i)), false, true, false,
+                   (short)0);
+    }
+    final Throwable[] error = new Throwable[1];
+    // two threads per tracker, so that its heartbeats are also resent
+    Thread[] threads = new Thread[2 * NUM_TRACKERS];
+    for (int i = 0; i < threads.length; i++) {
+      final String trackerName = getTrackerName(i / 2);
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            short responseId = 1;
+            for (int j = 0; j < NUM_HEARTBEATS; j++) {
+              HeartbeatResponse response = jt.heartbeat(
+                  getStatus(trackerName), false, false, false, responseId);
+              TaskTrackerAction[] actions = response.getActions();
+              for (TaskTrackerAction action : actions) {
+                assertNotSame(TaskTrackerAction.ActionType.REINIT_TRACKER,
+                              action.getActionId());
+              }
+              assertTrue(response.getResponseId() > responseId);
+              responseId = response.getResponseId();
+            }
+          } catch (Throwable e) {
+            synchronized (error) {
+              error[0] = e;
+            }
+          }
+        }
+      };
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    synchronized (error) {
+      if (error[0] != null) {
+        throw new AssertionError(error[0]);
+      }
+    }
+    assertEquals(NUM_TRACKERS, jt.taskTrackers().size());
+
+    // the trackers are lost once they stop sending heartbeats
+    long deadline = System.currentTimeMillis() + 10 * EXPIRY_INTERVAL;
+    while (jt.taskTrackers().size() > 0 &&
+           System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertEquals(0, jt.taskTrackers().size());
+
+    // an unknown tracker is asked to reinitialize
+    HeartbeatResponse response = jt.heartbeat(
+        getStatus(getTrackerName(NUM_TRACKERS)), false, false, false,
+        (short)1);
+    assertEquals(TaskTrackerAction.ActionType.REINIT_TRACKER,
+                 response.getActions()[0].getActionId());
+  }
+}
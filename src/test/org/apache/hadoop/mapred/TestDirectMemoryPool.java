@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.IFile.DirectMemoryReader;
+import org.apache.hadoop.mapred.IFile.InMemoryReader;
+
+public class TestDirectMemoryPool extends TestCase {
+
+  /** Keeps count of the memory reserved. */
+  private static class CountingRamManager implements RamManager {
+    int reserved = 0;
+    public boolean reserve(int requestedSize, InputStream in) {
+      reserved += requestedSize;
+      return true;
+    }
+    public void unreserve(int requestedSize) {
+      reserved -= requestedSize;
+    }
+  }
+
+  public void testAllocateAndRelease() {
+    DirectMemoryPool pool = new DirectMemoryPool(100);
+    assertEquals(0, pool.getReservedSize(0));
+    assertEquals(100, pool.getReservedSize(1));
+    assertEquals(100, pool.getReservedSize(100));
+    assertEquals(200, pool.getReservedSize(101));
+
+    assertEquals(0, pool.allocate(0).length);
+    assertEquals(0, pool.getAllocatedBytes());
+
+    // pages are cut from slabs
+    ByteBuffer[] pages = pool.allocate(250);
+    assertEquals(3, pages.length);
+    final long slab = pool.getAllocatedBytes();
+    assertTrue(slab >= 300);
+    assertEquals(slab - 300, pool.getFreeBytes());
+    for (ByteBuffer page : pages) {
+      assertTrue(page.isDirect());
+      assertEquals(100, page.remaining());
+    }
+
+    // released pages are handed out again
+    pool.release(pages);
+    assertEquals(slab, pool.getFreeBytes());
+    pages = pool.allocate((int)slab);
+    assertEquals(slab, pool.getAllocatedBytes());
+    assertEquals(0, pool.getFreeBytes());
+
+    // more is allocated once the pool is used up
+    ByteBuffer[] more = pool.allocate(1);
+    assertEquals(1, more.length);
+    assertTrue(pool.getAllocatedBytes() > slab);
+  }
+
+  public void testPutAndGet() {
+    DirectMemoryPool pool = new DirectMemoryPool(7);
+    byte[] data = new byte[100];
+    new Random(0).nextBytes(data);
+    ByteBuffer[] pages = pool.allocate(data.length);
+    // write across page boundaries in uneven chunks
+    for (int off = 0; off < data.length; off += 13) {
+      pool.put(pages, off, data, off, Math.min(13, data.length - off));
+    }
+    byte[] copy = new byte[data.length];
+    pool.get(pages, 0, copy, 0, copy.length);
+    assertTrue(Arrays.equals(data, copy));
+    for (int i = 0; i < data.length; ++i) {
+      assertEquals(data[i], pool.get(pages, i));
+    }
+    byte[] part = new byte[20];
+    pool.get(pages, 5, part, 0, part.length);
+    for (int i = 0; i < part.length; ++i) {
+      assertEquals(data[i + 5], part[i]);
+    }
+  }
+
+  public void testReader() throws Exception {
+    Configuration conf = new Configuration();
+    DataOutputBuffer buf = new DataOutputBuffer();
+    IFile.Writer<Text, Text> writer =
+      new IFile.Writer<Text, Text>(conf, new FSDataOutputStream(buf, null),
+                                   Text.class, Text.class, null, null);
+    Random random = new Random(0);
+    final int numRecords = 1000;
+    for (int i = 0; i < numRecords; ++i) {
+      StringBuilder value = new StringBuilder();
+      // values of up to a few pages, and some larger than the first
+      // record buffer of the reader
+      int len = (i % 100 == 0) ? 10000 : random.nextInt(200);
+      for (int j = 0; j < len; ++j) {
+        value.append((char)('a' + random.nextInt(26)));
+      }
+      writer.append(new Text("key" + i), new Text(value.toString()));
+    }
+    writer.close();
+    // the map-output in memory holds the records, without the checksum
+    final int length = (int)writer.getRawLength();
+
+    DirectMemoryPool pool = new DirectMemoryPool(64);
+    ByteBuffer[] pages = pool.allocate(length);
+    pool.put(pages, 0, buf.getData(), 0, length);
+
+    CountingRamManager ramManager = new CountingRamManager();
+    TaskAttemptID id = new TaskAttemptID("test", 1, false, 0, 0);
+    final int reserved = pool.getReservedSize(length);
+    ramManager.reserve(reserved, null);
+    ramManager.reserve(length, null);
+    DirectMemoryReader<Text, Text> direct =
+      new DirectMemoryReader<Text, Text>(ramManager, id, pool, pages,
+                                         length, reserved);
+    InMemoryReader<Text, Text> heap =
+      new InMemoryReader<Text, Text>(ramManager, id, buf.getData(), 0,
+                                     length);
+    assertEquals(length, direct.getLength());
+
+    DataInputBuffer key = new DataInputBuffer();
+    DataInputBuffer value = new DataInputBuffer();
+    DataInputBuffer expectedKey = new DataInputBuffer();
+    DataInputBuffer expectedValue = new DataInputBuffer();
+    int records = 0;
+    while (heap.next(expectedKey, expectedValue)) {
+      assertTrue(direct.next(key, value));
+      assertEquals(0, Text.Comparator.compareBytes(
+          expectedKey.getData(), expectedKey.getPosition(),
+          expectedKey.getLength() - expectedKey.getPosition(),
+          key.getData(), key.getPosition(),
+          key.getLength() - key.getPosition()));
+      assertEquals(0, Text.Comparator.compareBytes(
+          expectedValue.getData(), expectedValue.getPosition(),
+          expectedValue.getLength() - expectedValue.getPosition(),
+          value.getData(), value.getPosition(),
+          value.getLength() - value.getPosition()));
+      assertEquals(heap.getPosition(), direct.getPosition());
+      ++records;
+    }
+    assertEquals(numRecords, records);
+    assertFalse(direct.next(key, value));
+    assertEquals(length, direct.getPosition());
+
+    // closing gives the pages and the reservation back, once
+    final long free = pool.getFreeBytes();
+    heap.close();
+    direct.close();
+    direct.close();
+    assertEquals(0, ramManager.reserved);
+    assertEquals(free + reserved, pool.getFreeBytes());
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.extensions.TestSetup;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+import org.apache.hadoop.mapred.TestSpillThreads.KeyMapper;
+import org.apache.hadoop.mapred.TestSpillThreads.SumReducer;
+
+/**
+ * Checks that reduces combining the map outputs as they arrive, see
+ * mapred.reduce.incremental.combine, produce the same output as reduces
+ * combining them only in the in-memory merges, with less reduce input.
+ */
+public class TestIncrementalCombine extends TestCase {
+
+  private static final int NUM_MAPS = 6;
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"),
+             "TestIncrementalCombine");
+
+  private static MiniMRCluster mrCluster = null;
+  public static Test suite() {
+    TestSetup setup =
+      new TestSetup(new TestSuite(TestIncrementalCombine.class)) {
+      protected void setUp() throws Exception {
+        mrCluster = new MiniMRCluster(1, "file:///", 1);
+      }
+      protected void tearDown() throws Exception {
+        if (mrCluster != null) { mrCluster.shutdown(); }
+      }
+    };
+    return setup;
+  }
+
+  private Counters runJob(String name, boolean incremental,
+      float shuffleBufferPercent, List<String> lines) throws Exception {
+    JobConf conf = mrCluster.createJobConf();
+    conf.setJobName(name);
+    conf.setBoolean("mapred.reduce.incremental.combine", incremental);
+    conf.setFloat("mapred.job.shuffle.input.buffer.percent",
+                  shuffleBufferPercent);
+    conf.setInt("io.sort.factor", 2);
+    conf.setNumMapTasks(NUM_MAPS);
+    conf.setNumReduceTasks(1);
+    conf.setInputFormat(FakeIF.class);
+    conf.setMapperClass(KeyMapper.class);
+    conf.setCombinerClass(SumReducer.class);
+    conf.setReducerClass(SumReducer.class);
+    conf.setOutputKeyClass(Text.class);
+    conf.setOutputValueClass(IntWritable.class);
+    FileInputFormat.setInputPaths(conf, new Path(TEST_DIR, "in"));
+    Path outDir = new Path(TEST_DIR, name);
+    FileOutputFormat.setOutputPath(conf, outDir);
+
+    FileSystem fs = outDir.getFileSystem(conf);
+    fs.delete(outDir, true);
+    RunningJob job = JobClient.runJob(conf);
+    assertTrue(job.isSuccessful());
+
+    for (FileStatus stat : fs.listStatus(outDir)) {
+      if (!stat.getPath().getName().startsWith("part-")) {
+        continue;
+      }
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(fs.open(stat.getPath())));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          lines.add(line);
+        }
+      } finally {
+        in.close();
+      }
+    }
+    fs.delete(outDir, true);
+    Collections.sort(lines);
+    return job.getCounters();
+  }
+
+  private void checkIncrementalCombine(String name,
+      float shuffleBufferPercent) throws Exception {
+    List<String> expected = new ArrayList<String>();
+    Counters plain =
+      runJob(name + "-plain", false, shuffleBufferPercent, expected);
+    List<String> lines = new ArrayList<String>();
+    Counters incremental =
+      runJob(name + "-incremental", true, shuffleBufferPercent, lines);
+    assertFalse(expected.isEmpty());
+    for (String line : expected) {
+      // every map emits every key twenty times
+      assertTrue(line, line.endsWith("\t" + (20 * NUM_MAPS)));
+    }
+    assertEquals(expected, lines);
+
+    final long plainInput =
+      plain.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter();
+    final long incrementalInput =
+      incremental.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter();
+    assertTrue("Expected less reduce input with incremental combine (" +
+        incrementalInput + ") than without (" + plainInput + ")",
+        incrementalInput < plainInput);
+    // the map outputs arriving last may be left to the final merge
+    assertTrue(incrementalInput >= expected.size());
+  }
+
+  public void testIncrementalCombineInMemory() throws Exception {
+    checkIncrementalCombine("memory", 0.70f);
+  }
+
+  public void testIncrementalCombineOnDisk() throws Exception {
+    // no map output fits in memory
+    checkIncrementalCombine("disk", 0.0f);
+  }
+}
@@ -21,6 +21,7 @@ import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedOutputStream;
 
@@ -104,6 +105,106 @@ public class TestIndexCache extends TestCase {
     checkRecord(rec, totalsize);
   }
 
+  public void testLRUPolicy() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf).getRaw();
+    Path p = new Path(System.getProperty("test.build.data", "/tmp"),
+        "cache").makeQualified(fs);
+    fs.delete(p, true);
+    conf.setInt("mapred.tasktracker.indexcache.mb", 1);
+    final int partsPerMap = 1000;
+    final int bytesPerFile = partsPerMap * 24;
+    final int numFiles = 1024 * 1024 / bytesPerFile;
+    IndexCache cache = new IndexCache(conf);
+
+    // fill cache
+    for (int i = 0; i < numFiles; ++i) {
+      Path f = new Path(p, Integer.toString(i));
+      writeFile(fs, f, i, partsPerMap);
+      checkRecord(cache.getIndexInformation(Integer.toString(i), 0, f), i);
+    }
+    assertEquals(numFiles * bytesPerFile, cache.getMemoryUsed());
+
+    // use the oldest, so that the second oldest is pushed out instead
+    checkRecord(cache.getIndexInformation("0", 0, new Path(p, "0")), 0);
+    for (FileStatus stat : fs.listStatus(p)) {
+      fs.delete(stat.getPath(), true);
+    }
+    Path f = new Path(p, Integer.toString(numFiles));
+    writeFile(fs, f, numFiles, partsPerMap);
+    checkRecord(cache.getIndexInformation(Integer.toString(numFiles), 0, f),
+        numFiles);
+    fs.delete(f, false);
+    checkRecord(cache.getIndexInformation("0", 0, new Path(p, "0")), 0);
+    try {
+      cache.getIndexInformation("1", 0, new Path(p, "1"));
+      fail("Failed to push out the least recently used entry");
+    } catch (IOException e) {
+      if (!(e.getCause() instanceof FileNotFoundException)) {
+        throw e;
+      }
+    }
+
+    // removed maps give their memory back
+    cache.removeMap("0");
+    assertEquals((numFiles - 1) * bytesPerFile, cache.getMemoryUsed());
+  }
+
+  public void testPrefetch() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf).getRaw();
+    Path p = new Path(System.getProperty("test.build.data", "/tmp"),
+        "cache").makeQualified(fs);
+    fs.delete(p, true);
+    conf.setBoolean("mapred.tasktracker.indexcache.prefetch", true);
+    IndexCache cache = new IndexCache(conf);
+    try {
+      final Path f = new Path(p, "prefetch");
+      writeFile(fs, f, 7, 10);
+      cache.prefetchIndexInformation("prefetch", new Callable<Path>() {
+        public Path call() {
+          return f;
+        }
+      });
+      // the index is read once the prefetch is done, not on request
+      for (int i = 0; i < 100 && cache.getMemoryUsed() == 0; ++i) {
+        Thread.sleep(100);
+      }
+      assertEquals(10 * MapTask.MAP_OUTPUT_INDEX_RECORD_LENGTH,
+          cache.getMemoryUsed());
+      fs.delete(f, false);
+      checkRecord(cache.getIndexInformation("prefetch", 3, f), 7);
+    } finally {
+      cache.close();
+    }
+  }
+
+  public void testUncompressedPartitions() throws Exception {
+    JobConf conf = new JobConf();
+    FileSystem fs = FileSystem.getLocal(conf).getRaw();
+    Path p = new Path(System.getProperty("test.build.data", "/tmp"),
+        "cache").makeQualified(fs);
+    fs.delete(p, true);
+    final int parts = 4;
+    SpillRecord spillRec = new SpillRecord(parts);
+    for (int i = 0; i < parts; ++i) {
+      IndexRecord rec = new IndexRecord(i, i * 1000L, i * 100L);
+      rec.uncompressed = (i % 2) == 1;
+      spillRec.putIndex(rec, i);
+    }
+    Path f = new Path(p, "uncompressed");
+    spillRec.writeToFile(f, conf);
+
+    IndexCache cache = new IndexCache(conf);
+    for (int i = 0; i < parts; ++i) {
+      IndexRecord rec = cache.getIndexInformation("uncompressed", i, f);
+      assertEquals(i, rec.startOffset);
+      assertEquals(i * 1000L, rec.rawLength);
+      assertEquals(i * 100L, rec.partLength);
+      assertEquals((i % 2) == 1, rec.uncompressed);
+    }
+  }
+
   public void testBadIndex() throws Exception {
     final int parts = 30;
     JobConf conf = new JobConf();
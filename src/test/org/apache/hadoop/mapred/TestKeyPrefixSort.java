@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+
+public class TestKeyPrefixSort extends TestCase {
+
+  // keys that are equal, shorter than and longer than a prefix, share
+  // prefixes, and have bytes that are negative as signed bytes
+  private static final byte[][] KEYS = {
+    {}, {0}, {0, 0}, {0, 0, 0, 0, 0}, {1}, {'a'}, {'a', 0}, {'a', 'b'},
+    {'a', 'b', 'c', 'd'}, {'a', 'b', 'c', 'd', 0}, {'a', 'b', 'c', 'd', 'e'},
+    {'a', 'b', 'c', 'd', 'f'}, {'a', 'b', 'c', 'e'}, {'b'}, {127},
+    {(byte)0x80}, {(byte)0xC3, (byte)0xA9}, {(byte)0xFF},
+    {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF},
+    {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 1}
+  };
+  private static final int REPEATS = 5000;
+
+  /** Emits every key REPEATS times, in random order. */
+  public static class KeyMapper
+      implements Mapper<NullWritable,NullWritable,
+                        WritableComparable<?>,IntWritable> {
+
+    private boolean text;
+
+    public void configure(JobConf job) {
+      text = job.getMapOutputKeyClass() == Text.class;
+    }
+
+    public void map(NullWritable nk, NullWritable nv,
+        OutputCollector<WritableComparable<?>,IntWritable> output,
+        Reporter reporter) throws IOException {
+      Random random = new Random(0);
+      IntWritable index = new IntWritable();
+      for (int i = 0; i < KEYS.length * REPEATS; ++i) {
+        int k = random.nextInt(KEYS.length);
+        index.set(k);
+        if (text) {
+          Text key = new Text();
+          key.set(KEYS[k]);
+          output.collect(key, index);
+        } else {
+          output.collect(new BytesWritable(KEYS[k]), index);
+        }
+      }
+    }
+
+    public void close() { }
+  }
+
+  /** Checks that the keys arrive in the order of KEYS, grouped. */
+  public static class OrderReducer
+      implements Reducer<WritableComparable<?>,IntWritable,
+                         NullWritable,NullWritable> {
+
+    private int last = -1;
+
+    public void configure(JobConf job) { }
+
+    public void reduce(WritableComparable<?> key,
+        Iterator<IntWritable> values,
+        OutputCollector<NullWritable,NullWritable> output,
+        Reporter reporter) throws IOException {
+      int index = values.next().get();
+      if (index <= last) {
+        throw new IOException("Key " + index + " after " + last);
+      }
+      while (values.hasNext()) {
+        if (values.next().get() != index) {
+          throw new IOException("Keys " + index + " not grouped");
+        }
+      }
+      last = index;
+    }
+
+    public void close() { }
+  }
+
+  private void runSort(Class<? extends WritableComparable> keyClass,
+      boolean keyPrefix) throws Exception {
+    JobConf conf = new JobConf(TestKeyPrefixSort.class);
+    conf.set("mapred.job.tracker", "local");
+    conf.setBoolean("io.sort.key.prefix", keyPrefix);
+    conf.setInt("io.sort.mb", 1);
+    conf.setNumMapTasks(1);
+    conf.setNumReduceTasks(1);
+    conf.setInputFormat(FakeIF.class);
+    conf.setOutputFormat(NullOutputFormat.class);
+    conf.setMapperClass(KeyMapper.class);
+    conf.setReducerClass(OrderReducer.class);
+    conf.setMapOutputKeyClass(keyClass);
+    conf.setMapOutputValueClass(IntWritable.class);
+    RunningJob job = JobClient.runJob(conf);
+    assertTrue(job.isSuccessful());
+    assertEquals(KEYS.length, job.getCounters().findCounter(
+        Task.Counter.REDUCE_INPUT_GROUPS).getCounter());
+  }
+
+  public void testTextKeys() throws Exception {
+    runSort(Text.class, false);
+    runSort(Text.class, true);
+  }
+
+  public void testBytesWritableKeys() throws Exception {
+    runSort(BytesWritable.class, false);
+    runSort(BytesWritable.class, true);
+  }
+
+  public void testOtherKeys() throws Exception {
+    JobConf conf = new JobConf(TestKeyPrefixSort.class);
+    conf.set("mapred.job.tracker", "local");
+    conf.setBoolean("io.sort.key.prefix", true);
+    conf.setNumReduceTasks(1);
+    conf.setInputFormat(FakeIF.class);
+    conf.setOutputFormat(NullOutputFormat.class);
+    conf.setMapperClass(TestMapCollection.SpillMapper.class);
+    conf.setReducerClass(TestMapCollection.SpillReducer.class);
+    conf.setMapOutputKeyClass(TestMapCollection.KeyWritable.class);
+    conf.setMapOutputValueClass(TestMapCollection.ValWritable.class);
+    // keys without a prefix comparator are sorted as before
+    assertTrue(JobClient.runJob(conf).isSuccessful());
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.mapred.JobClient.RawSplit;
+import org.apache.hadoop.net.NetworkTopology;
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.net.NodeBase;
+
+public class TestLocalityIndex extends TestCase {
+
+  private final JobConf conf = new JobConf();
+  private final JobID jobId = new JobID("test", 1);
+  private final NetworkTopology topology = new NetworkTopology();
+  private final Node host1 = new NodeBase("host1", "/rack1");
+  private final Node host2 = new NodeBase("host2", "/rack1");
+  private final Node host3 = new NodeBase("host3", "/rack2");
+  private Node rack1;
+  private Node rack2;
+
+  @Override
+  protected void setUp() {
+    topology.add(host1);
+    topology.add(host2);
+    topology.add(host3);
+    rack1 = host1.getParent();
+    rack2 = host3.getParent();
+  }
+
+  private TaskInProgress newTip(int partition) {
+    return new TaskInProgress(jobId, "", new RawSplit(), null, conf, null,
+                              partition, 1);
+  }
+
+  /** Queues the tip at the hosts and at their racks. */
+  private void add(LocalityIndex index, TaskInProgress tip, Node... hosts) {
+    for (Node host : hosts) {
+      index.add(host, tip);
+      index.add(host.getParent(), tip);
+    }
+  }
+
+  private List<TaskInProgress> queue(LocalityIndex index, Node node) {
+    List<TaskInProgress> tips = new ArrayList<TaskInProgress>();
+    for (Iterator<TaskInProgress> it = index.iterator(node); it.hasNext();) {
+      tips.add(it.next());
+    }
+    return tips;
+  }
+
+  public void testAddAndRemove() {
+    LocalityIndex index = new LocalityIndex();
+    TaskInProgress tip0 = newTip(0);
+    TaskInProgress tip1 = newTip(1);
+    TaskInProgress tip2 = newTip(2);
+    add(index, tip0, host1, host2);
+    add(index, tip1, host2, host3);
+    add(index, tip2, host3);
+
+    assertEquals(3, index.size());
+    assertEquals(1, index.size(host1));
+    assertEquals(2, index.size(host2));
+    // a tip local to two hosts of a rack is queued once at the rack
+    assertEquals(2, index.size(rack1));
+    assertEquals(2, index.size(rack2));
+    assertEquals(2, queue(index, rack2).size());
+    assertSame(tip1, queue(index, rack2).get(0));
+
+    // scheduling a tip takes it out of every queue
+    assertTrue(index.remove(tip1));
+    assertFalse(index.remove(tip1));
+    assertEquals(2, index.size());
+    assertEquals(1, index.size(host2));
+    assertEquals(1, index.size(rack1));
+    assertEquals(1, index.size(host3));
+    assertSame(tip2, queue(index, rack2).get(0));
+
+    assertTrue(index.remove(tip2));
+    assertFalse(index.containsNode(host3));
+    assertFalse(index.containsNode(rack2));
+    assertFalse(index.iterator(rack2).hasNext());
+  }
+
+  public void testAddFirst() {
+    LocalityIndex index = new LocalityIndex();
+    TaskInProgress tip0 = newTip(0);
+    TaskInProgress tip1 = newTip(1);
+    TaskInProgress tip2 = newTip(2);
+    add(index, tip0, host1);
+    add(index, tip1, host1);
+
+    // a failed tip goes to the front, whether or not it is still queued
+    index.addFirst(host1, tip1);
+    index.addFirst(rack1, tip1);
+    assertEquals(2, index.size(host1));
+    assertSame(tip1, queue(index, host1).get(0));
+    assertSame(tip0, queue(index, host1).get(1));
+
+    index.addFirst(host1, tip2);
+    assertEquals(3, index.size(host1));
+    assertSame(tip2, queue(index, host1).get(0));
+
+    // a node whose queue emptied is queued at again
+    index.remove(tip0);
+    index.remove(tip1);
+    index.remove(tip2);
+    assertEquals(0, index.size());
+    index.addFirst(host1, tip0);
+    assertEquals(1, index.size(host1));
+    assertSame(tip0, queue(index, host1).get(0));
+  }
+
+  public void testIterator() {
+    LocalityIndex index = new LocalityIndex();
+    List<TaskInProgress> tips = new ArrayList<TaskInProgress>();
+    for (int i = 0; i < 5; ++i) {
+      TaskInProgress tip = newTip(i);
+      tips.add(tip);
+      add(index, tip, host1, host2);
+    }
+
+    // removing through the iterator only drops the tip from that queue
+    Iterator<TaskInProgress> it = index.iterator(host1);
+    assertSame(tips.get(0), it.next());
+    it.remove();
+    assertEquals(4, index.size(host1));
+    assertEquals(5, index.size(host2));
+    assertEquals(5, index.size());
+
+    // removing the current tip from the whole index while iterating
+    assertSame(tips.get(1), it.next());
+    index.remove(tips.get(1));
+    assertSame(tips.get(2), it.next());
+    assertEquals(4, index.size(host2));
+    assertEquals(4, index.size(rack1));
+
+    Iterator<TaskInProgress> all = index.iterator(host2);
+    int count = 0;
+    while (all.hasNext()) {
+      all.next();
+      all.remove();
+      ++count;
+    }
+    assertEquals(4, count);
+    assertFalse(index.containsNode(host2));
+    // the tips are still queued at host1 and the rack
+    assertEquals(3, index.size(host1));
+    assertEquals(4, index.size());
+  }
+}
@@ -254,6 +254,30 @@ public class TestMiniMRWithDFS extends TestCase {
     }
   }
   
+  public void testWithDFSSkippingDefaultResources() throws IOException {
+    MiniDFSCluster dfs = null;
+    MiniMRCluster mr = null;
+    FileSystem fileSys = null;
+    try {
+      final int taskTrackers = 2;
+
+      Configuration conf = new Configuration();
+      dfs = new MiniDFSCluster(conf, 2, true, null);
+      fileSys = dfs.getFileSystem();
+      JobConf trackerConf = new JobConf();
+      trackerConf.setBoolean(TaskTracker.SKIP_DEFAULT_RESOURCES_KEY, true);
+      mr = new MiniMRCluster(taskTrackers, fileSys.getUri().toString(), 1,
+                             null, null, trackerConf);
+
+      runPI(mr, mr.createJobConf());
+      runWordCount(mr, mr.createJobConf());
+    } finally {
+      if (dfs != null) { dfs.shutdown(); }
+      if (mr != null) { mr.shutdown();
+      }
+    }
+  }
+
   public void testWithDFSWithDefaultPort() throws IOException {
     MiniDFSCluster dfs = null;
     MiniMRCluster mr = null;
@@ -19,6 +19,8 @@
 package org.apache.hadoop.mapred;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.Arrays;
 
 import junit.framework.Test;
@@ -135,6 +137,61 @@ public class TestReduceFetch extends TestCase {
         hdfsWritten >= localRead + 1024 * 1024);
   }
 
+  public void testReduceFromPartialMemBatchedFetch() throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    job.setNumMapTasks(5);
+    job.setInt("mapred.reduce.shuffle.maps.per.fetch", 5);
+    job.setInt("mapred.inmem.merge.threshold", 0);
+    job.set("mapred.job.reduce.input.buffer.percent", "1.0");
+    job.setInt("mapred.reduce.parallel.copies", 1);
+    job.setInt("io.sort.mb", 10);
+    job.set(JobConf.MAPRED_REDUCE_TASK_JAVA_OPTS, "-Xmx140m");
+    job.set("mapred.job.shuffle.input.buffer.percent", "0.14");
+    job.setNumTasksToExecutePerJvm(1);
+    job.set("mapred.job.shuffle.merge.percent", "1.0");
+    Counters c = runJob(job);
+    assertEquals(5 * 4 * 1024,
+        c.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter());
+  }
+
+  public void testReduceFromPartialDirectMem() throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    job.setNumMapTasks(5);
+    job.setBoolean("mapred.job.shuffle.direct.memory", true);
+    job.setInt("mapred.inmem.merge.threshold", 0);
+    job.set("mapred.job.reduce.input.buffer.percent", "1.0");
+    job.setInt("mapred.reduce.parallel.copies", 1);
+    job.setInt("io.sort.mb", 10);
+    job.set(JobConf.MAPRED_REDUCE_TASK_JAVA_OPTS,
+            "-Xmx140m -XX:MaxDirectMemorySize=140m");
+    job.set("mapred.job.shuffle.input.buffer.percent", "0.14");
+    job.setNumTasksToExecutePerJvm(1);
+    job.set("mapred.job.shuffle.merge.percent", "1.0");
+    Counters c = runJob(job);
+    assertEquals(5 * 4 * 1024,
+        c.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter());
+    final long hdfsWritten = c.findCounter(Task.FILESYSTEM_COUNTER_GROUP, 
+        Task.getFileSystemCounterNames("hdfs")[1]).getCounter();
+    final long localRead = c.findCounter(Task.FILESYSTEM_COUNTER_GROUP, 
+        Task.getFileSystemCounterNames("file")[0]).getCounter();
+    assertTrue("Expected at least 1MB fewer bytes read from local (" +
+        localRead + ") than written to HDFS (" + hdfsWritten + ")",
+        hdfsWritten >= localRead + 1024 * 1024);
+  }
+
+  public void testReduceFromDirectMem() throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    job.setBoolean("mapred.job.shuffle.direct.memory", true);
+    job.set("mapred.job.reduce.input.buffer.percent", "1.0");
+    job.setNumMapTasks(3);
+    Counters c = runJob(job);
+    assertEquals(3 * 4 * 1024,
+        c.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter());
+    final long localRead = c.findCounter(Task.FILESYSTEM_COUNTER_GROUP, 
+        Task.getFileSystemCounterNames("file")[0]).getCounter();
+    assertTrue("Non-zero read from local: " + localRead, localRead == 0);
+  }
+
   public void testReduceFromMem() throws Exception {
     JobConf job = mrCluster.createJobConf();
     job.set("mapred.job.reduce.input.buffer.percent", "1.0");
@@ -145,4 +202,14 @@ public class TestReduceFetch extends TestCase {
     assertTrue("Non-zero read from local: " + localRead, localRead == 0);
   }
 
+  public void testInvalidMapIds() throws Exception {
+    TaskTracker tt = mrCluster.getTaskTrackerRunner(0).getTaskTracker();
+    HttpURLConnection conn = (HttpURLConnection)new URL("http://localhost:" +
+        tt.getHttpPort() + "/mapOutput?job=job_200707121733_0001" +
+        "&maps=attempt_200707121733_0001_m_000000_0,bogus&reduce=0"
+        ).openConnection();
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, conn.getResponseCode());
+    conn.disconnect();
+  }
+
 }
@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.extensions.TestSetup;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+
+/**
+ * Tests shuffling map outputs through the {@link ShuffleServer}.
+ */
+public class TestShuffleServer extends TestCase {
+
+  private static final int NUM_MAPS = 4;
+  private static final int RECORDS_PER_MAP = 10000;
+
+  private static MiniMRCluster mrCluster = null;
+
+  public static Test suite() {
+    TestSetup setup = new TestSetup(new TestSuite(TestShuffleServer.class)) {
+      protected void setUp() throws Exception {
+        JobConf conf = new JobConf();
+        conf.setBoolean("mapred.task.tracker.shuffle.nio", true);
+        mrCluster = new MiniMRCluster(2, "file:///", 1, null, null, conf);
+      }
+      protected void tearDown() throws Exception {
+        if (mrCluster != null) { mrCluster.shutdown(); }
+      }
+    };
+    return setup;
+  }
+
+  public static class RecordMapper
+      implements Mapper<NullWritable,NullWritable,IntWritable,Text> {
+
+    public void map(NullWritable nk, NullWritable nv,
+        OutputCollector<IntWritable, Text> output, Reporter reporter)
+        throws IOException {
+      IntWritable key = new IntWritable();
+      Text val = new Text();
+      for (int i = 0; i < RECORDS_PER_MAP; ++i) {
+        key.set(i);
+        val.set("value of record " + i);
+        output.collect(key, val);
+      }
+    }
+    public void configure(JobConf conf) { }
+    public void close() throws IOException { }
+  }
+
+  private static Counters runJob(JobConf conf) throws Exception {
+    conf.setMapperClass(RecordMapper.class);
+    conf.setReducerClass(IdentityReducer.class);
+    conf.setOutputKeyClass(IntWritable.class);
+    conf.setOutputValueClass(Text.class);
+    conf.setNumMapTasks(NUM_MAPS);
+    conf.setNumReduceTasks(2);
+    conf.setInputFormat(FakeIF.class);
+    FileInputFormat.setInputPaths(conf, new Path("/in"));
+    Path outp = new Path(System.getProperty("test.build.data", "/tmp"),
+                         "shuffleserver-out");
+    FileOutputFormat.setOutputPath(conf, outp);
+    FileSystem fs = FileSystem.getLocal(conf);
+    fs.delete(outp, true);
+    try {
+      RunningJob job = JobClient.runJob(conf);
+      assertTrue(job.isSuccessful());
+      return job.getCounters();
+    } finally {
+      fs.delete(outp, true);
+    }
+  }
+
+  private static void checkCounters(Counters c) {
+    assertEquals(NUM_MAPS * RECORDS_PER_MAP,
+        c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter());
+    assertEquals(NUM_MAPS * RECORDS_PER_MAP,
+        c.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter());
+  }
+
+  public void testShuffleToMemory() throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    checkCounters(runJob(job));
+  }
+
+  public void testShuffleToDisk() throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    job.set("mapred.job.shuffle.input.buffer.percent", "0.0");
+    checkCounters(runJob(job));
+  }
+
+  public void testBatchedShuffleToMemory() throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    job.setInt("mapred.reduce.shuffle.maps.per.fetch", NUM_MAPS);
+    checkCounters(runJob(job));
+  }
+
+  public void testBatchedShuffleToDisk() throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    job.setInt("mapred.reduce.shuffle.maps.per.fetch", 3);
+    job.set("mapred.job.shuffle.input.buffer.percent", "0.0");
+    checkCounters(runJob(job));
+  }
+
+  private static void checkAdaptiveCompression(int mapsPerFetch,
+      String shuffleBufferPercent) throws Exception {
+    JobConf job = mrCluster.createJobConf();
+    job.setCompressMapOutput(true);
+    job.setBoolean("mapred.compress.map.output.adaptive", true);
+    // no compression saves enough: partitions are written uncompressed
+    // from the second spill on
+    job.setFloat("mapred.compress.map.output.adaptive.min.savings", 1.0f);
+    job.setInt("io.sort.mb", 1);
+    job.setInt("mapred.reduce.shuffle.maps.per.fetch", mapsPerFetch);
+    job.set("mapred.job.shuffle.input.buffer.percent", shuffleBufferPercent);
+    checkCounters(runJob(job));
+  }
+
+  public void testAdaptiveCompression() throws Exception {
+    checkAdaptiveCompression(1, "0.70");
+    checkAdaptiveCompression(1, "0.0");
+  }
+
+  public void testBatchedAdaptiveCompression() throws Exception {
+    checkAdaptiveCompression(NUM_MAPS, "0.70");
+    checkAdaptiveCompression(3, "0.0");
+  }
+
+  public void testRedirectAndErrors() throws Exception {
+    TaskTracker tt = mrCluster.getTaskTrackerRunner(0).getTaskTracker();
+    ShuffleServer shuffleServer = tt.getShuffleServer();
+    assertNotNull(shuffleServer);
+    String query = "/mapOutput?job=job_200707121733_0001" +
+      "&map=attempt_200707121733_0001_m_000000_0&reduce=0";
+
+    // the http server sends map output requests to the shuffle server
+    HttpURLConnection conn = (HttpURLConnection)new URL(
+        "http://localhost:" + tt.getHttpPort() + query).openConnection();
+    conn.setInstanceFollowRedirects(false);
+    assertEquals(HttpURLConnection.HTTP_MOVED_TEMP, conn.getResponseCode());
+    URL location = new URL(conn.getHeaderField("Location"));
+    assertEquals(shuffleServer.getPort(), location.getPort());
+    assertEquals(query, location.getFile());
+    conn.disconnect();
+
+    // an unknown map output is gone
+    conn = (HttpURLConnection)location.openConnection();
+    assertEquals(HttpURLConnection.HTTP_GONE, conn.getResponseCode());
+    conn.disconnect();
+
+    // incomplete requests are refused
+    conn = (HttpURLConnection)new URL("http://localhost:" +
+        shuffleServer.getPort() + "/mapOutput?job=x").openConnection();
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, conn.getResponseCode());
+    conn.disconnect();
+    conn = (HttpURLConnection)new URL("http://localhost:" +
+        shuffleServer.getPort() + "/tasklog").openConnection();
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, conn.getResponseCode());
+    conn.disconnect();
+    conn = (HttpURLConnection)new URL("http://localhost:" +
+        shuffleServer.getPort() + "/mapOutput?job=job_200707121733_0001" +
+        "&maps=attempt_200707121733_0001_m_000000_0,bogus&reduce=0"
+        ).openConnection();
+    assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, conn.getResponseCode());
+    conn.disconnect();
+  }
+
+  public void testReadRequest() throws Exception {
+    ShuffleServer.Request request = ShuffleServer.readRequest(
+        new ByteArrayInputStream((
+            "GET /mapOutput?job=job_1_2&map=attempt%5F1&reduce=3 HTTP/1.1\r\n" +
+            "Host: localhost:1234\r\n" +
+            "Accept: */*\r\n\r\n").getBytes("ISO-8859-1")));
+    Map<String, String> params = request.params;
+    assertEquals("job_1_2", params.get("job"));
+    assertEquals("attempt_1", params.get("map"));
+    assertEquals("3", params.get("reduce"));
+    assertTrue(request.keepAlive);
+
+    // the reduce may close the connection
+    request = ShuffleServer.readRequest(new ByteArrayInputStream((
+        "GET /mapOutput?job=j&maps=a,b&reduce=0 HTTP/1.1\r\n" +
+        "Connection: close\r\n\r\n").getBytes("ISO-8859-1")));
+    assertEquals("a,b", request.params.get("maps"));
+    assertFalse(request.keepAlive);
+    request = ShuffleServer.readRequest(new ByteArrayInputStream((
+        "GET /mapOutput?job=j&map=a&reduce=0 HTTP/1.0\r\n\r\n"
+        ).getBytes("ISO-8859-1")));
+    assertFalse(request.keepAlive);
+    assertNull(ShuffleServer.readRequest(new ByteArrayInputStream(new byte[0])));
+
+    String[] bad = {
+      "POST /mapOutput?job=1 HTTP/1.1\r\n\r\n",
+      "GET /other?job=1 HTTP/1.1\r\n\r\n",
+      "GET /mapOutput?job=1 HTTP/1.1\r\nHost: x\r\n"
+    };
+    for (String badRequest : bad) {
+      try {
+        ShuffleServer.readRequest(
+            new ByteArrayInputStream(badRequest.getBytes("ISO-8859-1")));
+        fail("Accepted " + badRequest);
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import junit.extensions.TestSetup;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+
+/**
+ * Checks that maps sorting and writing the partitions of their spills on
+ * several threads produce the same output as maps doing it on the spill
+ * thread alone.
+ */
+public class TestSpillThreads extends TestCase {
+
+  private static final int NUM_KEYS = 5000;
+  private static final Path TEST_DIR =
+    new Path(System.getProperty("test.build.data", "/tmp"),
+             "TestSpillThreads");
+
+  private static MiniMRCluster mrCluster = null;
+  public static Test suite() {
+    TestSetup setup = new TestSetup(new TestSuite(TestSpillThreads.class)) {
+      protected void setUp() throws Exception {
+        mrCluster = new MiniMRCluster(1, "file:///", 1);
+      }
+      protected void tearDown() throws Exception {
+        if (mrCluster != null) { mrCluster.shutdown(); }
+      }
+    };
+    return setup;
+  }
+
+  /** Emits every key a number of times, in an order that is not sorted. */
+  public static class KeyMapper
+      implements Mapper<NullWritable,NullWritable,Text,IntWritable> {
+
+    public void map(NullWritable nk, NullWritable nv,
+        OutputCollector<Text,IntWritable> output, Reporter reporter)
+        throws IOException {
+      Text key = new Text();
+      IntWritable one = new IntWritable(1);
+      for (int i = 0; i < 20 * NUM_KEYS; ++i) {
+        key.set("key" + ((i * 7919) % NUM_KEYS) + "_" +
+                "PADPADPADPADPADPADPADPADPADPADPADPADPADPADPADPAD");
+        output.collect(key, one);
+      }
+    }
+    public void configure(JobConf conf) { }
+    public void close() throws IOException { }
+  }
+
+  /** Sums the counts of a key, checking that keys arrive sorted. */
+  public static class SumReducer
+      implements Reducer<Text,IntWritable,Text,IntWritable> {
+
+    private Text last = null;
+
+    public void reduce(Text key, Iterator<IntWritable> values,
+        OutputCollector<Text,IntWritable> output, Reporter reporter)
+        throws IOException {
+      if (last != null && last.compareTo(key) >= 0) {
+        throw new IOException("Key " + key + " after " + last);
+      }
+      last = new Text(key);
+      int sum = 0;
+      while (values.hasNext()) {
+        sum += values.next().get();
+      }
+      output.collect(key, new IntWritable(sum));
+    }
+    public void configure(JobConf conf) { }
+    public void close() throws IOException { }
+  }
+
+  private List<String> runJob(String name, int spillThreads,
+      boolean combine, boolean compress, boolean keyPrefix,
+      float recordPercent) throws Exception {
+    JobConf conf = mrCluster.createJobConf();
+    conf.setJobName(name);
+    conf.setInt("io.sort.spill.threads", spillThreads);
+    conf.setBoolean("io.sort.key.prefix", keyPrefix);
+    conf.setInt("io.sort.mb", 1);
+    conf.setFloat("io.sort.record.percent", recordPercent);
+    conf.setNumMapTasks(2);
+    conf.setNumReduceTasks(3);
+    conf.setInputFormat(FakeIF.class);
+    conf.setMapperClass(KeyMapper.class);
+    if (combine) {
+      conf.setCombinerClass(SumReducer.class);
+    }
+    conf.setReducerClass(SumReducer.class);
+    conf.setOutputKeyClass(Text.class);
+    conf.setOutputValueClass(IntWritable.class);
+    conf.setCompressMapOutput(compress);
+    FileInputFormat.setInputPaths(conf, new Path(TEST_DIR, "in"));
+    Path outDir = new Path(TEST_DIR, name);
+    FileOutputFormat.setOutputPath(conf, outDir);
+
+    FileSystem fs = outDir.getFileSystem(conf);
+    fs.delete(outDir, true);
+    RunningJob job = JobClient.runJob(conf);
+    assertTrue(job.isSuccessful());
+    Counters counters = job.getCounters();
+    assertTrue("Expected several spills per map",
+        counters.findCounter(Task.Counter.SPILLED_RECORDS).getCounter() >
+        counters.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter() +
+        counters.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter());
+
+    List<String> lines = new ArrayList<String>();
+    for (FileStatus stat : fs.listStatus(outDir)) {
+      if (!stat.getPath().getName().startsWith("part-")) {
+        continue;
+      }
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(fs.open(stat.getPath())));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          lines.add(line);
+        }
+      } finally {
+        in.close();
+      }
+    }
+    fs.delete(outDir, true);
+    Collections.sort(lines);
+    return lines;
+  }
+
+  private void checkSpillThreads(String name, boolean combine,
+      boolean compress, boolean keyPrefix) throws Exception {
+    checkSpillThreads(name, combine, compress, keyPrefix, 0.05f);
+  }
+
+  private void checkSpillThreads(String name, boolean combine,
+      boolean compress, boolean keyPrefix, float recordPercent)
+      throws Exception {
+    List<String> expected =
+      runJob(name + "-1", 1, combine, compress, false, recordPercent);
+    assertEquals(NUM_KEYS, expected.size());
+    for (String line : expected) {
+      // two maps emit every key twenty times
+      assertTrue(line, line.endsWith("\t40"));
+    }
+    assertEquals(expected,
+                 runJob(name + "-3", 3, combine, compress, keyPrefix,
+                        recordPercent));
+  }
+
+  public void testSpillThreads() throws Exception {
+    checkSpillThreads("plain", false, false, false);
+  }
+
+  public void testSpillThreadsWithCombiner() throws Exception {
+    checkSpillThreads("combine", true, false, false);
+  }
+
+  public void testSpillThreadsWithCompression() throws Exception {
+    checkSpillThreads("compress", true, true, false);
+  }
+
+  public void testSpillThreadsWithKeyPrefix() throws Exception {
+    checkSpillThreads("prefix", false, false, true);
+  }
+
+  /**
+   * Spills that fill the data buffer rather than the record buffer have
+   * partitions of more than a quarter of the buffer, which are written
+   * one at a time.
+   */
+  public void testSpillThreadsWithLargePartitions() throws Exception {
+    checkSpillThreads("large", false, false, false, 0.5f);
+  }
+
+  public void testInvalidSpillThreads() throws Exception {
+    JobConf conf = mrCluster.createJobConf();
+    conf.setInt("io.sort.spill.threads", 0);
+    conf.setNumMapTasks(1);
+    conf.setNumReduceTasks(2);
+    conf.setInputFormat(FakeIF.class);
+    conf.setMapperClass(KeyMapper.class);
+    conf.setMaxMapAttempts(1);
+    conf.setOutputKeyClass(Text.class);
+    conf.setOutputValueClass(IntWritable.class);
+    FileInputFormat.setInputPaths(conf, new Path(TEST_DIR, "in"));
+    Path outDir = new Path(TEST_DIR, "invalid");
+    FileOutputFormat.setOutputPath(conf, outDir);
+
+    FileSystem fs = outDir.getFileSystem(conf);
+    fs.delete(outDir, true);
+    RunningJob job = new JobClient(conf).submitJob(conf);
+    job.waitForCompletion();
+    assertFalse(job.isSuccessful());
+    fs.delete(outDir, true);
+  }
+}
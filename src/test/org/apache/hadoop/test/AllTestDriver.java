@@ -21,6 +21,8 @@ package org.apache.hadoop.test;
 import org.apache.hadoop.util.ProgramDriver;
 import org.apache.hadoop.mapred.BigMapOutput;
 import org.apache.hadoop.mapred.GenericMRLoadGenerator;
+import org.apache.hadoop.mapred.HeartbeatBenchmark;
+import org.apache.hadoop.mapred.MapSortBenchmark;
 import org.apache.hadoop.mapred.MRBench;
 import org.apache.hadoop.mapred.ReliabilityTest;
 import org.apache.hadoop.mapred.SortValidator;
@@ -53,6 +55,8 @@ public class AllTestDriver {
                    "A map/reduce benchmark that compares the performance " + 
                    "of maps with multiple spills over maps with 1 spill");
       pgd.addClass("mrbench", MRBench.class, "A map/reduce benchmark that can create many small jobs");
+      pgd.addClass("mapsortbench", MapSortBenchmark.class, "A benchmark of the map-side sort on key prefixes against the sort on full keys.");
+      pgd.addClass("heartbeatbench", HeartbeatBenchmark.class, "A benchmark that drives the jobtracker with simulated tasktracker heartbeats.");
       pgd.addClass("nnbench", NNBench.class, "A benchmark that stresses the namenode.");
       pgd.addClass("mapredtest", TestMapRed.class, "A map/reduce test check.");
       pgd.addClass("testfilesystem", TestFileSystem.class, "A test for FileSystem read/write.");
@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import org.apache.hadoop.fs.ChecksumException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the checksum types and the bulk checksum calls of DataChecksum.
+ */
+public class TestDataChecksum {
+  private static final int BYTES_PER_CHECKSUM = 512;
+  private static final int[] TYPES = {
+      DataChecksum.CHECKSUM_CRC32, DataChecksum.CHECKSUM_CRC32C};
+
+  @Test
+  public void testTypeNames() {
+    Assert.assertEquals(DataChecksum.CHECKSUM_CRC32,
+                        DataChecksum.getChecksumTypeByName("CRC32"));
+    Assert.assertEquals(DataChecksum.CHECKSUM_CRC32C,
+                        DataChecksum.getChecksumTypeByName(" crc32c "));
+    Assert.assertEquals(DataChecksum.CHECKSUM_CRC32C,
+                        DataChecksum.getChecksumTypeByName("2"));
+    try {
+      DataChecksum.getChecksumTypeByName("MD5");
+      Assert.fail("MD5 is not a checksum type");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testHeaderRoundTrip() throws Exception {
+    for (int type : TYPES) {
+      DataChecksum sum = DataChecksum.newDataChecksum(type, BYTES_PER_CHECKSUM);
+      Assert.assertEquals(4, sum.getChecksumSize());
+      DataChecksum read = DataChecksum.newDataChecksum(sum.getHeader(), 0);
+      Assert.assertEquals(type, read.getChecksumType());
+      Assert.assertEquals(BYTES_PER_CHECKSUM, read.getBytesPerChecksum());
+    }
+  }
+
+  @Test
+  public void testChunkedSums() throws Exception {
+    Random r = new Random();
+    for (int type : TYPES) {
+      // a partial last chunk and an offset into both buffers
+      int len = BYTES_PER_CHECKSUM * 7 + 100;
+      byte[] data = new byte[len + 3];
+      r.nextBytes(data);
+      byte[] sums = new byte[2 + 8 * 4];
+      DataChecksum sum = DataChecksum.newDataChecksum(type, BYTES_PER_CHECKSUM);
+      sum.calculateChunkedSums(data, 3, len, sums, 2);
+
+      // the bulk sums agree with the chunk at a time interface
+      DataChecksum single =
+        DataChecksum.newDataChecksum(type, BYTES_PER_CHECKSUM);
+      for (int i = 0; i < 8; i++) {
+        int off = 3 + i * BYTES_PER_CHECKSUM;
+        single.reset();
+        single.update(data, off, Math.min(BYTES_PER_CHECKSUM, len + 3 - off));
+        Assert.assertTrue(single.compare(sums, 2 + i * 4));
+      }
+
+      sum.verifyChunkedSums(data, 3, len, sums, 2, "test", 0);
+
+      // corrupt a byte in the sixth chunk
+      data[3 + 5 * BYTES_PER_CHECKSUM + 17] ^= 1;
+      try {
+        sum.verifyChunkedSums(data, 3, len, sums, 2, "test", 1024);
+        Assert.fail("corruption was not detected");
+      } catch (ChecksumException ce) {
+        Assert.assertEquals(1024 + 5 * BYTES_PER_CHECKSUM, ce.getPos());
+      }
+    }
+  }
+
+  @Test
+  public void testTypesDiffer() throws Exception {
+    byte[] data = "hello world!".getBytes("UTF-8");
+    byte[] crc32 = new byte[4];
+    byte[] crc32c = new byte[4];
+    DataChecksum.newDataChecksum(DataChecksum.CHECKSUM_CRC32,
+        BYTES_PER_CHECKSUM).calculateChunkedSums(data, 0, data.length, crc32, 0);
+    DataChecksum.newDataChecksum(DataChecksum.CHECKSUM_CRC32C,
+        BYTES_PER_CHECKSUM).calculateChunkedSums(data, 0, data.length, crc32c, 0);
+    Assert.assertFalse(java.util.Arrays.equals(crc32, crc32c));
+  }
+
+  @Test
+  public void testGivenSummer() throws Exception {
+    byte[] data = "hello world!".getBytes("UTF-8");
+    Checksum[] summers = {new CRC32(), new PureJavaCrc32C()};
+    for (int i = 0; i < TYPES.length; i++) {
+      DataChecksum given = DataChecksum.newDataChecksum(TYPES[i],
+          BYTES_PER_CHECKSUM, summers[i]);
+      DataChecksum own = DataChecksum.newDataChecksum(TYPES[i],
+          BYTES_PER_CHECKSUM);
+      given.update(data, 0, data.length);
+      own.update(data, 0, data.length);
+      Assert.assertEquals(own.getValue(), given.getValue());
+      Assert.assertEquals(own.getValue(), summers[i].getValue());
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test to verify that the slicing-by-8 CRC32C implementation gives
+ * the same results as a straightforward bitwise one and the published
+ * CRC32C check values.
+ */
+public class TestPureJavaCrc32C {
+  private final BitwiseCrc32C theirs = new BitwiseCrc32C();
+  private final PureJavaCrc32C ours = new PureJavaCrc32C();
+
+  @Test
+  public void testKnownValues() throws Exception {
+    Assert.assertEquals(0xE3069283L, crcOf("123456789".getBytes("US-ASCII")));
+    // test vectors from RFC 3720, appendix B.4
+    Assert.assertEquals(0x8A9136AAL, crcOf(new byte[32]));
+    byte[] ones = new byte[32];
+    byte[] ascending = new byte[32];
+    byte[] descending = new byte[32];
+    for (int i = 0; i < 32; i++) {
+      ones[i] = (byte)0xff;
+      ascending[i] = (byte)i;
+      descending[i] = (byte)(31 - i);
+    }
+    Assert.assertEquals(0x62A8AB43L, crcOf(ones));
+    Assert.assertEquals(0x46DD794EL, crcOf(ascending));
+    Assert.assertEquals(0x113FDB5CL, crcOf(descending));
+  }
+
+  @Test
+  public void testCorrectness() throws Exception {
+    checkSame();
+
+    theirs.update(104);
+    ours.update(104);
+    checkSame();
+
+    checkOnBytes(new byte[] {40, 60, 97, -70});
+    checkOnBytes("hello world!".getBytes("UTF-8"));
+
+    Random r = new Random();
+    for (int i = 0; i < 2000; i++) {
+      byte randomBytes[] = new byte[r.nextInt(2048)];
+      r.nextBytes(randomBytes);
+      checkOnBytes(randomBytes);
+    }
+  }
+
+  private long crcOf(byte[] bytes) {
+    ours.reset();
+    ours.update(bytes, 0, bytes.length);
+    return ours.getValue();
+  }
+
+  private void checkOnBytes(byte[] bytes) {
+    theirs.reset();
+    ours.reset();
+    checkSame();
+
+    for (int i = 0; i < bytes.length; i++) {
+      ours.update(bytes[i]);
+      theirs.update(bytes[i]);
+      checkSame();
+    }
+
+    theirs.reset();
+    ours.reset();
+
+    ours.update(bytes, 0, bytes.length);
+    theirs.update(bytes, 0, bytes.length);
+    checkSame();
+
+    if (bytes.length >= 10) {
+      ours.update(bytes, 5, 5);
+      theirs.update(bytes, 5, 5);
+      checkSame();
+    }
+  }
+
+  private void checkSame() {
+    Assert.assertEquals(theirs.getValue(), ours.getValue());
+  }
+
+  /** A bit at a time reference implementation of CRC32C. */
+  static class BitwiseCrc32C implements Checksum {
+    private int crc = 0xffffffff;
+
+    public long getValue() {
+      return (~crc) & 0xffffffffL;
+    }
+
+    public void reset() {
+      crc = 0xffffffff;
+    }
+
+    public void update(byte[] b, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        update(b[i]);
+      }
+    }
+
+    public void update(int b) {
+      crc ^= b & 0xff;
+      for (int j = 0; j < 8; j++) {
+        crc = (crc & 1) == 1 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+      }
+    }
+  }
+
+  /**
+   * Compares the throughput of the built-in CRC32, PureJavaCrc32 and
+   * PureJavaCrc32C over the chunk sizes used by HDFS. Run it with:
+   *
+   *   java -cp path/to/test/classes:path/to/common/classes \
+   *      'org.apache.hadoop.util.TestPureJavaCrc32C$PerformanceTest'
+   */
+  public static class PerformanceTest {
+    public static final int BYTES_PER_SIZE = 256*1024*1024;
+
+    public static void main(String args[]) {
+      final Checksum[] crcs = {
+          new CRC32(), new PureJavaCrc32(), new PureJavaCrc32C()};
+      final byte[] bytes = new byte[64*1024];
+      new Random().nextBytes(bytes);
+      final PrintStream out = System.out;
+
+      out.printf("%10s", "Num Bytes");
+      for (Checksum c : crcs) {
+        out.printf(" %15s", c.getClass().getSimpleName());
+      }
+      out.printf("   (MB/sec)\n");
+      // warm up
+      for (Checksum c : crcs) {
+        doBench(c, bytes, 512);
+        doBench(c, bytes, 4096);
+      }
+      for (int size = 64; size <= bytes.length; size *= 4) {
+        out.printf("%10d", size);
+        for (Checksum c : crcs) {
+          out.printf(" %15.1f", doBench(c, bytes, size));
+        }
+        out.printf("\n");
+      }
+    }
+
+    private static double doBench(Checksum crc, byte[] bytes, int size) {
+      final int trials = BYTES_PER_SIZE / size;
+      final long st = System.nanoTime();
+      for (int i = 0; i < trials; i++) {
+        crc.reset();
+        crc.update(bytes, 0, size);
+      }
+      final long et = System.nanoTime();
+      return trials * (double)size / 1024 / 1024 / ((et - st) / 1e9);
+    }
+  }
+}